@@ -36,5 +36,16 @@ public enum BloomType {
   /**
    * Bloom enabled with Table row &amp; column (family+qualifier) as Key
    */
-  ROWCOL
+  ROWCOL,
+  /**
+   * Bloom enabled with the first bytes of the Table row as Key. The number of bytes is set by
+   * RowPrefixBloomFilter.prefix_length in the column family configuration
+   */
+  ROWPREFIX_FIXED_LENGTH,
+  /**
+   * Bloom enabled with the Table row up to and including the first delimiter as Key, or the whole
+   * row if it has no delimiter. The delimiter is set by RowPrefixDelimitedBloomFilter.delimiter in
+   * the column family configuration
+   */
+  ROWPREFIX_DELIMITED
 }
@@ -197,6 +197,66 @@ public final class CellUtil {
     return destinationOffset + tlen;
   }
 
+  public static int copyRowTo(Cell cell, ByteBuffer destination, int destinationOffset) {
+    short rowLen = cell.getRowLength();
+    if (cell instanceof ByteBufferedCell) {
+      ByteBufferUtils.copyFromBufferToBuffer(((ByteBufferedCell) cell).getRowByteBuffer(),
+          destination, ((ByteBufferedCell) cell).getRowPosition(), destinationOffset, rowLen);
+    } else {
+      ByteBufferUtils.copyFromArrayToBuffer(destination, destinationOffset, cell.getRowArray(),
+          cell.getRowOffset(), rowLen);
+    }
+    return destinationOffset + rowLen;
+  }
+
+  public static int copyFamilyTo(Cell cell, ByteBuffer destination, int destinationOffset) {
+    byte fLen = cell.getFamilyLength();
+    if (cell instanceof ByteBufferedCell) {
+      ByteBufferUtils.copyFromBufferToBuffer(((ByteBufferedCell) cell).getFamilyByteBuffer(),
+          destination, ((ByteBufferedCell) cell).getFamilyPosition(), destinationOffset, fLen);
+    } else {
+      ByteBufferUtils.copyFromArrayToBuffer(destination, destinationOffset,
+          cell.getFamilyArray(), cell.getFamilyOffset(), fLen);
+    }
+    return destinationOffset + fLen;
+  }
+
+  public static int copyQualifierTo(Cell cell, ByteBuffer destination, int destinationOffset) {
+    int qlen = cell.getQualifierLength();
+    if (cell instanceof ByteBufferedCell) {
+      ByteBufferUtils.copyFromBufferToBuffer(((ByteBufferedCell) cell).getQualifierByteBuffer(),
+          destination, ((ByteBufferedCell) cell).getQualifierPosition(), destinationOffset, qlen);
+    } else {
+      ByteBufferUtils.copyFromArrayToBuffer(destination, destinationOffset,
+          cell.getQualifierArray(), cell.getQualifierOffset(), qlen);
+    }
+    return destinationOffset + qlen;
+  }
+
+  public static int copyValueTo(Cell cell, ByteBuffer destination, int destinationOffset) {
+    int vlen = cell.getValueLength();
+    if (cell instanceof ByteBufferedCell) {
+      ByteBufferUtils.copyFromBufferToBuffer(((ByteBufferedCell) cell).getValueByteBuffer(),
+          destination, ((ByteBufferedCell) cell).getValuePosition(), destinationOffset, vlen);
+    } else {
+      ByteBufferUtils.copyFromArrayToBuffer(destination, destinationOffset, cell.getValueArray(),
+          cell.getValueOffset(), vlen);
+    }
+    return destinationOffset + vlen;
+  }
+
+  public static int copyTagTo(Cell cell, ByteBuffer destination, int destinationOffset) {
+    int tlen = cell.getTagsLength();
+    if (cell instanceof ByteBufferedCell) {
+      ByteBufferUtils.copyFromBufferToBuffer(((ByteBufferedCell) cell).getTagsByteBuffer(),
+          destination, ((ByteBufferedCell) cell).getTagsPosition(), destinationOffset, tlen);
+    } else {
+      ByteBufferUtils.copyFromArrayToBuffer(destination, destinationOffset, cell.getTagsArray(),
+          cell.getTagsOffset(), tlen);
+    }
+    return destinationOffset + tlen;
+  }
+
   /********************* misc *************************************/
 
   public static byte getRowByte(Cell cell, int index) {
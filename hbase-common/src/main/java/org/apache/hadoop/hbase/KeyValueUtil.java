@@ -156,6 +156,40 @@ public class KeyValueUtil {
     return pos;
   }
 
+  /**
+   * Copies the cell, serialized as in {@link KeyValue}, into the given buffer starting at the given
+   * offset. The position of the buffer is not changed.
+   * @return the offset in the buffer following the copied cell
+   */
+  public static int appendTo(final Cell cell, final ByteBuffer buf, final int offset) {
+    if (buf.hasArray()) {
+      return appendToByteArray(cell, buf.array(), buf.arrayOffset() + offset) - buf.arrayOffset();
+    }
+    int pos = offset;
+    buf.putInt(pos, keyLength(cell));
+    pos += Bytes.SIZEOF_INT;
+    buf.putInt(pos, cell.getValueLength());
+    pos += Bytes.SIZEOF_INT;
+    buf.putShort(pos, cell.getRowLength());
+    pos += Bytes.SIZEOF_SHORT;
+    pos = CellUtil.copyRowTo(cell, buf, pos);
+    buf.put(pos, cell.getFamilyLength());
+    pos += Bytes.SIZEOF_BYTE;
+    pos = CellUtil.copyFamilyTo(cell, buf, pos);
+    pos = CellUtil.copyQualifierTo(cell, buf, pos);
+    buf.putLong(pos, cell.getTimestamp());
+    pos += Bytes.SIZEOF_LONG;
+    buf.put(pos, cell.getTypeByte());
+    pos += Bytes.SIZEOF_BYTE;
+    pos = CellUtil.copyValueTo(cell, buf, pos);
+    if (cell.getTagsLength() > 0) {
+      buf.putShort(pos, (short) cell.getTagsLength());
+      pos += Bytes.SIZEOF_SHORT;
+      pos = CellUtil.copyTagTo(cell, buf, pos);
+    }
+    return pos;
+  }
+
   /**
    * The position will be set to the beginning of the new ByteBuffer
    * @param cell
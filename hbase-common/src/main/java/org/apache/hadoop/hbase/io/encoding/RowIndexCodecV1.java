@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Keeps the cells in the KeyValue format, and appends to the block the offsets of the first cells
+ * of its rows, so that a seek binary searches the rows of the block rather than walking all its
+ * cells. The cells are read in place from the block. A block is laid out as:
+ * <ul>
+ * <li>the size of the cells, an int;</li>
+ * <li>the cells, each as a KeyValue followed by the length of its tags (a short) and its tags if
+ * the file has tags, and its memstore timestamp (a vlong) if the file has them;</li>
+ * <li>the number of rows, an int;</li>
+ * <li>the offsets of the first cells of the rows from the first cell, an int each.</li>
+ * </ul>
+ * The tags are never compressed.
+ */
+@InterfaceAudience.Private
+public class RowIndexCodecV1 extends BufferedDataBlockEncoder {
+
+  private static class RowIndexEncodingState extends BufferedDataBlockEncodingState {
+    int[] rowOffsets = new int[64];
+    int rowCount = 0;
+  }
+
+  @Override
+  public void startBlockEncoding(HFileBlockEncodingContext blkEncodingCtx, DataOutputStream out)
+      throws IOException {
+    super.startBlockEncoding(blkEncodingCtx, out);
+    blkEncodingCtx.setEncodingState(new RowIndexEncodingState());
+  }
+
+  @Override
+  public int internalEncode(Cell cell, HFileBlockDefaultEncodingContext encodingContext,
+      DataOutputStream out) throws IOException {
+    RowIndexEncodingState state = (RowIndexEncodingState) encodingContext.getEncodingState();
+    if (state.prevCell == null || !CellUtil.matchingRows(state.prevCell, cell)) {
+      if (state.rowCount == state.rowOffsets.length) {
+        state.rowOffsets = Arrays.copyOf(state.rowOffsets, state.rowCount * 2);
+      }
+      state.rowOffsets[state.rowCount++] = state.unencodedDataSizeWritten;
+    }
+    state.prevCell = cell;
+
+    int klength = KeyValueUtil.keyLength(cell);
+    int vlength = cell.getValueLength();
+    out.writeInt(klength);
+    out.writeInt(vlength);
+    CellUtil.writeFlatKey(cell, out);
+    CellUtil.writeValue(out, cell, vlength);
+    int size = klength + vlength + KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE;
+    if (encodingContext.getHFileContext().isIncludesTags()) {
+      int tagsLength = cell.getTagsLength();
+      out.writeShort(tagsLength);
+      if (tagsLength > 0) {
+        CellUtil.writeTags(out, cell, tagsLength);
+      }
+      size += tagsLength + KeyValue.TAGS_LENGTH_SIZE;
+    }
+    if (encodingContext.getHFileContext().isIncludesMvcc()) {
+      WritableUtils.writeVLong(out, cell.getSequenceId());
+      size += WritableUtils.getVIntSize(cell.getSequenceId());
+    }
+    return size;
+  }
+
+  @Override
+  public void endBlockEncoding(HFileBlockEncodingContext encodingCtx, DataOutputStream out,
+      byte[] uncompressedBytesWithHeader) throws IOException {
+    RowIndexEncodingState state = (RowIndexEncodingState) encodingCtx.getEncodingState();
+    // Puts the size of the cells in the block first, the row index may not fit in the array
+    super.endBlockEncoding(encodingCtx, out, uncompressedBytesWithHeader);
+    out.writeInt(state.rowCount);
+    for (int i = 0; i < state.rowCount; i++) {
+      out.writeInt(state.rowOffsets[i]);
+    }
+  }
+
+  @Override
+  public Cell getFirstKeyCellInBlock(ByteBuff block) {
+    block.mark();
+    block.skip(Bytes.SIZEOF_INT);
+    int keyLength = block.getInt();
+    block.skip(Bytes.SIZEOF_INT); // valueLength
+    ByteBuffer key = block.asSubByteBuffer(keyLength).duplicate();
+    block.reset();
+    return createFirstKeyCell(key, keyLength);
+  }
+
+  @Override
+  public String toString() {
+    return RowIndexCodecV1.class.getSimpleName();
+  }
+
+  @Override
+  public EncodedSeeker createSeeker(CellComparator comparator,
+      HFileBlockDecodingContext decodingCtx) {
+    return new RowIndexSeekerV1(comparator, decodingCtx);
+  }
+
+  @Override
+  protected ByteBuffer internalDecodeKeyValues(DataInputStream source, int allocateHeaderLength,
+      int skipLastBytes, HFileBlockDefaultDecodingContext decodingCtx) throws IOException {
+    // The cells are stored as they are decoded, the row index is left out
+    int decompressedSize = source.readInt();
+    ByteBuffer buffer = ByteBuffer.allocate(decompressedSize + allocateHeaderLength);
+    buffer.position(allocateHeaderLength);
+    ByteBufferUtils.copyFromStreamToBuffer(buffer, source, decompressedSize);
+    return buffer;
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.ByteBufferedKeyOnlyKeyValue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.NoTagsKeyValue;
+import org.apache.hadoop.hbase.OffheapKeyValue;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoder.EncodedSeeker;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ObjectIntPair;
+
+/**
+ * Seeker of the blocks encoded by {@link RowIndexCodecV1}. A seek binary searches the row index
+ * of the block for the last row starting before the key, then walks the cells from there. The
+ * keys compared and the cells returned are read in place from the block.
+ */
+@InterfaceAudience.Private
+class RowIndexSeekerV1 implements EncodedSeeker {
+
+  private final CellComparator comparator;
+  private final HFileBlockDecodingContext decodingCtx;
+  // A temp pair object which will be reused by ByteBuff#asSubByteBuffer calls
+  private final ObjectIntPair<ByteBuffer> tmpPair = new ObjectIntPair<ByteBuffer>();
+  // The keys compared, on heap or off heap as the block is
+  private final KeyValue.KeyOnlyKeyValue keyOnlyKV = new KeyValue.KeyOnlyKeyValue();
+  private final ByteBufferedKeyOnlyKeyValue byteBufferedKeyOnlyKV =
+      new ByteBufferedKeyOnlyKeyValue();
+
+  // The cells of the block
+  private ByteBuff currentBuffer;
+  // The block, and where its row index starts in it
+  private ByteBuff blockBuffer;
+  private int rowIndexOffset;
+  private int rowCount;
+
+  private SeekerState current = new SeekerState();
+  private SeekerState previous = new SeekerState(); // may not be valid
+
+  RowIndexSeekerV1(CellComparator comparator, HFileBlockDecodingContext decodingCtx) {
+    this.comparator = comparator;
+    this.decodingCtx = decodingCtx;
+  }
+
+  /**
+   * The position of a cell in the block
+   */
+  private static class SeekerState {
+    private int offset = -1;
+    private int keyLength;
+    private int valueLength;
+    private int tagsLength;
+    private long memstoreTS;
+    private int nextKvOffset;
+
+    private boolean isValid() {
+      return offset >= 0;
+    }
+
+    private void invalidate() {
+      offset = -1;
+    }
+
+    private void copyFrom(SeekerState other) {
+      offset = other.offset;
+      keyLength = other.keyLength;
+      valueLength = other.valueLength;
+      tagsLength = other.tagsLength;
+      memstoreTS = other.memstoreTS;
+      nextKvOffset = other.nextKvOffset;
+    }
+  }
+
+  private boolean includesMvcc() {
+    return this.decodingCtx.getHFileContext().isIncludesMvcc();
+  }
+
+  private boolean includesTags() {
+    return this.decodingCtx.getHFileContext().isIncludesTags();
+  }
+
+  @Override
+  public void setCurrentBuffer(ByteBuff buffer) {
+    int dataOffset = buffer.position() + Bytes.SIZEOF_INT;
+    int dataSize = buffer.getInt(buffer.position());
+    ByteBuff data = buffer.duplicate();
+    data.position(dataOffset);
+    data.limit(dataOffset + dataSize);
+    currentBuffer = data.slice();
+    blockBuffer = buffer;
+    rowCount = buffer.getInt(dataOffset + dataSize);
+    rowIndexOffset = dataOffset + dataSize + Bytes.SIZEOF_INT;
+    decodeNext();
+    previous.invalidate();
+  }
+
+  private int getRowOffset(int row) {
+    return blockBuffer.getInt(rowIndexOffset + row * Bytes.SIZEOF_INT);
+  }
+
+  private void decodeNext() {
+    current.offset = currentBuffer.position();
+    current.keyLength = currentBuffer.getInt();
+    current.valueLength = currentBuffer.getInt();
+    currentBuffer.skip(current.keyLength + current.valueLength);
+    if (includesTags()) {
+      // Read short as unsigned, high byte first
+      current.tagsLength = ((currentBuffer.get() & 0xff) << 8) ^ (currentBuffer.get() & 0xff);
+      currentBuffer.skip(current.tagsLength);
+    } else {
+      current.tagsLength = 0;
+    }
+    if (includesMvcc()) {
+      current.memstoreTS = ByteBuff.readVLong(currentBuffer);
+    } else {
+      current.memstoreTS = 0;
+    }
+    current.nextKvOffset = currentBuffer.position();
+  }
+
+  /**
+   * @return the key of the cell at the given offset, valid until the next call
+   */
+  private Cell getKeyAt(int offset) {
+    int keyLength = currentBuffer.getInt(offset);
+    currentBuffer.asSubByteBuffer(offset + KeyValue.ROW_OFFSET, keyLength, tmpPair);
+    ByteBuffer buf = tmpPair.getFirst();
+    if (buf.hasArray()) {
+      keyOnlyKV.setKey(buf.array(), buf.arrayOffset() + tmpPair.getSecond(), keyLength);
+      return keyOnlyKV;
+    }
+    byteBufferedKeyOnlyKV.setKey(buf, tmpPair.getSecond(), keyLength);
+    return byteBufferedKeyOnlyKV;
+  }
+
+  @Override
+  public Cell getKey() {
+    byte[] key = new byte[current.keyLength];
+    currentBuffer.get(current.offset + KeyValue.ROW_OFFSET, key, 0, current.keyLength);
+    return new KeyValue.KeyOnlyKeyValue(key);
+  }
+
+  @Override
+  public ByteBuffer getValueShallowCopy() {
+    currentBuffer.asSubByteBuffer(current.offset + KeyValue.ROW_OFFSET + current.keyLength,
+      current.valueLength, tmpPair);
+    ByteBuffer dup = tmpPair.getFirst().duplicate();
+    dup.position(tmpPair.getSecond());
+    dup.limit(tmpPair.getSecond() + current.valueLength);
+    return dup.slice();
+  }
+
+  @Override
+  public Cell getCell() {
+    int cellLength = KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE + current.keyLength
+        + current.valueLength;
+    if (includesTags()) {
+      cellLength += KeyValue.TAGS_LENGTH_SIZE + current.tagsLength;
+    }
+    currentBuffer.asSubByteBuffer(current.offset, cellLength, tmpPair);
+    ByteBuffer buf = tmpPair.getFirst();
+    if (buf.isDirect()) {
+      return new OffheapKeyValue(buf, tmpPair.getSecond(), cellLength, current.tagsLength > 0,
+          current.memstoreTS);
+    }
+    KeyValue kv;
+    int offset = buf.arrayOffset() + tmpPair.getSecond();
+    if (current.tagsLength > 0) {
+      kv = new KeyValue(buf.array(), offset, cellLength);
+    } else {
+      kv = new NoTagsKeyValue(buf.array(), offset, cellLength);
+    }
+    kv.setSequenceId(current.memstoreTS);
+    return kv;
+  }
+
+  @Override
+  public void rewind() {
+    currentBuffer.rewind();
+    decodeNext();
+    previous.invalidate();
+  }
+
+  @Override
+  public boolean next() {
+    if (!currentBuffer.hasRemaining()) {
+      return false;
+    }
+    decodeNext();
+    previous.invalidate();
+    return true;
+  }
+
+  /**
+   * @return the last row whose first cell is before the key, or at it if seekBefore is false,
+   *         -1 if there is none
+   */
+  private int binarySearchRows(Cell seekCell, boolean seekBefore) {
+    int low = 0;
+    int high = rowCount - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int comp = comparator.compareKeyIgnoresMvcc(seekCell, getKeyAt(getRowOffset(mid)));
+      if (comp > 0 || (comp == 0 && !seekBefore)) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public int seekToKeyInBlock(Cell seekCell, boolean seekBefore) {
+    int row = binarySearchRows(seekCell, seekBefore);
+    currentBuffer.position(row < 0 ? 0 : getRowOffset(row));
+    decodeNext();
+    previous.invalidate();
+    do {
+      int comp = comparator.compareKeyIgnoresMvcc(seekCell, getKeyAt(current.offset));
+      if (comp == 0) { // exact match
+        if (seekBefore) {
+          if (!previous.isValid()) {
+            // The caller (seekBefore) has to ensure that we are not at the
+            // first key in the block.
+            throw new IllegalStateException("Cannot seekBefore if "
+                + "positioned at the first key in the block: key="
+                + Bytes.toStringBinary(seekCell.getRowArray()));
+          }
+          moveToPrevious();
+          return 1;
+        }
+        return 0;
+      }
+
+      if (comp < 0) { // already too large, check previous
+        if (previous.isValid()) {
+          moveToPrevious();
+        } else {
+          return HConstants.INDEX_KEY_MAGIC; // using optimized index key
+        }
+        return 1;
+      }
+
+      // move to next, if more data is available
+      if (currentBuffer.hasRemaining()) {
+        previous.copyFrom(current);
+        decodeNext();
+      } else {
+        break;
+      }
+    } while (true);
+
+    // we hit the end of the block, not an exact match
+    return 1;
+  }
+
+  private void moveToPrevious() {
+    if (!previous.isValid()) {
+      throw new IllegalStateException(
+          "Can move back only once and not in first key in the block.");
+    }
+    SeekerState tmp = previous;
+    previous = current;
+    current = tmp;
+    // move after last key value
+    currentBuffer.position(current.nextKvOffset);
+    previous.invalidate();
+  }
+
+  @Override
+  public int compareKey(CellComparator comparator, Cell key) {
+    return comparator.compareKeyIgnoresMvcc(key, getKeyAt(current.offset));
+  }
+}
@@ -36,6 +36,10 @@ public class HeapMemorySizeUtil {
       "hbase.regionserver.global.memstore.size.lower.limit";
   public static final String MEMSTORE_SIZE_LOWER_LIMIT_OLD_KEY =
       "hbase.regionserver.global.memstore.lowerLimit";
+  // Size, in MB, of the off heap memory given to the memstores of a RegionServer. When set, the
+  // MSLAB chunks are allocated off heap.
+  public static final String OFFHEAP_MEMSTORE_SIZE_KEY =
+      "hbase.regionserver.offheap.global.memstore.size";
 
   public static final float DEFAULT_MEMSTORE_SIZE = 0.4f;
   // Default lower water mark limit is 95% size of memstore size.
@@ -89,6 +93,19 @@ public class HeapMemorySizeUtil {
     return limit;
   }
 
+  /**
+   * Retrieve the configured size of the off heap global memstore.
+   * @param conf
+   * @return the off heap global memstore size in bytes; 0 when the memstore is kept on heap
+   */
+  public static long getOffheapGlobalMemstoreSize(final Configuration conf) {
+    long offheapMSGlobalSize = conf.getLong(OFFHEAP_MEMSTORE_SIZE_KEY, 0); // in MBs
+    if (offheapMSGlobalSize < 0) {
+      throw new IllegalArgumentException(OFFHEAP_MEMSTORE_SIZE_KEY + " must not be negative");
+    }
+    return offheapMSGlobalSize * 1024 * 1024;
+  }
+
   /**
    * Retrieve configured size for global memstore lower water mark as fraction of global memstore
    * size.
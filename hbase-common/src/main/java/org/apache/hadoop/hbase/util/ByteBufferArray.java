@@ -54,9 +54,34 @@ public final class ByteBufferArray {
    */
   public ByteBufferArray(long capacity, boolean directByteBuffer, ByteBufferAllocator allocator)
       throws IOException {
+    this(capacity, directByteBuffer, allocator, 0);
+  }
+
+  /**
+   * Like {@link #ByteBufferArray(long, boolean, ByteBufferAllocator)}, but makes the size of each
+   * buffer a multiple of the given alignment. A range of bytes that starts at a multiple of the
+   * alignment and is no longer than it is then always held by a single buffer, so
+   * {@link #asSubByteBuff(long, int)} returns a {@link SingleByteBuff} for it.
+   * @param capacity total size of the byte buffer array
+   * @param directByteBuffer true if we allocate direct buffer
+   * @param allocator the ByteBufferAllocator that will create the buffers
+   * @param alignment the size each buffer should be a multiple of, or 0 for no alignment
+   * @throws IOException throws IOException if there is an exception thrown by the allocator
+   */
+  public ByteBufferArray(long capacity, boolean directByteBuffer, ByteBufferAllocator allocator,
+      long alignment) throws IOException {
     this.bufferSize = DEFAULT_BUFFER_SIZE;
     if (this.bufferSize > (capacity / 16))
       this.bufferSize = (int) roundUp(capacity / 16, 32768);
+    if (alignment > 0) {
+      long alignedSize = roundUp(this.bufferSize, alignment);
+      if (alignedSize <= Integer.MAX_VALUE) {
+        this.bufferSize = (int) alignedSize;
+      } else {
+        LOG.warn("Not aligning buffers to " + alignment + " bytes, as the buffer size would be "
+            + alignedSize);
+      }
+    }
     this.bufferCount = (int) (roundUp(capacity, bufferSize) / bufferSize);
     LOG.info("Allocating buffers total=" + StringUtils.byteDesc(capacity)
         + ", sizePerBuffer=" + StringUtils.byteDesc(bufferSize) + ", count="
@@ -211,8 +236,9 @@ public final class ByteBufferArray {
     long end = offset + len;
     int startBuffer = (int) (offset / bufferSize), startBufferOffset = (int) (offset % bufferSize);
     int endBuffer = (int) (end / bufferSize), endBufferOffset = (int) (end % bufferSize);
-    // Last buffer in the array is a dummy one with 0 capacity. Avoid sending back that
-    if (endBuffer == this.bufferCount) {
+    // A range ending exactly at a buffer boundary needs nothing from the next buffer. This also
+    // avoids sending back the last buffer in the array, which is a dummy one with 0 capacity
+    if (endBufferOffset == 0 && endBuffer > startBuffer) {
       endBuffer--;
       endBufferOffset = bufferSize;
     }
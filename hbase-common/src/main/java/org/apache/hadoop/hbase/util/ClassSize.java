@@ -108,6 +108,18 @@ public class ClassSize {
   /** Overhead for CellSkipListSet */
   public static final int CELL_SKIPLIST_SET;
 
+  /** Overhead for CellArrayMap */
+  public static final int CELL_ARRAY_MAP;
+
+  /** Overhead for Cell Array Entry */
+  public static final int CELL_ARRAY_MAP_ENTRY;
+
+  /** Overhead for CellChunkMap */
+  public static final int CELL_CHUNK_MAP;
+
+  /** Size of a Cell Chunk Map Entry: chunk id, offset, length and sequence id */
+  public static final int CELL_CHUNK_MAP_ENTRY;
+
   public static final int STORE_SERVICES;
 
   /* Are we running on jdk7? */
@@ -284,6 +296,16 @@ public class ClassSize {
 
     CELL_SKIPLIST_SET = align(OBJECT + REFERENCE);
 
+    CELL_ARRAY_MAP = align(OBJECT + 2 * Bytes.SIZEOF_INT + Bytes.SIZEOF_BOOLEAN
+        + 2 * REFERENCE + ARRAY);
+
+    CELL_ARRAY_MAP_ENTRY = REFERENCE;
+
+    CELL_CHUNK_MAP = align(OBJECT + 3 * Bytes.SIZEOF_INT + Bytes.SIZEOF_BOOLEAN
+        + 3 * REFERENCE + ARRAY);
+
+    CELL_CHUNK_MAP_ENTRY = 3 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG;
+
     STORE_SERVICES = align(OBJECT + REFERENCE + ATOMIC_LONG);
   }
 
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hbase.util;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -24,6 +25,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
 import org.apache.hadoop.hbase.testclassification.MiscTests;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
 import org.junit.Test;
@@ -54,4 +56,28 @@ public class TestByteBufferArray {
     subBuf.get();
     assertFalse(subBuf.hasRemaining());
   }
+
+  @Test
+  public void testAsSubBufferWithinAlignedBuffers() throws Exception {
+    int capacity = 64 * 1024 * 1024;
+    // Not a divisor of the default buffer size, like the bucket capacity of BucketCache
+    int alignment = 3 * 1024 * 1024;
+    ByteBufferAllocator allocator = new ByteBufferAllocator() {
+      @Override
+      public ByteBuffer allocate(long size, boolean directByteBuffer)
+          throws IOException {
+        assertEquals(0, size % (3 * 1024 * 1024));
+        return ByteBuffer.allocate((int) size);
+      }
+    };
+    ByteBufferArray array = new ByteBufferArray(capacity, false, allocator, alignment);
+    for (long offset = 0; offset + alignment <= capacity; offset += alignment) {
+      // A whole aligned range, ending exactly at a buffer boundary for every other range
+      ByteBuff subBuf = array.asSubByteBuff(offset, alignment);
+      assertTrue(subBuf instanceof SingleByteBuff);
+      assertEquals(alignment, subBuf.remaining());
+      subBuf = array.asSubByteBuff(offset + alignment - 1024, 1024);
+      assertTrue(subBuf instanceof SingleByteBuff);
+    }
+  }
 }
@@ -116,6 +116,14 @@ public class MemcachedBlockCache implements BlockCache {
     cacheBlock(cacheKey, buf);
   }
 
+  @Override
+  public void cacheBlockAhead(BlockCacheKey cacheKey,
+                              Cacheable buf,
+                              boolean inMemory,
+                              boolean cacheDataInL1) {
+    cacheBlock(cacheKey, buf);
+  }
+
   @Override
   public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
     if (buf instanceof HFileBlock) {
@@ -278,4 +286,9 @@ public class MemcachedBlockCache implements BlockCache {
     // Not doing reference counting. All blocks here are EXCLUSIVE
   }
 
+  @Override
+  public void readAhead(BlockCacheKey cacheKey) {
+    // Not reading ahead. The blocks are fetched from memcached on request
+  }
+
 }
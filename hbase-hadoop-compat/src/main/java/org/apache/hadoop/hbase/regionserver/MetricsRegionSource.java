@@ -33,6 +33,12 @@ public interface MetricsRegionSource extends Comparable<MetricsRegionSource> {
   String NUM_FILES_COMPACTED_COUNT = "numFilesCompactedCount";
   String COMPACTIONS_COMPLETED_DESC = "Number of compactions that have completed.";
   String COMPACTIONS_FAILED_DESC = "Number of compactions that have failed.";
+  String CACHE_WARMUP_PERCENT = "cacheWarmupPercent";
+  String CACHE_WARMUP_PERCENT_DESC =
+      "Percentage of the blocks cached before the region moved which were loaded in the cache.";
+  String PREFETCH_PERCENT = "prefetchPercent";
+  String PREFETCH_PERCENT_DESC =
+      "Percentage of the store files requested to be prefetched in the cache which are done.";
   String  NUM_BYTES_COMPACTED_DESC =
       "Sum of filesize on all files entering a finished, successful or aborted, compaction";
   String NUM_FILES_COMPACTED_DESC =
@@ -41,6 +47,8 @@ public interface MetricsRegionSource extends Comparable<MetricsRegionSource> {
   String COPROCESSOR_EXECUTION_STATISTICS_DESC = "Statistics for coprocessor execution times";
   String REPLICA_ID = "replicaid";
   String REPLICA_ID_DESC = "The replica ID of a region. 0 is primary, otherwise is secondary";
+  String ROW_LOCK_WAIT_TIME = "rowLockWaitTime";
+  String STORE_FLUSH_TIME = "flushTime";
 
   /**
    * Close the region's metrics as this region is closing.
@@ -80,6 +88,19 @@ public interface MetricsRegionSource extends Comparable<MetricsRegionSource> {
    * */
   void updateScanTime(long mills);
 
+  /**
+   * Update the time spent waiting for a row lock.
+   * @param mills time waited for this row lock, successfully acquired or not.
+   */
+  void updateRowLockWait(long mills);
+
+  /**
+   * Update the time spent writing the snapshot of a store to a file during a flush.
+   * @param family the column family of the store
+   * @param mills time for this store flush.
+   */
+  void updateStoreFlushTime(String family, long mills);
+
   /**
    * Update related counts of increments.
    */
@@ -94,6 +94,18 @@ public interface MetricsRegionWrapper {
    */
   long getNumReferenceFiles();
 
+  /**
+   * @return Percentage of the blocks cached by the server the region moved from which were loaded
+   * in the block cache of this server, 100 if there were none
+   */
+  long getCacheWarmupPercent();
+
+  /**
+   * @return Percentage of the store files of the region requested to be prefetched in the block
+   * cache which are done, 100 if there are none
+   */
+  long getPrefetchPercent();
+
   /**
    * Get the total number of mutations that have been issued against this region.
    */
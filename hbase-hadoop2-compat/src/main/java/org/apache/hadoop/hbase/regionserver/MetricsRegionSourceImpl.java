@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
@@ -54,6 +56,7 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
   private final String regionAppendKey;
   private final String regionScanSizeKey;
   private final String regionScanTimeKey;
+  private final String regionRowLockWaitKey;
 
   private final MutableFastCounter regionPut;
   private final MutableFastCounter regionDelete;
@@ -63,6 +66,10 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
   private final MetricHistogram regionGet;
   private final MetricHistogram regionScanSize;
   private final MetricHistogram regionScanTime;
+  private final MetricHistogram regionRowLockWait;
+  // the flush time histograms of the stores, by column family, created on first flush
+  private final ConcurrentMap<String, MetricHistogram> storeFlushTimes =
+      new ConcurrentHashMap<String, MetricHistogram>();
   private final int hashCode;
 
   public MetricsRegionSourceImpl(MetricsRegionWrapper regionWrapper,
@@ -107,6 +114,9 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
     regionScanTimeKey = regionNamePrefix + MetricsRegionServerSource.SCAN_TIME_KEY;
     regionScanTime = registry.newTimeHistogram(regionScanTimeKey);
 
+    regionRowLockWaitKey = regionNamePrefix + MetricsRegionSource.ROW_LOCK_WAIT_TIME;
+    regionRowLockWait = registry.newTimeHistogram(regionRowLockWaitKey);
+
     hashCode = regionWrapper.getRegionHashCode();
   }
 
@@ -138,10 +148,18 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
       registry.removeMetric(regionGetKey);
       registry.removeMetric(regionScanSizeKey);
       registry.removeMetric(regionScanTimeKey);
+      registry.removeMetric(regionRowLockWaitKey);
       registry.removeHistogramMetrics(regionGetSizeKey);
       registry.removeHistogramMetrics(regionGetKey);
       registry.removeHistogramMetrics(regionScanSizeKey);
       registry.removeHistogramMetrics(regionScanTimeKey);
+      registry.removeHistogramMetrics(regionRowLockWaitKey);
+      for (String family : storeFlushTimes.keySet()) {
+        String key = getStoreFlushTimeKey(family);
+        registry.removeMetric(key);
+        registry.removeHistogramMetrics(key);
+      }
+      storeFlushTimes.clear();
 
       regionWrapper = null;
     }
@@ -177,6 +195,33 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
     regionScanTime.add(mills);
   }
 
+  @Override
+  public void updateRowLockWait(long mills) {
+    regionRowLockWait.add(mills);
+  }
+
+  @Override
+  public void updateStoreFlushTime(String family, long mills) {
+    MetricHistogram storeFlushTime = storeFlushTimes.get(family);
+    if (storeFlushTime == null) {
+      synchronized (this) {
+        if (closed.get()) {
+          return;
+        }
+        storeFlushTime = storeFlushTimes.get(family);
+        if (storeFlushTime == null) {
+          storeFlushTime = registry.newTimeHistogram(getStoreFlushTimeKey(family));
+          storeFlushTimes.put(family, storeFlushTime);
+        }
+      }
+    }
+    storeFlushTime.add(mills);
+  }
+
+  private String getStoreFlushTimeKey(String family) {
+    return regionNamePrefix + "store_" + family + "_" + MetricsRegionSource.STORE_FLUSH_TIME;
+  }
+
   @Override
   public void updateIncrement() {
     regionIncrement.incr();
@@ -256,6 +301,14 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
         regionNamePrefix + MetricsRegionServerSource.NUM_REFERENCE_FILES,
         MetricsRegionServerSource.NUM_REFERENCE_FILES_DESC),
         this.regionWrapper.getNumReferenceFiles());
+      mrb.addGauge(Interns.info(
+        regionNamePrefix + MetricsRegionSource.CACHE_WARMUP_PERCENT,
+        MetricsRegionSource.CACHE_WARMUP_PERCENT_DESC),
+        this.regionWrapper.getCacheWarmupPercent());
+      mrb.addGauge(Interns.info(
+        regionNamePrefix + MetricsRegionSource.PREFETCH_PERCENT,
+        MetricsRegionSource.PREFETCH_PERCENT_DESC),
+        this.regionWrapper.getPrefetchPercent());
       mrb.addGauge(Interns.info(
               regionNamePrefix + MetricsRegionServerSource.STOREFILE_SIZE,
               MetricsRegionServerSource.STOREFILE_SIZE_DESC),
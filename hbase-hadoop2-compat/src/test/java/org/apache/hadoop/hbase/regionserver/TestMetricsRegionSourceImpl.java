@@ -131,6 +131,16 @@ public class TestMetricsRegionSourceImpl {
       return 0;
     }
 
+    @Override
+    public long getCacheWarmupPercent() {
+      return 100;
+    }
+
+    @Override
+    public long getPrefetchPercent() {
+      return 100;
+    }
+
     @Override
     public long getWriteRequestCount() {
       return 0;
@@ -284,6 +284,11 @@ public class HalfStoreFileReader extends StoreFileReader {
         return null;
       }
 
+      @Override
+      public void setTimeRange(long minStamp, long maxStamp) {
+        this.delegate.setTimeRange(minStamp, maxStamp);
+      }
+
       @Override
       public void close() {
         this.delegate.close();
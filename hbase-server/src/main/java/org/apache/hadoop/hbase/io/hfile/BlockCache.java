@@ -47,6 +47,19 @@ public interface BlockCache extends Iterable<CachedBlock> {
    */
   void cacheBlock(BlockCacheKey cacheKey, Cacheable buf);
 
+  /**
+   * Add block to cache ahead of any request for it, when it is written or prefetched. Unlike
+   * {@link #cacheBlock(BlockCacheKey, Cacheable, boolean, boolean)}, the block is not subject to
+   * the admission filter of the cache if any, which has never seen a request for it.
+   * @param cacheKey The block's cache key.
+   * @param buf The block contents wrapped in a ByteBuffer.
+   * @param inMemory Whether block should be treated as in-memory
+   * @param cacheDataInL1 If multi-tier block cache deploy -- i.e. has an L1 and L2 tier -- then
+   * if this flag is true, cache data blocks up in the L1 tier.
+   */
+  void cacheBlockAhead(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      boolean cacheDataInL1);
+
   /**
    * Fetch block from cache.
    * @param cacheKey Block to fetch.
@@ -129,4 +142,12 @@ public interface BlockCache extends Iterable<CachedBlock> {
    * @param block the hfileblock to be returned
    */
   void returnBlock(BlockCacheKey cacheKey, Cacheable block);
+
+  /**
+   * Hints that the given block is likely to be requested soon, such as the block following the
+   * one a scanner just moved to, so that the cache may read it ahead of the request. The caches
+   * which do not have to read their blocks from a device ignore it.
+   * @param cacheKey the cache key of the block
+   */
+  void readAhead(BlockCacheKey cacheKey);
 }
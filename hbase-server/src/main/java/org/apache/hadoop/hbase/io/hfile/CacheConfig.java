@@ -100,6 +100,14 @@ public class CacheConfig {
   public static final String BUCKET_CACHE_PERSISTENT_PATH_KEY = 
       "hbase.bucketcache.persistent.path";
 
+  /**
+   * The period, in milliseconds, at which the map of what is in the data file is persisted to
+   * {@link #BUCKET_CACHE_PERSISTENT_PATH_KEY} besides at shutdown, so that the bucket cache comes
+   * back mostly warm after a crash too. 0 only persists it at shutdown.
+   */
+  public static final String BUCKET_CACHE_PERSISTENCE_INTERVAL_KEY =
+      "hbase.bucketcache.persistence.interval";
+
   /**
    * If the bucket cache is used in league with the lru on-heap block cache (meta blocks such
    * as indices and blooms are kept in the lru blockcache and the data blocks in the
@@ -112,6 +120,44 @@ public class CacheConfig {
   public static final String BUCKET_CACHE_WRITER_QUEUE_KEY = 
       "hbase.bucketcache.writer.queuelength";
 
+  /**
+   * The time, in milliseconds, to wait for room in the writer queues of the bucket cache when they
+   * are all full, before dropping the block. Waiting holds the threads caching the blocks, e.g. on
+   * write during flushes and compactions, to the pace of the IO engine. 0 drops the blocks
+   * right away.
+   */
+  public static final String BUCKET_CACHE_WRITER_WAIT_TIME_KEY =
+      "hbase.bucketcache.writer.wait.time";
+
+  /**
+   * The number of threads reading the blocks of the bucket cache ahead of the scans. 0 reads the
+   * blocks on request only. Only used with the file IO engines.
+   */
+  public static final String BUCKET_CACHE_READER_THREADS_KEY = "hbase.bucketcache.reader.threads";
+
+  /**
+   * The period, in milliseconds, at which the blocks of a sparsely used bucket are moved to the
+   * other buckets of their size when no bucket is completely free, so that the sizes which are
+   * short of space can take it. 0, the default, never moves blocks.
+   */
+  public static final String BUCKET_CACHE_COMPACTION_INTERVAL_KEY =
+      "hbase.bucketcache.compaction.interval";
+
+  /**
+   * The highest ratio of the items of a bucket which may be used for its blocks to be moved.
+   */
+  public static final String BUCKET_CACHE_COMPACTION_MAX_OCCUPANCY_KEY =
+      "hbase.bucketcache.compaction.max.occupancy";
+
+  /**
+   * Configuration key to cache data blocks in compressed and/or encrypted format in the L2 tier
+   * only, e.g. the bucket cache. The blocks take less of the cache there, and are unpacked on
+   * each read. Only used when the data blocks are cached in the L2 tier alone, that is with a
+   * non-inclusive combined cache and the data blocks not cached in L1.
+   */
+  public static final String BUCKET_CACHE_DATA_COMPRESSED_KEY =
+      "hbase.bucketcache.data.cachecompressed";
+
   /**
    * A comma-delimited array of values for use as bucket sizes.
    */
@@ -123,6 +169,12 @@ public class CacheConfig {
   public static final boolean DEFAULT_BUCKET_CACHE_COMBINED = true;
   public static final int DEFAULT_BUCKET_CACHE_WRITER_THREADS = 3;
   public static final int DEFAULT_BUCKET_CACHE_WRITER_QUEUE = 64;
+  public static final int DEFAULT_BUCKET_CACHE_WRITER_WAIT_TIME = 0;
+  public static final long DEFAULT_BUCKET_CACHE_PERSISTENCE_INTERVAL = 5 * 60 * 1000;
+  public static final int DEFAULT_BUCKET_CACHE_READER_THREADS = 0;
+  public static final boolean DEFAULT_BUCKET_CACHE_DATA_COMPRESSED = false;
+  public static final long DEFAULT_BUCKET_CACHE_COMPACTION_INTERVAL = 0;
+  public static final float DEFAULT_BUCKET_CACHE_COMPACTION_MAX_OCCUPANCY = 0.5f;
 
  /**
    * Configuration key to prefetch all blocks of a given file into the block cache
@@ -139,6 +191,15 @@ public class CacheConfig {
    */
   public static final String BLOCKCACHE_BLOCKSIZE_KEY = "hbase.offheapcache.minblocksize";
 
+  /**
+   * The off-heap memory, in megabytes, to keep the blocks of the L1 cache in, an
+   * {@link OffHeapBlockCache} then taking the place of the {@link LruBlockCache}. The cache is
+   * still resized along the share of the heap {@link HConstants#HFILE_BLOCK_CACHE_SIZE_KEY} gives,
+   * in proportion. Zero, the default, keeps the L1 cache on heap.
+   */
+  public static final String OFFHEAP_L1_SIZE_KEY = "hbase.blockcache.l1.offheap.size";
+  public static final int DEFAULT_OFFHEAP_L1_SIZE = 0;
+
   private static final String EXTERNAL_BLOCKCACHE_KEY = "hbase.blockcache.use.external";
   private static final boolean EXTERNAL_BLOCKCACHE_DEFAULT = false;
 
@@ -206,6 +267,9 @@ public class CacheConfig {
   /** Whether data blocks should be stored in compressed and/or encrypted form in the cache */
   private final boolean cacheDataCompressed;
 
+  /** Whether data blocks should be stored in compressed and/or encrypted form in the L2 tier */
+  private final boolean cacheDataCompressedInL2;
+
   /** Whether data blocks should be prefetched into the cache */
   private final boolean prefetchOnOpen;
 
@@ -240,6 +304,7 @@ public class CacheConfig {
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY,
             DEFAULT_EVICT_ON_CLOSE) || family.isEvictBlocksOnClose(),
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_CACHE_DATA_COMPRESSED),
+        conf.getBoolean(BUCKET_CACHE_DATA_COMPRESSED_KEY, DEFAULT_BUCKET_CACHE_DATA_COMPRESSED),
         conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY,
             DEFAULT_PREFETCH_ON_OPEN) || family.isPrefetchBlocksOnOpen(),
         conf.getBoolean(HColumnDescriptor.CACHE_DATA_IN_L1,
@@ -266,6 +331,7 @@ public class CacheConfig {
         conf.getBoolean(CACHE_BLOOM_BLOCKS_ON_WRITE_KEY, DEFAULT_CACHE_BLOOMS_ON_WRITE),
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY, DEFAULT_EVICT_ON_CLOSE),
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_CACHE_DATA_COMPRESSED),
+        conf.getBoolean(BUCKET_CACHE_DATA_COMPRESSED_KEY, DEFAULT_BUCKET_CACHE_DATA_COMPRESSED),
         conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY, DEFAULT_PREFETCH_ON_OPEN),
         conf.getBoolean(HColumnDescriptor.CACHE_DATA_IN_L1,
           HColumnDescriptor.DEFAULT_CACHE_DATA_IN_L1),
@@ -286,6 +352,8 @@ public class CacheConfig {
    * @param cacheBloomsOnWrite whether blooms should be cached on write
    * @param evictOnClose whether blocks should be evicted when HFile is closed
    * @param cacheDataCompressed whether to store blocks as compressed in the cache
+   * @param cacheDataCompressedInL2 whether to store blocks as compressed in the L2 tier, when the
+   * data blocks are only cached there
    * @param prefetchOnOpen whether to prefetch blocks upon open
    * @param cacheDataInL1 If more than one cache tier deployed, if true, cache this column families
    * data blocks up in the L1 tier.
@@ -294,8 +362,9 @@ public class CacheConfig {
       final boolean cacheDataOnRead, final boolean inMemory,
       final boolean cacheDataOnWrite, final boolean cacheIndexesOnWrite,
       final boolean cacheBloomsOnWrite, final boolean evictOnClose,
-      final boolean cacheDataCompressed, final boolean prefetchOnOpen,
-      final boolean cacheDataInL1, final boolean dropBehindCompaction) {
+      final boolean cacheDataCompressed, final boolean cacheDataCompressedInL2,
+      final boolean prefetchOnOpen, final boolean cacheDataInL1,
+      final boolean dropBehindCompaction) {
     this.blockCache = blockCache;
     this.cacheDataOnRead = cacheDataOnRead;
     this.inMemory = inMemory;
@@ -304,6 +373,7 @@ public class CacheConfig {
     this.cacheBloomsOnWrite = cacheBloomsOnWrite;
     this.evictOnClose = evictOnClose;
     this.cacheDataCompressed = cacheDataCompressed;
+    this.cacheDataCompressedInL2 = cacheDataCompressedInL2;
     this.prefetchOnOpen = prefetchOnOpen;
     this.cacheDataInL1 = cacheDataInL1;
     this.dropBehindCompaction = dropBehindCompaction;
@@ -317,7 +387,7 @@ public class CacheConfig {
     this(cacheConf.blockCache, cacheConf.cacheDataOnRead, cacheConf.inMemory,
         cacheConf.cacheDataOnWrite, cacheConf.cacheIndexesOnWrite,
         cacheConf.cacheBloomsOnWrite, cacheConf.evictOnClose,
-        cacheConf.cacheDataCompressed, cacheConf.prefetchOnOpen,
+        cacheConf.cacheDataCompressed, cacheConf.cacheDataCompressedInL2, cacheConf.prefetchOnOpen,
         cacheConf.cacheDataInL1, cacheConf.dropBehindCompaction);
   }
 
@@ -443,7 +513,7 @@ public class CacheConfig {
    * @return true if data blocks should be compressed in the cache, false if not
    */
   public boolean shouldCacheDataCompressed() {
-    return isBlockCacheEnabled() && this.cacheDataOnRead && this.cacheDataCompressed;
+    return isBlockCacheEnabled() && this.cacheDataOnRead && isDataCompressed();
   }
 
   /**
@@ -453,12 +523,25 @@ public class CacheConfig {
     if (!isBlockCacheEnabled()) return false;
     switch (category) {
       case DATA:
-        return this.cacheDataOnRead && this.cacheDataCompressed;
+        return this.cacheDataOnRead && isDataCompressed();
       default:
         return false;
     }
   }
 
+  /**
+   * @return true if the data blocks are stored compressed wherever they are cached
+   */
+  private boolean isDataCompressed() {
+    if (this.cacheDataCompressed) {
+      return true;
+    }
+    // In an inclusive cache the data blocks are cached in L1 as well, unpacked.
+    return this.cacheDataCompressedInL2 && !this.cacheDataInL1
+        && blockCache instanceof CombinedBlockCache
+        && !(blockCache instanceof InclusiveCombinedBlockCache);
+  }
+
   /**
    * @return true if blocks should be prefetched into the cache on open, false if not
    */
@@ -556,15 +639,23 @@ public class CacheConfig {
   /**
    * @param c Configuration to use.
    * @param mu JMX Memory Bean
-   * @return An L1 instance.  Currently an instance of LruBlockCache.
+   * @return An L1 instance, an OffHeapBlockCache if given off-heap memory, a LruBlockCache else.
    */
-  private static LruBlockCache getL1(final Configuration c, final MemoryUsage mu) {
+  private static FirstLevelBlockCache getL1(final Configuration c, final MemoryUsage mu) {
     long lruCacheSize = getLruCacheSize(c, mu);
     if (lruCacheSize < 0) return null;
+    long offHeapSize = c.getLong(OFFHEAP_L1_SIZE_KEY, DEFAULT_OFFHEAP_L1_SIZE) * 1024 * 1024;
+    if (offHeapSize > 0) {
+      LOG.info("Allocating OffHeapBlockCache size=" + StringUtils.byteDesc(offHeapSize) +
+        ", heapShare=" + StringUtils.byteDesc(lruCacheSize));
+      return new OffHeapBlockCache(offHeapSize, lruCacheSize, c);
+    }
     int blockSize = c.getInt(BLOCKCACHE_BLOCKSIZE_KEY, HConstants.DEFAULT_BLOCKSIZE);
     LOG.info("Allocating LruBlockCache size=" +
       StringUtils.byteDesc(lruCacheSize) + ", blockSize=" + StringUtils.byteDesc(blockSize));
-    return new LruBlockCache(lruCacheSize, blockSize, true, c);
+    LruBlockCache lru = new LruBlockCache(lruCacheSize, blockSize, true, c);
+    lru.setAdmissionFilter(TinyLfuAdmissionFilter.create(c, lruCacheSize, blockSize));
+    return lru;
   }
 
   /**
@@ -654,6 +745,17 @@ public class CacheConfig {
       bucketCache = new BucketCache(bucketCacheIOEngineName,
         bucketCacheSize, blockSize, bucketSizes, writerThreads, writerQueueLen, persistentPath,
         ioErrorsTolerationDuration);
+      bucketCache.setAdmissionFilter(
+        TinyLfuAdmissionFilter.create(c, bucketCacheSize, blockSize));
+      bucketCache.setWriterWaitTime(c.getInt(BUCKET_CACHE_WRITER_WAIT_TIME_KEY,
+        DEFAULT_BUCKET_CACHE_WRITER_WAIT_TIME));
+      bucketCache.schedulePersistence(c.getLong(BUCKET_CACHE_PERSISTENCE_INTERVAL_KEY,
+        DEFAULT_BUCKET_CACHE_PERSISTENCE_INTERVAL));
+      bucketCache.startReaderThreads(c.getInt(BUCKET_CACHE_READER_THREADS_KEY,
+        DEFAULT_BUCKET_CACHE_READER_THREADS));
+      bucketCache.scheduleCompaction(c.getLong(BUCKET_CACHE_COMPACTION_INTERVAL_KEY,
+        DEFAULT_BUCKET_CACHE_COMPACTION_INTERVAL), c.getFloat(
+          BUCKET_CACHE_COMPACTION_MAX_OCCUPANCY_KEY, DEFAULT_BUCKET_CACHE_COMPACTION_MAX_OCCUPANCY));
     } catch (IOException ioex) {
       LOG.error("Can't instantiate bucket cache", ioex); throw new RuntimeException(ioex);
     }
@@ -671,7 +773,7 @@ public class CacheConfig {
     if (GLOBAL_BLOCK_CACHE_INSTANCE != null) return GLOBAL_BLOCK_CACHE_INSTANCE;
     if (blockCacheDisabled) return null;
     MemoryUsage mu = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
-    LruBlockCache l1 = getL1(conf, mu);
+    FirstLevelBlockCache l1 = getL1(conf, mu);
     // blockCacheDisabled is set as a side-effect of getL1(), so check it again after the call.
     if (blockCacheDisabled) return null;
     BlockCache l2 = getL2(conf, mu);
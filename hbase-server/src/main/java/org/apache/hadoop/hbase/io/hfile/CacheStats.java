@@ -74,6 +74,12 @@ public class CacheStats {
   /** The total number of blocks that were not inserted. */
   private final AtomicLong failedInserts = new AtomicLong(0);
 
+  /** The number of blocks the admission filter let into a full cache */
+  private final Counter admittedCount = new Counter(0);
+
+  /** The number of blocks the admission filter kept out of a full cache */
+  private final Counter rejectedCount = new Counter(0);
+
   /** Per Block Type Counts */
   private final Counter dataMissCount = new Counter(0);
   private final Counter leafIndexMissCount = new Counter(0);
@@ -145,6 +151,8 @@ public class CacheStats {
       ", evictedBlockCount=" + getEvictedCount() +
       ", primaryMissCount=" + getPrimaryMissCount() +
       ", primaryHitCount=" + getPrimaryHitCount() +
+      ", admittedCount=" + getAdmittedCount() +
+      ", rejectedCount=" + getRejectedCount() +
       ", evictedAgeMean=" + snapshot.getMean();
   }
 
@@ -259,6 +267,14 @@ public class CacheStats {
     return failedInserts.incrementAndGet();
   }
 
+  public void admit() {
+    admittedCount.increment();
+  }
+
+  public void reject() {
+    rejectedCount.increment();
+  }
+
 
   // All of the counts of misses and hits.
   public long getDataMissCount() {
@@ -409,6 +425,14 @@ public class CacheStats {
     return failedInserts.get();
   }
 
+  public long getAdmittedCount() {
+    return admittedCount.get();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
   public void rollMetricsPeriod() {
     hitCounts[windowIndex] = getHitCount() - lastHitCount;
     lastHitCount = getHitCount();
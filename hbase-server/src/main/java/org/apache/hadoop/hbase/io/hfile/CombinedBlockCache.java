@@ -30,9 +30,9 @@ import com.google.common.annotations.VisibleForTesting;
 
 /**
  * CombinedBlockCache is an abstraction layer that combines
- * {@link LruBlockCache} and {@link BucketCache}. The smaller lruCache is used
- * to cache bloom blocks and index blocks.  The larger l2Cache is used to
- * cache data blocks. {@link #getBlock(BlockCacheKey, boolean, boolean, boolean)} reads
+ * a {@link FirstLevelBlockCache}, such as the {@link LruBlockCache}, and {@link BucketCache}.
+ * The smaller lruCache is used to cache bloom blocks and index blocks.  The larger l2Cache is
+ * used to cache data blocks. {@link #getBlock(BlockCacheKey, boolean, boolean, boolean)} reads
  * first from the smaller lruCache before looking for the block in the l2Cache.  Blocks evicted
  * from lruCache are put into the bucket cache. 
  * Metrics are the combined size and hits and misses of both caches.
@@ -40,11 +40,11 @@ import com.google.common.annotations.VisibleForTesting;
  */
 @InterfaceAudience.Private
 public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
-  protected final LruBlockCache lruCache;
+  protected final FirstLevelBlockCache lruCache;
   protected final BlockCache l2Cache;
   protected final CombinedCacheStats combinedCacheStats;
 
-  public CombinedBlockCache(LruBlockCache lruCache, BlockCache l2Cache) {
+  public CombinedBlockCache(FirstLevelBlockCache lruCache, BlockCache l2Cache) {
     this.lruCache = lruCache;
     this.l2Cache = l2Cache;
     this.combinedCacheStats = new CombinedCacheStats(lruCache.getStats(),
@@ -76,6 +76,17 @@ public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
     cacheBlock(cacheKey, buf, false, false);
   }
 
+  @Override
+  public void cacheBlockAhead(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      boolean cacheDataInL1) {
+    boolean metaBlock = buf.getBlockType().getCategory() != BlockCategory.DATA;
+    if (metaBlock || cacheDataInL1) {
+      lruCache.cacheBlockAhead(cacheKey, buf, inMemory, cacheDataInL1);
+    } else {
+      l2Cache.cacheBlockAhead(cacheKey, buf, inMemory, false);
+    }
+  }
+
   @Override
   public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching,
       boolean repeat, boolean updateCacheMetrics) {
@@ -358,11 +369,19 @@ public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
 
   @Override
   public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
-    // A noop
-    this.lruCache.returnBlock(cacheKey, block);
+    // Returned to the tier that served it only. The blocks of the LruBlockCache are not shared.
+    if (this.lruCache instanceof OffHeapBlockCache
+        && ((OffHeapBlockCache) this.lruCache).releaseBlock(block)) {
+      return;
+    }
     this.l2Cache.returnBlock(cacheKey, block);
   }
 
+  @Override
+  public void readAhead(BlockCacheKey cacheKey) {
+    this.l2Cache.readAhead(cacheKey);
+  }
+
   @VisibleForTesting
   public int getRefCount(BlockCacheKey cacheKey) {
     return ((BucketCache) this.l2Cache).getRefCount(cacheKey);
@@ -51,6 +51,8 @@ public class CompoundBloomFilter extends CompoundBloomFilterBase
 
   private int hashCount;
   private Hash hash;
+  /** Whether the chunks are blocked Bloom filters */
+  private final boolean blocked;
 
   private long[] numQueriesPerChunk;
   private long[] numPositivesPerChunk;
@@ -64,7 +66,22 @@ public class CompoundBloomFilter extends CompoundBloomFilterBase
    */
   public CompoundBloomFilter(DataInput meta, HFile.Reader reader)
       throws IOException {
+    this(meta, reader, false);
+  }
+
+  /**
+   * De-serialization for compound Bloom filter metadata. Must be consistent
+   * with what {@link CompoundBloomFilterWriter} does.
+   *
+   * @param meta serialized Bloom filter metadata without any magic blocks
+   * @param blocked whether the chunks are blocked Bloom filters, as told by
+   *          the version of the metadata
+   * @throws IOException
+   */
+  public CompoundBloomFilter(DataInput meta, HFile.Reader reader, boolean blocked)
+      throws IOException {
     this.reader = reader;
+    this.blocked = blocked;
 
     totalByteSize = meta.readLong();
     hashCount = meta.readInt();
@@ -122,9 +139,14 @@ public class CompoundBloomFilter extends CompoundBloomFilterBase
       }
       try {
         ByteBuff bloomBuf = bloomBlock.getBufferReadOnly();
-        result =
-            BloomFilterUtil.contains(key, keyOffset, keyLength, bloomBuf, bloomBlock.headerSize(),
-              bloomBlock.getUncompressedSizeWithoutHeader(), hash, hashCount);
+        if (blocked) {
+          result = BloomFilterUtil.containsBlocked(key, keyOffset, keyLength, bloomBuf,
+              bloomBlock.headerSize(), bloomBlock.getUncompressedSizeWithoutHeader(), hashCount);
+        } else {
+          result =
+              BloomFilterUtil.contains(key, keyOffset, keyLength, bloomBuf, bloomBlock.headerSize(),
+                bloomBlock.getUncompressedSizeWithoutHeader(), hash, hashCount);
+        }
       } finally {
         // After the use return back the block if it was served from a cache.
         reader.returnBlock(bloomBlock);
@@ -200,6 +222,8 @@ public class CompoundBloomFilter extends CompoundBloomFilterBase
     sb.append(BloomFilterUtil.formatStats(this));
     sb.append(BloomFilterUtil.STATS_RECORD_SEP + 
         "Number of chunks: " + numChunks);
+    sb.append(BloomFilterUtil.STATS_RECORD_SEP +
+        "Blocked: " + blocked);
     sb.append(BloomFilterUtil.STATS_RECORD_SEP + 
         ((comparator != null) ? "Comparator: "
         + comparator.getClass().getSimpleName() : "Comparator: "
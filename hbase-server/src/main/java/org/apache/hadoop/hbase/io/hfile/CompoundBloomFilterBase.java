@@ -40,6 +40,13 @@ public class CompoundBloomFilterBase implements BloomFilterBase {
    */
   public static final int VERSION = 3;
 
+  /**
+   * The version of the Bloom filters whose chunks are blocked, see
+   * {@link org.apache.hadoop.hbase.util.BlockedBloomFilterChunk}. The metadata
+   * is the same as for {@link #VERSION}.
+   */
+  public static final int BLOCKED_VERSION = 4;
+
   /** Target error rate for configuring the filter and for information */
   protected float errorRate;
 
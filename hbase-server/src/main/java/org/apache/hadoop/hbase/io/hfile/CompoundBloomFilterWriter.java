@@ -78,6 +78,9 @@ public class CompoundBloomFilterWriter extends CompoundBloomFilterBase
   /** Whether to cache-on-write compound Bloom filter chunks */
   private boolean cacheOnWrite;
 
+  /** Whether the chunks are blocked Bloom filters */
+  private boolean blocked;
+
   /**
    * @param chunkByteSizeHint
    *          each chunk's size in bytes. The real chunk size might be different
@@ -88,10 +91,12 @@ public class CompoundBloomFilterWriter extends CompoundBloomFilterBase
    *          hash function type to use
    * @param maxFold
    *          maximum degree of folding allowed
+   * @param blocked
+   *          whether to write blocked Bloom filter chunks, which ignore the hash type
    */
   public CompoundBloomFilterWriter(int chunkByteSizeHint, float errorRate,
       int hashType, int maxFold, boolean cacheOnWrite,
-      CellComparator comparator) {
+      CellComparator comparator, boolean blocked) {
     chunkByteSize = BloomFilterUtil.computeFoldableByteSize(
         chunkByteSizeHint * 8L, maxFold);
 
@@ -100,6 +105,7 @@ public class CompoundBloomFilterWriter extends CompoundBloomFilterBase
     this.maxFold = maxFold;
     this.cacheOnWrite = cacheOnWrite;
     this.comparator = comparator;
+    this.blocked = blocked;
   }
 
   @Override
@@ -176,8 +182,12 @@ public class CompoundBloomFilterWriter extends CompoundBloomFilterBase
 
       if (prevChunk == null) {
         // First chunk
-        chunk = BloomFilterUtil.createBySize(chunkByteSize, errorRate,
-            hashType, maxFold);
+        if (blocked) {
+          chunk = BloomFilterUtil.createBlockedBySize(chunkByteSize, errorRate, maxFold);
+        } else {
+          chunk = BloomFilterUtil.createBySize(chunkByteSize, errorRate,
+              hashType, maxFold);
+        }
       } else {
         // Use the same parameters as the last chunk, but a new array and
         // a zero key count.
@@ -235,7 +245,7 @@ public class CompoundBloomFilterWriter extends CompoundBloomFilterBase
      */
     @Override
     public void write(DataOutput out) throws IOException {
-      out.writeInt(VERSION);
+      out.writeInt(blocked ? BLOCKED_VERSION : VERSION);
 
       out.writeLong(getByteSize());
       out.writeInt(prevChunk.getHashCount());
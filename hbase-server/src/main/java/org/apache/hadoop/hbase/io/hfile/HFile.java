@@ -34,6 +34,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.hadoop.hbase.util.ByteStringer;
 import org.apache.commons.logging.Log;
@@ -255,6 +256,7 @@ public class HFile {
     protected InetSocketAddress[] favoredNodes;
     private HFileContext fileContext;
     protected boolean shouldDropBehind = false;
+    private ExecutorService compressionPool;
 
     WriterFactory(Configuration conf, CacheConfig cacheConf) {
       this.conf = conf;
@@ -297,6 +299,16 @@ public class HFile {
       return this;
     }
 
+    /**
+     * @param compressionPool the pool compressing the data blocks in parallel, if enabled; null
+     *          to compress them in the writing thread
+     */
+    public WriterFactory withCompressionPool(ExecutorService compressionPool) {
+      // Deliberately not checking for null here.
+      this.compressionPool = compressionPool;
+      return this;
+    }
+
 
     public Writer create() throws IOException {
       if ((path != null ? 1 : 0) + (ostream != null ? 1 : 0) != 1) {
@@ -312,7 +324,8 @@ public class HFile {
           else if (LOG.isDebugEnabled()) LOG.debug("Unable to set drop behind on " + path);
         }
       }
-      return new HFileWriterImpl(conf, cacheConf, path, ostream, comparator, fileContext);
+      return new HFileWriterImpl(conf, cacheConf, path, ostream, comparator, fileContext,
+          compressionPool);
     }
   }
 
@@ -466,6 +479,12 @@ public class HFile {
     
     void setPrimaryReplicaReader(boolean isPrimaryReplicaReader);
 
+    /**
+     * Hints the block cache that the block following the given one is likely to be read soon
+     * @param block the block a scanner just moved to
+     */
+    void readAheadNextBlock(HFileBlock block);
+
     boolean shouldIncludeMemstoreTS();
 
     boolean isDecodeMemstoreTS();
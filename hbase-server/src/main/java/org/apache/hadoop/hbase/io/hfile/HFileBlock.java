@@ -933,13 +933,7 @@ public class HFileBlock implements Cacheable {
      */
     DataOutputStream startWriting(BlockType newBlockType)
         throws IOException {
-      if (state == State.BLOCK_READY && startOffset != -1) {
-        // We had a previous block that was written to a stream at a specific
-        // offset. Save that offset as the last offset of a block of that type.
-        prevOffsetByType[blockType.getId()] = startOffset;
-      }
-
-      startOffset = -1;
+      savePrevOffset();
       blockType = newBlockType;
 
       baosInMemory.reset();
@@ -956,6 +950,17 @@ public class HFileBlock implements Cacheable {
       return userDataStream;
     }
 
+    /**
+     * If the previous block was written to a stream at a specific offset, saves that offset as the
+     * last offset of a block of that type.
+     */
+    private void savePrevOffset() {
+      if (state == State.BLOCK_READY && startOffset != -1) {
+        prevOffsetByType[blockType.getId()] = startOffset;
+      }
+      startOffset = -1;
+    }
+
     /**
      * Writes the Cell to this block
      * @param cell
@@ -1023,6 +1028,14 @@ public class HFileBlock implements Cacheable {
         onDiskBlockBytesWithHeader = defaultBlockEncodingCtx.
             compressAndEncrypt(uncompressedBlockBytesWithHeader);
       }
+      putHeadersAndChecksums();
+    }
+
+    /**
+     * Fills out the headers of the on disk and uncompressed bytes of the ready block, and computes
+     * its checksums.
+     */
+    private void putHeadersAndChecksums() throws IOException {
       // Calculate how many bytes we need for checksum on the tail of the block.
       int numBytes = (int) ChecksumUtil.numBytes(
           onDiskBlockBytesWithHeader.length,
@@ -1045,6 +1058,51 @@ public class HFileBlock implements Cacheable {
           onDiskChecksum, 0, fileContext.getChecksumType(), fileContext.getBytesPerChecksum());
     }
 
+    /**
+     * Finishes the block being written, like {@link #ensureBlockReady()}, but leaves its
+     * compression to the caller, so that it can be done concurrently with the writing of the next
+     * blocks. The sealed block is written once compressed with
+     * {@link #writeHeaderAndData(SealedBlock, FSDataOutputStream)}, in the order the blocks were
+     * sealed. The writer is ready to start a new block right away.
+     *
+     * @return the block, encoded but not compressed yet
+     */
+    SealedBlock sealBlock() throws IOException {
+      expectState(State.WRITING);
+      if (blockType == BlockType.DATA) {
+        this.dataBlockEncoder.endBlockEncoding(dataBlockEncodingCtx, userDataStream,
+            baosInMemory.getBuffer(), blockType);
+        blockType = dataBlockEncodingCtx.getBlockType();
+      }
+      userDataStream.flush();
+      // This does an array copy, so the block does not share anything with the writer.
+      SealedBlock block = new SealedBlock(blockType, baosInMemory.toByteArray());
+      state = State.INIT;
+      return block;
+    }
+
+    /**
+     * Writes the given compressed block, previously sealed by this writer, into the given stream.
+     * The writer is left in the "block ready" state with the given block, as if it had been
+     * written with {@link #writeHeaderAndData(FSDataOutputStream)}. Can not be called while
+     * writing a block.
+     */
+    void writeHeaderAndData(SealedBlock block, FSDataOutputStream out) throws IOException {
+      Preconditions.checkState(state != State.WRITING, "Unexpected state: " + state);
+      Preconditions.checkState(block.onDiskBlockBytesWithHeader != null,
+          "The block is not compressed");
+      savePrevOffset();
+      blockType = block.blockType;
+      uncompressedBlockBytesWithHeader = block.uncompressedBlockBytesWithHeader;
+      onDiskBlockBytesWithHeader = block.onDiskBlockBytesWithHeader;
+      prevOffset = prevOffsetByType[blockType.getId()];
+      state = State.BLOCK_READY;
+      // The header holds the offset of the previous block of the same type, so it can only be
+      // filled out now that all the previous blocks are written.
+      putHeadersAndChecksums();
+      writeHeaderAndData(out);
+    }
+
     /**
      * Put the header into the given byte array at the given offset.
      * @param onDiskSize size of the block on disk header + data + checksum
@@ -1279,6 +1337,33 @@ public class HFileBlock implements Cacheable {
     }
   }
 
+  /**
+   * A block sealed by {@link Writer#sealBlock()}, holding its uncompressed bytes until it is
+   * compressed, then its on disk bytes until it is written.
+   */
+  static class SealedBlock {
+    private final BlockType blockType;
+    private final byte[] uncompressedBlockBytesWithHeader;
+    private byte[] onDiskBlockBytesWithHeader;
+
+    SealedBlock(BlockType blockType, byte[] uncompressedBlockBytesWithHeader) {
+      this.blockType = blockType;
+      this.uncompressedBlockBytesWithHeader = uncompressedBlockBytesWithHeader;
+    }
+
+    BlockType getBlockType() {
+      return blockType;
+    }
+
+    /**
+     * Compresses and encrypts the block with the given context, which must have been created with
+     * the context of the file. The header is left unfilled.
+     */
+    void compress(HFileBlockEncodingContext encodingCtx) throws IOException {
+      onDiskBlockBytesWithHeader = encodingCtx.compressAndEncrypt(uncompressedBlockBytesWithHeader);
+    }
+  }
+
   /** Something that can be written into a block. */
   interface BlockWritable {
 
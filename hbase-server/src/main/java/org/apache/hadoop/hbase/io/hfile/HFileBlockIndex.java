@@ -26,6 +26,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
@@ -38,6 +39,7 @@ import org.apache.hadoop.hbase.ByteBufferedKeyOnlyKeyValue;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellComparator;
 import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.KeyOnlyKeyValue;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
@@ -76,6 +78,24 @@ public class HFileBlockIndex {
    */
   public static final String MAX_CHUNK_SIZE_KEY = "hfile.index.block.max.size";
 
+  /**
+   * Whether the leaf-level blocks of the data block index also record the
+   * range of timestamps of each data block they reference, so that scanners
+   * over a time range can skip the data blocks outside of it. Files written
+   * with this option always have a leaf level in their data block index.
+   */
+  public static final String TIME_RANGES_KEY = "hfile.index.block.timeranges";
+
+  static final boolean DEFAULT_TIME_RANGES = false;
+
+  /**
+   * The number of bytes of the timestamp range stored for each entry of a
+   * leaf-level index block written with time ranges: the minimum and maximum
+   * timestamps of the data block, as two longs. These ranges follow the
+   * entries of the block, where readers not aware of them never look.
+   */
+  static final int TIME_RANGE_ENTRY_SIZE = 2 * Bytes.SIZEOF_LONG;
+
   /**
    * The number of bytes stored in each "secondary index" entry in addition to
    * key bytes in the non-root index block format. The first long is the file
@@ -156,6 +176,13 @@ public class HFileBlockIndex {
       return null;
     }
 
+    @Override
+    public SkippableBlocks loadSkippableBlocks(Cell key, long minStamp, long maxStamp,
+        boolean pread, boolean isCompaction) throws IOException {
+      // this would not be needed
+      return null;
+    }
+
     @Override
     public Cell midkey() throws IOException {
       // Not needed here
@@ -388,6 +415,63 @@ public class HFileBlockIndex {
       return blockWithScanInfo;
     }
 
+    @Override
+    public SkippableBlocks loadSkippableBlocks(Cell key, long minStamp, long maxStamp,
+        boolean pread, boolean isCompaction) throws IOException {
+      // Only leaf-level blocks have timestamp ranges.
+      if (searchTreeLevel < 2) {
+        return null;
+      }
+      int rootLevelIndex = rootBlockContainingKey(key);
+      if (rootLevelIndex < 0 || rootLevelIndex >= blockOffsets.length) {
+        return null;
+      }
+
+      // The first key of the next leaf-level block.
+      Cell nextIndexedKey;
+      if (rootLevelIndex < blockKeys.length - 1) {
+        nextIndexedKey = blockKeys[rootLevelIndex + 1];
+      } else {
+        nextIndexedKey = KeyValueScanner.NO_NEXT_INDEXED_KEY;
+      }
+
+      long currentOffset = blockOffsets[rootLevelIndex];
+      int currentOnDiskSize = blockDataSizes[rootLevelIndex];
+      for (int lookupLevel = 1; ; ++lookupLevel) {
+        boolean leaf = lookupLevel == searchTreeLevel - 1;
+        // Index blocks are always cached, as in loadDataBlockWithScanInfo.
+        HFileBlock block = cachingBlockReader.readBlock(currentOffset, currentOnDiskSize, true,
+            pread, isCompaction, true,
+            leaf ? BlockType.LEAF_INDEX : BlockType.INTERMEDIATE_INDEX, null);
+        if (block == null) {
+          throw new IOException("Failed to read block at offset " + currentOffset
+              + ", onDiskSize=" + currentOnDiskSize);
+        }
+        try {
+          ByteBuff buffer = block.getBufferWithoutHeader();
+          if (leaf) {
+            return SkippableBlocks.read(buffer, minStamp, maxStamp, nextIndexedKey);
+          }
+          int index = locateNonRootIndexEntry(buffer, key, comparator);
+          if (index == -1) {
+            throw new IOException("The key "
+                + CellUtil.getCellKeyAsString(key)
+                + " is before the" + " first key of the non-root index block " + block);
+          }
+          currentOffset = buffer.getLong();
+          currentOnDiskSize = buffer.getInt();
+
+          byte[] nonRootIndexedKey = getNonRootIndexedKey(buffer, index + 1);
+          if (nonRootIndexedKey != null) {
+            nextIndexedKey = new KeyValue.KeyOnlyKeyValue(nonRootIndexedKey, 0,
+                nonRootIndexedKey.length);
+          }
+        } finally {
+          cachingBlockReader.returnBlock(block);
+        }
+      }
+    }
+
     @Override
     public Cell midkey() throws IOException {
       if (rootCount == 0)
@@ -589,6 +673,24 @@ public class HFileBlockIndex {
         boolean pread, boolean isCompaction, DataBlockEncoding expectedDataBlockEncoding)
         throws IOException;
 
+    /**
+     * Finds the data blocks that cells in the given range of timestamps cannot
+     * be in, among the blocks referenced by the leaf-level index block that
+     * references the data block containing the given key.
+     *
+     * @param key the key we are looking for
+     * @param minStamp the smallest timestamp of interest, inclusive
+     * @param maxStamp the largest timestamp of interest, exclusive
+     * @param pread
+     * @param isCompaction
+     * @return the data blocks to skip, or null if the index has no leaf level,
+     *         its leaf-level blocks have no timestamp ranges, or the key is
+     *         before the first key of the file
+     * @throws IOException
+     */
+    public abstract SkippableBlocks loadSkippableBlocks(Cell key, long minStamp, long maxStamp,
+        boolean pread, boolean isCompaction) throws IOException;
+
     /**
      * An approximation to the {@link HFile}'s mid-key. Operates on block
      * boundaries, and does not go inside blocks. In other words, returns the
@@ -922,6 +1024,136 @@ public class HFileBlockIndex {
     protected abstract long calculateHeapSizeForBlockKeys(long heapSize);
   }
 
+  /**
+   * The runs of consecutive data blocks whose cells are all outside of a range
+   * of timestamps, among the blocks referenced by one leaf-level index block.
+   * A scanner interested in that range only can go from the first block of a
+   * run straight to the block following it. Built from the timestamp ranges
+   * of a leaf-level block written with {@link HFileBlockIndex#TIME_RANGES_KEY}.
+   */
+  static class SkippableBlocks {
+
+    /** Offset of the first data block referenced by the leaf-level block. */
+    private final long firstBlockOffset;
+
+    /** Offset right after the last data block referenced by the leaf-level block. */
+    private final long endOffset;
+
+    /** Offsets of the first data block of each run, in ascending order. */
+    private final long[] runStartOffsets;
+
+    /**
+     * Offset and on-disk size of the block following each run. The size is -1
+     * if the run ends with the last data block of the leaf-level block, as the
+     * block after it is not referenced here.
+     */
+    private final long[] resumeOffsets;
+    private final int[] resumeOnDiskSizes;
+
+    /**
+     * The first key of the next leaf-level block, or
+     * {@link KeyValueScanner#NO_NEXT_INDEXED_KEY} if this is the last one.
+     */
+    private final Cell nextLeafKey;
+
+    private SkippableBlocks(long firstBlockOffset, long endOffset, long[] runStartOffsets,
+        long[] resumeOffsets, int[] resumeOnDiskSizes, Cell nextLeafKey) {
+      this.firstBlockOffset = firstBlockOffset;
+      this.endOffset = endOffset;
+      this.runStartOffsets = runStartOffsets;
+      this.resumeOffsets = resumeOffsets;
+      this.resumeOnDiskSizes = resumeOnDiskSizes;
+      this.nextLeafKey = nextLeafKey;
+    }
+
+    /**
+     * Reads the timestamp ranges of a leaf-level index block.
+     *
+     * @param leafBlock the leaf-level block buffer, without header
+     * @return the runs of blocks outside of [minStamp, maxStamp), or null if
+     *         the block has no timestamp ranges
+     */
+    static SkippableBlocks read(ByteBuff leafBlock, long minStamp, long maxStamp,
+        Cell nextLeafKey) {
+      int numEntries = leafBlock.getIntAfterPosition(0);
+      if (numEntries == 0) {
+        return null;
+      }
+      int entriesOffset = Bytes.SIZEOF_INT * (numEntries + 2);
+      int rangesOffset = entriesOffset
+          + leafBlock.getIntAfterPosition(Bytes.SIZEOF_INT * (numEntries + 1));
+      if (leafBlock.limit() - leafBlock.position() - rangesOffset
+          != numEntries * TIME_RANGE_ENTRY_SIZE) {
+        return null;
+      }
+
+      long[] runStartOffsets = new long[numEntries];
+      long[] resumeOffsets = new long[numEntries];
+      int[] resumeOnDiskSizes = new int[numEntries];
+      int numRuns = 0;
+      boolean inRun = false;
+      long blockOffset = 0;
+      int onDiskSize = 0;
+      for (int i = 0; i < numEntries; ++i) {
+        int entryOffset = entriesOffset
+            + leafBlock.getIntAfterPosition(Bytes.SIZEOF_INT * (i + 1));
+        blockOffset = leafBlock.getLongAfterPosition(entryOffset);
+        onDiskSize = leafBlock.getIntAfterPosition(entryOffset + Bytes.SIZEOF_LONG);
+        int rangeOffset = rangesOffset + i * TIME_RANGE_ENTRY_SIZE;
+        long minTimestamp = leafBlock.getLongAfterPosition(rangeOffset);
+        long maxTimestamp = leafBlock.getLongAfterPosition(rangeOffset + Bytes.SIZEOF_LONG);
+
+        boolean skippable = minTimestamp >= maxStamp || maxTimestamp < minStamp;
+        if (skippable && !inRun) {
+          runStartOffsets[numRuns++] = blockOffset;
+        } else if (!skippable && inRun) {
+          resumeOffsets[numRuns - 1] = blockOffset;
+          resumeOnDiskSizes[numRuns - 1] = onDiskSize;
+        }
+        inRun = skippable;
+      }
+      long endOffset = blockOffset + onDiskSize;
+      if (inRun) {
+        resumeOffsets[numRuns - 1] = endOffset;
+        resumeOnDiskSizes[numRuns - 1] = -1;
+      }
+
+      long firstBlockOffset = leafBlock.getLongAfterPosition(entriesOffset
+          + leafBlock.getIntAfterPosition(Bytes.SIZEOF_INT));
+      return new SkippableBlocks(firstBlockOffset, endOffset,
+          Arrays.copyOf(runStartOffsets, numRuns), Arrays.copyOf(resumeOffsets, numRuns),
+          Arrays.copyOf(resumeOnDiskSizes, numRuns), nextLeafKey);
+    }
+
+    /**
+     * @return the index of the run starting with the data block at the given
+     *         offset, or a negative value if no run starts there
+     */
+    int findRun(long blockOffset) {
+      return Arrays.binarySearch(runStartOffsets, blockOffset);
+    }
+
+    long getResumeOffset(int run) {
+      return resumeOffsets[run];
+    }
+
+    int getResumeOnDiskSize(int run) {
+      return resumeOnDiskSizes[run];
+    }
+
+    long getFirstBlockOffset() {
+      return firstBlockOffset;
+    }
+
+    long getEndOffset() {
+      return endOffset;
+    }
+
+    Cell getNextLeafKey() {
+      return nextLeafKey;
+    }
+  }
+
   /**
    * Writes the block index into the output stream. Generate the tree from
    * bottom up. The leaf level is written to disk as a sequence of inline
@@ -988,6 +1220,12 @@ public class HFileBlockIndex {
     /** Whether we require this block index to always be single-level. */
     private boolean singleLevelOnly;
 
+    /**
+     * Whether leaf-level entries record the timestamp range of the block they
+     * point to. If so, the index always has a leaf level.
+     */
+    private boolean includeTimeRanges;
+
     /** CacheConfig, or null if cache-on-write is disabled */
     private CacheConfig cacheConf;
 
@@ -1026,6 +1264,23 @@ public class HFileBlockIndex {
       this.maxChunkSize = maxChunkSize;
     }
 
+    /**
+     * Makes leaf-level entries record the timestamp range of the data block
+     * they point to. Must be called before any entry is added.
+     *
+     * @see HFileBlockIndex#TIME_RANGES_KEY
+     */
+    public void setIncludeTimeRanges(boolean includeTimeRanges) {
+      if (singleLevelOnly && includeTimeRanges) {
+        throw new IllegalStateException("Timestamp ranges need a leaf level, " +
+            "but this block index is single-level");
+      }
+      if (totalNumEntries > 0) {
+        throw new IllegalStateException("Entries were already added");
+      }
+      this.includeTimeRanges = includeTimeRanges;
+    }
+
     /**
      * Writes the root level and intermediate levels of the block index into
      * the output stream, generating the tree from bottom up. Assumes that the
@@ -1075,8 +1330,9 @@ public class HFileBlockIndex {
         blockWriter.writeHeaderAndData(out);
         if (cacheConf != null) {
           HFileBlock blockForCaching = blockWriter.getBlockForCaching(cacheConf);
-          cacheConf.getBlockCache().cacheBlock(new BlockCacheKey(nameForCaching,
-            rootLevelIndexPos, true, blockForCaching.getBlockType()), blockForCaching);
+          cacheConf.getBlockCache().cacheBlockAhead(new BlockCacheKey(nameForCaching,
+            rootLevelIndexPos, true, blockForCaching.getBlockType()), blockForCaching, false,
+            false);
         }
       }
 
@@ -1175,8 +1431,8 @@ public class HFileBlockIndex {
 
       if (getCacheOnWrite()) {
         HFileBlock blockForCaching = blockWriter.getBlockForCaching(cacheConf);
-        cacheConf.getBlockCache().cacheBlock(new BlockCacheKey(nameForCaching,
-          beginOffset, true, blockForCaching.getBlockType()), blockForCaching);
+        cacheConf.getBlockCache().cacheBlockAhead(new BlockCacheKey(nameForCaching,
+          beginOffset, true, blockForCaching.getBlockType()), blockForCaching, false, false);
       }
 
       // Add intermediate index block size
@@ -1240,7 +1496,7 @@ public class HFileBlockIndex {
 
       // We do have some entries in the current inline chunk.
       if (closing) {
-        if (rootChunk.getNumEntries() == 0) {
+        if (rootChunk.getNumEntries() == 0 && !includeTimeRanges) {
           // We did not add any leaf-level blocks yet. Instead of creating a
           // leaf level with one block, move these entries to the root level.
 
@@ -1326,7 +1582,30 @@ public class HFileBlockIndex {
      *          {@link HFile} format version 1).
      */
     public void addEntry(byte[] firstKey, long blockOffset, int blockDataSize) {
-      curInlineChunk.add(firstKey, blockOffset, blockDataSize);
+      addEntry(firstKey, blockOffset, blockDataSize, HConstants.OLDEST_TIMESTAMP,
+          HConstants.LATEST_TIMESTAMP);
+    }
+
+    /**
+     * Add one index entry to the current leaf-level block, along with the
+     * range of timestamps of the cells in the data block. The range is only
+     * recorded if this writer includes time ranges.
+     *
+     * @param firstKey the first key of the data block
+     * @param blockOffset the offset of the data block
+     * @param blockDataSize the on-disk size of the data block
+     * @param minTimestamp the smallest timestamp the data block has any
+     *          bearing on
+     * @param maxTimestamp the largest timestamp of a cell in the data block
+     */
+    public void addEntry(byte[] firstKey, long blockOffset, int blockDataSize,
+        long minTimestamp, long maxTimestamp) {
+      if (includeTimeRanges) {
+        curInlineChunk.add(firstKey, blockOffset, blockDataSize, minTimestamp,
+            maxTimestamp);
+      } else {
+        curInlineChunk.add(firstKey, blockOffset, blockDataSize);
+      }
       ++totalNumEntries;
     }
 
@@ -1386,6 +1665,14 @@ public class HFileBlockIndex {
      */
     private final List<Long> numSubEntriesAt = new ArrayList<Long>();
 
+    /**
+     * The minimum and maximum timestamps of the data blocks pointed to by the
+     * entries of this chunk, if it is a leaf-level chunk written with time
+     * ranges. Empty otherwise.
+     */
+    private final List<Long> minTimestamps = new ArrayList<Long>();
+    private final List<Long> maxTimestamps = new ArrayList<Long>();
+
     /**
      * The offset of the next entry to be added, relative to the end of the
      * "secondary index" in the "non-root" format representation of this index
@@ -1455,12 +1742,31 @@ public class HFileBlockIndex {
       add(firstKey, blockOffset, onDiskDataSize, -1);
     }
 
+    /**
+     * The same as {@link #add(byte[], long, int)} but also records the range
+     * of timestamps of the data block pointed to by the entry. Either all or
+     * none of the entries of a chunk have a timestamp range.
+     */
+    void add(byte[] firstKey, long blockOffset, int onDiskDataSize,
+        long minTimestamp, long maxTimestamp) {
+      if (minTimestamps.size() != blockKeys.size()) {
+        throw new IllegalStateException("Only have timestamp ranges for " +
+            minTimestamps.size() + " block index entries out of " +
+            blockKeys.size());
+      }
+      add(firstKey, blockOffset, onDiskDataSize);
+      minTimestamps.add(minTimestamp);
+      maxTimestamps.add(maxTimestamp);
+    }
+
     public void clear() {
       blockKeys.clear();
       blockOffsets.clear();
       onDiskDataSizes.clear();
       secondaryIndexOffsetMarks.clear();
       numSubEntriesAt.clear();
+      minTimestamps.clear();
+      maxTimestamps.clear();
       curTotalNonRootEntrySize = 0;
       curTotalRootSize = 0;
     }
@@ -1550,6 +1856,8 @@ public class HFileBlockIndex {
      * format contains the number of entries, an index of integer offsets
      * for quick binary search on variable-length records, and tuples of
      * block offset, on-disk block size, and the first key for each entry.
+     * If this chunk has timestamp ranges, they are written after the entries
+     * as one pair of minimum and maximum timestamps per entry.
      *
      * @param out
      * @throws IOException
@@ -1580,6 +1888,18 @@ public class HFileBlockIndex {
         out.writeInt(onDiskDataSizes.get(i));
         out.write(blockKeys.get(i));
       }
+
+      if (!minTimestamps.isEmpty()) {
+        if (minTimestamps.size() != blockKeys.size()) {
+          throw new IOException("Corrupted block index chunk writer: " +
+              blockKeys.size() + " entries but " + minTimestamps.size() +
+              " timestamp ranges");
+        }
+        for (int i = 0; i < blockKeys.size(); ++i) {
+          out.writeLong(minTimestamps.get(i));
+          out.writeLong(maxTimestamps.get(i));
+        }
+      }
     }
 
     /**
@@ -1589,7 +1909,8 @@ public class HFileBlockIndex {
     int getNonRootSize() {
       return Bytes.SIZEOF_INT                          // Number of entries
           + Bytes.SIZEOF_INT * (blockKeys.size() + 1)  // Secondary index
-          + curTotalNonRootEntrySize;                  // All entries
+          + curTotalNonRootEntrySize                   // All entries
+          + TIME_RANGE_ENTRY_SIZE * minTimestamps.size();  // Time ranges
     }
 
     /**
@@ -1647,4 +1968,8 @@ public class HFileBlockIndex {
   public static int getMaxChunkSize(Configuration conf) {
     return conf.getInt(MAX_CHUNK_SIZE_KEY, DEFAULT_MAX_CHUNK_SIZE);
   }
+
+  public static boolean isTimeRangesEnabled(Configuration conf) {
+    return conf.getBoolean(TIME_RANGES_KEY, DEFAULT_TIME_RANGES);
+  }
 }
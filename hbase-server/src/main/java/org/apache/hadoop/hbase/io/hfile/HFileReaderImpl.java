@@ -42,6 +42,7 @@ import org.apache.hadoop.hbase.SizeCachedNoTagsKeyValue;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.io.FSDataInputStreamWrapper;
+import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.crypto.Cipher;
 import org.apache.hadoop.hbase.io.crypto.Encryption;
@@ -126,6 +127,9 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
   /** Filesystem-level block reader. */
   private HFileBlock.FSReader fsBlockReader;
 
+  /** The prefetch of the blocks of the file, if requested on open */
+  private PrefetchExecutor.PrefetchTask prefetchTask;
+
   /**
    * A "sparse lock" implementation allowing to lock on a particular block
    * identified by offset. The purpose of this is to avoid two clients loading
@@ -245,7 +249,7 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
 
     // Prefetch file blocks upon open if requested
     if (cacheConf.shouldPrefetchOnOpen()) {
-      PrefetchExecutor.request(path, new Runnable() {
+      prefetchTask = PrefetchExecutor.request(path, new Runnable() {
         public void run() {
           long offset = 0;
           long end = 0;
@@ -274,6 +278,7 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
               returnBlock(block);
               prevBlock = block;
               offset += block.getOnDiskSizeWithHeader();
+              PrefetchExecutor.control(path, block.getOnDiskSizeWithHeader());
             }
           } catch (IOException e) {
             // IOExceptions are probably due to region closes (relocation, etc.)
@@ -369,6 +374,16 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
       blockCache.returnBlock(cacheKey, block);
     }
   }
+
+  @Override
+  public void readAheadNextBlock(HFileBlock block) {
+    BlockCache blockCache = this.cacheConf.getBlockCache();
+    long nextBlockOffset = block.getOffset() + block.getOnDiskSizeWithHeader();
+    if (blockCache != null && nextBlockOffset <= trailer.getLastDataBlockOffset()) {
+      blockCache.readAhead(new BlockCacheKey(this.getFileContext().getHFileName(),
+          nextBlockOffset, this.isPrimaryReplicaReader(), null));
+    }
+  }
   /**
    * @return the first key in the file. May be null if file has no entries. Note
    *         that this is not the first row key, but rather the byte form of the
@@ -508,6 +523,16 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
     // Previous blocks that were used in the course of the read
     protected final ArrayList<HFileBlock> prevBlocks = new ArrayList<HFileBlock>();
 
+    // The range of timestamps set by setTimeRange. While skipBlocks is true, readNextDataBlock
+    // goes past the data blocks with no cell in that range.
+    private long minStamp = TimeRange.INITIAL_MIN_TIMESTAMP;
+    private long maxStamp = TimeRange.INITIAL_MAX_TIMESTAMP;
+    private boolean skipBlocks;
+    // The data blocks to skip among those referenced by one leaf-level index block, and the
+    // offset from which they apply
+    private HFileBlockIndex.SkippableBlocks skippableBlocks;
+    private long skippableBlocksFrom;
+
     public HFileScannerImpl(final HFile.Reader reader, final boolean cacheBlocks,
         final boolean pread, final boolean isCompaction) {
       this.reader = reader;
@@ -909,10 +934,23 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
           throw new IOException("Invalid block file offset: " + block);
         }
 
+        long nextBlockOffset = block.getOffset() + block.getOnDiskSizeWithHeader();
+        int nextBlockOnDiskSize = block.getNextBlockOnDiskSize();
+        if (skipBlocks) {
+          // Go past the data blocks with no cell in the time range of this scanner.
+          int run = findSkippableRun(nextBlockOffset);
+          if (run >= 0) {
+            nextBlockOffset = skippableBlocks.getResumeOffset(run);
+            nextBlockOnDiskSize = skippableBlocks.getResumeOnDiskSize(run);
+            if (nextBlockOffset > lastDataBlockOffset) {
+              return null;
+            }
+          }
+        }
+
         // We are reading the next block without block type validation, because
         // it might turn out to be a non-data block.
-        block = reader.readBlock(block.getOffset() + block.getOnDiskSizeWithHeader(),
-            block.getNextBlockOnDiskSize(), cacheBlocks, pread,
+        block = reader.readBlock(nextBlockOffset, nextBlockOnDiskSize, cacheBlocks, pread,
             isCompaction, true, null, getEffectiveDataBlockEncoding());
         if (block != null && !block.getBlockType().isData()) { // Findbugs: NP_NULL_ON_SOME_PATH
           // Whatever block we read we will be returning it unless
@@ -921,9 +959,69 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
         }
       } while (!block.getBlockType().isData());
 
+      if (!pread) {
+        // a scan, likely to go on with the next block while this one is read
+        reader.readAheadNextBlock(block);
+      }
       return block;
     }
 
+    @Override
+    public void setTimeRange(long minStamp, long maxStamp) {
+      this.minStamp = minStamp;
+      this.maxStamp = maxStamp;
+      this.skipBlocks = minStamp > TimeRange.INITIAL_MIN_TIMESTAMP
+          || maxStamp < TimeRange.INITIAL_MAX_TIMESTAMP;
+      this.skippableBlocks = null;
+    }
+
+    /**
+     * Finds the run of data blocks to skip which starts at the given offset,
+     * reading the timestamp ranges of the leaf-level index block referencing
+     * it if needed.
+     *
+     * @param blockOffset the offset of the block after the current one
+     * @return the index of the run in {@link #skippableBlocks}, or a negative
+     *         value if the block at the given offset is not to be skipped
+     */
+    private int findSkippableRun(long blockOffset) throws IOException {
+      HFileBlockIndex.SkippableBlocks blocks = skippableBlocks;
+      if (blocks == null || blockOffset < skippableBlocksFrom
+          || curBlock.getOffset() >= blocks.getEndOffset()) {
+        // First use, or we were sought to another leaf-level block: start from the
+        // leaf-level block referencing the current data block.
+        blocks = loadSkippableBlocks(getFirstKeyCellInBlock(curBlock));
+        if (blocks == null) {
+          return -1;
+        }
+        skippableBlocksFrom = blocks.getFirstBlockOffset();
+      }
+      if (blockOffset >= blocks.getEndOffset()) {
+        // Moving on to the data blocks referenced by the next leaf-level block.
+        Cell nextLeafKey = blocks.getNextLeafKey();
+        if (nextLeafKey == KeyValueScanner.NO_NEXT_INDEXED_KEY) {
+          return -1;
+        }
+        long endOffset = blocks.getEndOffset();
+        blocks = loadSkippableBlocks(nextLeafKey);
+        if (blocks == null) {
+          return -1;
+        }
+        skippableBlocksFrom = endOffset;
+      }
+      return blocks.findRun(blockOffset);
+    }
+
+    private HFileBlockIndex.SkippableBlocks loadSkippableBlocks(Cell key) throws IOException {
+      skippableBlocks = reader.getDataBlockIndexReader().loadSkippableBlocks(key, minStamp,
+          maxStamp, pread, isCompaction);
+      if (skippableBlocks == null) {
+        // The block index of this file has no timestamp ranges.
+        skipBlocks = false;
+      }
+      return skippableBlocks;
+    }
+
     public DataBlockEncoding getEffectiveDataBlockEncoding() {
       return this.reader.getEffectiveEncodingInCache(isCompaction);
     }
@@ -1408,6 +1506,11 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
         ", lastDataBlockOffset: " + trailer.getLastDataBlockOffset() +
         ", trailer.getLoadOnOpenDataOffset: " + trailerOffset);
     }
+    PrefetchExecutor.PrefetchTask prefetch = prefetchTask;
+    if (prefetch != null && updateCacheMetrics && !isCompaction && !prefetch.isDone()) {
+      // the files read while waiting for their prefetch are prefetched first
+      prefetch.accessed();
+    }
     // For any given block from any given file, synchronize reads for said
     // block.
     // Without a cache, this synchronizing is needless overhead, but really
@@ -1467,17 +1570,29 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
           traceScope.getSpan().addTimelineAnnotation("blockCacheMiss");
         }
         // Load block from filesystem.
+        long startTime = updateCacheMetrics ? System.nanoTime() : 0;
         HFileBlock hfileBlock =
             fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize, pread);
+        if (updateCacheMetrics) {
+          // the reads of the prefetching do not update the metrics
+          PrefetchExecutor.updateReadLatency(System.nanoTime() - startTime);
+        }
         validateBlockType(hfileBlock, expectedBlockType);
         HFileBlock unpacked = hfileBlock.unpack(hfileContext, fsBlockReader);
         BlockType.BlockCategory category = hfileBlock.getBlockType().getCategory();
 
         // Cache the block if necessary
         if (cacheBlock && cacheConf.shouldCacheBlockOnRead(category)) {
-          cacheConf.getBlockCache().cacheBlock(cacheKey,
-            cacheConf.shouldCacheCompressed(category) ? hfileBlock : unpacked,
-            cacheConf.isInMemory(), this.cacheConf.isCacheDataInL1());
+          Cacheable toCache = cacheConf.shouldCacheCompressed(category) ? hfileBlock : unpacked;
+          if (updateCacheMetrics) {
+            cacheConf.getBlockCache().cacheBlock(cacheKey, toCache, cacheConf.isInMemory(),
+              this.cacheConf.isCacheDataInL1());
+          } else {
+            // The prefetching and the warming up read ahead of any request, which the admission
+            // filter of the cache has never counted
+            cacheConf.getBlockCache().cacheBlockAhead(cacheKey, toCache, cacheConf.isInMemory(),
+              this.cacheConf.isCacheDataInL1());
+          }
         }
 
         if (updateCacheMetrics && hfileBlock.getBlockType().isData()) {
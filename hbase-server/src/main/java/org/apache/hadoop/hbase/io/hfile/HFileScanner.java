@@ -163,6 +163,17 @@ public interface HFileScanner extends Shipper, Closeable {
    */
   Cell getNextIndexedKey();
 
+  /**
+   * Lets {@link #next()} skip the data blocks with no cell in the given range
+   * of timestamps, if the block index of the file records the timestamp ranges
+   * of its data blocks. The scanner may then move past cells outside of the
+   * range without returning them, so only callers ignoring such cells anyway
+   * should set a range.
+   * @param minStamp the smallest timestamp of interest, inclusive
+   * @param maxStamp the largest timestamp of interest, exclusive
+   */
+  void setTimeRange(long minStamp, long maxStamp);
+
   /**
    * Close this HFile scanner and do necessary cleanup.
    */
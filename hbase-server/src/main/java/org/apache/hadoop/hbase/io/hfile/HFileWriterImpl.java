@@ -23,7 +23,10 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,6 +46,7 @@ import org.apache.hadoop.hbase.io.crypto.Encryption;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
 import org.apache.hadoop.hbase.io.hfile.HFileBlock.BlockWritable;
+import org.apache.hadoop.hbase.io.hfile.HFileBlock.SealedBlock;
 import org.apache.hadoop.hbase.security.EncryptionUtil;
 import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.util.BloomFilterWriter;
@@ -98,6 +102,14 @@ public class HFileWriterImpl implements HFile.Writer {
    */
   protected Cell firstCellInBlock = null;
 
+  /**
+   * The range of timestamps the cells of the current block have a bearing on,
+   * recorded in its block index entry if the index includes time ranges. A
+   * delete marker counts as reaching back to the oldest timestamp, since it
+   * can mask older cells in other blocks.
+   */
+  private long blockMinTimestamp = HConstants.LATEST_TIMESTAMP;
+  private long blockMaxTimestamp = HConstants.OLDEST_TIMESTAMP;
 
   /** May be null if we were passed a stream. */
   protected final Path path;
@@ -153,9 +165,44 @@ public class HFileWriterImpl implements HFile.Writer {
 
   protected long maxMemstoreTS = 0;
 
+  /** Compresses the data blocks in the background, null if they are compressed inline. */
+  private final ParallelBlockCompressor blockCompressor;
+
+  /**
+   * The data blocks being compressed by the {@link #blockCompressor}, in the order they are to be
+   * written, with their block index entries.
+   */
+  private final LinkedList<PendingDataBlock> pendingDataBlocks = new LinkedList<PendingDataBlock>();
+
+  /** A data block being compressed, and what its block index entry needs besides its offset. */
+  private static class PendingDataBlock {
+    private final Future<SealedBlock> block;
+    private final byte[] indexKey;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+
+    PendingDataBlock(Future<SealedBlock> block, byte[] indexKey, long minTimestamp,
+        long maxTimestamp) {
+      this.block = block;
+      this.indexKey = indexKey;
+      this.minTimestamp = minTimestamp;
+      this.maxTimestamp = maxTimestamp;
+    }
+  }
+
   public HFileWriterImpl(final Configuration conf, CacheConfig cacheConf, Path path,
       FSDataOutputStream outputStream,
       CellComparator comparator, HFileContext fileContext) {
+    this(conf, cacheConf, path, outputStream, comparator, fileContext, null);
+  }
+
+  /**
+   * @param compressionPool the pool compressing the data blocks in parallel, see
+   *          {@link ParallelBlockCompressor}; null to compress them in the writing thread
+   */
+  public HFileWriterImpl(final Configuration conf, CacheConfig cacheConf, Path path,
+      FSDataOutputStream outputStream, CellComparator comparator, HFileContext fileContext,
+      ExecutorService compressionPool) {
     this.outputStream = outputStream;
     this.path = path;
     this.name = path != null ? path.getName() : outputStream.toString();
@@ -170,6 +217,9 @@ public class HFileWriterImpl implements HFile.Writer {
 
     closeOutputStream = path != null;
     this.cacheConf = cacheConf;
+    this.blockCompressor =
+        compressionPool != null && ParallelBlockCompressor.isEnabled(conf, fileContext) ?
+            new ParallelBlockCompressor(conf, fileContext, compressionPool) : null;
     finishInit(conf);
     if (LOG.isTraceEnabled()) {
       LOG.trace("Writer" + (path != null ? " for " + path : "") +
@@ -287,6 +337,8 @@ public class HFileWriterImpl implements HFile.Writer {
         cacheIndexesOnWrite ? name : null);
     dataBlockIndexWriter.setMaxChunkSize(
         HFileBlockIndex.getMaxChunkSize(conf));
+    dataBlockIndexWriter.setIncludeTimeRanges(
+        HFileBlockIndex.isTimeRangesEnabled(conf));
     inlineBlockWriters.add(dataBlockIndexWriter);
 
     // Meta data block index writer
@@ -310,24 +362,77 @@ public class HFileWriterImpl implements HFile.Writer {
   private void finishBlock() throws IOException {
     if (!blockWriter.isWriting() || blockWriter.blockSizeWritten() == 0) return;
 
+    Cell indexEntry =
+      getMidpoint(this.comparator, lastCellOfPreviousBlock, firstCellInBlock);
+    byte[] indexKey = CellUtil.getCellKeySerializedAsKeyValueKey(indexEntry);
+    if (blockCompressor != null) {
+      // The block is written once compressed, after the blocks finished before it.
+      pendingDataBlocks.add(new PendingDataBlock(
+          blockCompressor.compress(blockWriter.sealBlock()), indexKey, blockMinTimestamp,
+          blockMaxTimestamp));
+      writePendingDataBlocks(false);
+    } else {
+      writeDataBlock(null, indexKey, blockMinTimestamp, blockMaxTimestamp);
+    }
+  }
+
+  /**
+   * Writes the data block which is ready in the block writer, or the given compressed block, and
+   * adds it to the block index.
+   */
+  private void writeDataBlock(SealedBlock block, byte[] indexKey, long minTimestamp,
+      long maxTimestamp) throws IOException {
     // Update the first data block offset if UNSET; used scanning.
     if (firstDataBlockOffset == UNSET) {
       firstDataBlockOffset = outputStream.getPos();
     }
     // Update the last data block offset each time through here.
     lastDataBlockOffset = outputStream.getPos();
-    blockWriter.writeHeaderAndData(outputStream);
+    if (block != null) {
+      blockWriter.writeHeaderAndData(block, outputStream);
+    } else {
+      blockWriter.writeHeaderAndData(outputStream);
+    }
     int onDiskSize = blockWriter.getOnDiskSizeWithHeader();
-    Cell indexEntry =
-      getMidpoint(this.comparator, lastCellOfPreviousBlock, firstCellInBlock);
-    dataBlockIndexWriter.addEntry(CellUtil.getCellKeySerializedAsKeyValueKey(indexEntry),
-      lastDataBlockOffset, onDiskSize);
+    dataBlockIndexWriter.addEntry(indexKey, lastDataBlockOffset, onDiskSize, minTimestamp,
+        maxTimestamp);
     totalUncompressedBytes += blockWriter.getUncompressedSizeWithHeader();
     if (cacheConf.shouldCacheDataOnWrite()) {
       doCacheOnWrite(lastDataBlockOffset);
     }
   }
+
+  /**
+   * Writes the pending data blocks which are compressed, in order. Waits for the compression of
+   * the oldest ones while too many blocks are pending, or for all of them if asked to.
+   *
+   * @param all whether to write all the pending blocks
+   */
+  private void writePendingDataBlocks(boolean all) throws IOException {
+    while (!pendingDataBlocks.isEmpty()) {
+      PendingDataBlock pending = pendingDataBlocks.getFirst();
+      if (!all && !pending.block.isDone()
+          && pendingDataBlocks.size() <= blockCompressor.getMaxPendingBlocks()) {
+        return;
+      }
+      pendingDataBlocks.removeFirst();
+      writeDataBlock(ParallelBlockCompressor.getCompressed(pending.block), pending.indexKey,
+          pending.minTimestamp, pending.maxTimestamp);
+    }
+  }
   
+  /**
+   * Releases the block compressor. Blocks are only left pending if writing the data blocks failed,
+   * their compressions are cancelled then.
+   */
+  private void releaseBlockCompressor() {
+    for (PendingDataBlock pending : pendingDataBlocks) {
+      pending.block.cancel(false);
+    }
+    pendingDataBlocks.clear();
+    blockCompressor.release();
+  }
+
   /**
    * Try to return a Cell that falls between <code>left</code> and
    * <code>right</code> but that is shorter; i.e. takes up less space. This
@@ -483,9 +588,9 @@ public class HFileWriterImpl implements HFile.Writer {
    */
   private void doCacheOnWrite(long offset) {
     HFileBlock cacheFormatBlock = blockWriter.getBlockForCaching(cacheConf);
-    cacheConf.getBlockCache().cacheBlock(
+    cacheConf.getBlockCache().cacheBlockAhead(
         new BlockCacheKey(name, offset, true, cacheFormatBlock.getBlockType()),
-        cacheFormatBlock);
+        cacheFormatBlock, false, false);
   }
 
   /**
@@ -497,6 +602,8 @@ public class HFileWriterImpl implements HFile.Writer {
     // This is where the next block begins.
     blockWriter.startWriting(BlockType.DATA);
     firstCellInBlock = null;
+    blockMinTimestamp = HConstants.LATEST_TIMESTAMP;
+    blockMaxTimestamp = HConstants.OLDEST_TIMESTAMP;
     if (lastCell != null) {
       lastCellOfPreviousBlock = lastCell;
     }
@@ -539,7 +646,16 @@ public class HFileWriterImpl implements HFile.Writer {
     // Write out the end of the data blocks, then write meta data blocks.
     // followed by fileinfo, data block index and meta block index.
 
-    finishBlock();
+    try {
+      finishBlock();
+      if (blockCompressor != null) {
+        writePendingDataBlocks(true);
+      }
+    } finally {
+      if (blockCompressor != null) {
+        releaseBlockCompressor();
+      }
+    }
     writeInlineBlocks(true);
 
     FixedFileTrailer trailer = new FixedFileTrailer(getMajorVersion(), getMinorVersion());
@@ -689,6 +805,11 @@ public class HFileWriterImpl implements HFile.Writer {
       firstCellInBlock = cell;
     }
 
+    long timestamp = cell.getTimestamp();
+    blockMinTimestamp = Math.min(blockMinTimestamp,
+        CellUtil.isDelete(cell) ? HConstants.OLDEST_TIMESTAMP : timestamp);
+    blockMaxTimestamp = Math.max(blockMaxTimestamp, timestamp);
+
     // TODO: What if cell is 10MB and we write infrequently? We hold on to cell here indefinitely?
     lastCell = cell;
     entryCount++;
@@ -24,7 +24,7 @@ import org.apache.hadoop.hbase.classification.InterfaceAudience;
 
 @InterfaceAudience.LimitedPrivate(HBaseInterfaceAudience.CONFIG)
 public class InclusiveCombinedBlockCache extends CombinedBlockCache implements BlockCache {
-  public InclusiveCombinedBlockCache(LruBlockCache l1, BlockCache l2) {
+  public InclusiveCombinedBlockCache(FirstLevelBlockCache l1, BlockCache l2) {
     super(l1,l2);
   }
 
@@ -55,4 +55,11 @@ public class InclusiveCombinedBlockCache extends CombinedBlockCache implements B
     // This assumes that insertion into the L2 block cache is either async or very fast.
     l2Cache.cacheBlock(cacheKey, buf, inMemory, true);
   }
+
+  @Override
+  public void cacheBlockAhead(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      boolean cacheDataInL1) {
+    lruCache.cacheBlockAhead(cacheKey, buf, inMemory, true);
+    l2Cache.cacheBlockAhead(cacheKey, buf, inMemory, true);
+  }
 }
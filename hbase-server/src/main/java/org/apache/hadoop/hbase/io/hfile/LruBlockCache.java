@@ -95,7 +95,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  */
 @InterfaceAudience.Private
 @JsonIgnoreProperties({"encodingCountsForTest"})
-public class LruBlockCache implements ResizableBlockCache, HeapSize {
+public class LruBlockCache implements FirstLevelBlockCache {
 
   private static final Log LOG = LogFactory.getLog(LruBlockCache.class);
 
@@ -202,6 +202,9 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
   /** Where to send victims (blocks evicted/missing from the cache) */
   private BlockCache victimHandler = null;
 
+  /** Which blocks to let in once the cache is full, null to let all of them in */
+  private TinyLfuAdmissionFilter admissionFilter = null;
+
   /**
    * Default constructor.  Specify maximum size and expected average block
    * size (approximation is fine).
@@ -330,7 +333,20 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
   @Override
   public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
       final boolean cacheDataInL1) {
+    doCacheBlock(cacheKey, buf, inMemory, true);
+  }
+
+  @Override
+  public void cacheBlockAhead(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      boolean cacheDataInL1) {
+    doCacheBlock(cacheKey, buf, inMemory, false);
+  }
 
+  /**
+   * @param filtered whether the block goes through the admission filter, if any
+   */
+  private void doCacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      boolean filtered) {
     if (buf.heapSize() > maxBlockSize) {
       // If there are a lot of blocks that are too
       // big this can make the logs way too noisy.
@@ -357,6 +373,15 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
       LOG.warn(msg);
       return;
     }
+    if (filtered && admissionFilter != null
+        && TinyLfuAdmissionFilter.isFiltered(cacheKey, inMemory) && size.get() >= minSize()) {
+      // The cache is full, the block would evict others: only take it if it is requested often
+      if (!admissionFilter.admit(cacheKey)) {
+        stats.reject();
+        return;
+      }
+      stats.admit();
+    }
     cb = new LruCachedBlock(cacheKey, buf, count.incrementAndGet(), inMemory);
     long newSize = updateSizeMetrics(cb, false);
     map.put(cacheKey, cb);
@@ -436,6 +461,9 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
   @Override
   public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat,
       boolean updateCacheMetrics) {
+    if (admissionFilter != null && !repeat && TinyLfuAdmissionFilter.isFiltered(cacheKey, false)) {
+      admissionFilter.record(cacheKey);
+    }
     LruCachedBlock cb = map.get(cacheKey);
     if (cb == null) {
       if (!repeat && updateCacheMetrics) {
@@ -465,6 +493,7 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
    * @param cacheKey
    * @return true if contains the block
    */
+  @Override
   public boolean containsBlock(BlockCacheKey cacheKey) {
     return map.containsKey(cacheKey);
   }
@@ -915,7 +944,7 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
   }
 
   public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
-      (3 * Bytes.SIZEOF_LONG) + (10 * ClassSize.REFERENCE) +
+      (4 * Bytes.SIZEOF_LONG) + (10 * ClassSize.REFERENCE) +
       (5 * Bytes.SIZEOF_FLOAT) + (2 * Bytes.SIZEOF_BOOLEAN)
       + ClassSize.OBJECT);
 
@@ -1106,11 +1135,19 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
     return counts;
   }
 
+  @Override
   public void setVictimCache(BlockCache handler) {
     assert victimHandler == null;
     victimHandler = handler;
   }
 
+  /**
+   * Sets the filter deciding which blocks are cached once the cache is full
+   */
+  public void setAdmissionFilter(TinyLfuAdmissionFilter admissionFilter) {
+    this.admissionFilter = admissionFilter;
+  }
+
   @VisibleForTesting
   Map<BlockCacheKey, LruCachedBlock> getMapForTests() {
     return map;
@@ -1129,4 +1166,9 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
   public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
     // There is no SHARED type here. Just return
   }
+
+  @Override
+  public void readAhead(BlockCacheKey cacheKey) {
+    // The blocks are on heap already
+  }
 }
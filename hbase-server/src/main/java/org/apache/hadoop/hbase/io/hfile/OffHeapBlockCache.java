@@ -0,0 +1,1060 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.MultiByteBuff;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.HasThread;
+import org.apache.hadoop.util.StringUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An L1 block cache keeping its blocks off heap, in pages of direct memory slabs allocated up
+ * front, so that a large L1 does not add to the heap the garbage collector goes through.<p>
+ *
+ * The blocks are serialized to the pages, a run of adjacent pages of a slab when one is found
+ * close enough, and read from them without a copy: the blocks returned share the memory of the
+ * cache ({@link MemoryType#SHARED}) and must be returned with {@link #returnBlock} once used. The
+ * pages of a block evicted while in use are freed once it is returned.<p>
+ *
+ * Eviction follows the clock algorithm, over the same three priorities as the
+ * {@link LruBlockCache}, which act as the segments of a segmented LRU: a block is cached with the
+ * single-access priority, unless in-memory, and a hit only marks it as referenced, so the reads do
+ * not reorder any list nor take any lock. When the cache gets above its acceptable size, the clock
+ * hand of the priority most over its share goes through its blocks: a referenced block gets a
+ * second chance, moving up to the multiple-access priority when single-access; a multiple-access
+ * block not referenced since moves back to the single-access priority; the others are evicted.<p>
+ *
+ * The cache is sized by the off-heap memory allocated to it. The {@link HeapMemoryManager} sizes
+ * the block cache as a share of the heap though: the cache is resized in proportion to that
+ * share, within the memory allocated.
+ */
+@InterfaceAudience.Private
+public class OffHeapBlockCache implements FirstLevelBlockCache {
+
+  private static final Log LOG = LogFactory.getLog(OffHeapBlockCache.class);
+
+  /** The size of the direct buffers the pages are taken from */
+  static final int SLAB_SIZE = 4 * 1024 * 1024;
+  static final int DEFAULT_PAGE_SIZE = 8 * 1024;
+  static final long DEFAULT_MAX_BLOCK_SIZE = 16L * 1024L * 1024L;
+  static final int statThreadPeriod = 60 * 5;
+
+  private final ConcurrentHashMap<BlockCacheKey, Entry> map =
+      new ConcurrentHashMap<BlockCacheKey, Entry>();
+  /** The shared blocks read from the pages of an entry and not returned yet, by identity */
+  private final ConcurrentHashMap<LentBlock, Entry> lentBlocks =
+      new ConcurrentHashMap<LentBlock, Entry>();
+  private final PagePool pages;
+  /** The clocks of the single-access, multiple-access and in-memory priorities */
+  private final Segment single;
+  private final Segment multi;
+  private final Segment memory;
+
+  private final ReentrantLock evictionLock = new ReentrantLock(true);
+  private volatile boolean evictionInProgress = false;
+  private final EvictionThread evictionThread;
+  private final ScheduledExecutorService scheduleThreadPool = Executors.newScheduledThreadPool(1,
+    new ThreadFactoryBuilder().setNameFormat("OffHeapBlockCacheStatsExecutor").setDaemon(true)
+        .build());
+
+  private final AtomicLong elements = new AtomicLong(0);
+  private final CacheStats stats;
+
+  /** The off-heap memory allocated to the cache */
+  private final long capacity;
+  /** The share of the heap the block cache was configured with, the base of the resizings */
+  private final long heapShare;
+  private volatile long maxSize;
+  private final long maxBlockSize;
+  private final float acceptableFactor;
+  private final float minFactor;
+
+  private BlockCache victimHandler = null;
+
+  /**
+   * @param capacity the off-heap memory to allocate to the cache
+   * @param heapShare the share of the heap the block cache is configured with, which the
+   *          {@link HeapMemoryManager} resizes
+   * @param conf the configuration, giving the factors of the {@link LruBlockCache}
+   */
+  public OffHeapBlockCache(long capacity, long heapShare, Configuration conf) {
+    this(capacity, heapShare, DEFAULT_PAGE_SIZE, true,
+        conf.getFloat(LruBlockCache.LRU_MIN_FACTOR_CONFIG_NAME, LruBlockCache.DEFAULT_MIN_FACTOR),
+        conf.getFloat(LruBlockCache.LRU_ACCEPTABLE_FACTOR_CONFIG_NAME,
+          LruBlockCache.DEFAULT_ACCEPTABLE_FACTOR),
+        conf.getFloat(LruBlockCache.LRU_SINGLE_PERCENTAGE_CONFIG_NAME,
+          LruBlockCache.DEFAULT_SINGLE_FACTOR),
+        conf.getFloat(LruBlockCache.LRU_MULTI_PERCENTAGE_CONFIG_NAME,
+          LruBlockCache.DEFAULT_MULTI_FACTOR),
+        conf.getFloat(LruBlockCache.LRU_MEMORY_PERCENTAGE_CONFIG_NAME,
+          LruBlockCache.DEFAULT_MEMORY_FACTOR),
+        DEFAULT_MAX_BLOCK_SIZE);
+  }
+
+  @VisibleForTesting
+  OffHeapBlockCache(long capacity, int pageSize, boolean evictionThread) {
+    this(capacity, capacity, pageSize, evictionThread, LruBlockCache.DEFAULT_MIN_FACTOR,
+        LruBlockCache.DEFAULT_ACCEPTABLE_FACTOR, LruBlockCache.DEFAULT_SINGLE_FACTOR,
+        LruBlockCache.DEFAULT_MULTI_FACTOR, LruBlockCache.DEFAULT_MEMORY_FACTOR,
+        DEFAULT_MAX_BLOCK_SIZE);
+  }
+
+  OffHeapBlockCache(long capacity, long heapShare, int pageSize, boolean evictionThread,
+      float minFactor, float acceptableFactor, float singleFactor, float multiFactor,
+      float memoryFactor, long maxBlockSize) {
+    if (singleFactor + multiFactor + memoryFactor != 1 ||
+        singleFactor < 0 || multiFactor < 0 || memoryFactor < 0) {
+      throw new IllegalArgumentException("Single, multi, and memory factors " +
+          " should be non-negative and total 1.0");
+    }
+    if (minFactor >= acceptableFactor) {
+      throw new IllegalArgumentException("minFactor must be smaller than acceptableFactor");
+    }
+    if (minFactor >= 1.0f || acceptableFactor >= 1.0f) {
+      throw new IllegalArgumentException("all factors must be < 1");
+    }
+    this.pages = new PagePool(capacity, pageSize);
+    this.capacity = pages.getCapacity();
+    this.heapShare = heapShare;
+    this.maxSize = this.capacity;
+    this.maxBlockSize = maxBlockSize;
+    this.minFactor = minFactor;
+    this.acceptableFactor = acceptableFactor;
+    this.single = new Segment(BlockPriority.SINGLE, singleFactor);
+    this.multi = new Segment(BlockPriority.MULTI, multiFactor);
+    this.memory = new Segment(BlockPriority.MEMORY, memoryFactor);
+    this.stats = new CacheStats(this.getClass().getSimpleName());
+    if (evictionThread) {
+      this.evictionThread = new EvictionThread(this);
+      this.evictionThread.start();
+    } else {
+      this.evictionThread = null;
+    }
+    this.scheduleThreadPool.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        logStats();
+      }
+    }, statThreadPeriod, statThreadPeriod, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Resizes the cache in proportion to the share of the heap given to the block cache, within the
+   * off-heap memory allocated to it
+   */
+  @Override
+  public void setMaxSize(long size) {
+    this.maxSize = Math.min(capacity, (long) ((double) capacity * size / heapShare));
+    if (pages.getUsedSize() > acceptableSize() && !evictionInProgress) {
+      runEviction();
+    }
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      final boolean cacheDataInL1) {
+    int length = buf.getSerializedLength();
+    if (length == 0) {
+      // This cacheable thing can't be serialized
+      return;
+    }
+    if (length > maxBlockSize) {
+      // Log 2% of them, not to make the logs too noisy
+      if (stats.failInsert() % 50 == 0) {
+        LOG.warn("Trying to cache too large a block " + cacheKey + " of " + length
+            + " bytes, larger than " + maxBlockSize);
+      }
+      return;
+    }
+    if (map.containsKey(cacheKey)) {
+      return;
+    }
+    int[] allocated = pages.allocate(length);
+    if (allocated == null) {
+      // No page left: make room right away
+      evict();
+      allocated = pages.allocate(length);
+      if (allocated == null) {
+        stats.failInsert();
+        return;
+      }
+    }
+    pages.write(allocated, buf, length);
+    Entry entry = new Entry(cacheKey, allocated, length,
+        (long) allocated.length * pages.getPageSize(), buf.getDeserializer(), buf.getBlockType(),
+        inMemory ? BlockPriority.MEMORY : BlockPriority.SINGLE);
+    if (map.putIfAbsent(cacheKey, entry) != null) {
+      pages.free(allocated);
+      return;
+    }
+    elements.incrementAndGet();
+    segment(entry.priority).add(entry);
+    if (pages.getUsedSize() > acceptableSize() && !evictionInProgress) {
+      runEviction();
+    }
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    cacheBlock(cacheKey, buf, false, false);
+  }
+
+  @Override
+  public void cacheBlockAhead(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      boolean cacheDataInL1) {
+    cacheBlock(cacheKey, buf, inMemory, cacheDataInL1);
+  }
+
+  @Override
+  public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat,
+      boolean updateCacheMetrics) {
+    Entry entry = map.get(cacheKey);
+    if (entry != null && !entry.retain()) {
+      entry = null;
+    }
+    if (entry != null && entry.evicted) {
+      release(entry);
+      entry = null;
+    }
+    if (entry == null) {
+      if (!repeat && updateCacheMetrics) {
+        stats.miss(caching, cacheKey.isPrimary(), cacheKey.getBlockType());
+      }
+      // If there is another block cache then try and read there, unless this is a retry which
+      // will miss there as well.
+      if (victimHandler != null && !repeat) {
+        Cacheable result = victimHandler.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
+        // Promote this to L1. The block is serialized to pages of this cache, a copy made while
+        // the reference to the block of the victim cache is held. The block returned is still the
+        // one of the victim cache, and is returned to it.
+        if (result != null && caching) {
+          cacheBlock(cacheKey, result, /* inMemory = */ false, /* cacheData = */ true);
+        }
+        return result;
+      }
+      return null;
+    }
+    try {
+      Cacheable block = entry.deserializer.deserialize(pages.read(entry.pages, entry.length),
+          true, MemoryType.SHARED);
+      if (updateCacheMetrics) {
+        stats.hit(caching, cacheKey.isPrimary(), cacheKey.getBlockType());
+      }
+      entry.referenced = true;
+      if (block.getMemoryType() != MemoryType.SHARED) {
+        // A copy, which is not returned
+        release(entry);
+      } else {
+        lentBlocks.put(new LentBlock(block), entry);
+      }
+      return block;
+    } catch (IOException ioe) {
+      LOG.warn("Failed deserializing the cached block " + cacheKey, ioe);
+      release(entry);
+      evictBlock(cacheKey);
+      return null;
+    }
+  }
+
+  @Override
+  public boolean containsBlock(BlockCacheKey cacheKey) {
+    return map.containsKey(cacheKey);
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    Entry entry = map.get(cacheKey);
+    return entry != null && evict(entry, false);
+  }
+
+  /**
+   * Evicts all blocks for a specific HFile, going through all the blocks of the cache.
+   * @return the number of blocks evicted
+   */
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    int numEvicted = 0;
+    for (BlockCacheKey key : map.keySet()) {
+      if (key.getHfileName().equals(hfileName)) {
+        if (evictBlock(key)) {
+          ++numEvicted;
+        }
+      }
+    }
+    if (victimHandler != null) {
+      numEvicted += victimHandler.evictBlocksByHfileName(hfileName);
+    }
+    return numEvicted;
+  }
+
+  /**
+   * Removes the block from the cache, and hands it over to the victim handler if evicted for lack
+   * of space. Its pages are freed once it is no longer in use.
+   * @return false if the block was evicted already
+   */
+  private boolean evict(Entry entry, boolean evictedByEvictionProcess) {
+    synchronized (entry) {
+      if (entry.evicted) {
+        return false;
+      }
+      // Held until the block is handed over to the victim handler, so that a reader returning the
+      // block meanwhile does not free the pages being copied
+      entry.retain();
+      entry.evicted = true;
+      segment(entry.priority).size.addAndGet(-1 * entry.size);
+    }
+    elements.decrementAndGet();
+    stats.evicted(entry.cachedTime, entry.key.isPrimary());
+    try {
+      if (evictedByEvictionProcess && victimHandler != null) {
+        handOver(entry);
+      }
+    } finally {
+      release(entry);
+    }
+    return true;
+  }
+
+  /**
+   * Caches the evicted block in the victim handler. The caller holds a reference on the entry.
+   */
+  private void handOver(Entry entry) {
+    try {
+      // The block is copied on heap, its pages being freed right after
+      ByteBuffer copy = ByteBuffer.allocate(entry.length);
+      pages.read(entry.pages, entry.length).get(copy, 0, entry.length);
+      copy.rewind();
+      Cacheable block = entry.deserializer.deserialize(new SingleByteBuff(copy), true,
+          MemoryType.EXCLUSIVE);
+      if (victimHandler instanceof BucketCache) {
+        boolean wait = pages.getUsedSize() < acceptableSize();
+        ((BucketCache) victimHandler).cacheBlockWithWait(entry.key, block,
+            entry.priority == BlockPriority.MEMORY, wait);
+      } else {
+        victimHandler.cacheBlock(entry.key, block);
+      }
+    } catch (IOException ioe) {
+      LOG.warn("Failed deserializing the evicted block " + entry.key, ioe);
+    }
+  }
+
+  /**
+   * Frees the pages of the evicted block unless it is in use
+   */
+  private void free(Entry entry) {
+    if (entry.refCount.compareAndSet(0, -1)) {
+      map.remove(entry.key, entry);
+      pages.free(entry.pages);
+    }
+  }
+
+  private void release(Entry entry) {
+    if (entry.release() == 0 && entry.evicted) {
+      free(entry);
+    }
+  }
+
+  /**
+   * Multi-threaded call to run the eviction process.
+   */
+  private void runEviction() {
+    if (evictionThread == null) {
+      evict();
+    } else {
+      evictionThread.evict();
+    }
+  }
+
+  /**
+   * Turns the clock hands until the cache is back under its minimum size, unless another thread
+   * is at it already.
+   */
+  @VisibleForTesting
+  void evict() {
+    if (!evictionLock.tryLock()) {
+      return;
+    }
+    try {
+      evictionInProgress = true;
+      long bytesToFree = pages.getUsedSize() - minSize();
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Block cache eviction started; Attempting to free " +
+          StringUtils.byteDesc(bytesToFree) + " of total=" +
+          StringUtils.byteDesc(pages.getUsedSize()));
+      }
+      long bytesFreed = 0;
+      // Each block is seen at most three times: as referenced, as demoted, and as evicted
+      long moves = 3 * (elements.get() + 1);
+      while (bytesFreed < bytesToFree && moves-- > 0) {
+        Segment segment = segmentToEvict();
+        if (segment == null) {
+          break;
+        }
+        Entry entry = segment.clock.poll();
+        if (entry == null || entry.evicted || entry.priority != segment.priority) {
+          // Removed already, or moved to the clock of another priority
+          continue;
+        }
+        if (entry.referenced || entry.refCount.get() > 0) {
+          entry.referenced = false;
+          move(entry, segment == single ? multi : segment);
+        } else if (segment == multi) {
+          move(entry, single);
+        } else if (evict(entry, true)) {
+          bytesFreed += entry.size;
+        }
+      }
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Block cache eviction freed " + StringUtils.byteDesc(bytesFreed) + ", " +
+          "single=" + single + ", multi=" + multi + ", memory=" + memory);
+      }
+    } finally {
+      stats.evict();
+      evictionInProgress = false;
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * @return the priority most over its share of the cache, among those with blocks
+   */
+  private Segment segmentToEvict() {
+    Segment toEvict = null;
+    long overflow = Long.MIN_VALUE;
+    for (Segment segment : new Segment[] { single, multi, memory }) {
+      long size = segment.size.get();
+      if (size > 0 && size - segment.share() > overflow) {
+        toEvict = segment;
+        overflow = size - segment.share();
+      }
+    }
+    return toEvict;
+  }
+
+  /**
+   * Moves the block to the tail of the clock of the given priority
+   */
+  private void move(Entry entry, Segment to) {
+    synchronized (entry) {
+      if (entry.evicted) {
+        return;
+      }
+      if (entry.priority != to.priority) {
+        segment(entry.priority).size.addAndGet(-1 * entry.size);
+        entry.priority = to.priority;
+        to.size.addAndGet(entry.size);
+      }
+    }
+    to.clock.add(entry);
+  }
+
+  private Segment segment(BlockPriority priority) {
+    switch (priority) {
+      case MULTI:
+        return multi;
+      case MEMORY:
+        return memory;
+      default:
+        return single;
+    }
+  }
+
+  /**
+   * The blocks of a priority, in the order its clock hand goes through them. The blocks evicted
+   * or moved to another priority are dropped as the hand gets to them.
+   */
+  private class Segment {
+    private final BlockPriority priority;
+    private final float factor;
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicLong size = new AtomicLong(0);
+
+    Segment(BlockPriority priority, float factor) {
+      this.priority = priority;
+      this.factor = factor;
+    }
+
+    void add(Entry entry) {
+      synchronized (entry) {
+        if (entry.evicted) {
+          return;
+        }
+        size.addAndGet(entry.size);
+      }
+      clock.add(entry);
+    }
+
+    long share() {
+      return (long) Math.floor(maxSize * factor * minFactor);
+    }
+
+    @Override
+    public String toString() {
+      return StringUtils.byteDesc(size.get());
+    }
+  }
+
+  /**
+   * A block of the cache, and where it is in the pages
+   */
+  @VisibleForTesting
+  static class Entry {
+    final BlockCacheKey key;
+    final int[] pages;
+    final int length;
+    /** The size of the pages of the block */
+    final long size;
+    final CacheableDeserializer<Cacheable> deserializer;
+    final BlockType blockType;
+    final long cachedTime = System.nanoTime();
+    /** Set on each hit, cleared as the clock hand goes by */
+    volatile boolean referenced;
+    /** Changed by the eviction only, under the lock of the entry */
+    volatile BlockPriority priority;
+    /** No longer cached, its pages freed once no longer in use */
+    volatile boolean evicted;
+    /** The number of readers of the block, and of evictions handing it over, -1 once freed */
+    final AtomicInteger refCount = new AtomicInteger(0);
+
+    Entry(BlockCacheKey key, int[] pages, int length, long size,
+        CacheableDeserializer<Cacheable> deserializer, BlockType blockType,
+        BlockPriority priority) {
+      this.key = key;
+      this.pages = pages;
+      this.length = length;
+      this.size = size;
+      this.deserializer = deserializer;
+      this.blockType = blockType;
+      this.priority = priority;
+    }
+
+    /**
+     * @return false if the pages of the block are freed already
+     */
+    boolean retain() {
+      while (true) {
+        int count = refCount.get();
+        if (count < 0) {
+          return false;
+        }
+        if (refCount.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * @return the number of readers left, or -1 if the block was not in use
+     */
+    int release() {
+      while (true) {
+        int count = refCount.get();
+        if (count <= 0) {
+          return -1;
+        }
+        if (refCount.compareAndSet(count, count - 1)) {
+          return count - 1;
+        }
+      }
+    }
+  }
+
+  /**
+   * A block read from the pages of an entry, compared by identity
+   */
+  private static final class LentBlock {
+    private final Cacheable block;
+
+    LentBlock(Cacheable block) {
+      this.block = block;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(block);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof LentBlock && ((LentBlock) obj).block == block;
+    }
+  }
+
+  /**
+   * The pages of the direct memory slabs the blocks are kept in
+   */
+  @VisibleForTesting
+  static class PagePool {
+    /** The number of free page runs looked at for a block to be in adjacent pages */
+    private static final int MAX_RUN_SEARCHES = 64;
+
+    private final ByteBuffer[] slabs;
+    private final int pageSize;
+    private final int pagesPerSlab;
+    private final int pageCount;
+    /** The pages in use, guarded by this */
+    private final BitSet used;
+    private int cursor = 0;
+    private volatile int usedCount = 0;
+
+    PagePool(long capacity, int pageSize) {
+      Preconditions.checkArgument(pageSize > 0 && SLAB_SIZE % pageSize == 0,
+          "The page size must divide the slab size " + SLAB_SIZE);
+      this.pageSize = pageSize;
+      this.pagesPerSlab = SLAB_SIZE / pageSize;
+      int slabCount = (int) ((capacity + SLAB_SIZE - 1) / SLAB_SIZE);
+      this.slabs = new ByteBuffer[slabCount];
+      for (int i = 0; i < slabCount; i++) {
+        slabs[i] = ByteBuffer.allocateDirect(SLAB_SIZE);
+      }
+      this.pageCount = slabCount * pagesPerSlab;
+      this.used = new BitSet(pageCount);
+    }
+
+    long getCapacity() {
+      return (long) pageCount * pageSize;
+    }
+
+    long getUsedSize() {
+      return (long) usedCount * pageSize;
+    }
+
+    int getPageSize() {
+      return pageSize;
+    }
+
+    int getPageCount() {
+      return pageCount;
+    }
+
+    /**
+     * @return the pages allocated for the given number of bytes, adjacent ones if a run of them
+     *         is found, or null if there are not as many pages free
+     */
+    synchronized int[] allocate(int length) {
+      int count = (length + pageSize - 1) / pageSize;
+      if (count > pageCount - usedCount) {
+        return null;
+      }
+      int[] allocated = new int[count];
+      int start = findRun(count);
+      if (start >= 0) {
+        for (int i = 0; i < count; i++) {
+          allocated[i] = start + i;
+        }
+      } else {
+        int page = cursor;
+        for (int i = 0; i < count; i++) {
+          page = nextFree(page);
+          allocated[i] = page++;
+        }
+      }
+      for (int page : allocated) {
+        used.set(page);
+      }
+      usedCount += count;
+      cursor = (allocated[count - 1] + 1) % pageCount;
+      return allocated;
+    }
+
+    private int nextFree(int from) {
+      int page = from < pageCount ? used.nextClearBit(from) : pageCount;
+      return page < pageCount ? page : used.nextClearBit(0);
+    }
+
+    /**
+     * @return the first of the given number of free adjacent pages of a slab, or -1 if none is
+     *         found in the runs looked at
+     */
+    private int findRun(int count) {
+      if (count > pagesPerSlab) {
+        return -1;
+      }
+      int page = cursor;
+      for (int i = 0; i < MAX_RUN_SEARCHES; i++) {
+        int start = nextFree(page);
+        int slabEnd = (start / pagesPerSlab + 1) * pagesPerSlab;
+        int end = used.nextSetBit(start);
+        end = end < 0 || end > slabEnd ? slabEnd : end;
+        if (end - start >= count) {
+          return start;
+        }
+        page = end < pageCount ? end : 0;
+      }
+      return -1;
+    }
+
+    synchronized void free(int[] pages) {
+      for (int page : pages) {
+        used.clear(page);
+      }
+      usedCount -= pages.length;
+    }
+
+    /**
+     * @return views of the memory of the given pages, merging the adjacent ones of a slab, up to
+     *         the given length
+     */
+    private ByteBuffer[] buffers(int[] pages, int length) {
+      List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(1);
+      int remaining = length;
+      for (int i = 0; i < pages.length && remaining > 0;) {
+        int slab = pages[i] / pagesPerSlab;
+        int j = i + 1;
+        while (j < pages.length && pages[j] == pages[j - 1] + 1
+            && pages[j] / pagesPerSlab == slab) {
+          j++;
+        }
+        int start = (pages[i] % pagesPerSlab) * pageSize;
+        int size = Math.min((j - i) * pageSize, remaining);
+        ByteBuffer bb = slabs[slab].duplicate();
+        bb.limit(start + size);
+        bb.position(start);
+        buffers.add(bb.slice());
+        remaining -= size;
+        i = j;
+      }
+      return buffers.toArray(new ByteBuffer[buffers.size()]);
+    }
+
+    /**
+     * @return the bytes of the given pages, backed by them
+     */
+    ByteBuff read(int[] pages, int length) {
+      ByteBuffer[] buffers = buffers(pages, length);
+      return buffers.length == 1 ? new SingleByteBuff(buffers[0]) : new MultiByteBuff(buffers);
+    }
+
+    /**
+     * Serializes the block to the given pages, directly when they are adjacent
+     */
+    void write(int[] pages, Cacheable block, int length) {
+      ByteBuffer[] buffers = buffers(pages, length);
+      if (buffers.length == 1) {
+        block.serialize(buffers[0]);
+        return;
+      }
+      ByteBuffer bb = ByteBuffer.allocate(length);
+      block.serialize(bb);
+      bb.rewind();
+      for (ByteBuffer buffer : buffers) {
+        ByteBuffer src = bb.duplicate();
+        src.limit(src.position() + buffer.remaining());
+        buffer.put(src);
+        bb.position(src.position());
+      }
+    }
+  }
+
+  /*
+   * Eviction thread.  Sits in waiting state until an eviction is triggered
+   * when the cache size grows above the acceptable level.
+   */
+  static class EvictionThread extends HasThread {
+    private WeakReference<OffHeapBlockCache> cache;
+    private volatile boolean go = true;
+
+    public EvictionThread(OffHeapBlockCache cache) {
+      super(Thread.currentThread().getName() + ".OffHeapBlockCache.EvictionThread");
+      setDaemon(true);
+      this.cache = new WeakReference<OffHeapBlockCache>(cache);
+    }
+
+    @Override
+    public void run() {
+      while (this.go) {
+        synchronized (this) {
+          try {
+            this.wait(1000 * 10/*Don't wait for ever*/);
+          } catch (InterruptedException e) {
+            LOG.warn("Interrupted eviction thread ", e);
+            Thread.currentThread().interrupt();
+          }
+        }
+        OffHeapBlockCache cache = this.cache.get();
+        if (cache == null) break;
+        cache.evict();
+      }
+    }
+
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="NN_NAKED_NOTIFY",
+        justification="This is what we want")
+    public void evict() {
+      synchronized (this) {
+        this.notifyAll();
+      }
+    }
+
+    synchronized void shutdown() {
+      this.go = false;
+      this.notifyAll();
+    }
+  }
+
+  public void logStats() {
+    long usedSize = pages.getUsedSize();
+    LOG.info("totalSize=" + StringUtils.byteDesc(usedSize) + ", " +
+        "freeSize=" + StringUtils.byteDesc(maxSize - usedSize) + ", " +
+        "max=" + StringUtils.byteDesc(this.maxSize) + ", " +
+        "capacity=" + StringUtils.byteDesc(this.capacity) + ", " +
+        "heapSize=" + StringUtils.byteDesc(heapSize()) + ", " +
+        "blockCount=" + getBlockCount() + ", " +
+        "accesses=" + stats.getRequestCount() + ", " +
+        "hits=" + stats.getHitCount() + ", " +
+        "hitRatio=" + (stats.getHitCount() == 0 ?
+          "0, " : (StringUtils.formatPercent(stats.getHitRatio(), 2) + ", ")) +
+        "cachingAccesses=" + stats.getRequestCachingCount() + ", " +
+        "cachingHits=" + stats.getHitCachingCount() + ", " +
+        "cachingHitsRatio=" + (stats.getHitCachingCount() == 0 ?
+          "0,": (StringUtils.formatPercent(stats.getHitCachingRatio(), 2) + ", ")) +
+        "evictions=" + stats.getEvictionCount() + ", " +
+        "evicted=" + stats.getEvictedCount() + ", " +
+        "evictedPerRun=" + stats.evictedPerEviction());
+  }
+
+  @Override
+  public CacheStats getStats() {
+    return this.stats;
+  }
+
+  public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
+      (5 * Bytes.SIZEOF_LONG) + (13 * ClassSize.REFERENCE) +
+      (2 * Bytes.SIZEOF_FLOAT) + Bytes.SIZEOF_BOOLEAN + ClassSize.OBJECT);
+
+  public final static long ENTRY_OVERHEAD = ClassSize.align(
+      ClassSize.OBJECT + (5 * ClassSize.REFERENCE) + (2 * Bytes.SIZEOF_LONG) + Bytes.SIZEOF_INT +
+      (2 * Bytes.SIZEOF_BOOLEAN)) + ClassSize.ATOMIC_INTEGER + ClassSize.ARRAY +
+      ClassSize.CONCURRENT_HASHMAP_ENTRY + 2 * ClassSize.REFERENCE;
+
+  /**
+   * @return the heap taken by the index of the cache, its blocks being off heap
+   */
+  @Override
+  public long heapSize() {
+    return CACHE_FIXED_OVERHEAD + ClassSize.CONCURRENT_HASHMAP + pages.getPageCount() / 8
+        + elements.get() * ENTRY_OVERHEAD + (long) pages.usedCount * Bytes.SIZEOF_INT;
+  }
+
+  public long getMaxSize() {
+    return this.maxSize;
+  }
+
+  @Override
+  public long size() {
+    return getMaxSize();
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return pages.getUsedSize();
+  }
+
+  @Override
+  public long getFreeSize() {
+    return getMaxSize() - getCurrentSize();
+  }
+
+  @Override
+  public long getBlockCount() {
+    return this.elements.get();
+  }
+
+  @Override
+  public Iterator<CachedBlock> iterator() {
+    final Iterator<Entry> iterator = map.values().iterator();
+
+    return new Iterator<CachedBlock>() {
+      private final long now = System.nanoTime();
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public CachedBlock next() {
+        final Entry e = iterator.next();
+        return new CachedBlock() {
+          @Override
+          public String toString() {
+            return BlockCacheUtil.toString(this, now);
+          }
+
+          @Override
+          public BlockPriority getBlockPriority() {
+            return e.priority;
+          }
+
+          @Override
+          public BlockType getBlockType() {
+            return e.blockType;
+          }
+
+          @Override
+          public long getOffset() {
+            return e.key.getOffset();
+          }
+
+          @Override
+          public long getSize() {
+            return e.length;
+          }
+
+          @Override
+          public long getCachedTime() {
+            return e.cachedTime;
+          }
+
+          @Override
+          public String getFilename() {
+            return e.key.getHfileName();
+          }
+
+          @Override
+          public int compareTo(CachedBlock other) {
+            int diff = this.getFilename().compareTo(other.getFilename());
+            if (diff != 0) return diff;
+            diff = Long.compare(this.getOffset(), other.getOffset());
+            if (diff != 0) return diff;
+            return Long.compare(other.getCachedTime(), this.getCachedTime());
+          }
+
+          @Override
+          public int hashCode() {
+            return e.hashCode();
+          }
+
+          @Override
+          public boolean equals(Object obj) {
+            if (obj instanceof CachedBlock) {
+              CachedBlock cb = (CachedBlock)obj;
+              return compareTo(cb) == 0;
+            } else {
+              return false;
+            }
+          }
+        };
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  // Simple calculators of sizes given factors and maxSize
+
+  long acceptableSize() {
+    return (long)Math.floor(this.maxSize * this.acceptableFactor);
+  }
+
+  private long minSize() {
+    return (long)Math.floor(this.maxSize * this.minFactor);
+  }
+
+  @Override
+  public void shutdown() {
+    if (victimHandler != null) {
+      victimHandler.shutdown();
+    }
+    this.scheduleThreadPool.shutdownNow();
+    if (this.evictionThread != null) {
+      this.evictionThread.shutdown();
+    }
+  }
+
+  @Override
+  public void setVictimCache(BlockCache handler) {
+    assert victimHandler == null;
+    victimHandler = handler;
+  }
+
+  @Override
+  public BlockCache[] getBlockCaches() {
+    return null;
+  }
+
+  /**
+   * Releases the block if read from the pages of this cache, or else returns it to the victim
+   * handler, which served it.
+   */
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    if (block.getMemoryType() != MemoryType.SHARED) {
+      return;
+    }
+    if (!releaseBlock(block) && victimHandler != null) {
+      victimHandler.returnBlock(cacheKey, block);
+    }
+  }
+
+  /**
+   * Releases the entry the block was read from, which may have been evicted and replaced since.
+   * @return false if the block was not read from the pages of this cache
+   */
+  boolean releaseBlock(Cacheable block) {
+    Entry entry = lentBlocks.remove(new LentBlock(block));
+    if (entry == null) {
+      return false;
+    }
+    release(entry);
+    return true;
+  }
+
+  @Override
+  public void readAhead(BlockCacheKey cacheKey) {
+    // The blocks are in memory already
+  }
+
+  @VisibleForTesting
+  int getRefCount(BlockCacheKey cacheKey) {
+    Entry entry = map.get(cacheKey);
+    return entry == null ? 0 : Math.max(entry.refCount.get(), 0);
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.crypto.Encryption;
+import org.apache.hadoop.hbase.io.encoding.HFileBlockDefaultEncodingContext;
+import org.apache.hadoop.hbase.io.hfile.HFileBlock.SealedBlock;
+import org.apache.hadoop.hbase.util.Threads;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Compresses the data blocks of an {@link HFile} being written on a pool of threads shared by all
+ * the writers of a region server, so that a writer goes on encoding the next blocks while the
+ * previous ones are compressed. The region server owns the pool, see {@link #createPool}; writers
+ * created without one compress their blocks in the writing thread. The writer keeps the blocks it
+ * hands over in order, and writes each one once it is compressed and all the previous ones are
+ * written, so the data blocks are laid out as if they had been compressed one after the other.
+ * Only the inline blocks, such as the leaf index blocks, may be written earlier among them.
+ * <p>
+ * This is only worth it with a compression algorithm, and is not used for encrypted files: the
+ * initialization vectors of the blocks of a file are derived one from the other, in the order the
+ * blocks are encrypted.
+ */
+@InterfaceAudience.Private
+public class ParallelBlockCompressor {
+  private static final Log LOG = LogFactory.getLog(ParallelBlockCompressor.class);
+
+  /** Whether data blocks are compressed in parallel when writing HFiles */
+  static final String PARALLEL_COMPRESSION_ENABLED_KEY =
+      "hbase.hfile.parallel.compression.enabled";
+  static final boolean DEFAULT_PARALLEL_COMPRESSION_ENABLED = false;
+
+  /** The number of threads of the pool shared by all the writers of a region server */
+  static final String PARALLEL_COMPRESSION_THREADS_KEY =
+      "hbase.hfile.parallel.compression.threads";
+  static final int DEFAULT_PARALLEL_COMPRESSION_THREADS = 4;
+
+  /** The maximal number of blocks a writer has waiting to be written */
+  static final String MAX_PENDING_BLOCKS_KEY =
+      "hbase.hfile.parallel.compression.max.pending.blocks";
+  static final int DEFAULT_MAX_PENDING_BLOCKS = 16;
+
+  private final ExecutorService pool;
+  private final HFileContext fileContext;
+  private final int maxPendingBlocks;
+  // the contexts not used by a compression in progress, each compression needing one of its own
+  private final Queue<HFileBlockDefaultEncodingContext> encodingContexts =
+      new ConcurrentLinkedQueue<HFileBlockDefaultEncodingContext>();
+  // set once the writer is done with the compressor, the compressions still running then close
+  // their context themselves
+  private volatile boolean released = false;
+
+  ParallelBlockCompressor(Configuration conf, HFileContext fileContext, ExecutorService pool) {
+    this.fileContext = fileContext;
+    this.maxPendingBlocks = Math.max(1, conf.getInt(MAX_PENDING_BLOCKS_KEY,
+        DEFAULT_MAX_PENDING_BLOCKS));
+    this.pool = pool;
+  }
+
+  /**
+   * @return whether the data blocks of a file with the given context should be compressed in
+   *         parallel
+   */
+  static boolean isEnabled(Configuration conf, HFileContext fileContext) {
+    return conf.getBoolean(PARALLEL_COMPRESSION_ENABLED_KEY, DEFAULT_PARALLEL_COMPRESSION_ENABLED)
+        && fileContext.getCompression() != null
+        && fileContext.getCompression() != Compression.Algorithm.NONE
+        && fileContext.getEncryptionContext() == Encryption.Context.NONE;
+  }
+
+  /**
+   * Creates the pool compressing the data blocks of the writers of a region server. The caller
+   * owns the pool, and shuts it down once no writer uses it any more.
+   * @return the pool, or null if data blocks are not compressed in parallel
+   */
+  public static ThreadPoolExecutor createPool(Configuration conf, String name) {
+    if (!conf.getBoolean(PARALLEL_COMPRESSION_ENABLED_KEY, DEFAULT_PARALLEL_COMPRESSION_ENABLED)) {
+      return null;
+    }
+    int threads = Math.max(1, conf.getInt(PARALLEL_COMPRESSION_THREADS_KEY,
+        DEFAULT_PARALLEL_COMPRESSION_THREADS));
+    LOG.info("Compressing HFile blocks with " + threads + " threads");
+    return Threads.getBoundedCachedThreadPool(threads, 60, TimeUnit.SECONDS,
+        Threads.newDaemonThreadFactory(name + "-hfile-block-compressor"));
+  }
+
+  /**
+   * @return the maximal number of blocks the writer should have waiting to be written
+   */
+  int getMaxPendingBlocks() {
+    return maxPendingBlocks;
+  }
+
+  /**
+   * Compresses the given block in the background
+   * @return the block, once compressed
+   */
+  Future<SealedBlock> compress(final SealedBlock block) {
+    Callable<SealedBlock> compression = new Callable<SealedBlock>() {
+      @Override
+      public SealedBlock call() throws IOException {
+        HFileBlockDefaultEncodingContext encodingCtx = encodingContexts.poll();
+        if (encodingCtx == null) {
+          encodingCtx = new HFileBlockDefaultEncodingContext(null,
+              HConstants.HFILEBLOCK_DUMMY_HEADER, fileContext);
+        }
+        try {
+          block.compress(encodingCtx);
+        } finally {
+          encodingContexts.add(encodingCtx);
+          if (released) {
+            closeEncodingContexts();
+          }
+        }
+        return block;
+      }
+    };
+    try {
+      return pool.submit(compression);
+    } catch (RejectedExecutionException e) {
+      // the region server is stopping, compress the block in the writing thread
+      try {
+        return Futures.immediateFuture(compression.call());
+      } catch (Exception ce) {
+        return Futures.immediateFailedFuture(ce);
+      }
+    }
+  }
+
+  /**
+   * Waits for the compression of the given block
+   * @throws IOException if the compression failed, or the wait was interrupted
+   */
+  static SealedBlock getCompressed(Future<SealedBlock> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Releases the compressors. The compressions still running, if the writer gave up on their
+   * blocks, release theirs when they are done.
+   */
+  void release() {
+    released = true;
+    closeEncodingContexts();
+  }
+
+  private void closeEncodingContexts() {
+    HFileBlockDefaultEncodingContext encodingCtx;
+    while ((encodingCtx = encodingContexts.poll()) != null) {
+      encodingCtx.close();
+    }
+  }
+}
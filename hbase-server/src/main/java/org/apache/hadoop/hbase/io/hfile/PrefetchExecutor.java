@@ -18,15 +18,20 @@
  */
 package org.apache.hadoop.hbase.io.hfile;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Future;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -36,20 +41,67 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.regionserver.throttle.PrefetchThroughputController;
+import org.apache.hadoop.hbase.regionserver.throttle.ThroughputController;
+import org.apache.hadoop.hbase.util.Counter;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.util.ReflectionUtils;
 
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Prefetches the blocks of HFiles in the block cache, on a pool of threads shared by all the
+ * HFiles. The files ready to be prefetched are taken by order of the priority of their table,
+ * then of the number of reads they got while waiting, so that the hot files of the important
+ * tables get cached first after a restart. The prefetching is throttled:
+ * <ul>
+ * <li>the prefetching threads share a throughput limit, given by
+ * {@link PrefetchThroughputController#HBASE_HFILE_PREFETCH_MAX_THROUGHPUT};</li>
+ * <li>a table takes at most {@link #PREFETCH_TABLE_MAX_THREADS_KEY} of the threads;</li>
+ * <li>the prefetching pauses while the average latency of the reads of the blocks of HFiles from
+ * the filesystem, other than the prefetching ones, is above
+ * {@link #PREFETCH_PAUSE_READ_LATENCY_KEY}.</li>
+ * </ul>
+ */
 public class PrefetchExecutor {
 
   private static final Log LOG = LogFactory.getLog(PrefetchExecutor.class);
 
+  /** The number of the prefetching threads a table may take at most, all of them by default */
+  public static final String PREFETCH_TABLE_MAX_THREADS_KEY =
+      "hbase.hfile.prefetch.table.max.threads";
+
+  /**
+   * The average latency in milliseconds of the reads of blocks from the filesystem above which
+   * the prefetching pauses, 0 (the default) never to pause.
+   */
+  public static final String PREFETCH_PAUSE_READ_LATENCY_KEY =
+      "hbase.hfile.prefetch.pause.read.latency";
+
+  /** The period over which the read latency is averaged */
+  static final long READ_LATENCY_PERIOD_MS = 1000;
+
   /** Futures for tracking block prefetch activity */
-  private static final Map<Path,Future<?>> prefetchFutures =
-    new ConcurrentSkipListMap<Path,Future<?>>();
-  /** Executor pool shared among all HFiles for block prefetch */
-  private static final ScheduledExecutorService prefetchExecutorPool;
+  private static final Map<Path,PrefetchTask> prefetchFutures =
+    new ConcurrentSkipListMap<Path,PrefetchTask>();
+  /** The requests not started yet, guarded by itself */
+  private static final List<PrefetchTask> pending = new ArrayList<PrefetchTask>();
+  /** The number of requests running by table, guarded by pending */
+  private static final Map<String, Integer> running = new HashMap<String, Integer>();
+  /** The priorities of the tables, keyed as the table directories are */
+  private static final ConcurrentMap<String, Integer> tablePriorities =
+      new ConcurrentHashMap<String, Integer>();
+  /** The prefetching progress of the regions with requests not completed yet */
+  private static final ConcurrentMap<String, RegionProgress> regionProgress =
+      new ConcurrentHashMap<String, RegionProgress>();
   /** Delay before beginning prefetch */
   private static final int prefetchDelayMillis;
   /** Variation in prefetch delay times, to mitigate stampedes */
   private static final float prefetchDelayVariation;
+  private static volatile int tableMaxThreads;
+  private static volatile long pauseReadLatencyNanos;
+  private static final ThroughputController throughputController;
   static {
     // Consider doing this on demand with a configuration passed in rather
     // than in a static initializer.
@@ -59,16 +111,20 @@ public class PrefetchExecutor {
     prefetchDelayMillis = conf.getInt("hbase.hfile.prefetch.delay", 1000);
     prefetchDelayVariation = conf.getFloat("hbase.hfile.prefetch.delay.variation", 0.2f);
     int prefetchThreads = conf.getInt("hbase.hfile.thread.prefetch", 4);
-    prefetchExecutorPool = new ScheduledThreadPoolExecutor(prefetchThreads,
-      new ThreadFactory() {
+    tableMaxThreads = conf.getInt(PREFETCH_TABLE_MAX_THREADS_KEY, prefetchThreads);
+    pauseReadLatencyNanos = conf.getLong(PREFETCH_PAUSE_READ_LATENCY_KEY, 0) * 1000000L;
+    throughputController = ReflectionUtils.newInstance(PrefetchThroughputController.class, conf);
+    for (int i = 0; i < prefetchThreads; i++) {
+      Thread t = new Thread(new Runnable() {
         @Override
-        public Thread newThread(Runnable r) {
-          Thread t = new Thread(r);
-          t.setName("hfile-prefetch-" + System.currentTimeMillis());
-          t.setDaemon(true);
-          return t;
+        public void run() {
+          runPrefetches();
         }
-    });
+      });
+      t.setName("hfile-prefetch-" + System.currentTimeMillis() + "-" + i);
+      t.setDaemon(true);
+      t.start();
+    }
   }
 
   private static final Random RNG = new Random();
@@ -88,7 +144,98 @@ public class PrefetchExecutor {
             Path.SEPARATOR_CHAR +
         ")");
 
-  public static void request(Path path, Runnable runnable) {
+  /**
+   * A prefetch request. Its priority is read when a thread looks for the next file to prefetch,
+   * and so follows the reads the file gets meanwhile.
+   */
+  public static final class PrefetchTask extends FutureTask<Void> {
+    private final Path path;
+    private final String table;
+    private final String region;
+    private final long readyTime;
+    private final AtomicLong accesses = new AtomicLong(0);
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+
+    PrefetchTask(Path path, Runnable runnable, long readyTime) {
+      super(runnable, null);
+      this.path = path;
+      // HFiles are in table/region/family directories, though not in tests
+      Path regionDir = path.getParent() == null ? null : path.getParent().getParent();
+      Path tableDir = regionDir == null ? null : regionDir.getParent();
+      Path namespaceDir = tableDir == null ? null : tableDir.getParent();
+      this.region = regionDir == null ? "" : regionDir.getName();
+      this.table = namespaceDir == null ? "" : tableKey(namespaceDir.getName(), tableDir.getName());
+      this.readyTime = readyTime;
+    }
+
+    /**
+     * Records a read of the file, which makes its prefetching more urgent
+     */
+    public void accessed() {
+      accesses.incrementAndGet();
+    }
+
+    int getPriority() {
+      Integer priority = tablePriorities.get(table);
+      return priority == null ? HConstants.NORMAL_QOS : priority;
+    }
+
+    /**
+     * @return whether this request should be prefetched before the given one
+     */
+    boolean isBefore(PrefetchTask other) {
+      int priority = getPriority();
+      int otherPriority = other.getPriority();
+      if (priority != otherPriority) {
+        return priority > otherPriority;
+      }
+      long count = accesses.get();
+      long otherCount = other.accesses.get();
+      if (count != otherCount) {
+        return count > otherCount;
+      }
+      return readyTime < other.readyTime;
+    }
+
+    /**
+     * Counts the request as done in the progress of its region, once
+     */
+    void finish() {
+      if (finished.compareAndSet(false, true)) {
+        RegionProgress progress = regionProgress.get(region);
+        if (progress != null && progress.done.incrementAndGet() >= progress.requested.get()) {
+          regionProgress.remove(region, progress);
+        }
+      }
+    }
+  }
+
+  private static final class RegionProgress {
+    private final AtomicInteger requested = new AtomicInteger(0);
+    private final AtomicInteger done = new AtomicInteger(0);
+  }
+
+  private static String tableKey(String namespace, String qualifier) {
+    return namespace + Path.SEPARATOR + qualifier;
+  }
+
+  /**
+   * Sets the priority of the prefetching of the HFiles of the table, {@link HConstants#NORMAL_QOS}
+   * by default. The higher priorities are prefetched first.
+   */
+  public static void setTablePriority(TableName tableName, int priority) {
+    String key = tableKey(tableName.getNamespaceAsString(), tableName.getQualifierAsString());
+    if (priority == HConstants.NORMAL_QOS) {
+      tablePriorities.remove(key);
+    } else {
+      tablePriorities.put(key, priority);
+    }
+  }
+
+  /**
+   * @return the request, or null if the file is not to be prefetched
+   */
+  public static PrefetchTask request(Path path, Runnable runnable) {
     if (!prefetchPathExclude.matcher(path.toString()).find()) {
       long delay;
       if (prefetchDelayMillis > 0) {
@@ -97,17 +244,29 @@ public class PrefetchExecutor {
       } else {
         delay = 0;
       }
-      try {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Prefetch requested for " + path + ", delay=" + delay + " ms");
-        }
-        prefetchFutures.put(path, prefetchExecutorPool.schedule(runnable, delay,
-          TimeUnit.MILLISECONDS));
-      } catch (RejectedExecutionException e) {
-        prefetchFutures.remove(path);
-        LOG.warn("Prefetch request rejected for " + path);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Prefetch requested for " + path + ", delay=" + delay + " ms");
+      }
+      PrefetchTask task = new PrefetchTask(path, runnable,
+          EnvironmentEdgeManager.currentTime() + delay);
+      RegionProgress progress = regionProgress.get(task.region);
+      if (progress == null) {
+        RegionProgress newProgress = new RegionProgress();
+        progress = regionProgress.putIfAbsent(task.region, newProgress);
+        progress = progress == null ? newProgress : progress;
+      }
+      progress.requested.incrementAndGet();
+      PrefetchTask previous = prefetchFutures.put(path, task);
+      if (previous != null) {
+        cancel(previous);
       }
+      synchronized (pending) {
+        pending.add(task);
+        pending.notifyAll();
+      }
+      return task;
     }
+    return null;
   }
 
   public static void complete(Path path) {
@@ -118,10 +277,10 @@ public class PrefetchExecutor {
   }
 
   public static void cancel(Path path) {
-    Future<?> future = prefetchFutures.get(path);
+    PrefetchTask future = prefetchFutures.get(path);
     if (future != null) {
       // ok to race with other cancellation attempts
-      future.cancel(true);
+      cancel(future);
       prefetchFutures.remove(path);
       if (LOG.isDebugEnabled()) {
         LOG.debug("Prefetch cancelled for " + path);
@@ -129,6 +288,15 @@ public class PrefetchExecutor {
     }
   }
 
+  private static void cancel(PrefetchTask task) {
+    task.cancel(true);
+    synchronized (pending) {
+      if (pending.remove(task)) {
+        task.finish();
+      }
+    }
+  }
+
   public static boolean isCompleted(Path path) {
     Future<?> future = prefetchFutures.get(path);
     if (future != null) {
@@ -137,4 +305,152 @@ public class PrefetchExecutor {
     return true;
   }
 
+  /**
+   * @return the percentage of the HFiles of the region requested to be prefetched which are done,
+   *         100 when none is left
+   */
+  public static int getRegionProgress(String encodedRegionName) {
+    RegionProgress progress = regionProgress.get(encodedRegionName);
+    if (progress == null) {
+      return 100;
+    }
+    int requested = progress.requested.get();
+    return requested == 0 ? 100 : Math.min(100, progress.done.get() * 100 / requested);
+  }
+
+  @VisibleForTesting
+  static void setTableMaxThreads(int maxThreads) {
+    tableMaxThreads = maxThreads;
+  }
+
+  @VisibleForTesting
+  static void setPauseReadLatency(long millis) {
+    pauseReadLatencyNanos = millis * 1000000L;
+  }
+
+  /**
+   * Controls the throughput of the prefetching of the file, sleeping if it goes too fast or while
+   * the reads from the filesystem are slow. To be called by the prefetching runnables for each
+   * block read.
+   * @param size the bytes read
+   */
+  public static void control(Path path, long size) {
+    try {
+      while (isReadLatencyHigh()) {
+        Thread.sleep(READ_LATENCY_PERIOD_MS);
+      }
+      throughputController.control(path.toString(), size);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // The reads of blocks from the filesystem, other than the prefetching ones
+  private static final Counter readCount = new Counter();
+  private static final Counter readTime = new Counter();
+  // The average read latency over the last period, guarded by latencyLock
+  private static final Object latencyLock = new Object();
+  private static long lastLatencyCheck = 0;
+  private static long lastReadCount = 0;
+  private static long lastReadTime = 0;
+  private static long readLatency = 0;
+
+  /**
+   * Records the time taken by a read of a block from the filesystem, other than a prefetching one
+   */
+  public static void updateReadLatency(long nanos) {
+    if (pauseReadLatencyNanos > 0) {
+      readCount.increment();
+      readTime.add(nanos);
+    }
+  }
+
+  @VisibleForTesting
+  static boolean isReadLatencyHigh() {
+    if (pauseReadLatencyNanos <= 0) {
+      return false;
+    }
+    synchronized (latencyLock) {
+      long now = EnvironmentEdgeManager.currentTime();
+      if (now - lastLatencyCheck >= READ_LATENCY_PERIOD_MS) {
+        long count = readCount.get();
+        long time = readTime.get();
+        readLatency = count == lastReadCount ? 0 : (time - lastReadTime) / (count - lastReadCount);
+        lastReadCount = count;
+        lastReadTime = time;
+        lastLatencyCheck = now;
+      }
+      return readLatency > pauseReadLatencyNanos;
+    }
+  }
+
+  /**
+   * @return the next request ready to be prefetched, waiting for one if none is
+   */
+  private static PrefetchTask take() throws InterruptedException {
+    synchronized (pending) {
+      while (true) {
+        long now = EnvironmentEdgeManager.currentTime();
+        long nextReadyTime = Long.MAX_VALUE;
+        PrefetchTask next = null;
+        for (Iterator<PrefetchTask> it = pending.iterator(); it.hasNext();) {
+          PrefetchTask task = it.next();
+          if (task.isCancelled()) {
+            it.remove();
+            task.finish();
+          } else if (task.readyTime > now) {
+            nextReadyTime = Math.min(nextReadyTime, task.readyTime);
+          } else if ((next == null || task.isBefore(next))
+              && getRunning(task.table) < tableMaxThreads) {
+            next = task;
+          }
+        }
+        if (next != null) {
+          pending.remove(next);
+          running.put(next.table, getRunning(next.table) + 1);
+          return next;
+        }
+        // woken up by new requests, or the end of a running one
+        pending.wait(nextReadyTime == Long.MAX_VALUE ? 0 : Math.max(1, nextReadyTime - now));
+      }
+    }
+  }
+
+  private static int getRunning(String table) {
+    Integer count = running.get(table);
+    return count == null ? 0 : count;
+  }
+
+  private static void runPrefetches() {
+    while (true) {
+      PrefetchTask task;
+      try {
+        task = take();
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted prefetch thread", e);
+        return;
+      }
+      String name = task.path.toString();
+      throughputController.start(name);
+      try {
+        task.run();
+      } catch (Throwable t) {
+        LOG.warn("Prefetch of " + task.path + " failed", t);
+      } finally {
+        throughputController.finish(name);
+        task.finish();
+        // clear the interrupt of a cancellation, not to stop the thread
+        Thread.interrupted();
+        synchronized (pending) {
+          int count = getRunning(task.table) - 1;
+          if (count > 0) {
+            running.put(task.table, count);
+          } else {
+            running.remove(task.table);
+          }
+          pending.notifyAll();
+        }
+      }
+    }
+  }
 }
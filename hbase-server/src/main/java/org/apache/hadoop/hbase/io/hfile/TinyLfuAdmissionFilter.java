@@ -0,0 +1,223 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An admission filter for the block caches, after TinyLFU. It estimates how often each block was
+ * requested recently with a count-min sketch of 4-bit counters, and once the cache is full only
+ * admits the data blocks which were requested at least a configured number of times. A large scan
+ * reading each block once thus no longer evicts the blocks of the random-read working set: the
+ * blocks it reads are not cached unless they are read again while they are still counted.
+ * <p>
+ * The counters age: after a number of requests proportional to the number of blocks the cache
+ * holds, all of them are halved, so that the blocks which were popular a while ago do not stay
+ * admitted forever. The sketch takes about 8 bytes per block the cache holds, and is updated
+ * without locking: a few increments may be lost under contention, which only makes the estimates
+ * a bit lower.
+ * <p>
+ * The index and bloom blocks, as well as the blocks of the in-memory families, are always
+ * admitted.
+ */
+@InterfaceAudience.Private
+public class TinyLfuAdmissionFilter {
+  private static final Log LOG = LogFactory.getLog(TinyLfuAdmissionFilter.class);
+
+  /** Whether the block caches use an admission filter */
+  public static final String ADMISSION_FILTER_ENABLED_KEY =
+      "hbase.blockcache.admission.filter.enabled";
+  public static final boolean DEFAULT_ADMISSION_FILTER_ENABLED = false;
+
+  /**
+   * The number of requests after which the counters are halved, as a multiple of the number of
+   * blocks the cache holds
+   */
+  public static final String ADMISSION_FILTER_SAMPLE_FACTOR_KEY =
+      "hbase.blockcache.admission.filter.sample.factor";
+  public static final int DEFAULT_ADMISSION_FILTER_SAMPLE_FACTOR = 10;
+
+  /** The number of recent requests for a block to be admitted in a full cache */
+  public static final String ADMISSION_FILTER_MIN_FREQUENCY_KEY =
+      "hbase.blockcache.admission.filter.min.frequency";
+  public static final int DEFAULT_ADMISSION_FILTER_MIN_FREQUENCY = 2;
+
+  /** The number of counters a block is counted in */
+  private static final int DEPTH = 4;
+  /** The number of counters per block the cache holds, to keep the collisions rare */
+  private static final int COUNTERS_PER_BLOCK = 16;
+  /** The maximal value of a 4-bit counter */
+  private static final int MAX_COUNT = 15;
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final int[] SEEDS = { 0x97cb3127, 0xab3d5c67, 0x4f8e2a1d, 0xd6e8feb9 };
+
+  /** 16 counters in each long */
+  private final AtomicLongArray table;
+  private final int counterMask;
+  private final int sampleSize;
+  private final int minFrequency;
+  private final AtomicInteger additions = new AtomicInteger();
+
+  /**
+   * @param expectedBlocks the number of blocks the cache holds
+   * @param sampleFactor the number of requests after which the counters are halved, as a multiple
+   *          of expectedBlocks
+   * @param minFrequency the number of recent requests for a block to be admitted
+   */
+  public TinyLfuAdmissionFilter(long expectedBlocks, int sampleFactor, int minFrequency) {
+    // rounded up to a power of 2
+    long counters = Math.max(64, Math.min(1L << 30, expectedBlocks * COUNTERS_PER_BLOCK));
+    int numCounters = Integer.highestOneBit((int) counters - 1) << 1;
+    this.table = new AtomicLongArray(numCounters >>> 4);
+    this.counterMask = numCounters - 1;
+    this.sampleSize = (int) Math.min(Integer.MAX_VALUE / 2,
+        Math.max(1, expectedBlocks) * Math.max(1, sampleFactor));
+    this.minFrequency = Math.min(MAX_COUNT, minFrequency);
+  }
+
+  /**
+   * @param conf the configuration
+   * @param maxSize the size of the cache, in bytes
+   * @param blockSize the expected average size of the blocks, in bytes
+   * @return the admission filter for a cache of the given size, or null if not enabled
+   */
+  public static TinyLfuAdmissionFilter create(Configuration conf, long maxSize, long blockSize) {
+    if (!conf.getBoolean(ADMISSION_FILTER_ENABLED_KEY, DEFAULT_ADMISSION_FILTER_ENABLED)) {
+      return null;
+    }
+    long expectedBlocks = maxSize / Math.max(1, blockSize);
+    int sampleFactor = conf.getInt(ADMISSION_FILTER_SAMPLE_FACTOR_KEY,
+        DEFAULT_ADMISSION_FILTER_SAMPLE_FACTOR);
+    int minFrequency = conf.getInt(ADMISSION_FILTER_MIN_FREQUENCY_KEY,
+        DEFAULT_ADMISSION_FILTER_MIN_FREQUENCY);
+    LOG.info("Block cache admission filter for " + expectedBlocks + " blocks, sampleFactor="
+        + sampleFactor + ", minFrequency=" + minFrequency);
+    return new TinyLfuAdmissionFilter(expectedBlocks, sampleFactor, minFrequency);
+  }
+
+  /**
+   * @return whether the admission of the given block depends on its frequency
+   */
+  public static boolean isFiltered(BlockCacheKey cacheKey, boolean inMemory) {
+    if (inMemory) {
+      return false;
+    }
+    BlockType blockType = cacheKey.getBlockType();
+    return blockType == null || blockType.getCategory() == BlockCategory.DATA;
+  }
+
+  /**
+   * Records a request for the given block, whether it is cached or not
+   */
+  public void record(BlockCacheKey cacheKey) {
+    int hash = spread(cacheKey.hashCode());
+    boolean added = false;
+    for (int i = 0; i < DEPTH; i++) {
+      added |= increment(indexOf(hash, i));
+    }
+    if (added && additions.incrementAndGet() >= sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * @return the estimated number of recent requests for the given block
+   */
+  public int frequency(BlockCacheKey cacheKey) {
+    int hash = spread(cacheKey.hashCode());
+    int frequency = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++) {
+      frequency = Math.min(frequency, count(indexOf(hash, i)));
+    }
+    return frequency;
+  }
+
+  /**
+   * @return whether the given block was requested often enough to replace other blocks in the
+   *         cache
+   */
+  public boolean admit(BlockCacheKey cacheKey) {
+    return frequency(cacheKey) >= minFrequency;
+  }
+
+  private int indexOf(int hash, int i) {
+    int h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 16;
+    return h & counterMask;
+  }
+
+  private int count(int counterIndex) {
+    int shift = (counterIndex & 15) << 2;
+    return (int) ((table.get(counterIndex >>> 4) >>> shift) & 0xfL);
+  }
+
+  /**
+   * @return whether the counter was incremented, that is it was not saturated
+   */
+  private boolean increment(int counterIndex) {
+    int i = counterIndex >>> 4;
+    int shift = (counterIndex & 15) << 2;
+    long mask = 0xfL << shift;
+    while (true) {
+      long value = table.get(i);
+      if ((value & mask) == mask) {
+        return false;
+      }
+      if (table.compareAndSet(i, value, value + (1L << shift))) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Halves all the counters
+   */
+  private synchronized void reset() {
+    if (additions.get() < sampleSize) {
+      // another thread did it already
+      return;
+    }
+    for (int i = 0; i < table.length(); i++) {
+      long value;
+      do {
+        value = table.get(i);
+      } while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+    }
+    additions.set(sampleSize / 2);
+  }
+
+  private static int spread(int hash) {
+    hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+    return (hash >>> 16) ^ hash;
+  }
+
+  @VisibleForTesting
+  int getSampleSize() {
+    return sampleSize;
+  }
+}
@@ -21,6 +21,7 @@
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -42,6 +43,10 @@ import com.google.common.primitives.Ints;
  * when evicting. It manages an array of buckets, each bucket is associated with
  * a size and caches elements up to this size. For a completely empty bucket, this
  * size could be re-specified dynamically.
+ * <p>
+ * A bucket partially used by a size while the other sizes are short of space can be drained:
+ * no block is allocated in it any more, while the cache moves its blocks to the other buckets
+ * of its size, until it is completely free and taken by the size which needs it.
  * 
  * This class is not thread safe.
  */
@@ -57,6 +62,10 @@ public final class BucketAllocator {
     private int itemCount;
     private int freeList[];
     private int freeCount, usedCount;
+    // No longer allocated in, as its storage failed
+    private boolean retired;
+    // No longer allocated in, while its blocks are moved to other buckets
+    private boolean draining;
 
     public Bucket(long offset) {
       baseOffset = offset;
@@ -71,8 +80,10 @@ public final class BucketAllocator {
       freeCount = itemCount;
       usedCount = 0;
       freeList = new int[itemCount];
+      // The items are taken from the end of the free list: allocate them in the order of their
+      // offsets, so that the blocks cached in a row are written in a row
       for (int i = 0; i < freeCount; ++i)
-        freeList[i] = i;
+        freeList[i] = itemCount - 1 - i;
     }
 
     public boolean isUninstantiated() {
@@ -221,8 +232,8 @@ public final class BucketAllocator {
 
     public Bucket findAndRemoveCompletelyFreeBucket() {
       Bucket b = null;
-      assert bucketList.size() > 0;
-      if (bucketList.size() == 1) {
+      // there may be none left if their storage failed
+      if (bucketList.size() <= 1) {
         // So we never get complete starvation of a bucket for a size
         return null;
       }
@@ -234,6 +245,12 @@ public final class BucketAllocator {
       return b;
     }
 
+    private synchronized void retireBucket(Bucket b) {
+      bucketList.remove(b);
+      freeBuckets.remove(b);
+      completelyFreeBuckets.remove(b);
+    }
+
     private synchronized void removeBucket(Bucket b) {
       assert b.isCompletelyFree();
       bucketList.remove(b);
@@ -246,10 +263,54 @@ public final class BucketAllocator {
       // else we shouldn't have anything to free...
       assert (!completelyFreeBuckets.containsKey(b));
       b.free(offset);
+      if (b.draining) {
+        if (!b.isCompletelyFree()) return;
+        b.draining = false;
+      }
       if (!freeBuckets.containsKey(b)) freeBuckets.put(b, b);
       if (b.isCompletelyFree()) completelyFreeBuckets.put(b, b);
     }
 
+    /**
+     * @return whether a completely free bucket can be taken from this size
+     */
+    boolean hasCompletelyFreeBucket() {
+      return completelyFreeBuckets.size() > 0 && bucketList.size() > 1;
+    }
+
+    /**
+     * Find the least used of the partially used buckets, if the other buckets have room for its
+     * blocks
+     * @param maxOccupancy the highest ratio of the items of the bucket which may be used
+     * @return the bucket, or null if none
+     */
+    Bucket findBucketToDrain(float maxOccupancy) {
+      Bucket sparsest = null;
+      long freeCount = 0;
+      for (Object obj : freeBuckets.keySet()) {
+        Bucket b = (Bucket) obj;
+        freeCount += b.freeCount();
+        if (!b.isCompletelyFree() && (sparsest == null || b.usedCount() < sparsest.usedCount())) {
+          sparsest = b;
+        }
+      }
+      if (sparsest == null || sparsest.usedCount() > sparsest.itemCount * maxOccupancy
+          || freeCount - sparsest.freeCount() < sparsest.usedCount()) {
+        return null;
+      }
+      return sparsest;
+    }
+
+    void startDraining(Bucket b) {
+      b.draining = true;
+      freeBuckets.remove(b);
+    }
+
+    void stopDraining(Bucket b) {
+      b.draining = false;
+      if (b.hasFreeSpace()) freeBuckets.put(b, b);
+    }
+
     public synchronized IndexStatistics statistics() {
       long free = 0, used = 0;
       for (Object obj : bucketList.keySet()) {
@@ -303,6 +364,17 @@ public final class BucketAllocator {
   private BucketSizeInfo[] bucketSizeInfos;
   private final long totalSize;
   private long usedSize = 0;
+  private long retiredSize = 0;
+
+  /**
+   * @param bucketSizes the configured bucket sizes, or null for the default ones
+   * @return the capacity of each bucket, which is the unit of the space of the IOEngine allocated
+   *         to each bucket size
+   */
+  static long getBucketCapacity(int[] bucketSizes) {
+    return FEWEST_ITEMS_IN_BUCKET
+        * (long) Ints.max(bucketSizes == null ? DEFAULT_BUCKET_SIZES : bucketSizes);
+  }
 
   BucketAllocator(long availableSpace, int[] bucketSizes)
       throws BucketAllocatorException {
@@ -333,7 +405,9 @@ public final class BucketAllocator {
   }
 
   /**
-   * Rebuild the allocator's data structures from a persisted map.
+   * Rebuild the allocator's data structures from a persisted map. The entries which can not be
+   * allocated as they were, because they overlap or do not fit the buckets any more, are removed
+   * from the map.
    * @param availableSpace capacity of cache
    * @param map A map stores the block key and BucketEntry(block's meta data
    *          like offset, length)
@@ -346,49 +420,63 @@ public final class BucketAllocator {
 
     // each bucket has an offset, sizeindex. probably the buckets are too big
     // in our default state. so what we do is reconfigure them according to what
-    // we've found. we can only reconfigure each bucket once; if more than once,
-    // we know there's a bug, so we just log the info, throw, and start again...
+    // we've found. we can only reconfigure each bucket once; an entry which does
+    // not fit the configuration found so far is dropped.
     boolean[] reconfigured = new boolean[buckets.length];
-    for (Map.Entry<BlockCacheKey, BucketEntry> entry : map.entrySet()) {
-      long foundOffset = entry.getValue().offset();
-      int foundLen = entry.getValue().getLength();
-      int bucketSizeIndex = -1;
-      for (int i = 0; i < bucketSizes.length; ++i) {
-        if (foundLen <= bucketSizes[i]) {
-          bucketSizeIndex = i;
-          break;
+    int skipped = 0;
+    Iterator<Map.Entry<BlockCacheKey, BucketEntry>> it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<BlockCacheKey, BucketEntry> entry = it.next();
+      try {
+        long foundOffset = entry.getValue().offset();
+        int foundLen = entry.getValue().getLength();
+        int bucketSizeIndex = -1;
+        for (int i = 0; i < this.bucketSizes.length; ++i) {
+          if (foundLen <= this.bucketSizes[i]) {
+            bucketSizeIndex = i;
+            break;
+          }
         }
-      }
-      if (bucketSizeIndex == -1) {
-        throw new BucketAllocatorException(
-            "Can't match bucket size for the block with size " + foundLen);
-      }
-      int bucketNo = (int) (foundOffset / bucketCapacity);
-      if (bucketNo < 0 || bucketNo >= buckets.length)
-        throw new BucketAllocatorException("Can't find bucket " + bucketNo
-            + ", total buckets=" + buckets.length
-            + "; did you shrink the cache?");
-      Bucket b = buckets[bucketNo];
-      if (reconfigured[bucketNo]) {
-        if (b.sizeIndex() != bucketSizeIndex)
+        if (bucketSizeIndex == -1) {
           throw new BucketAllocatorException(
-              "Inconsistent allocation in bucket map;");
-      } else {
-        if (!b.isCompletelyFree())
-          throw new BucketAllocatorException("Reconfiguring bucket "
-              + bucketNo + " but it's already allocated; corrupt data");
-        // Need to remove the bucket from whichever list it's currently in at
-        // the moment...
-        BucketSizeInfo bsi = bucketSizeInfos[bucketSizeIndex];
-        BucketSizeInfo oldbsi = bucketSizeInfos[b.sizeIndex()];
-        oldbsi.removeBucket(b);
-        bsi.instantiateBucket(b);
-        reconfigured[bucketNo] = true;
+              "Can't match bucket size for the block with size " + foundLen);
+        }
+        int bucketNo = (int) (foundOffset / bucketCapacity);
+        if (bucketNo < 0 || bucketNo >= buckets.length)
+          throw new BucketAllocatorException("Can't find bucket " + bucketNo
+              + ", total buckets=" + buckets.length
+              + "; did you shrink the cache?");
+        Bucket b = buckets[bucketNo];
+        if (reconfigured[bucketNo]) {
+          if (b.sizeIndex() != bucketSizeIndex)
+            throw new BucketAllocatorException(
+                "Inconsistent allocation in bucket map;");
+        } else {
+          if (!b.isCompletelyFree())
+            throw new BucketAllocatorException("Reconfiguring bucket "
+                + bucketNo + " but it's already allocated; corrupt data");
+          // Need to remove the bucket from whichever list it's currently in at
+          // the moment...
+          BucketSizeInfo bsi = bucketSizeInfos[bucketSizeIndex];
+          BucketSizeInfo oldbsi = bucketSizeInfos[b.sizeIndex()];
+          oldbsi.removeBucket(b);
+          bsi.instantiateBucket(b);
+          reconfigured[bucketNo] = true;
+        }
+        buckets[bucketNo].addAllocation(foundOffset);
+        realCacheSize.addAndGet(foundLen);
+        usedSize += buckets[bucketNo].getItemAllocationSize();
+        bucketSizeInfos[bucketSizeIndex].blockAllocated(b);
+      } catch (BucketAllocatorException e) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Dropping persisted block " + entry.getKey() + ": " + e.getMessage());
+        }
+        it.remove();
+        skipped++;
       }
-      realCacheSize.addAndGet(foundLen);
-      buckets[bucketNo].addAllocation(foundOffset);
-      usedSize += buckets[bucketNo].getItemAllocationSize();
-      bucketSizeInfos[bucketSizeIndex].blockAllocated(b);
+    }
+    if (skipped > 0) {
+      LOG.warn("Dropped " + skipped + " persisted blocks which could not be allocated again");
     }
   }
 
@@ -408,11 +496,84 @@ public final class BucketAllocator {
   }
 
   public long getFreeSize() {
-    return this.totalSize - getUsedSize();
+    return getTotalSize() - getUsedSize();
   }
 
   public long getTotalSize() {
-    return this.totalSize;
+    return this.totalSize - this.retiredSize;
+  }
+
+  /**
+   * Stops allocating in the buckets whose storage failed in the given IOEngine. Their blocks are
+   * still to be freed.
+   * @return the number of buckets retired
+   */
+  public synchronized int retireFailedBuckets(IOEngine ioEngine) {
+    int retired = 0;
+    for (Bucket bucket : buckets) {
+      if (!bucket.retired && ioEngine.isFailed(bucket.getBaseOffset())) {
+        bucket.retired = true;
+        bucketSizeInfos[bucket.sizeIndex()].retireBucket(bucket);
+        retiredSize += bucketCapacity;
+        retired++;
+      }
+    }
+    return retired;
+  }
+
+  /**
+   * Picks a sparsely used bucket to be drained, when no bucket is completely free to be taken by
+   * the sizes which are short of space. No block is allocated in the bucket any more, until it is
+   * completely free or {@link #stopDraining(Bucket)}.
+   * @param maxOccupancy the highest ratio of the items of the bucket which may be used
+   * @return the bucket, or null if none needs to or can be drained
+   */
+  public synchronized Bucket startDraining(float maxOccupancy) {
+    for (BucketSizeInfo bsi : bucketSizeInfos) {
+      if (bsi.hasCompletelyFreeBucket()) {
+        return null;
+      }
+    }
+    Bucket bucket = null;
+    for (BucketSizeInfo bsi : bucketSizeInfos) {
+      Bucket b = bsi.findBucketToDrain(maxOccupancy);
+      // the least used of all, relatively to its number of items
+      if (b != null && (bucket == null
+          || (long) b.usedCount() * bucket.itemCount < (long) bucket.usedCount() * b.itemCount)) {
+        bucket = b;
+      }
+    }
+    if (bucket != null) {
+      bucketSizeInfos[bucket.sizeIndex()].startDraining(bucket);
+    }
+    return bucket;
+  }
+
+  /**
+   * Allocates in the given bucket again, if it is not completely free already
+   */
+  public synchronized void stopDraining(Bucket bucket) {
+    if (bucket.draining && !bucket.retired) {
+      bucketSizeInfos[bucket.sizeIndex()].stopDraining(bucket);
+    }
+  }
+
+  /**
+   * @return the free bytes of the partially used buckets, which only blocks of their size can
+   *         take
+   */
+  public synchronized long getFragmentedFreeSize() {
+    long size = 0;
+    for (Bucket b : buckets) {
+      if (!b.retired && !b.isCompletelyFree()) {
+        size += b.getFreeBytes();
+      }
+    }
+    return size;
+  }
+
+  long getBucketCapacity() {
+    return bucketCapacity;
   }
 
   /**
@@ -457,7 +618,11 @@ public final class BucketAllocator {
     int bucketNo = (int) (offset / bucketCapacity);
     assert bucketNo >= 0 && bucketNo < buckets.length;
     Bucket targetBucket = buckets[bucketNo];
-    bucketSizeInfos[targetBucket.sizeIndex()].freeBlock(targetBucket, offset);
+    if (targetBucket.retired) {
+      targetBucket.free(offset);
+    } else {
+      bucketSizeInfos[targetBucket.sizeIndex()].freeBlock(targetBucket, offset);
+    }
     usedSize -= targetBucket.getItemAllocationSize();
     return targetBucket.getItemAllocationSize();
   }
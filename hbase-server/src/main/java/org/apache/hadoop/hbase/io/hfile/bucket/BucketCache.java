@@ -23,13 +23,12 @@ package org.apache.hadoop.hbase.io.hfile.bucket;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -42,6 +41,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -67,14 +67,18 @@ import org.apache.hadoop.hbase.io.hfile.CacheableDeserializer;
 import org.apache.hadoop.hbase.io.hfile.CacheableDeserializerIdManager;
 import org.apache.hadoop.hbase.io.hfile.CachedBlock;
 import org.apache.hadoop.hbase.io.hfile.HFileBlock;
+import org.apache.hadoop.hbase.io.hfile.TinyLfuAdmissionFilter;
 import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.HasThread;
 import org.apache.hadoop.hbase.util.IdReadWriteLock;
 import org.apache.hadoop.util.StringUtils;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * BucketCache uses {@link BucketAllocator} to allocate/free blocks, and uses
@@ -113,6 +117,17 @@ public class BucketCache implements BlockCache, HeapSize {
   final static int DEFAULT_WRITER_THREADS = 3;
   final static int DEFAULT_WRITER_QUEUE_ITEMS = 64;
 
+  /** The maximal number of blocks read ahead, or waiting to be, not requested yet */
+  final static int MAX_PENDING_READS = 256;
+  /** The time after which a block read ahead but not requested is dropped, in ms */
+  final static long PENDING_READ_TIMEOUT = 10000;
+  /** The maximal number of bytes read at once from the IOEngine when reading blocks ahead */
+  final static int MAX_READ_SIZE = 1024 * 1024;
+  /** The maximal number of bytes between two blocks which are read ahead at once */
+  final static int MAX_READ_GAP = 16 * 1024;
+  /** The maximal number of bytes of adjacent blocks written at once to the IOEngine */
+  final static int MAX_WRITE_SIZE = 1024 * 1024;
+
   // Store/read block data
   final IOEngine ioEngine;
 
@@ -130,6 +145,16 @@ public class BucketCache implements BlockCache, HeapSize {
    */
   private volatile boolean cacheEnabled;
 
+  /**
+   * The blocks to read ahead, and the threads reading them, if the blocks are read ahead. They
+   * are read in batches, adjacent blocks at once.
+   */
+  private volatile BlockingQueue<PendingRead> readQueue;
+  private ReaderThread[] readerThreads;
+  /** The blocks read ahead, or to read ahead, by their key, until they are requested */
+  private final ConcurrentMap<BlockCacheKey, PendingRead> pendingReads =
+      new ConcurrentHashMap<BlockCacheKey, PendingRead>();
+
   /**
    * A list of writer queues.  We have a queue per {@link WriterThread} we have running.
    * In other words, the work adding blocks to the BucketCache is divided up amongst the
@@ -162,10 +187,17 @@ public class BucketCache implements BlockCache, HeapSize {
   // bucket cache will skip some blocks when caching. If the flag is true, we
   // will wait blocks flushed to IOEngine for some time when caching
   boolean wait_when_cache = false;
+  /**
+   * The time to wait for room in the writer queues when they are full, in ms, before dropping
+   * the block
+   */
+  private volatile int writerWaitTime = 0;
 
   private final BucketCacheStats cacheStats = new BucketCacheStats();
 
   private final String persistencePath;
+  /** Whether the checksums of the cached blocks are kept, for when the index is restored */
+  private final boolean persistChecksums;
   private final long cacheCapacity;
   /** Approximate block size */
   private final long blockSize;
@@ -211,6 +243,9 @@ public class BucketCache implements BlockCache, HeapSize {
   // Allocate or free space for the block
   private BucketAllocator bucketAllocator;
 
+  /** Which blocks to let in once the cache is full, null to let all of them in */
+  private TinyLfuAdmissionFilter admissionFilter = null;
+
   public BucketCache(String ioEngineName, long capacity, int blockSize, int[] bucketSizes,
       int writerThreadNum, int writerQLen, String persistencePath) throws FileNotFoundException,
       IOException {
@@ -221,7 +256,7 @@ public class BucketCache implements BlockCache, HeapSize {
   public BucketCache(String ioEngineName, long capacity, int blockSize, int[] bucketSizes,
       int writerThreadNum, int writerQLen, String persistencePath, int ioErrorsTolerationDuration)
       throws FileNotFoundException, IOException {
-    this.ioEngine = getIOEngineFromName(ioEngineName, capacity);
+    this.ioEngine = getIOEngineFromName(ioEngineName, capacity, bucketSizes);
     this.writerThreads = new WriterThread[writerThreadNum];
     long blockNumCapacity = capacity / blockSize;
     if (blockNumCapacity >= Integer.MAX_VALUE) {
@@ -231,6 +266,7 @@ public class BucketCache implements BlockCache, HeapSize {
 
     this.cacheCapacity = capacity;
     this.persistencePath = persistencePath;
+    this.persistChecksums = ioEngine.isPersistent() && persistencePath != null;
     this.blockSize = blockSize;
     this.ioErrorsTolerationDuration = ioErrorsTolerationDuration;
 
@@ -286,6 +322,30 @@ public class BucketCache implements BlockCache, HeapSize {
     }
   }
 
+  /**
+   * Starts the threads reading blocks ahead of the requests, when hinted to by
+   * {@link #readAhead(BlockCacheKey)}, so that the handlers scanning the blocks of a file do not
+   * wait on the IOEngine for each of them. The IOEngines whose blocks are backed by their memory
+   * do not need this.
+   * @param threadCount the number of reader threads, or 0 to read the blocks on request only
+   */
+  public synchronized void startReaderThreads(int threadCount) {
+    if (threadCount <= 0 || ioEngine.usesSharedMemory() || readerThreads != null) {
+      return;
+    }
+    final String threadName = Thread.currentThread().getName();
+    readerThreads = new ReaderThread[threadCount];
+    BlockingQueue<PendingRead> queue = new ArrayBlockingQueue<PendingRead>(MAX_PENDING_READS);
+    for (int i = 0; i < threadCount; ++i) {
+      readerThreads[i] = new ReaderThread(queue);
+      readerThreads[i].setName(threadName + "-BucketCacheReader-" + i);
+      readerThreads[i].setDaemon(true);
+      readerThreads[i].start();
+    }
+    this.readQueue = queue;
+    LOG.info("Reading blocks ahead with " + threadCount + " threads");
+  }
+
   @VisibleForTesting
   boolean isCacheEnabled() {
     return this.cacheEnabled;
@@ -303,17 +363,24 @@ public class BucketCache implements BlockCache, HeapSize {
    * Get the IOEngine from the IO engine name
    * @param ioEngineName
    * @param capacity
+   * @param bucketSizes the bucket sizes of the allocator, so that a file IO engine striped across
+   *          several files stores each bucket in a single file, and a memory IO engine each bucket
+   *          in a single buffer
    * @return the IOEngine
    * @throws IOException
    */
-  private IOEngine getIOEngineFromName(String ioEngineName, long capacity)
+  private IOEngine getIOEngineFromName(String ioEngineName, long capacity, int[] bucketSizes)
       throws IOException {
     if (ioEngineName.startsWith("file:")) {
-      return new FileIOEngine(ioEngineName.substring(5), capacity);
+      String[] filePaths = ioEngineName.substring(5).split(FileIOEngine.FILE_DELIMITER);
+      return new FileIOEngine(capacity, BucketAllocator.getBucketCapacity(bucketSizes),
+          filePaths);
     } else if (ioEngineName.startsWith("offheap")) {
-      return new ByteBufferIOEngine(capacity, true);
+      return new ByteBufferIOEngine(capacity, true,
+          BucketAllocator.getBucketCapacity(bucketSizes));
     } else if (ioEngineName.startsWith("heap")) {
-      return new ByteBufferIOEngine(capacity, false);
+      return new ByteBufferIOEngine(capacity, false,
+          BucketAllocator.getBucketCapacity(bucketSizes));
     } else if (ioEngineName.startsWith("mmap:")) {
       return new FileMmapEngine(ioEngineName.substring(5), capacity);
     } else {
@@ -342,9 +409,43 @@ public class BucketCache implements BlockCache, HeapSize {
   @Override
   public void cacheBlock(BlockCacheKey cacheKey, Cacheable cachedItem, boolean inMemory,
       final boolean cacheDataInL1) {
+    // The blocks evicted from the LruBlockCache, which were admitted there already, come through
+    // cacheBlockWithWait and are not filtered again.
+    if (admissionFilter != null && TinyLfuAdmissionFilter.isFiltered(cacheKey, inMemory)
+        && realCacheSize.get() >= minSize() && !backingMap.containsKey(cacheKey)) {
+      // The cache is full, the block would evict others: only take it if it is requested often
+      if (!admissionFilter.admit(cacheKey)) {
+        cacheStats.reject();
+        return;
+      }
+      cacheStats.admit();
+    }
+    cacheBlockWithWait(cacheKey, cachedItem, inMemory, wait_when_cache);
+  }
+
+  @Override
+  public void cacheBlockAhead(BlockCacheKey cacheKey, Cacheable cachedItem, boolean inMemory,
+      boolean cacheDataInL1) {
     cacheBlockWithWait(cacheKey, cachedItem, inMemory, wait_when_cache);
   }
 
+  /**
+   * Sets the filter deciding which blocks are cached once the cache is full
+   */
+  public void setAdmissionFilter(TinyLfuAdmissionFilter admissionFilter) {
+    this.admissionFilter = admissionFilter;
+  }
+
+  /**
+   * Sets the time to wait for room in the writer queues when they are all full, rather than
+   * dropping the blocks right away. This slows down the threads caching the blocks during bursts,
+   * to the pace of the IOEngine, for the blocks cached on write to land in the cache.
+   * @param writerWaitTime the time to wait, in milliseconds, or 0 not to wait
+   */
+  public void setWriterWaitTime(int writerWaitTime) {
+    this.writerWaitTime = writerWaitTime;
+  }
+
   /**
    * Cache the block to ramCache
    * @param cacheKey block's cache key
@@ -372,16 +473,21 @@ public class BucketCache implements BlockCache, HeapSize {
       return;
     }
     int queueNum = (cacheKey.hashCode() & 0x7FFFFFFF) % writerQueues.size();
-    BlockingQueue<RAMQueueEntry> bq = writerQueues.get(queueNum);
     boolean successfulAddition = false;
-    if (wait) {
+    // Spill over to the other queues when this one is full, before waiting for room in it
+    for (int i = 0; i < writerQueues.size() && !successfulAddition; i++) {
+      successfulAddition = writerQueues.get((queueNum + i) % writerQueues.size()).offer(re);
+    }
+    int waitTime = wait ? Math.max(writerWaitTime, DEFAULT_CACHE_WAIT_TIME) : writerWaitTime;
+    if (!successfulAddition && waitTime > 0) {
+      long start = System.nanoTime();
       try {
-        successfulAddition = bq.offer(re, DEFAULT_CACHE_WAIT_TIME, TimeUnit.MILLISECONDS);
+        successfulAddition =
+            writerQueues.get(queueNum).offer(re, waitTime, TimeUnit.MILLISECONDS);
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
       }
-    } else {
-      successfulAddition = bq.offer(re);
+      cacheStats.writerWait(System.nanoTime() - start);
     }
     if (!successfulAddition) {
       ramCache.remove(cacheKey);
@@ -407,6 +513,9 @@ public class BucketCache implements BlockCache, HeapSize {
     if (!cacheEnabled) {
       return null;
     }
+    if (admissionFilter != null && !repeat && TinyLfuAdmissionFilter.isFiltered(key, false)) {
+      admissionFilter.record(key);
+    }
     RAMQueueEntry re = ramCache.get(key);
     if (re != null) {
       if (updateCacheMetrics) {
@@ -415,7 +524,24 @@ public class BucketCache implements BlockCache, HeapSize {
       re.access(accessCount.incrementAndGet());
       return re.getData();
     }
+    PendingRead pendingRead = pendingReads.isEmpty() ? null : pendingReads.remove(key);
+    if (pendingRead != null) {
+      long start = System.nanoTime();
+      Cacheable cachedBlock = pendingRead.get();
+      if (cachedBlock != null) {
+        if (updateCacheMetrics) {
+          cacheStats.hit(caching, key.isPrimary(), key.getBlockType());
+          cacheStats.ioHit(System.nanoTime() - start);
+          cacheStats.readAheadHit();
+        }
+        pendingRead.bucketEntry.access(accessCount.incrementAndGet());
+        return cachedBlock;
+      }
+      // the block could not be read ahead, read it now
+    }
     BucketEntry bucketEntry = backingMap.get(key);
+    boolean stale = false;
+    boolean failedStorage = false;
     if (bucketEntry != null) {
       long start = System.nanoTime();
       ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntry.offset());
@@ -431,35 +557,276 @@ public class BucketCache implements BlockCache, HeapSize {
           if (LOG.isTraceEnabled()) {
             LOG.trace("Read offset=" + bucketEntry.offset() + ", len=" + len);
           }
-          Cacheable cachedBlock = ioEngine.read(bucketEntry.offset(), len,
-              bucketEntry.deserializerReference(this.deserialiserMap));
-          long timeTaken = System.nanoTime() - start;
-          if (updateCacheMetrics) {
-            cacheStats.hit(caching, key.isPrimary(), key.getBlockType());
-            cacheStats.ioHit(timeTaken);
+          CacheableDeserializer<Cacheable> deserializer =
+              bucketEntry.deserializerReference(this.deserialiserMap);
+          if (bucketEntry.isUnverified()) {
+            deserializer = new VerifyingDeserializer(deserializer, bucketEntry.getChecksum());
           }
-          if (cachedBlock.getMemoryType() == MemoryType.SHARED) {
-            bucketEntry.refCount.incrementAndGet();
-          }
-          bucketEntry.access(accessCount.incrementAndGet());
-          if (this.ioErrorStartTime > 0) {
-            ioErrorStartTime = -1;
+          long readStart = System.nanoTime();
+          Cacheable cachedBlock = ioEngine.read(bucketEntry.offset(), len, deserializer);
+          cacheStats.ioRead(System.nanoTime() - readStart);
+          if (cachedBlock != null) {
+            bucketEntry.markVerified();
+            long timeTaken = System.nanoTime() - start;
+            if (updateCacheMetrics) {
+              cacheStats.hit(caching, key.isPrimary(), key.getBlockType());
+              cacheStats.ioHit(timeTaken);
+            }
+            if (cachedBlock.getMemoryType() == MemoryType.SHARED) {
+              bucketEntry.refCount.incrementAndGet();
+            }
+            bucketEntry.access(accessCount.incrementAndGet());
+            if (this.ioErrorStartTime > 0) {
+              ioErrorStartTime = -1;
+            }
+            return cachedBlock;
           }
-          return cachedBlock;
+          // the block was restored from a persisted index, but its space was reused since
+          stale = true;
         }
       } catch (IOException ioex) {
         LOG.error("Failed reading block " + key + " from bucket cache", ioex);
-        checkIOErrorIsTolerated();
+        if (ioEngine.isFailed(bucketEntry.offset())) {
+          failedStorage = true;
+        } else {
+          checkIOErrorIsTolerated();
+        }
       } finally {
         lock.readLock().unlock();
       }
     }
+    if (failedStorage) {
+      retireFailedStorage();
+    }
+    if (stale) {
+      LOG.debug("Evicting stale block " + key + " restored from " + persistencePath);
+      evictBlock(key);
+    }
     if (!repeat && updateCacheMetrics) {
       cacheStats.miss(caching, key.isPrimary(), key.getBlockType());
     }
     return null;
   }
 
+  /**
+   * Checks the cached bytes of a block restored from a persisted index against their checksum
+   * before deserializing them, as their space may have been reused since the index was persisted
+   */
+  private static class VerifyingDeserializer implements CacheableDeserializer<Cacheable> {
+    private final CacheableDeserializer<Cacheable> deserializer;
+    private final int checksum;
+
+    VerifyingDeserializer(CacheableDeserializer<Cacheable> deserializer, int checksum) {
+      this.deserializer = deserializer;
+      this.checksum = checksum;
+    }
+
+    @Override
+    public Cacheable deserialize(ByteBuff b) throws IOException {
+      return BucketIndexFile.checksum(b) == checksum ? deserializer.deserialize(b) : null;
+    }
+
+    @Override
+    public Cacheable deserialize(ByteBuff b, boolean reuse, MemoryType memType)
+        throws IOException {
+      return BucketIndexFile.checksum(b) == checksum
+          ? deserializer.deserialize(b, reuse, memType) : null;
+    }
+
+    @Override
+    public int getDeserialiserIdentifier() {
+      return deserializer.getDeserialiserIdentifier();
+    }
+  }
+
+  @Override
+  public void readAhead(BlockCacheKey cacheKey) {
+    BlockingQueue<PendingRead> queue = this.readQueue;
+    if (queue == null || !cacheEnabled || ramCache.containsKey(cacheKey)) {
+      return;
+    }
+    BucketEntry bucketEntry = backingMap.get(cacheKey);
+    // the restored blocks are verified when first requested
+    if (bucketEntry == null || bucketEntry.isUnverified()) {
+      return;
+    }
+    if (pendingReads.size() >= MAX_PENDING_READS) {
+      // the blocks of the scans which stopped before requesting them
+      long now = EnvironmentEdgeManager.currentTime();
+      Iterator<PendingRead> it = pendingReads.values().iterator();
+      while (it.hasNext()) {
+        if (now - it.next().createTime > PENDING_READ_TIMEOUT) {
+          it.remove();
+        }
+      }
+      return;
+    }
+    PendingRead pendingRead = new PendingRead(cacheKey, bucketEntry);
+    if (pendingReads.putIfAbsent(cacheKey, pendingRead) != null) {
+      return;
+    }
+    if (queue.offer(pendingRead)) {
+      cacheStats.readAhead();
+      if (!cacheEnabled) {
+        // the reader threads may have stopped before taking it
+        pendingRead.block.set(null);
+      }
+    } else {
+      pendingReads.remove(cacheKey, pendingRead);
+      // a request may be waiting for it already
+      pendingRead.block.set(null);
+    }
+  }
+
+  /**
+   * A block to read ahead of its request
+   */
+  static class PendingRead {
+    final BlockCacheKey key;
+    final BucketEntry bucketEntry;
+    final long createTime = EnvironmentEdgeManager.currentTime();
+    /** The block read, or null if it could not be */
+    final SettableFuture<Cacheable> block = SettableFuture.create();
+
+    PendingRead(BlockCacheKey key, BucketEntry bucketEntry) {
+      this.key = key;
+      this.bucketEntry = bucketEntry;
+    }
+
+    /**
+     * Waits for the block to be read
+     * @return the block, or null if it could not be read
+     */
+    Cacheable get() {
+      try {
+        return Uninterruptibles.getUninterruptibly(block);
+      } catch (ExecutionException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Reads the blocks queued by {@link BucketCache#readAhead(BlockCacheKey)}. The blocks queued
+   * meanwhile are read in offset order, and the ones which are close enough in the IOEngine, as
+   * the blocks of a file cached one after the other often are, with a single read.
+   */
+  class ReaderThread extends HasThread {
+    private final BlockingQueue<PendingRead> inputQueue;
+
+    ReaderThread(BlockingQueue<PendingRead> queue) {
+      this.inputQueue = queue;
+    }
+
+    public void run() {
+      List<PendingRead> reads = new ArrayList<PendingRead>();
+      while (cacheEnabled) {
+        try {
+          reads.clear();
+          reads.add(inputQueue.take());
+          inputQueue.drainTo(reads);
+        } catch (InterruptedException ie) {
+          if (!cacheEnabled) break;
+          continue;
+        }
+        try {
+          doRead(reads);
+        } catch (Throwable t) {
+          LOG.warn("Failed reading blocks ahead", t);
+        } finally {
+          for (PendingRead read : reads) {
+            // those which could not be read are read on request
+            read.block.set(null);
+          }
+        }
+      }
+      // not to leave a request waiting for a block queued meanwhile
+      reads.clear();
+      inputQueue.drainTo(reads);
+      for (PendingRead read : reads) {
+        read.block.set(null);
+      }
+      LOG.info(this.getName() + " exiting, cacheEnabled=" + cacheEnabled);
+    }
+
+    @VisibleForTesting
+    void doRead(List<PendingRead> reads) {
+      Collections.sort(reads, new Comparator<PendingRead>() {
+        @Override
+        public int compare(PendingRead a, PendingRead b) {
+          return Long.compare(a.bucketEntry.offset(), b.bucketEntry.offset());
+        }
+      });
+      int start = 0;
+      for (int i = 1; i <= reads.size(); i++) {
+        if (i == reads.size() || !canReadWith(reads.get(start), reads.get(i - 1), reads.get(i))) {
+          readBatch(reads.subList(start, i));
+          start = i;
+        }
+      }
+    }
+
+    private boolean canReadWith(PendingRead first, PendingRead last, PendingRead next) {
+      long end = last.bucketEntry.offset() + last.bucketEntry.getLength();
+      return next.bucketEntry.offset() >= end
+          && next.bucketEntry.offset() - end <= MAX_READ_GAP
+          && next.bucketEntry.offset() + next.bucketEntry.getLength()
+              - first.bucketEntry.offset() <= MAX_READ_SIZE;
+    }
+
+    /**
+     * Reads the given blocks, sorted by offset, at once
+     */
+    private void readBatch(List<PendingRead> batch) {
+      boolean failedStorage = false;
+      List<PendingRead> locked = new ArrayList<PendingRead>(batch.size());
+      List<ReentrantReadWriteLock> locks = new ArrayList<ReentrantReadWriteLock>(batch.size());
+      try {
+        for (PendingRead read : batch) {
+          ReentrantReadWriteLock lock = offsetLock.getLock(read.bucketEntry.offset());
+          lock.readLock().lock();
+          locks.add(lock);
+          // as in getBlock, the space of the block may have been reused since it was queued
+          if (read.bucketEntry.equals(backingMap.get(read.key))) {
+            locked.add(read);
+          }
+        }
+        if (locked.isEmpty()) {
+          return;
+        }
+        BucketEntry first = locked.get(0).bucketEntry;
+        BucketEntry last = locked.get(locked.size() - 1).bucketEntry;
+        int length = (int) (last.offset() + last.getLength() - first.offset());
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long start = System.nanoTime();
+        ioEngine.read(buffer, first.offset());
+        cacheStats.ioRead(System.nanoTime() - start);
+        // split the bytes of the adjacent blocks into the blocks
+        for (PendingRead read : locked) {
+          ByteBuffer bb = buffer.duplicate();
+          bb.position((int) (read.bucketEntry.offset() - first.offset()));
+          bb.limit(bb.position() + read.bucketEntry.getLength());
+          read.block.set(read.bucketEntry.deserializerReference(deserialiserMap)
+              .deserialize(new SingleByteBuff(bb.slice()), true, MemoryType.EXCLUSIVE));
+        }
+        if (ioErrorStartTime > 0) {
+          ioErrorStartTime = -1;
+        }
+      } catch (IOException ioex) {
+        LOG.error("Failed reading blocks ahead from bucket cache", ioex);
+        failedStorage = true;
+      } finally {
+        for (ReentrantReadWriteLock lock : locks) {
+          lock.readLock().unlock();
+        }
+      }
+      // once the blocks are unlocked, as those of the failed storage are evicted
+      if (failedStorage && !retireFailedStorage()) {
+        checkIOErrorIsTolerated();
+      }
+    }
+  }
+
   @VisibleForTesting
   void blockEvicted(BlockCacheKey cacheKey, BucketEntry bucketEntry, boolean decrementBlockNumber) {
     bucketAllocator.freeBlock(bucketEntry.offset());
@@ -586,10 +953,16 @@ public class BucketCache implements BlockCache, HeapSize {
     long freeSize = totalSize - usedSize;
     long cacheSize = getRealCacheSize();
     LOG.info("failedBlockAdditions=" + cacheStats.getFailedInserts() + ", " +
+        "writerQueueSize=" + getWriterQueueSize() + ", " +
+        "writerWaits=" + cacheStats.getWriterWaitCount() + ", " +
+        "blocksPerWrite=" + String.format("%.2f", cacheStats.getBlocksPerIOWrite()) + ", " +
         "totalSize=" + StringUtils.byteDesc(totalSize) + ", " +
         "freeSize=" + StringUtils.byteDesc(freeSize) + ", " +
         "usedSize=" + StringUtils.byteDesc(usedSize) +", " +
         "cacheSize=" + StringUtils.byteDesc(cacheSize) +", " +
+        "wastedSize=" + StringUtils.byteDesc(getWastedSize()) + ", " +
+        "fragmentedFreeSize=" + StringUtils.byteDesc(bucketAllocator.getFragmentedFreeSize()) +
+          ", " +
         "accesses=" + cacheStats.getRequestCount() + ", " +
         "hits=" + cacheStats.getHitCount() + ", " +
         "IOhitsPerSecond=" + cacheStats.getIOHitsPerSecond() + ", " +
@@ -610,10 +983,25 @@ public class BucketCache implements BlockCache, HeapSize {
     return this.realCacheSize.get();
   }
 
+  /**
+   * @return the number of blocks waiting in the writer queues to be written to the IOEngine
+   */
+  public int getWriterQueueSize() {
+    int size = 0;
+    for (BlockingQueue<RAMQueueEntry> queue : writerQueues) {
+      size += queue.size();
+    }
+    return size;
+  }
+
   private long acceptableSize() {
     return (long) Math.floor(bucketAllocator.getTotalSize() * DEFAULT_ACCEPT_FACTOR);
   }
 
+  private long minSize() {
+    return (long) Math.floor(bucketAllocator.getTotalSize() * DEFAULT_MIN_FACTOR);
+  }
+
   private long singleSize() {
     return (long) Math.floor(bucketAllocator.getTotalSize()
         * DEFAULT_SINGLE_FACTOR * DEFAULT_MIN_FACTOR);
@@ -782,9 +1170,13 @@ public class BucketCache implements BlockCache, HeapSize {
   class WriterThread extends HasThread {
     private final BlockingQueue<RAMQueueEntry> inputQueue;
     private volatile boolean writerEnabled = true;
+    // Gathers the writes of the blocks allocated next to each other, null when the blocks are
+    // written to the memory of the IOEngine
+    private final WriteBatch writeBatch;
 
     WriterThread(BlockingQueue<RAMQueueEntry> queue) {
       this.inputQueue = queue;
+      this.writeBatch = ioEngine.usesSharedMemory() ? null : new WriteBatch();
     }
 
     // Used for test
@@ -836,9 +1228,13 @@ public class BucketCache implements BlockCache, HeapSize {
       // doing extra work when we find a non-null bucketEntries corresponding entry.
       final int size = entries.size();
       BucketEntry[] bucketEntries = new BucketEntry[size];
+      if (writeBatch != null) {
+        writeBatch.clear();
+      }
       // Index updated inside loop if success or if we can't succeed. We retry if cache is full
       // when we go to add an entry by going around the loop again without upping the index.
       int index = 0;
+      BucketWriter writer = writeBatch != null ? writeBatch : ioEngine;
       while (cacheEnabled && index < size) {
         RAMQueueEntry re = null;
         try {
@@ -849,7 +1245,14 @@ public class BucketCache implements BlockCache, HeapSize {
             continue;
           }
           BucketEntry bucketEntry =
-            re.writeToCache(ioEngine, bucketAllocator, deserialiserMap, realCacheSize);
+            re.writeToCache(writer, bucketAllocator, deserialiserMap, realCacheSize);
+          if (bucketEntry != null && writeBatch != null) {
+            writeBatch.added(index);
+          }
+          if (bucketEntry != null && persistChecksums) {
+            // the blocks restored from the persisted index are checked against it
+            bucketEntry.setChecksum(BucketIndexFile.checksum(re.getData()));
+          }
           // Successfully added.  Up index and add bucketEntry. Clear io exceptions.
           bucketEntries[index] = bucketEntry;
           if (ioErrorStartTime > 0) {
@@ -871,16 +1274,34 @@ public class BucketCache implements BlockCache, HeapSize {
         } catch (IOException ioex) {
           // Hopefully transient. Retry. checkIOErrorIsTolerated disables cache if problem.
           LOG.error("Failed writing to bucket cache", ioex);
-          checkIOErrorIsTolerated();
+          if (writeBatch != null) {
+            // The blocks written at once with this one failed as well
+            for (int failed : writeBatch.takeFailed()) {
+              bucketAllocator.freeBlock(bucketEntries[failed].offset());
+              realCacheSize.addAndGet(-1 * bucketEntries[failed].getLength());
+              bucketEntries[failed] = null;
+            }
+          }
+          if (!retireFailedStorage()) {
+            checkIOErrorIsTolerated();
+          }
         }
       }
 
       // Make sure data pages are written on media before we update maps.
       try {
+        if (writeBatch != null) {
+          writeBatch.flush();
+        }
         ioEngine.sync();
       } catch (IOException ioex) {
         LOG.error("Failed syncing IO engine", ioex);
-        checkIOErrorIsTolerated();
+        if (writeBatch != null) {
+          writeBatch.takeFailed();
+        }
+        if (!retireFailedStorage()) {
+          checkIOErrorIsTolerated();
+        }
         // Since we failed sync, free the blocks in bucket allocator
         for (int i = 0; i < entries.size(); ++i) {
           if (bucketEntries[i] != null) {
@@ -924,6 +1345,131 @@ public class BucketCache implements BlockCache, HeapSize {
     }
   }
 
+  /**
+   * Gathers the writes of the blocks allocated next to each other into a buffer, written at once to
+   * the IOEngine rather than with a write for each block. The items of a bucket are allocated in
+   * the order of their offsets, so the blocks drained together from a writer queue mostly end up
+   * next to each other.
+   */
+  @VisibleForTesting
+  class WriteBatch implements BucketWriter {
+    private final ByteBuffer buffer = ByteBuffer.allocate(MAX_WRITE_SIZE);
+    // The offset in the IOEngine of the start of the buffer, or -1 when it is empty
+    private long start = -1;
+    // The end of the items of the blocks in the buffer, where the next adjacent item starts
+    private long itemEnd;
+    // The end of the data in the buffer
+    private int end;
+    // Whether the last write went to the buffer, rather than to the IOEngine directly
+    private boolean buffered;
+    // The indexes of the drained entries whose blocks are in the buffer
+    private final List<Integer> pending = new ArrayList<Integer>();
+    // The indexes of the drained entries whose blocks failed to be written with the buffer
+    private final List<Integer> failed = new ArrayList<Integer>();
+
+    /**
+     * @return a view of the buffer positioned where the data written at the given offset goes, or
+     *         null if the data is to be written to the IOEngine directly
+     */
+    private ByteBuffer prepare(long offset, int length) throws IOException {
+      if (start < 0 || offset < start || offset + length > itemEnd) {
+        int itemSize = bucketAllocator.sizeOfAllocation(offset);
+        if (start >= 0 && offset == itemEnd && offset + itemSize - start <= buffer.capacity()) {
+          itemEnd += itemSize;
+        } else {
+          flush();
+          if (itemSize > buffer.capacity() || length > itemSize) {
+            buffered = false;
+            return null;
+          }
+          start = offset;
+          itemEnd = offset + itemSize;
+        }
+      }
+      int position = (int) (offset - start);
+      end = Math.max(end, position + length);
+      buffered = true;
+      ByteBuffer dst = buffer.duplicate();
+      dst.position(position);
+      return dst;
+    }
+
+    @Override
+    public void write(ByteBuffer srcBuffer, long offset) throws IOException {
+      ByteBuffer dst = prepare(offset, srcBuffer.remaining());
+      if (dst == null) {
+        ioEngine.write(srcBuffer, offset);
+      } else {
+        dst.put(srcBuffer);
+      }
+    }
+
+    @Override
+    public void write(ByteBuff srcBuffer, long offset) throws IOException {
+      ByteBuffer dst = prepare(offset, srcBuffer.remaining());
+      if (dst == null) {
+        ioEngine.write(srcBuffer, offset);
+      } else {
+        srcBuffer.get(dst, srcBuffer.position(), srcBuffer.remaining());
+      }
+    }
+
+    /**
+     * Records the block of the drained entry of the given index as written
+     */
+    void added(int index) {
+      if (buffered) {
+        pending.add(index);
+      }
+    }
+
+    /**
+     * Writes the content of the buffer to the IOEngine. Its blocks are all marked as failed if the
+     * write fails.
+     */
+    void flush() throws IOException {
+      if (start < 0) {
+        return;
+      }
+      ByteBuffer src = buffer.duplicate();
+      src.position(0);
+      src.limit(end);
+      long offset = start;
+      start = -1;
+      end = 0;
+      try {
+        ioEngine.write(src, offset);
+        cacheStats.ioWrite(pending.size());
+      } catch (IOException ioe) {
+        failed.addAll(pending);
+        throw ioe;
+      } finally {
+        pending.clear();
+      }
+    }
+
+    /**
+     * @return the indexes of the drained entries whose blocks failed to be written since the last
+     *         call
+     */
+    List<Integer> takeFailed() {
+      List<Integer> taken = new ArrayList<Integer>(failed);
+      failed.clear();
+      return taken;
+    }
+
+    /**
+     * Drops the content of the buffer
+     */
+    void clear() {
+      start = -1;
+      end = 0;
+      pending.clear();
+      failed.clear();
+    }
+
+  }
+
   /**
    * Blocks until elements available in {@code q} then tries to grab as many as possible
    * before returning.
@@ -944,25 +1490,161 @@ public class BucketCache implements BlockCache, HeapSize {
     return receptacle;
   }
 
-  private void persistToFile() throws IOException {
-    assert !cacheEnabled;
-    FileOutputStream fos = null;
-    ObjectOutputStream oos = null;
+  /**
+   * Persists the index of the cache, which the cache goes on being used meanwhile
+   */
+  private synchronized void persistToFile() throws IOException {
+    if (!ioEngine.isPersistent()) {
+      throw new IOException("Attempt to persist non-persistent cache mappings!");
+    }
+    long start = EnvironmentEdgeManager.currentTime();
+    int blocks = BucketIndexFile.write(new File(persistencePath), cacheCapacity,
+        ioEngine.getClass().getName(), backingMap, deserialiserMap);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Persisted the index of " + blocks + " blocks to " + persistencePath + " in "
+          + (EnvironmentEdgeManager.currentTime() - start) + "ms");
+    }
+  }
+
+  /**
+   * Persists the index of the cache every given period besides at shutdown, so that the cache
+   * is restored, for the most part, after a crash as well
+   * @param period the period between two persistences, in milliseconds, or 0 to only persist
+   *          the index at shutdown
+   */
+  public void schedulePersistence(long period) {
+    if (!ioEngine.isPersistent() || persistencePath == null || period <= 0) {
+      return;
+    }
+    LOG.info("Persisting the bucket cache index to " + persistencePath + " every " + period
+        + "ms");
+    this.scheduleThreadPool.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          persistToFile();
+        } catch (IOException ioex) {
+          LOG.warn("Failed persisting the bucket cache index to " + persistencePath, ioex);
+        }
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Drains a sparsely used bucket every given period, see {@link #compactBuckets(float)}
+   * @param period the period between two compactions, in milliseconds, or 0 to never move blocks
+   * @param maxOccupancy the highest ratio of the items of a bucket which may be used for it to be
+   *          drained
+   */
+  public void scheduleCompaction(long period, final float maxOccupancy) {
+    if (period <= 0) {
+      return;
+    }
+    LOG.info("Compacting the bucket cache every " + period + "ms, maxOccupancy="
+        + maxOccupancy);
+    this.scheduleThreadPool.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        compactBuckets(maxOccupancy);
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Moves the blocks of a sparsely used bucket to the other buckets of its size, so that it is
+   * completely free and can be taken by the sizes which are short of space. Only done when no
+   * bucket is completely free, see {@link BucketAllocator#startDraining(float)}.
+   * @param maxOccupancy the highest ratio of the items of a bucket which may be used for it to be
+   *          drained
+   * @return the number of blocks moved
+   */
+  @VisibleForTesting
+  int compactBuckets(float maxOccupancy) {
+    if (!cacheEnabled) {
+      return 0;
+    }
+    BucketAllocator.Bucket bucket = bucketAllocator.startDraining(maxOccupancy);
+    if (bucket == null) {
+      return 0;
+    }
+    long start = bucket.getBaseOffset();
+    long end = start + bucketAllocator.getBucketCapacity();
+    int moved = 0;
+    int left = 0;
     try {
-      if (!ioEngine.isPersistent()) {
-        throw new IOException("Attempt to persist non-persistent cache mappings!");
+      for (Map.Entry<BlockCacheKey, BucketEntry> entry : backingMap.entrySet()) {
+        long offset = entry.getValue().offset();
+        if (offset >= start && offset < end) {
+          if (moveBlock(entry.getKey(), entry.getValue())) {
+            moved++;
+          } else {
+            left++;
+          }
+        }
+      }
+      ioEngine.sync();
+    } catch (CacheFullException cfe) {
+      // the other buckets were filled up meanwhile
+    } catch (IOException ioex) {
+      LOG.error("Failed moving blocks in bucket cache", ioex);
+      if (!retireFailedStorage()) {
+        checkIOErrorIsTolerated();
       }
-      fos = new FileOutputStream(persistencePath, false);
-      oos = new ObjectOutputStream(fos);
-      oos.writeLong(cacheCapacity);
-      oos.writeUTF(ioEngine.getClass().getName());
-      oos.writeUTF(backingMap.getClass().getName());
-      oos.writeObject(deserialiserMap);
-      oos.writeObject(backingMap);
     } finally {
-      if (oos != null) oos.close();
-      if (fos != null) fos.close();
+      bucketAllocator.stopDraining(bucket);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Moved " + moved + " blocks out of the bucket at offset " + start + ", " + left
+          + " blocks in use left");
     }
+    return moved;
+  }
+
+  /**
+   * Moves a block to a newly allocated offset, unless it is in use
+   * @return whether the block was moved
+   */
+  private boolean moveBlock(BlockCacheKey key, BucketEntry bucketEntry) throws IOException {
+    if (bucketEntry.refCount.get() > 0 || bucketEntry.markedForEvict) {
+      // the readers refer to the shared memory of the block
+      return false;
+    }
+    long offset = bucketAllocator.allocateBlock(bucketEntry.getLength());
+    boolean moved = false;
+    try {
+      ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntry.offset());
+      lock.readLock().lock();
+      try {
+        if (!bucketEntry.equals(backingMap.get(key))) {
+          return false;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(bucketEntry.getLength());
+        ioEngine.read(bytes, bucketEntry.offset());
+        bytes.flip();
+        ioEngine.write(bytes, offset);
+      } finally {
+        lock.readLock().unlock();
+      }
+      BucketEntry movedEntry = new BucketEntry(bucketEntry, offset);
+      lock.writeLock().lock();
+      try {
+        if (bucketEntry.refCount.get() == 0 && !bucketEntry.markedForEvict
+            && backingMap.replace(key, bucketEntry, movedEntry)) {
+          bucketAllocator.freeBlock(bucketEntry.offset());
+          moved = true;
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } finally {
+      if (!moved) {
+        bucketAllocator.freeBlock(offset);
+      }
+    }
+    if (moved) {
+      cacheStats.blockMoved();
+    }
+    return moved;
   }
 
   @SuppressWarnings("unchecked")
@@ -973,12 +1655,19 @@ public class BucketCache implements BlockCache, HeapSize {
       return;
     }
     assert !cacheEnabled;
+    if (!ioEngine.isPersistent()) {
+      throw new IOException("Attempt to restore non-persistent cache mappings!");
+    }
+    if (BucketIndexFile.isIndexFile(persistenceFile)) {
+      // the file is kept, as it is rewritten in place when persisting the index again
+      BucketIndexFile.Contents contents = BucketIndexFile.read(persistenceFile, cacheCapacity,
+          ioEngine.getClass().getName());
+      restore(bucketSizes, contents.backingMap, contents.deserialiserMap);
+      return;
+    }
     FileInputStream fis = null;
     ObjectInputStream ois = null;
     try {
-      if (!ioEngine.isPersistent())
-        throw new IOException(
-            "Attempt to restore non-persistent cache mappings!");
       fis = new FileInputStream(persistencePath);
       ois = new ObjectInputStream(fis);
       long capacitySize = ois.readLong();
@@ -996,12 +1685,9 @@ public class BucketCache implements BlockCache, HeapSize {
             + ", expected:" + backingMap.getClass().getName());
       UniqueIndexMap<Integer> deserMap = (UniqueIndexMap<Integer>) ois
           .readObject();
-      BucketAllocator allocator = new BucketAllocator(cacheCapacity, bucketSizes,
-          backingMap, realCacheSize);
-      backingMap = (ConcurrentHashMap<BlockCacheKey, BucketEntry>) ois
-          .readObject();
-      bucketAllocator = allocator;
-      deserialiserMap = deserMap;
+      ConcurrentHashMap<BlockCacheKey, BucketEntry> map =
+          (ConcurrentHashMap<BlockCacheKey, BucketEntry>) ois.readObject();
+      restore(bucketSizes, map, deserMap);
     } finally {
       if (ois != null) ois.close();
       if (fis != null) fis.close();
@@ -1012,6 +1698,42 @@ public class BucketCache implements BlockCache, HeapSize {
     }
   }
 
+  private void restore(int[] bucketSizes, ConcurrentHashMap<BlockCacheKey, BucketEntry> map,
+      UniqueIndexMap<Integer> deserMap) throws BucketAllocatorException {
+    // drops the blocks it can not allocate again from the map
+    BucketAllocator allocator = new BucketAllocator(cacheCapacity, bucketSizes, map,
+        realCacheSize);
+    bucketAllocator = allocator;
+    backingMap = map;
+    deserialiserMap = deserMap;
+    blocksByHFile.addAll(map.keySet());
+    blockNumber.set(map.size());
+    LOG.info("Restored " + map.size() + " blocks, "
+        + StringUtils.byteDesc(realCacheSize.get()) + ", from " + persistencePath);
+  }
+
+  /**
+   * Drops the blocks stored where the IOEngine failed, when only part of its storage did, and
+   * stops allocating there, so that the cache goes on with the rest of its storage. Must not be
+   * called while holding the lock of a block.
+   * @return true if some storage was found failed since the last call
+   */
+  private synchronized boolean retireFailedStorage() {
+    int retired = bucketAllocator.retireFailedBuckets(ioEngine);
+    if (retired == 0) {
+      return false;
+    }
+    int evicted = 0;
+    for (Map.Entry<BlockCacheKey, BucketEntry> entry : backingMap.entrySet()) {
+      if (ioEngine.isFailed(entry.getValue().offset()) && evictBlock(entry.getKey())) {
+        evicted++;
+      }
+    }
+    LOG.warn("Retired " + retired + " buckets of failed storage of " + ioEngine + ", evicted "
+        + evicted + " blocks stored there");
+    return true;
+  }
+
   /**
    * Check whether we tolerate IO error this time. If the duration of IOEngine
    * throwing errors exceeds ioErrorsDurationTimeTolerated, we will disable the
@@ -1039,7 +1761,20 @@ public class BucketCache implements BlockCache, HeapSize {
     ioEngine.shutdown();
     this.scheduleThreadPool.shutdown();
     for (int i = 0; i < writerThreads.length; ++i) writerThreads[i].interrupt();
+    if (readerThreads != null) {
+      for (ReaderThread readerThread : readerThreads) readerThread.interrupt();
+      // not to leave a request waiting for a block which will not be read
+      List<PendingRead> reads = new ArrayList<PendingRead>();
+      readQueue.drainTo(reads);
+      for (PendingRead read : reads) {
+        read.block.set(null);
+      }
+      for (PendingRead read : pendingReads.values()) {
+        read.block.set(null);
+      }
+    }
     this.ramCache.clear();
+    this.pendingReads.clear();
     if (!ioEngine.isPersistent() || persistencePath == null) {
       // If persistent ioengine and a path, we will serialize out the backingMap.
       this.backingMap.clear();
@@ -1077,6 +1812,13 @@ public class BucketCache implements BlockCache, HeapSize {
     return this.bucketAllocator;
   }
 
+  /**
+   * @return the bytes of the allocated items which the blocks in them do not use
+   */
+  public long getWastedSize() {
+    return Math.max(0, this.bucketAllocator.getUsedSize() - this.realCacheSize.get());
+  }
+
   @Override
   public long heapSize() {
     return this.heapSize.get();
@@ -1125,6 +1867,20 @@ public class BucketCache implements BlockCache, HeapSize {
     return numEvicted;
   }
 
+  /**
+   * @param hfileName the name of a file
+   * @return the offsets of the cached blocks of the given file, in file order, as listed by the
+   *         index the blocks are evicted with on close
+   */
+  public List<Long> getCachedOffsets(String hfileName) {
+    List<Long> offsets = new ArrayList<Long>();
+    for (BlockCacheKey key : blocksByHFile.subSet(new BlockCacheKey(hfileName, Long.MIN_VALUE),
+        true, new BlockCacheKey(hfileName, Long.MAX_VALUE), true)) {
+      offsets.add(key.getOffset());
+    }
+    return offsets;
+  }
+
   /**
    * Item in cache. We expect this to be where most memory goes. Java uses 8
    * bytes just for object headers; after this, we want to use as little as
@@ -1156,13 +1912,19 @@ public class BucketCache implements BlockCache, HeapSize {
     // Set this when we were not able to forcefully evict the block
     private volatile boolean markedForEvict;
     private AtomicInteger refCount = new AtomicInteger(0);
+    // Checksum of the cached bytes, only computed when the index of the cache is persisted
+    private int checksum;
+    // Set when restored from a persisted index, until the cached bytes are checked to be the
+    // ones of the block: the space may have been reused after the index was persisted.
+    private volatile boolean unverified;
 
     /**
      * Time this block was cached.  Presumes we are created just before we are added to the cache.
      */
-    private final long cachedTime = System.nanoTime();
+    private final long cachedTime;
 
     BucketEntry(long offset, int length, long accessCounter, boolean inMemory) {
+      this.cachedTime = System.nanoTime();
       setOffset(offset);
       this.length = length;
       this.accessCounter = accessCounter;
@@ -1173,6 +1935,35 @@ public class BucketCache implements BlockCache, HeapSize {
       }
     }
 
+    /**
+     * Restores an entry from a persisted index
+     */
+    BucketEntry(long offset, int length, long accessCounter, BlockPriority priority,
+        byte deserialiserIndex, int checksum) {
+      this.cachedTime = System.nanoTime();
+      setOffset(offset);
+      this.length = length;
+      this.accessCounter = accessCounter;
+      this.priority = priority;
+      this.deserialiserIndex = deserialiserIndex;
+      this.checksum = checksum;
+      this.unverified = true;
+    }
+
+    /**
+     * Copies an entry, for its block moved to the given offset
+     */
+    BucketEntry(BucketEntry entry, long offset) {
+      this.cachedTime = entry.cachedTime;
+      setOffset(offset);
+      this.length = entry.length;
+      this.accessCounter = entry.accessCounter;
+      this.priority = entry.priority;
+      this.deserialiserIndex = entry.deserialiserIndex;
+      this.checksum = entry.checksum;
+      this.unverified = entry.unverified;
+    }
+
     long offset() { // Java has no unsigned numbers
       long o = ((long) offsetBase) & 0xFFFFFFFF;
       o += (((long) (offset1)) & 0xFF) << 32;
@@ -1220,6 +2011,26 @@ public class BucketCache implements BlockCache, HeapSize {
     public long getCachedTime() {
       return cachedTime;
     }
+
+    long getAccessCounter() {
+      return accessCounter;
+    }
+
+    int getChecksum() {
+      return checksum;
+    }
+
+    void setChecksum(int checksum) {
+      this.checksum = checksum;
+    }
+
+    boolean isUnverified() {
+      return unverified;
+    }
+
+    void markVerified() {
+      this.unverified = false;
+    }
   }
 
   /**
@@ -1313,7 +2124,7 @@ public class BucketCache implements BlockCache, HeapSize {
       this.accessCounter = accessCounter;
     }
 
-    public BucketEntry writeToCache(final IOEngine ioEngine,
+    public BucketEntry writeToCache(final BucketWriter writer,
         final BucketAllocator bucketAllocator,
         final UniqueIndexMap<Integer> deserialiserMap,
         final AtomicLong realCacheSize) throws CacheFullException, IOException,
@@ -1333,12 +2144,12 @@ public class BucketCache implements BlockCache, HeapSize {
           if (LOG.isTraceEnabled()) {
             LOG.trace("Write offset=" + offset + ", len=" + len);
           }
-          ioEngine.write(sliceBuf, offset);
-          ioEngine.write(metadata, offset + len - metadata.limit());
+          writer.write(sliceBuf, offset);
+          writer.write(metadata, offset + len - metadata.limit());
         } else {
           ByteBuffer bb = ByteBuffer.allocate(len);
           data.serialize(bb);
-          ioEngine.write(bb, offset);
+          writer.write(bb, offset);
         }
       } catch (IOException ioe) {
         // free it in bucket allocator
@@ -22,6 +22,7 @@ import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
 import org.apache.hadoop.hbase.util.Counter;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.FastLongHistogram;
 
 /**
  * Class that implements cache metrics for bucket cache.
@@ -30,6 +31,15 @@ import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 public class BucketCacheStats extends CacheStats {
   private final Counter ioHitCount = new Counter(0);
   private final Counter ioHitTime = new Counter(0);
+  /** The latencies of the reads from the IOEngine, in microseconds */
+  private final FastLongHistogram ioReadLatency = new FastLongHistogram();
+  private final Counter readAheadCount = new Counter(0);
+  private final Counter readAheadHitCount = new Counter(0);
+  private final Counter movedBlockCount = new Counter(0);
+  private final Counter writerWaitCount = new Counter(0);
+  private final Counter writerWaitTime = new Counter(0);
+  private final Counter ioWriteCount = new Counter(0);
+  private final Counter ioWrittenBlockCount = new Counter(0);
   private final static int nanoTime = 1000000;
   private long lastLogTime = EnvironmentEdgeManager.currentTime();
 
@@ -39,8 +49,14 @@ public class BucketCacheStats extends CacheStats {
 
   @Override
   public String toString() {
+    long[] latencies = getIOReadLatencies();
     return super.toString() + ", ioHitsPerSecond=" + getIOHitsPerSecond() +
-      ", ioTimePerHit=" + getIOTimePerHit();
+      ", ioTimePerHit=" + getIOTimePerHit() + ", ioReadLatencyMedian=" + latencies[0] +
+      "us, ioReadLatency99th=" + latencies[1] + "us, ioReadLatencyMax=" +
+      ioReadLatency.getMax() + "us, readAheads=" + getReadAheadCount() + ", readAheadHits=" +
+      getReadAheadHitCount() + ", movedBlocks=" + getMovedBlockCount() + ", writerWaits=" +
+      getWriterWaitCount() + ", writerWaitTime=" + getWriterWaitTime() + "ms, blocksPerIOWrite=" +
+      getBlocksPerIOWrite();
   }
 
   public void ioHit(long time) {
@@ -48,6 +64,94 @@ public class BucketCacheStats extends CacheStats {
     ioHitTime.add(time);
   }
 
+  /**
+   * Records a read from the IOEngine, of one block or of several adjacent ones
+   * @param time the time the read took, in nanoseconds
+   */
+  public void ioRead(long time) {
+    ioReadLatency.add(time / 1000, 1);
+  }
+
+  public void readAhead() {
+    readAheadCount.increment();
+  }
+
+  public void readAheadHit() {
+    readAheadHitCount.increment();
+  }
+
+  /**
+   * Records a block moved to another bucket, to free the one it was in
+   */
+  public void blockMoved() {
+    movedBlockCount.increment();
+  }
+
+  /**
+   * Records a wait for room in the writer queues
+   * @param time the time waited, in nanoseconds
+   */
+  public void writerWait(long time) {
+    writerWaitCount.increment();
+    writerWaitTime.add(time);
+  }
+
+  /**
+   * Records a write to the IOEngine of the blocks gathered in a batch
+   * @param blocks the number of blocks written at once
+   */
+  public void ioWrite(int blocks) {
+    ioWriteCount.increment();
+    ioWrittenBlockCount.add(blocks);
+  }
+
+  /**
+   * @return the median and the 99th percentile of the latencies of the reads from the IOEngine
+   *         since the last reset, in microseconds
+   */
+  public long[] getIOReadLatencies() {
+    return ioReadLatency.getQuantiles(new double[] { 0.5, 0.99 });
+  }
+
+  public long getIOReadCount() {
+    return ioReadLatency.getCount();
+  }
+
+  public long getReadAheadCount() {
+    return readAheadCount.get();
+  }
+
+  public long getReadAheadHitCount() {
+    return readAheadHitCount.get();
+  }
+
+  public long getMovedBlockCount() {
+    return movedBlockCount.get();
+  }
+
+  public long getWriterWaitCount() {
+    return writerWaitCount.get();
+  }
+
+  /**
+   * @return the total time waited for room in the writer queues, in milliseconds
+   */
+  public long getWriterWaitTime() {
+    return writerWaitTime.get() / nanoTime;
+  }
+
+  public long getIOWriteCount() {
+    return ioWriteCount.get();
+  }
+
+  /**
+   * @return the average number of blocks written at once by the batched writes to the IOEngine
+   */
+  public double getBlocksPerIOWrite() {
+    long count = ioWriteCount.get();
+    return count == 0 ? 0 : (double) ioWrittenBlockCount.get() / count;
+  }
+
   public long getIOHitsPerSecond() {
     long now = EnvironmentEdgeManager.currentTime();
     long took = (now - lastLogTime) / 1000;
@@ -64,5 +168,13 @@ public class BucketCacheStats extends CacheStats {
   public void reset() {
     ioHitCount.set(0);
     ioHitTime.set(0);
+    ioReadLatency.reset();
+    readAheadCount.set(0);
+    readAheadHitCount.set(0);
+    movedBlockCount.set(0);
+    writerWaitCount.set(0);
+    writerWaitTime.set(0);
+    ioWriteCount.set(0);
+    ioWrittenBlockCount.set(0);
   }
 }
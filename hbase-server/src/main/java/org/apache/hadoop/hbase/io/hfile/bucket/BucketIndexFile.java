@@ -0,0 +1,327 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.HFileBlock;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.util.ObjectIntPair;
+
+/**
+ * The persisted index of a {@link BucketCache}: where each cached block is in the
+ * {@link IOEngine}. The file is laid out as follows, in the big-endian order of
+ * {@link DataOutputStream}:
+ * <pre>
+ * int magic, int version, long cache capacity, UTF IOEngine class name,
+ * int file count, then for each file:
+ *   UTF file name, int block count, then for each block:
+ *     long offset in the file, byte block type (-1 if unknown), boolean primary replica,
+ *     long offset in the cache, int length, byte deserialiser index, byte priority,
+ *     long access counter, int checksum of the cached bytes,
+ * int deserialiser count, then for each deserialiser: int index, int deserialiser id,
+ * long CRC32 of all the previous bytes
+ * </pre>
+ * A file is written aside and renamed over the previous one once synced, so that a crash while
+ * persisting leaves the previous index in place. The cache goes on being used while its index is
+ * persisted, so the blocks it lists may be evicted, and their space reused, before the index is
+ * read back: the cached bytes of each restored block are checked against their checksum when
+ * first read.
+ */
+@InterfaceAudience.Private
+final class BucketIndexFile {
+  /** "BCIX" */
+  static final int MAGIC = 0x42434958;
+  static final int VERSION = 1;
+
+  /** The chunk the direct buffers are checksummed through, per thread */
+  private static final ThreadLocal<byte[]> CHECKSUM_CHUNK = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[8 * 1024];
+    }
+  };
+
+  private BucketIndexFile() {
+  }
+
+  /**
+   * The blocks restored from a persisted index
+   */
+  static class Contents {
+    final ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMap;
+    final UniqueIndexMap<Integer> deserialiserMap;
+
+    Contents(ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMap,
+        UniqueIndexMap<Integer> deserialiserMap) {
+      this.backingMap = backingMap;
+      this.deserialiserMap = deserialiserMap;
+    }
+  }
+
+  /**
+   * @return whether the given file is in this format, as opposed to the java serialization
+   *         formerly used
+   */
+  static boolean isIndexFile(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      return in.readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes the index of the given blocks to the given file
+   * @return the number of blocks written
+   */
+  static int write(File file, long capacity, String ioEngineClass,
+      Map<BlockCacheKey, BucketEntry> backingMap, UniqueIndexMap<Integer> deserialiserMap)
+      throws IOException {
+    // the index is written file by file, which also saves repeating the file names
+    Map<String, List<Map.Entry<BlockCacheKey, BucketEntry>>> byFile =
+        new HashMap<String, List<Map.Entry<BlockCacheKey, BucketEntry>>>();
+    int blockCount = 0;
+    for (Map.Entry<BlockCacheKey, BucketEntry> entry : backingMap.entrySet()) {
+      List<Map.Entry<BlockCacheKey, BucketEntry>> entries =
+          byFile.get(entry.getKey().getHfileName());
+      if (entries == null) {
+        entries = new ArrayList<Map.Entry<BlockCacheKey, BucketEntry>>();
+        byFile.put(entry.getKey().getHfileName(), entries);
+      }
+      entries.add(entry);
+      blockCount++;
+    }
+
+    File tmp = new File(file.getPath() + ".tmp");
+    FileOutputStream fos = new FileOutputStream(tmp, false);
+    try {
+      CRC32 crc = new CRC32();
+      DataOutputStream out = new DataOutputStream(
+          new CheckedOutputStream(new BufferedOutputStream(fos), crc));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(capacity);
+      out.writeUTF(ioEngineClass);
+      out.writeInt(byFile.size());
+      for (Map.Entry<String, List<Map.Entry<BlockCacheKey, BucketEntry>>> hfile :
+          byFile.entrySet()) {
+        out.writeUTF(hfile.getKey());
+        out.writeInt(hfile.getValue().size());
+        for (Map.Entry<BlockCacheKey, BucketEntry> entry : hfile.getValue()) {
+          BlockCacheKey key = entry.getKey();
+          BucketEntry bucketEntry = entry.getValue();
+          out.writeLong(key.getOffset());
+          out.writeByte(key.getBlockType() == null ? -1 : key.getBlockType().ordinal());
+          out.writeBoolean(key.isPrimary());
+          out.writeLong(bucketEntry.offset());
+          out.writeInt(bucketEntry.getLength());
+          out.writeByte(bucketEntry.deserialiserIndex);
+          out.writeByte(bucketEntry.getPriority().ordinal());
+          out.writeLong(bucketEntry.getAccessCounter());
+          out.writeInt(bucketEntry.getChecksum());
+        }
+      }
+      // after the blocks, which may have added deserialisers meanwhile
+      Map<Integer, Integer> deserialisers = new HashMap<Integer, Integer>(
+          deserialiserMap.mReverseMap);
+      out.writeInt(deserialisers.size());
+      for (Map.Entry<Integer, Integer> deserialiser : deserialisers.entrySet()) {
+        out.writeInt(deserialiser.getKey());
+        out.writeInt(deserialiser.getValue());
+      }
+      out.flush();
+      new DataOutputStream(fos).writeLong(crc.getValue());
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+    if (!tmp.renameTo(file)) {
+      throw new IOException("Failed renaming " + tmp + " to " + file);
+    }
+    return blockCount;
+  }
+
+  /**
+   * Reads the index persisted in the given file, if it was written for a cache of the given
+   * capacity and IOEngine
+   * @throws IOException if the file can not be read, is corrupt or is for another cache
+   */
+  static Contents read(File file, long capacity, String ioEngineClass) throws IOException {
+    InputStream fis = new BufferedInputStream(new FileInputStream(file));
+    try {
+      CRC32 crc = new CRC32();
+      DataInputStream in = new DataInputStream(new CheckedInputStream(fis, crc));
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a bucket cache index file: " + file);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported version " + version + " of " + file);
+      }
+      long persistedCapacity = in.readLong();
+      if (persistedCapacity != capacity) {
+        throw new IOException("Mismatched cache capacity: " + persistedCapacity
+            + ", expected: " + capacity);
+      }
+      String persistedIOEngineClass = in.readUTF();
+      if (!persistedIOEngineClass.equals(ioEngineClass)) {
+        throw new IOException("Class name for IO engine mismatch: " + persistedIOEngineClass
+            + ", expected: " + ioEngineClass);
+      }
+      BlockType[] blockTypes = BlockType.values();
+      BlockPriority[] priorities = BlockPriority.values();
+      ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMap =
+          new ConcurrentHashMap<BlockCacheKey, BucketEntry>();
+      int fileCount = in.readInt();
+      for (int i = 0; i < fileCount; i++) {
+        String hfileName = in.readUTF();
+        int blockCount = in.readInt();
+        for (int j = 0; j < blockCount; j++) {
+          long blockOffset = in.readLong();
+          byte blockType = in.readByte();
+          boolean primary = in.readBoolean();
+          long offset = in.readLong();
+          int length = in.readInt();
+          byte deserialiserIndex = in.readByte();
+          byte priority = in.readByte();
+          long accessCounter = in.readLong();
+          int checksum = in.readInt();
+          if (blockType >= blockTypes.length || priority < 0 || priority >= priorities.length) {
+            throw new IOException("Corrupt bucket cache index " + file);
+          }
+          backingMap.put(
+              new BlockCacheKey(hfileName, blockOffset, primary,
+                  blockType < 0 ? null : blockTypes[blockType]),
+              new BucketEntry(offset, length, accessCounter, priorities[priority],
+                  deserialiserIndex, checksum));
+        }
+      }
+      UniqueIndexMap<Integer> deserialiserMap = new UniqueIndexMap<Integer>();
+      int deserialiserCount = in.readInt();
+      int maxIndex = 0;
+      for (int i = 0; i < deserialiserCount; i++) {
+        int index = in.readInt();
+        int id = in.readInt();
+        deserialiserMap.mForwardMap.put(id, index);
+        deserialiserMap.mReverseMap.put(index, id);
+        maxIndex = Math.max(maxIndex, index);
+      }
+      deserialiserMap.mIndex.set(maxIndex);
+      long expected = crc.getValue();
+      long persisted = new DataInputStream(fis).readLong();
+      if (persisted != expected) {
+        throw new IOException("Checksum mismatch in bucket cache index " + file);
+      }
+      return new Contents(backingMap, deserialiserMap);
+    } finally {
+      fis.close();
+    }
+  }
+
+  /**
+   * @return the checksum of the bytes the given block is cached as
+   */
+  static int checksum(Cacheable data) {
+    CRC32 crc = new CRC32();
+    if (data instanceof HFileBlock) {
+      // as written by RAMQueueEntry#writeToCache, the metadata right after the block
+      HFileBlock block = (HFileBlock) data;
+      update(crc, block.getBufferReadOnly());
+      update(crc, block.getMetaData());
+    } else {
+      ByteBuffer bb = ByteBuffer.allocate(data.getSerializedLength());
+      data.serialize(bb);
+      crc.update(bb.array(), 0, bb.capacity());
+    }
+    return (int) crc.getValue();
+  }
+
+  /**
+   * @return the checksum of the bytes of the given buffer between its position and its limit
+   */
+  static int checksum(ByteBuff buf) {
+    CRC32 crc = new CRC32();
+    update(crc, buf);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Updates the given checksum with the bytes of the given buffer between its position and its
+   * limit, without moving its position
+   */
+  static void update(CRC32 crc, ByteBuff buf) {
+    if (buf.hasArray()) {
+      crc.update(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+    } else {
+      ObjectIntPair<ByteBuffer> pair = new ObjectIntPair<ByteBuffer>();
+      buf.asSubByteBuffer(buf.position(), buf.remaining(), pair);
+      ByteBuffer bb = pair.getFirst().duplicate();
+      bb.limit(pair.getSecond() + buf.remaining());
+      bb.position(pair.getSecond());
+      update(crc, bb);
+    }
+  }
+
+  /**
+   * Updates the given checksum with the bytes of the given buffer between its position and its
+   * limit, without moving its position
+   */
+  static void update(CRC32 crc, ByteBuffer buf) {
+    if (buf.hasArray()) {
+      crc.update(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+    } else {
+      // CRC32 only reads direct buffers from JDK 8 on: copy them through a chunk on the heap
+      byte[] chunk = CHECKSUM_CHUNK.get();
+      ByteBuffer bb = buf.duplicate();
+      while (bb.hasRemaining()) {
+        int length = Math.min(chunk.length, bb.remaining());
+        bb.get(chunk, 0, length);
+        crc.update(chunk, 0, length);
+      }
+    }
+  }
+}
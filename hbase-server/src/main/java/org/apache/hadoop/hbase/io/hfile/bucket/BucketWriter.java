@@ -0,0 +1,49 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+
+/**
+ * Writes the bytes of the blocks of a {@link BucketCache} at the offsets allocated for them,
+ * either to the {@link IOEngine} directly or through a batch of adjacent writes.
+ */
+@InterfaceAudience.Private
+public interface BucketWriter {
+  /**
+   * Transfers data from the given byte buffer to IOEngine
+   * @param srcBuffer the given byte buffer from which bytes are to be read
+   * @param offset The offset in the IO engine where the first byte to be
+   *          written
+   * @throws IOException
+   */
+  void write(ByteBuffer srcBuffer, long offset) throws IOException;
+
+  /**
+   * Transfers the data from the given MultiByteBuffer to IOEngine
+   * @param srcBuffer the given MultiBytebufffers from which bytes are to be read
+   * @param offset the offset in the IO engine where the first byte to be written
+   * @throws IOException
+   */
+  void write(ByteBuff srcBuffer, long offset) throws IOException;
+}
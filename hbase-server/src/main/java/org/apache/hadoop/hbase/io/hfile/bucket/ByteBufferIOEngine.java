@@ -61,8 +61,13 @@ import org.apache.hadoop.hbase.util.ByteBufferArray;
  * arrives at ByteBufferArray and it figures which BB to write to. It may so happen that the entire
  * block to be written does not fit a particular backing ByteBufferArray so the remainder goes to
  * another BB. See {@link ByteBufferArray#putMultiple(long, int, byte[])}.
-
-So said all these, when we read a block it may be possible that the bytes of that blocks is physically placed in 2 adjucent BBs.  In such case also, we avoid any copy need by having the MBB...
+ *
+ * <p>So said all these, when we read a block it may be possible that the bytes of that blocks is
+ * physically placed in 2 adjucent BBs. In such case also, we avoid any copy need by having the
+ * MBB, but the cells of such a block that straddle the two BBs have to be copied when they are
+ * read. To avoid that, BucketCache passes the bucket capacity as the alignment of the backing BBs,
+ * so that their size is a multiple of it (4104 KB with the defaults). Every bucket, and so every
+ * block, then lies within one BB and is read as a SingleByteBuff.
  */
 @InterfaceAudience.Private
 public class ByteBufferIOEngine implements IOEngine {
@@ -78,6 +83,18 @@ public class ByteBufferIOEngine implements IOEngine {
    */
   public ByteBufferIOEngine(long capacity, boolean direct)
       throws IOException {
+    this(capacity, direct, 0);
+  }
+
+  /**
+   * Construct the ByteBufferIOEngine with the given capacity
+   * @param capacity
+   * @param direct true if allocate direct buffer
+   * @param bufferAlignment the size each backing buffer should be a multiple of, or 0 for none
+   * @throws IOException ideally here no exception to be thrown from the allocator
+   */
+  public ByteBufferIOEngine(long capacity, boolean direct, long bufferAlignment)
+      throws IOException {
     this.capacity = capacity;
     this.direct = direct;
     ByteBufferAllocator allocator = new ByteBufferAllocator() {
@@ -91,7 +108,7 @@ public class ByteBufferIOEngine implements IOEngine {
         }
       }
     };
-    bufferArray = new ByteBufferArray(capacity, direct, allocator);
+    bufferArray = new ByteBufferArray(capacity, direct, allocator, bufferAlignment);
   }
 
   @Override
@@ -110,6 +127,16 @@ public class ByteBufferIOEngine implements IOEngine {
     return false;
   }
 
+  @Override
+  public boolean usesSharedMemory() {
+    return true;
+  }
+
+  @Override
+  public boolean isFailed(long offset) {
+    return false;
+  }
+
   @Override
   public Cacheable read(long offset, int length, CacheableDeserializer<Cacheable> deserializer)
       throws IOException {
@@ -123,6 +150,14 @@ public class ByteBufferIOEngine implements IOEngine {
     return deserializer.deserialize(dstBuffer, true, MemoryType.SHARED);
   }
 
+  @Override
+  public void read(ByteBuffer dstBuffer, long offset) throws IOException {
+    assert dstBuffer.hasArray();
+    bufferArray.getMultiple(offset, dstBuffer.remaining(), dstBuffer.array(),
+        dstBuffer.arrayOffset() + dstBuffer.position());
+    dstBuffer.position(dstBuffer.limit());
+  }
+
   /**
    * Transfers data from the given byte buffer to the buffer array
    * @param srcBuffer the given byte buffer from which bytes are to be read
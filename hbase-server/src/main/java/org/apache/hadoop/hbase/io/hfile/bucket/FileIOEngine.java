@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,44 +34,80 @@ import org.apache.hadoop.hbase.nio.ByteBuff;
 import org.apache.hadoop.hbase.nio.SingleByteBuff;
 import org.apache.hadoop.util.StringUtils;
 
+import com.google.common.annotations.VisibleForTesting;
+
 /**
- * IO engine that stores data to a file on the local file system.
+ * IO engine that stores data to files on the local file system. With several files, typically on
+ * as many devices, the offsets are striped across the files: the first stripe goes to the first
+ * file, the second one to the second file, and so on. Each file is accessed through its own
+ * channel, so the I/Os of the devices do not wait on each other. Once a file fails, the offsets
+ * of its stripes are reported as failed, and fail right away, so that the cache can go on with
+ * the other files.
  */
 @InterfaceAudience.Private
 public class FileIOEngine implements IOEngine {
   private static final Log LOG = LogFactory.getLog(FileIOEngine.class);
-  private final RandomAccessFile raf;
-  private final FileChannel fileChannel;
-  private final String path;
+  /** Separates the paths of the files of the engine */
+  public static final String FILE_DELIMITER = ",";
+
+  private final RandomAccessFile[] rafs;
+  @VisibleForTesting
+  final FileChannel[] fileChannels;
+  private final String[] filePaths;
+  /** Whether each file failed, replaced when one does */
+  private volatile boolean[] failed;
+  private final long stripeSize;
   private long size;
 
   public FileIOEngine(String filePath, long fileSize) throws IOException {
-    this.path = filePath;
-    this.size = fileSize;
-    try {
-      raf = new RandomAccessFile(filePath, "rw");
-    } catch (java.io.FileNotFoundException fex) {
-      LOG.error("Can't create bucket cache file " + filePath, fex);
-      throw fex;
-    }
+    this(fileSize, fileSize, filePath);
+  }
 
-    try {
-      raf.setLength(fileSize);
-    } catch (IOException ioex) {
-      LOG.error("Can't extend bucket cache file; insufficient space for "
-          + StringUtils.byteDesc(fileSize), ioex);
-      raf.close();
-      throw ioex;
+  /**
+   * @param capacity the total size of the engine
+   * @param stripeSize the number of consecutive bytes stored in the same file. The buckets of the
+   *          cache should not span several stripes, so that each block is read from one device
+   * @param filePaths the paths of the files
+   */
+  public FileIOEngine(long capacity, long stripeSize, String... filePaths) throws IOException {
+    this.filePaths = filePaths;
+    this.size = capacity;
+    this.stripeSize = filePaths.length == 1 ? Math.max(1, capacity) : stripeSize;
+    this.rafs = new RandomAccessFile[filePaths.length];
+    this.fileChannels = new FileChannel[filePaths.length];
+    this.failed = new boolean[filePaths.length];
+    long stripes = (capacity + this.stripeSize - 1) / this.stripeSize;
+    long fileSize = (stripes + filePaths.length - 1) / filePaths.length * this.stripeSize;
+    if (filePaths.length == 1) {
+      fileSize = capacity;
     }
+    for (int i = 0; i < filePaths.length; i++) {
+      try {
+        rafs[i] = new RandomAccessFile(filePaths[i], "rw");
+      } catch (java.io.FileNotFoundException fex) {
+        LOG.error("Can't create bucket cache file " + filePaths[i], fex);
+        shutdown();
+        throw fex;
+      }
 
-    fileChannel = raf.getChannel();
-    LOG.info("Allocating " + StringUtils.byteDesc(fileSize) + ", on the path:" + filePath);
+      try {
+        rafs[i].setLength(fileSize);
+      } catch (IOException ioex) {
+        LOG.error("Can't extend bucket cache file; insufficient space for "
+            + StringUtils.byteDesc(fileSize), ioex);
+        shutdown();
+        throw ioex;
+      }
+
+      fileChannels[i] = rafs[i].getChannel();
+      LOG.info("Allocating " + StringUtils.byteDesc(fileSize) + ", on the path:" + filePaths[i]);
+    }
   }
 
   @Override
   public String toString() {
-    return "ioengine=" + this.getClass().getSimpleName() + ", path=" + this.path +
-      ", size=" + String.format("%,d", this.size);
+    return "ioengine=" + this.getClass().getSimpleName() + ", paths="
+        + Arrays.toString(this.filePaths) + ", size=" + String.format("%,d", this.size);
   }
 
   /**
@@ -82,6 +119,16 @@ public class FileIOEngine implements IOEngine {
     return true;
   }
 
+  @Override
+  public boolean usesSharedMemory() {
+    return false;
+  }
+
+  @Override
+  public boolean isFailed(long offset) {
+    return failed[getFileIndex(offset)];
+  }
+
   /**
    * Transfers data from file to the given byte buffer
    * @param offset The offset in the file where the first byte to be read
@@ -94,7 +141,8 @@ public class FileIOEngine implements IOEngine {
   public Cacheable read(long offset, int length, CacheableDeserializer<Cacheable> deserializer)
       throws IOException {
     ByteBuffer dstBuffer = ByteBuffer.allocate(length);
-    fileChannel.read(dstBuffer, offset);
+    accessFiles(dstBuffer, offset, true);
+    dstBuffer.flip();
     // The buffer created out of the fileChannel is formed by copying the data from the file
     // Hence in this case there is no shared memory that we point to. Even if the BucketCache evicts
     // this buffer from the file the data is already copied and there is no need to ensure that
@@ -106,6 +154,14 @@ public class FileIOEngine implements IOEngine {
     return deserializer.deserialize(new SingleByteBuff(dstBuffer), true, MemoryType.EXCLUSIVE);
   }
 
+  @Override
+  public void read(ByteBuffer dstBuffer, long offset) throws IOException {
+    accessFiles(dstBuffer, offset, true);
+    if (dstBuffer.hasRemaining()) {
+      throw new RuntimeException(dstBuffer.remaining() + " bytes not read at " + offset);
+    }
+  }
+
   /**
    * Transfers data from the given byte buffer to file
    * @param srcBuffer the given byte buffer from which bytes are to be read
@@ -114,7 +170,64 @@ public class FileIOEngine implements IOEngine {
    */
   @Override
   public void write(ByteBuffer srcBuffer, long offset) throws IOException {
-    fileChannel.write(srcBuffer, offset);
+    accessFiles(srcBuffer, offset, false);
+  }
+
+  /**
+   * Reads or writes the given buffer, between its position and its limit, from or to the stripes
+   * it spans
+   */
+  private void accessFiles(ByteBuffer buffer, long offset, boolean read) throws IOException {
+    int limit = buffer.limit();
+    while (buffer.position() < limit) {
+      int fileIndex = getFileIndex(offset);
+      if (failed[fileIndex]) {
+        throw new IOException("Failed bucket cache file " + filePaths[fileIndex]);
+      }
+      long stripeEnd = (offset / stripeSize + 1) * stripeSize;
+      int length = (int) Math.min(limit - buffer.position(), stripeEnd - offset);
+      buffer.limit(buffer.position() + length);
+      try {
+        long fileOffset = getFileOffset(offset);
+        while (buffer.hasRemaining()) {
+          int n = read ? fileChannels[fileIndex].read(buffer, fileOffset)
+              : fileChannels[fileIndex].write(buffer, fileOffset);
+          if (n < 0) {
+            // the end of the file, the buffer is only partially read
+            buffer.limit(limit);
+            return;
+          }
+          fileOffset += n;
+        }
+      } catch (IOException ioex) {
+        fileFailed(fileIndex, ioex);
+        throw ioex;
+      } finally {
+        buffer.limit(limit);
+      }
+      offset += length;
+    }
+  }
+
+  private synchronized void fileFailed(int fileIndex, IOException ioex) {
+    // a single file fails the whole cache, as it used to
+    if (filePaths.length > 1 && !failed[fileIndex]) {
+      LOG.error("Failed accessing bucket cache file " + filePaths[fileIndex]
+          + ", its stripes are no longer used", ioex);
+      boolean[] newFailed = failed.clone();
+      newFailed[fileIndex] = true;
+      failed = newFailed;
+    }
+  }
+
+  @VisibleForTesting
+  int getFileIndex(long offset) {
+    return (int) ((offset / stripeSize) % fileChannels.length);
+  }
+
+  @VisibleForTesting
+  long getFileOffset(long offset) {
+    return offset / stripeSize / fileChannels.length * stripeSize + offset % stripeSize;
   }
 
   /**
@@ -123,7 +236,17 @@ public class FileIOEngine implements IOEngine {
    */
   @Override
   public void sync() throws IOException {
-    fileChannel.force(true);
+    for (int i = 0; i < fileChannels.length; i++) {
+      if (failed[i]) {
+        continue;
+      }
+      try {
+        fileChannels[i].force(true);
+      } catch (IOException ioex) {
+        fileFailed(i, ioex);
+        throw ioex;
+      }
+    }
   }
 
   /**
@@ -131,15 +254,21 @@ public class FileIOEngine implements IOEngine {
    */
   @Override
   public void shutdown() {
-    try {
-      fileChannel.close();
-    } catch (IOException ex) {
-      LOG.error("Can't shutdown cleanly", ex);
-    }
-    try {
-      raf.close();
-    } catch (IOException ex) {
-      LOG.error("Can't shutdown cleanly", ex);
+    for (int i = 0; i < filePaths.length; i++) {
+      try {
+        if (fileChannels[i] != null) {
+          fileChannels[i].close();
+        }
+      } catch (IOException ex) {
+        LOG.error("Can't shutdown cleanly", ex);
+      }
+      try {
+        if (rafs[i] != null) {
+          rafs[i].close();
+        }
+      } catch (IOException ex) {
+        LOG.error("Can't shutdown cleanly", ex);
+      }
     }
   }
 
@@ -147,7 +276,7 @@ public class FileIOEngine implements IOEngine {
   public void write(ByteBuff srcBuffer, long offset) throws IOException {
     // When caching block into BucketCache there will be single buffer backing for this HFileBlock.
     assert srcBuffer.hasArray();
-    fileChannel.write(
-        ByteBuffer.wrap(srcBuffer.array(), srcBuffer.arrayOffset(), srcBuffer.remaining()), offset);
+    write(ByteBuffer.wrap(srcBuffer.array(), srcBuffer.arrayOffset(), srcBuffer.remaining()),
+        offset);
   }
 }
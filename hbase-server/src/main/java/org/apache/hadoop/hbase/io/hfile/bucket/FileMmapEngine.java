@@ -106,6 +106,16 @@ public class FileMmapEngine implements IOEngine {
     return true;
   }
 
+  @Override
+  public boolean usesSharedMemory() {
+    return false;
+  }
+
+  @Override
+  public boolean isFailed(long offset) {
+    return false;
+  }
+
   @Override
   public Cacheable read(long offset, int length, CacheableDeserializer<Cacheable> deserializer)
       throws IOException {
@@ -115,6 +125,14 @@ public class FileMmapEngine implements IOEngine {
         MemoryType.EXCLUSIVE);
   }
 
+  @Override
+  public void read(ByteBuffer dstBuffer, long offset) throws IOException {
+    assert dstBuffer.hasArray();
+    bufferArray.getMultiple(offset, dstBuffer.remaining(), dstBuffer.array(),
+        dstBuffer.arrayOffset() + dstBuffer.position());
+    dstBuffer.position(dstBuffer.limit());
+  }
+
   /**
    * Transfers data from the given byte buffer to file
    * @param srcBuffer the given byte buffer from which bytes are to be read
@@ -24,19 +24,31 @@ import java.nio.ByteBuffer;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
 import org.apache.hadoop.hbase.io.hfile.CacheableDeserializer;
-import org.apache.hadoop.hbase.nio.ByteBuff;
 
 /**
  * A class implementing IOEngine interface supports data services for
  * {@link BucketCache}.
  */
 @InterfaceAudience.Private
-public interface IOEngine {
+public interface IOEngine extends BucketWriter {
   /**
    * @return true if persistent storage is supported for the cache when shutdown
    */
   boolean isPersistent();
 
+  /**
+   * @return true if the blocks read are backed by the memory of the IOEngine, rather than copied
+   *         out of it, so that they have to be returned to the cache once used
+   */
+  boolean usesSharedMemory();
+
+  /**
+   * @param offset an offset in the IOEngine
+   * @return true if the storage of the given offset failed, and is no longer to be used, while the
+   *         storage of other offsets may still be
+   */
+  boolean isFailed(long offset);
+
   /**
    * Transfers data from IOEngine to a Cacheable object.
    * @param length How many bytes to be read from the offset
@@ -50,21 +62,14 @@ public interface IOEngine {
       throws IOException;
 
   /**
-   * Transfers data from the given byte buffer to IOEngine
-   * @param srcBuffer the given byte buffer from which bytes are to be read
-   * @param offset The offset in the IO engine where the first byte to be
-   *          written
-   * @throws IOException
-   */
-  void write(ByteBuffer srcBuffer, long offset) throws IOException;
-
-  /**
-   * Transfers the data from the given MultiByteBuffer to IOEngine
-   * @param srcBuffer the given MultiBytebufffers from which bytes are to be read
-   * @param offset the offset in the IO engine where the first byte to be written
+   * Transfers data from IOEngine to the given byte buffer, copying it out of the IOEngine
+   * @param dstBuffer the given byte buffer, backed by an array, into which bytes are read between
+   *          its position and its limit
+   * @param offset The offset in the IO engine where the first byte to be read
    * @throws IOException
+   * @throws RuntimeException when less bytes than the remaining ones of the buffer are read
    */
-  void write(ByteBuff srcBuffer, long offset) throws IOException;
+  void read(ByteBuffer dstBuffer, long offset) throws IOException;
 
   /**
    * Sync the data to IOEngine after writing
@@ -40,6 +40,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellComparator;
 import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.CompoundConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionLocation;
@@ -66,6 +67,7 @@ import org.apache.hadoop.hbase.regionserver.BloomType;
 import org.apache.hadoop.hbase.regionserver.HStore;
 import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.regionserver.StoreFileWriter;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.io.NullWritable;
@@ -104,6 +106,8 @@ public class HFileOutputFormat2
       "hbase.hfileoutputformat.families.compression";
   private static final String BLOOM_TYPE_FAMILIES_CONF_KEY =
       "hbase.hfileoutputformat.families.bloomtype";
+  private static final String BLOOM_PARAM_FAMILIES_CONF_KEY =
+      "hbase.hfileoutputformat.families.bloomparam";
   private static final String BLOCK_SIZE_FAMILIES_CONF_KEY =
       "hbase.mapreduce.hfileoutputformat.blocksize";
   private static final String DATABLOCK_ENCODING_FAMILIES_CONF_KEY =
@@ -151,6 +155,7 @@ public class HFileOutputFormat2
 
     private final Map<byte[], Algorithm> compressionMap;
     private final Map<byte[], BloomType> bloomTypeMap;
+    private final Map<byte[], String> bloomParamMap;
     private final Map<byte[], Integer> blockSizeMap;
 
     private final Map<byte[], DataBlockEncoding> datablockEncodingMap;
@@ -196,6 +201,7 @@ public class HFileOutputFormat2
       // create a map from column family to the compression algorithm
       compressionMap = createFamilyCompressionMap(conf);
       bloomTypeMap = createFamilyBloomTypeMap(conf);
+      bloomParamMap = createFamilyBloomParamMap(conf);
       blockSizeMap = createFamilyBlockSizeMap(conf);
 
       // Config for data block encoding
@@ -334,6 +340,14 @@ public class HFileOutputFormat2
       encoding = encoding == null ? DataBlockEncoding.NONE : encoding;
       Configuration tempConf = new Configuration(conf);
       tempConf.setFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY, 0.0f);
+      // The job conf does not carry the family conf holding the row prefix Bloom parameter
+      Configuration writerConf = conf;
+      String bloomParam = bloomParamMap.get(family);
+      if (bloomParam != null) {
+        writerConf = new Configuration(conf);
+        writerConf.set(bloomType == BloomType.ROWPREFIX_FIXED_LENGTH ?
+            BloomFilterUtil.PREFIX_LENGTH_KEY : BloomFilterUtil.DELIMITER_KEY, bloomParam);
+      }
       HFileContextBuilder contextBuilder = new HFileContextBuilder().withCompression(compression)
           .withChecksumType(HStore.getChecksumType(conf))
           .withBytesPerCheckSum(HStore.getBytesPerChecksum(conf)).withBlockSize(blockSize);
@@ -346,12 +360,13 @@ public class HFileOutputFormat2
       HFileContext hFileContext = contextBuilder.build();
 
       if (null == favoredNodes) {
-        wl.writer = new StoreFileWriter.Builder(conf, new CacheConfig(tempConf), fs)
+        wl.writer = new StoreFileWriter.Builder(writerConf, new CacheConfig(tempConf), fs)
             .withOutputDir(familyDir).withBloomType(bloomType)
             .withComparator(CellComparator.COMPARATOR).withFileContext(hFileContext).build();
       } else {
         wl.writer =
-            new StoreFileWriter.Builder(conf, new CacheConfig(tempConf), new HFileSystem(fs))
+            new StoreFileWriter.Builder(writerConf, new CacheConfig(tempConf),
+                new HFileSystem(fs))
                 .withOutputDir(familyDir).withBloomType(bloomType)
                 .withComparator(CellComparator.COMPARATOR).withFileContext(hFileContext)
                 .withFavoredNodes(favoredNodes).build();
@@ -527,6 +542,7 @@ public class HFileOutputFormat2
     // Set compression algorithms based on column families
     configureCompression(conf, tableDescriptor);
     configureBloomType(tableDescriptor, conf);
+    configureBloomParam(tableDescriptor, conf);
     configureBlockSize(tableDescriptor, conf);
     configureDataBlockEncoding(tableDescriptor, conf);
 
@@ -546,6 +562,7 @@ public class HFileOutputFormat2
     // Set compression algorithms based on column families
     configureCompression(conf, tableDescriptor);
     configureBloomType(tableDescriptor, conf);
+    configureBloomParam(tableDescriptor, conf);
     configureBlockSize(tableDescriptor, conf);
     configureDataBlockEncoding(tableDescriptor, conf);
 
@@ -595,6 +612,18 @@ public class HFileOutputFormat2
     return bloomTypeMap;
   }
 
+  /**
+   * Runs inside the task to deserialize column family to row prefix bloom
+   * filter parameter map from the configuration.
+   *
+   * @param conf to read the serialized values from
+   * @return a map from column family to the configured bloom filter parameter
+   */
+  @VisibleForTesting
+  static Map<byte[], String> createFamilyBloomParamMap(Configuration conf) {
+    return createFamilyConfValueMap(conf, BLOOM_PARAM_FAMILIES_CONF_KEY);
+  }
+
   /**
    * Runs inside the task to deserialize column family to block size
    * map from the configuration.
@@ -789,6 +818,51 @@ public class HFileOutputFormat2
     conf.set(BLOOM_TYPE_FAMILIES_CONF_KEY, bloomTypeConfigValue.toString());
   }
 
+  /**
+   * Serialize column family to row prefix bloom filter parameter map to
+   * configuration. Only the families with a row prefix bloom filter whose
+   * parameter is set are written.
+   * Invoked while configuring the MR job for incremental load.
+   * @param tableDescriptor to read the properties from
+   * @param conf to persist serialized values into
+   *
+   * @throws IOException
+   *           on failure to read column family descriptors
+   */
+  @VisibleForTesting
+  static void configureBloomParam(HTableDescriptor tableDescriptor, Configuration conf)
+      throws UnsupportedEncodingException {
+    if (tableDescriptor == null) {
+      // could happen with mock table instance
+      return;
+    }
+    StringBuilder bloomParamConfigValue = new StringBuilder();
+    for (HColumnDescriptor familyDescriptor : tableDescriptor.getFamilies()) {
+      BloomType bloomType = familyDescriptor.getBloomFilterType();
+      if (!BloomFilterUtil.isRowPrefixBloomType(bloomType)) {
+        continue;
+      }
+      Configuration familyConf = new CompoundConfiguration()
+          .add(conf)
+          .addStringMap(tableDescriptor.getConfiguration())
+          .addStringMap(familyDescriptor.getConfiguration())
+          .addBytesMap(familyDescriptor.getValues());
+      String bloomParam = familyConf.get(bloomType == BloomType.ROWPREFIX_FIXED_LENGTH ?
+          BloomFilterUtil.PREFIX_LENGTH_KEY : BloomFilterUtil.DELIMITER_KEY);
+      if (bloomParam == null) {
+        continue;
+      }
+      if (bloomParamConfigValue.length() > 0) {
+        bloomParamConfigValue.append('&');
+      }
+      bloomParamConfigValue.append(URLEncoder.encode(
+        familyDescriptor.getNameAsString(), "UTF-8"));
+      bloomParamConfigValue.append('=');
+      bloomParamConfigValue.append(URLEncoder.encode(bloomParam, "UTF-8"));
+    }
+    conf.set(BLOOM_PARAM_FAMILIES_CONF_KEY, bloomParamConfigValue.toString());
+  }
+
   /**
    * Serialize column family to data block encoding map to configuration.
    * Invoked while configuring the MR job for incremental load.
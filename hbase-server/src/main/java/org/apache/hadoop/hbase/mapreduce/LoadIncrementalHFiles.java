@@ -60,6 +60,7 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hbase.CompoundConfiguration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
@@ -906,7 +907,12 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
                                   .withDataBlockEncoding(familyDescriptor.getDataBlockEncoding())
                                   .withIncludesTags(true)
                                   .build();
-      halfWriter = new StoreFileWriter.Builder(conf, cacheConf,
+      // The family configuration may hold the parameter of its Bloom filter
+      Configuration familyConf = new CompoundConfiguration()
+          .add(conf)
+          .addStringMap(familyDescriptor.getConfiguration())
+          .addBytesMap(familyDescriptor.getValues());
+      halfWriter = new StoreFileWriter.Builder(familyConf, cacheConf,
           fs)
               .withFilePath(outFile)
               .withBloomType(bloomFilterType)
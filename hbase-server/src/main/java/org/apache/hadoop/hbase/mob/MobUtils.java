@@ -43,6 +43,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellComparator;
 import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.CompoundConfiguration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
@@ -498,7 +499,13 @@ public final class MobUtils {
       .withEncryptionContext(cryptoContext).withCreateTime(EnvironmentEdgeManager.currentTime())
       .build();
     Path tempPath = new Path(basePath, UUID.randomUUID().toString().replaceAll("-", ""));
-    StoreFileWriter w = new StoreFileWriter.Builder(conf, cacheConfig, fs).withFilePath(tempPath)
+    // The family configuration may hold the parameter of its Bloom filter
+    Configuration familyConf = new CompoundConfiguration()
+        .add(conf)
+        .addStringMap(family.getConfiguration())
+        .addBytesMap(family.getValues());
+    StoreFileWriter w = new StoreFileWriter.Builder(familyConf, cacheConfig, fs)
+      .withFilePath(tempPath)
       .withComparator(CellComparator.COMPARATOR).withBloomType(family.getBloomFilterType())
       .withMaxKeyCount(maxKeyCount).withFileContext(hFileContext).build();
     return w;
@@ -77,10 +77,19 @@ public abstract class AbstractMemStore implements MemStore {
 
   protected void resetCellSet() {
     // Reset heap to not include any keys
-    this.active = SegmentFactory.instance().createMutableSegment(conf, comparator, DEEP_OVERHEAD);
+    this.active = SegmentFactory.instance().createMutableSegment(conf, comparator, DEEP_OVERHEAD,
+        isColumnCardinalityTracked());
     this.timeOfOldestEdit = Long.MAX_VALUE;
   }
 
+  /**
+   * @return whether the segments of this memstore estimate the number of their distinct columns.
+   *   Called from the constructor, so implementations may only rely on the configuration.
+   */
+  protected boolean isColumnCardinalityTracked() {
+    return false;
+  }
+
   /*
   * Calculate how the MemStore size has changed.  Includes overhead of the
   * backing Map.
@@ -0,0 +1,162 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+import org.apache.hadoop.hbase.ByteBufferedKeyOnlyKeyValue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.HeapMemStoreLAB.Chunk;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * CellChunkMap is a {@link CellFlatMap} whose index is held in MSLAB chunks rather than in a java
+ * array of Cell references. Each entry of the index is a fixed-width record describing where the
+ * serialized cell lives in the chunks of the same MSLAB:
+ * <pre>
+ * +----------+--------+--------+-------------+
+ * | chunk id | offset | length | sequence id |
+ * |  4 bytes | 4 bytes| 4 bytes|   8 bytes   |
+ * +----------+--------+--------+-------------+
+ * </pre>
+ * The entries are stored consecutively in index chunks. The i-th entry is found at index chunk
+ * i / entriesPerChunk, at offset (i % entriesPerChunk) * {@link #SIZEOF_INDEX_ENTRY}.
+ * Since neither the cells nor the index entries are java objects, an immutable segment backed by a
+ * CellChunkMap holds no per-cell objects at all; a Cell object is only materialized on read. When
+ * the chunks of the MSLAB are off heap, the materialized cells are OffheapKeyValues.
+ */
+@InterfaceAudience.Private
+public class CellChunkMap extends CellFlatMap {
+
+  public static final int SIZEOF_INDEX_ENTRY = ClassSize.CELL_CHUNK_MAP_ENTRY;
+
+  private static final int CHUNK_ID_OFFSET = 0;
+  private static final int CELL_OFFSET_OFFSET = CHUNK_ID_OFFSET + Bytes.SIZEOF_INT;
+  private static final int CELL_LENGTH_OFFSET = CELL_OFFSET_OFFSET + Bytes.SIZEOF_INT;
+  private static final int SEQ_ID_OFFSET = CELL_LENGTH_OFFSET + Bytes.SIZEOF_INT;
+
+  // the MSLAB holding both the index chunks and the data chunks
+  private final HeapMemStoreLAB memStoreLAB;
+  private final Chunk[] indexChunks;
+  private final int entriesPerChunk;
+
+  /**
+   * Creates a CellChunkMap on top of index chunks which are already filled with the entries of
+   * the cells, ordered according to the given comparator.
+   */
+  public CellChunkMap(Comparator<? super Cell> comparator, HeapMemStoreLAB memStoreLAB,
+      Chunk[] indexChunks, int min, int max, boolean descending) {
+    super(comparator, min, max, descending);
+    this.memStoreLAB = memStoreLAB;
+    this.indexChunks = indexChunks;
+    this.entriesPerChunk = getEntriesPerChunk(memStoreLAB);
+  }
+
+  /**
+   * @return the number of index entries fitting in a single chunk of the given MSLAB
+   */
+  static int getEntriesPerChunk(HeapMemStoreLAB memStoreLAB) {
+    return memStoreLAB.chunkSize / SIZEOF_INDEX_ENTRY;
+  }
+
+  /**
+   * Writes the index entry of a cell, serialized at the given location of a data chunk.
+   * @param indexChunks the index chunks of the map
+   * @param entriesPerChunk the number of entries fitting in a single index chunk
+   * @param i the index of the entry
+   */
+  static void writeEntry(Chunk[] indexChunks, int entriesPerChunk, int i, int chunkId,
+      int offset, int length, long seqId) {
+    ByteBuffer index = indexChunks[i / entriesPerChunk].getData();
+    int entryOffset = (i % entriesPerChunk) * SIZEOF_INDEX_ENTRY;
+    index.putInt(entryOffset + CHUNK_ID_OFFSET, chunkId);
+    index.putInt(entryOffset + CELL_OFFSET_OFFSET, offset);
+    index.putInt(entryOffset + CELL_LENGTH_OFFSET, length);
+    index.putLong(entryOffset + SEQ_ID_OFFSET, seqId);
+  }
+
+  /* To be used by base class only to create a sub-CellFlatMap */
+  @Override
+  protected CellFlatMap createSubCellFlatMap(int min, int max, boolean descending) {
+    return new CellChunkMap(comparator(), this.memStoreLAB, this.indexChunks, min, max,
+        descending);
+  }
+
+  @Override
+  protected Cell getCell(int i) {
+    if (i < minCellIdx || i >= maxCellIdx) {
+      return null;
+    }
+    ByteBuffer index = indexChunks[i / entriesPerChunk].getData();
+    int entryOffset = (i % entriesPerChunk) * SIZEOF_INDEX_ENTRY;
+    int offset = index.getInt(entryOffset + CELL_OFFSET_OFFSET);
+    int length = index.getInt(entryOffset + CELL_LENGTH_OFFSET);
+    long seqId = index.getLong(entryOffset + SEQ_ID_OFFSET);
+    return HeapMemStoreLAB.toChunkCell(getDataChunk(index, entryOffset, i).getData(), offset,
+        length, seqId);
+  }
+
+  /**
+   * Points a single key-only cell at the key of each probed entry, rather than materializing a
+   * cell for every step of the binary search.
+   */
+  @Override
+  protected Cell getCellForSearch(int i, Cell reuse) {
+    ByteBuffer index = indexChunks[i / entriesPerChunk].getData();
+    int entryOffset = (i % entriesPerChunk) * SIZEOF_INDEX_ENTRY;
+    int offset = index.getInt(entryOffset + CELL_OFFSET_OFFSET);
+    ByteBuffer data = getDataChunk(index, entryOffset, i).getData();
+    SearchKey key = (reuse instanceof SearchKey) ? (SearchKey) reuse : new SearchKey();
+    key.setKey(data, offset + KeyValue.ROW_OFFSET, data.getInt(offset),
+        index.getLong(entryOffset + SEQ_ID_OFFSET));
+    return key;
+  }
+
+  private Chunk getDataChunk(ByteBuffer index, int entryOffset, int i) {
+    int chunkId = index.getInt(entryOffset + CHUNK_ID_OFFSET);
+    Chunk dataChunk = memStoreLAB.getChunk(chunkId);
+    if (dataChunk == null) {
+      throw new IllegalStateException("Chunk " + chunkId + " of cell " + i
+          + " is not part of the MSLAB");
+    }
+    return dataChunk;
+  }
+
+  /**
+   * The key of a cell of the map, with the sequence id of its entry so that it compares like the
+   * whole cell.
+   */
+  private static class SearchKey extends ByteBufferedKeyOnlyKeyValue {
+    private long seqId;
+
+    void setKey(ByteBuffer buf, int offset, int length, long seqId) {
+      setKey(buf, offset, length);
+      this.seqId = seqId;
+    }
+
+    @Override
+    public long getSequenceId() {
+      return seqId;
+    }
+  }
+}
@@ -0,0 +1,480 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+
+/**
+ * CellFlatMap stores a constant number of elements and is immutable after creation stage.
+ * Being immutable, the CellFlatMap can be implemented as array.
+ * The actual array can be on- or off-heap and is implemented in concrete class derived from
+ * CellFlatMap. The CellFlatMap uses no synchronization primitives, it is assumed to be created
+ * by a single thread and then it can be read-only by multiple threads.
+ *
+ * The "flat" in the name, means that the memory layout of the Map is sequential array and thus
+ * requires less memory than ConcurrentSkipListMap. Lookups are done by binary search over the
+ * sorted array and views (head/tail/sub maps) only move the boundary indexes.
+ */
+@InterfaceAudience.Private
+public abstract class CellFlatMap implements ConcurrentNavigableMap<Cell, Cell> {
+
+  private final Comparator<? super Cell> comparator;
+  protected final int minCellIdx;   // the index of the minimal cell (for sub-sets)
+  protected final int maxCellIdx;   // the index of the cell after the maximal cell (for sub-sets)
+  private final boolean descending;
+
+  /* C-tor */
+  public CellFlatMap(Comparator<? super Cell> comparator, int min, int max, boolean d) {
+    this.comparator = comparator;
+    this.minCellIdx = min;
+    this.maxCellIdx = max;
+    this.descending = d;
+  }
+
+  /* Used for abstract CellFlatMap creation, implemented by derived class */
+  protected abstract CellFlatMap createSubCellFlatMap(int min, int max, boolean descending);
+
+  /* Returns the i-th cell in the cell block */
+  protected abstract Cell getCell(int i);
+
+  /**
+   * Returns the i-th cell in the cell block, only to compare it with the key of a search. The
+   * returned cell may be reused by the next call of the same search, so it must not be retained.
+   * @param reuse the cell returned by the previous call of the search, null for the first call
+   */
+  protected Cell getCellForSearch(int i, Cell reuse) {
+    return getCell(i);
+  }
+
+  /**
+   * Binary search for a given key in between the boundaries of this (sub) map.
+   * The cells are always physically stored in ascending order, regardless of the
+   * descending flag of the map view.
+   *
+   * @param needle The key to look for in all of the entries
+   * @return Same return value as Arrays.binarySearch: the index of the key if found, otherwise
+   *   (-(insertion point) - 1)
+   */
+  private int find(Cell needle) {
+    int begin = minCellIdx;
+    int end = maxCellIdx - 1;
+    Cell midCell = null;
+
+    while (begin <= end) {
+      int mid = (begin + end) >>> 1;
+      midCell = getCellForSearch(mid, midCell);
+      int compareRes = comparator.compare(midCell, needle);
+      if (compareRes == 0) {
+        return mid;   // 0 means equals. We found the key
+      }
+      if (compareRes < 0) {
+        // midCell is less than needle so we need to look farther up
+        begin = mid + 1;
+      } else {
+        // midCell is greater than needle so we need to look down
+        end = mid - 1;
+      }
+    }
+    return (-1 * begin) - 1;
+  }
+
+  /**
+   * @return the index of the first cell which is greater than (or equal to, if inclusive) the
+   *   given key; maxCellIdx if there is no such cell
+   */
+  private int lowerBound(Cell key, boolean inclusive) {
+    int index = find(key);
+    if (index >= 0) {
+      return inclusive ? index : index + 1;
+    }
+    return ~index;
+  }
+
+  /**
+   * @return the index following the last cell which is less than (or equal to, if inclusive) the
+   *   given key; minCellIdx if there is no such cell
+   */
+  private int upperBound(Cell key, boolean inclusive) {
+    int index = find(key);
+    if (index >= 0) {
+      return inclusive ? index + 1 : index;
+    }
+    return ~index;
+  }
+
+  /* Returns the cell at the given index or null if it falls out of this (sub) map boundaries */
+  private Cell getCellOrNull(int index) {
+    return (index < minCellIdx || index >= maxCellIdx) ? null : getCell(index);
+  }
+
+  /* Creates a sub map of the given physical boundaries, keeping the direction of this map */
+  private ConcurrentNavigableMap<Cell, Cell> subMapByIndex(int min, int max) {
+    // an empty range is represented by equal boundaries
+    return createSubCellFlatMap(min, Math.max(min, max), descending);
+  }
+
+  @Override
+  public Comparator<? super Cell> comparator() {
+    return comparator;
+  }
+
+  @Override
+  public int size() {
+    return maxCellIdx - minCellIdx;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return (size() == 0);
+  }
+
+
+  // ---------------- Sub-Maps ----------------
+  @Override
+  public ConcurrentNavigableMap<Cell, Cell> subMap(Cell fromKey, boolean fromInclusive,
+      Cell toKey, boolean toInclusive) {
+    if (descending) {
+      // in descending order the from key is the greater one
+      return subMapByIndex(lowerBound(toKey, toInclusive), upperBound(fromKey, fromInclusive));
+    }
+    return subMapByIndex(lowerBound(fromKey, fromInclusive), upperBound(toKey, toInclusive));
+  }
+
+  @Override
+  public ConcurrentNavigableMap<Cell, Cell> headMap(Cell toKey, boolean inclusive) {
+    if (descending) {
+      return subMapByIndex(lowerBound(toKey, inclusive), maxCellIdx);
+    }
+    return subMapByIndex(minCellIdx, upperBound(toKey, inclusive));
+  }
+
+  @Override
+  public ConcurrentNavigableMap<Cell, Cell> tailMap(Cell fromKey, boolean inclusive) {
+    if (descending) {
+      return subMapByIndex(minCellIdx, upperBound(fromKey, inclusive));
+    }
+    return subMapByIndex(lowerBound(fromKey, inclusive), maxCellIdx);
+  }
+
+  @Override
+  public ConcurrentNavigableMap<Cell, Cell> descendingMap() {
+    return createSubCellFlatMap(minCellIdx, maxCellIdx, !descending);
+  }
+
+  @Override
+  public ConcurrentNavigableMap<Cell, Cell> subMap(Cell fromKey, Cell toKey) {
+    return this.subMap(fromKey, true, toKey, false);
+  }
+
+  @Override
+  public ConcurrentNavigableMap<Cell, Cell> headMap(Cell toKey) {
+    return this.headMap(toKey, false);
+  }
+
+  @Override
+  public ConcurrentNavigableMap<Cell, Cell> tailMap(Cell fromKey) {
+    return this.tailMap(fromKey, true);
+  }
+
+
+  // -------------------------------- Key's getters --------------------------------
+  @Override
+  public Cell firstKey() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return descending ? getCell(maxCellIdx - 1) : getCell(minCellIdx);
+  }
+
+  @Override
+  public Cell lastKey() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return descending ? getCell(minCellIdx) : getCell(maxCellIdx - 1);
+  }
+
+  @Override
+  public Cell lowerKey(Cell k) {
+    return descending ? ascendingHigherKey(k) : ascendingLowerKey(k);
+  }
+
+  @Override
+  public Cell floorKey(Cell k) {
+    return descending ? ascendingCeilingKey(k) : ascendingFloorKey(k);
+  }
+
+  @Override
+  public Cell ceilingKey(Cell k) {
+    return descending ? ascendingFloorKey(k) : ascendingCeilingKey(k);
+  }
+
+  @Override
+  public Cell higherKey(Cell k) {
+    return descending ? ascendingLowerKey(k) : ascendingHigherKey(k);
+  }
+
+  private Cell ascendingLowerKey(Cell k) {
+    return getCellOrNull(lowerBound(k, true) - 1);
+  }
+
+  private Cell ascendingFloorKey(Cell k) {
+    return getCellOrNull(upperBound(k, true) - 1);
+  }
+
+  private Cell ascendingCeilingKey(Cell k) {
+    return getCellOrNull(lowerBound(k, true));
+  }
+
+  private Cell ascendingHigherKey(Cell k) {
+    return getCellOrNull(upperBound(k, true));
+  }
+
+  @Override
+  public boolean containsKey(Object o) {
+    int index = find((Cell) o);
+    return (index >= 0);
+  }
+
+  @Override
+  public boolean containsValue(Object o) { // use containsKey(Object o) instead
+    throw new UnsupportedOperationException("Use containsKey(Object o) instead");
+  }
+
+  @Override
+  public Cell get(Object o) {
+    int index = find((Cell) o);
+    return (index >= 0) ? getCell(index) : null;
+  }
+
+  // -------------------------------- Entry's getters --------------------------------
+  // all interfaces returning Entries are unsupported because we are dealing only with the keys
+  @Override
+  public Entry<Cell, Cell> lowerEntry(Cell k) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Entry<Cell, Cell> higherEntry(Cell k) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Entry<Cell, Cell> ceilingEntry(Cell k) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Entry<Cell, Cell> floorEntry(Cell k) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Entry<Cell, Cell> firstEntry() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Entry<Cell, Cell> lastEntry() {
+    throw new UnsupportedOperationException();
+  }
+
+  // -------------------------------- Updates --------------------------------
+  // All updating methods below are unsupported.
+  // Assuming an array of Cells will be allocated externally,
+  // fill up with Cells and provided in construction time.
+  // Later the structure is immutable.
+  @Override
+  public Cell put(Cell k, Cell v) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Cell remove(Object o) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean replace(Cell k, Cell v, Cell v1) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void putAll(Map<? extends Cell, ? extends Cell> map) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Cell putIfAbsent(Cell k, Cell v) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean remove(Object o, Object o1) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Cell replace(Cell k, Cell v) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Entry<Cell, Cell> pollFirstEntry() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Entry<Cell, Cell> pollLastEntry() {
+    throw new UnsupportedOperationException();
+  }
+
+
+  // -------------------------------- Sub-Sets --------------------------------
+  @Override
+  public NavigableSet<Cell> navigableKeySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public NavigableSet<Cell> descendingKeySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public NavigableSet<Cell> keySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Collection<Cell> values() {
+    return new CellFlatMapCollection();
+  }
+
+  @Override
+  public Set<Entry<Cell, Cell>> entrySet() {
+    return new CellFlatMapEntrySet();
+  }
+
+
+  // -------------------------------- Iterator K --------------------------------
+  private final class CellFlatMapIterator implements Iterator<Cell> {
+    int index;
+
+    private CellFlatMapIterator() {
+      index = descending ? maxCellIdx - 1 : minCellIdx;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return descending ? (index >= minCellIdx) : (index < maxCellIdx);
+    }
+
+    @Override
+    public Cell next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Cell result = getCell(index);
+      if (descending) {
+        index--;
+      } else {
+        index++;
+      }
+      return result;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  // -------------------------------- Collection --------------------------------
+  private final class CellFlatMapCollection extends AbstractCollection<Cell> {
+
+    @Override
+    public int size() {
+      return CellFlatMap.this.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return CellFlatMap.this.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return containsKey(o);
+    }
+
+    @Override
+    public Iterator<Cell> iterator() {
+      return new CellFlatMapIterator();
+    }
+  }
+
+  // -------------------------------- Entry Set --------------------------------
+  private final class CellFlatMapEntrySet extends AbstractSet<Entry<Cell, Cell>> {
+
+    @Override
+    public int size() {
+      return CellFlatMap.this.size();
+    }
+
+    @Override
+    public Iterator<Entry<Cell, Cell>> iterator() {
+      final Iterator<Cell> it = new CellFlatMapIterator();
+      return new Iterator<Entry<Cell, Cell>>() {
+        @Override
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        @Override
+        public Entry<Cell, Cell> next() {
+          Cell c = it.next();
+          return new java.util.AbstractMap.SimpleImmutableEntry<Cell, Cell>(c, c);
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.hadoop.hbase.ByteBufferedCell;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Counter;
+
+/**
+ * A small HyperLogLog sketch estimating the number of distinct columns (row and qualifier; all the
+ * cells of a segment share the family) among the cells added to a segment. Together with the
+ * number of cells added, it tells how many cells of the segment are versions of the same columns,
+ * which is what an in-memory compaction could remove, without traversing the segment.
+ * <p>
+ * The sketch holds {@link #NUM_REGISTERS} one byte registers, for a standard error of about 9%.
+ * The registers are updated without synchronization: a racing update may be lost, which can only
+ * make the estimate slightly lower. Sketches of several segments are combined with
+ * {@link #estimateUnion(List)}.
+ */
+@InterfaceAudience.Private
+public class ColumnCardinalitySketch {
+
+  private static final int PRECISION = 7;
+  static final int NUM_REGISTERS = 1 << PRECISION;
+  private static final double ALPHA = 0.7213 / (1 + 1.079 / NUM_REGISTERS);
+
+  private final byte[] registers = new byte[NUM_REGISTERS];
+  private final Counter count = new Counter();
+
+  /**
+   * Accounts for the column of the given cell
+   */
+  public void add(Cell cell) {
+    count.increment();
+    long hash = hashColumn(cell);
+    int index = (int) (hash >>> (Long.SIZE - PRECISION));
+    // the position of the leftmost 1 bit among the bits not used by the index
+    long w = (hash << PRECISION) | (1L << (PRECISION - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+    if (registers[index] < rank) {
+      registers[index] = rank;
+    }
+  }
+
+  /**
+   * @return the number of cells added to the sketch
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return the estimated number of distinct columns added to the sketch
+   */
+  public double estimate() {
+    return estimate(registers);
+  }
+
+  /**
+   * @return the estimated number of distinct columns added to any of the given sketches
+   */
+  public static double estimateUnion(List<ColumnCardinalitySketch> sketches) {
+    byte[] union = new byte[NUM_REGISTERS];
+    for (ColumnCardinalitySketch sketch : sketches) {
+      for (int i = 0; i < NUM_REGISTERS; i++) {
+        union[i] = (byte) Math.max(union[i], sketch.registers[i]);
+      }
+    }
+    return estimate(union);
+  }
+
+  private static double estimate(byte[] registers) {
+    double sum = 0;
+    int zeros = 0;
+    for (byte r : registers) {
+      sum += 1.0 / (1L << r);
+      if (r == 0) {
+        zeros++;
+      }
+    }
+    double estimate = ALPHA * NUM_REGISTERS * NUM_REGISTERS / sum;
+    if (estimate <= 2.5 * NUM_REGISTERS && zeros > 0) {
+      // small range correction
+      estimate = NUM_REGISTERS * Math.log((double) NUM_REGISTERS / zeros);
+    }
+    return estimate;
+  }
+
+  /**
+   * Hashes the row and the qualifier of the cell, reading them in place whether they are on heap
+   * or off heap.
+   */
+  private static long hashColumn(Cell cell) {
+    long h = 0xcbf29ce484222325L;
+    if (cell instanceof ByteBufferedCell) {
+      ByteBufferedCell bbCell = (ByteBufferedCell) cell;
+      h = hash(h, bbCell.getRowByteBuffer(), bbCell.getRowPosition(), cell.getRowLength());
+      h = hash(h, bbCell.getQualifierByteBuffer(), bbCell.getQualifierPosition(),
+          cell.getQualifierLength());
+    } else {
+      h = hash(h, cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+      h = hash(h, cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+    }
+    return mix(h);
+  }
+
+  // FNV-1a over the bytes, followed by their length so that the row and qualifier stay apart
+  private static long hash(long h, byte[] bytes, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      h = (h ^ bytes[i]) * 0x100000001b3L;
+    }
+    return (h ^ length) * 0x100000001b3L;
+  }
+
+  private static long hash(long h, ByteBuffer buf, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      h = (h ^ buf.get(i)) * 0x100000001b3L;
+    }
+    return (h ^ length) * 0x100000001b3L;
+  }
+
+  // the finalization step of MurmurHash3, spreading the bits of the hash
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
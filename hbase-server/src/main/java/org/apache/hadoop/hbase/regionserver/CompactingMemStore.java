@@ -58,12 +58,38 @@ public class CompactingMemStore extends AbstractMemStore {
   public static final String IN_MEMORY_FLUSH_THRESHOLD_FACTOR_KEY =
       "hbase.memstore.inmemoryflush.threshold.factor";
   private static final double IN_MEMORY_FLUSH_THRESHOLD_FACTOR_DEFAULT = 0.25;
+  // The type of the index of the segments created by in-memory compaction: the skip-list based
+  // index of the active segment, a flat sorted array which has a much smaller per-cell overhead,
+  // or a flat index held in MSLAB chunks which has no per-cell objects at all
+  public static final String COMPACTING_MEMSTORE_INDEX_KEY =
+      "hbase.hregion.compacting.memstore.index";
+  public static final String COMPACTING_MEMSTORE_INDEX_DEFAULT =
+      ImmutableSegment.Type.SKIPLIST_MAP_BASED.name();
+  // In-memory compaction only merges the indexes of the pipeline segments, without copying their
+  // data, when the estimated fraction of cells it would remove is below this threshold. The
+  // default of 0 always compacts the data.
+  public static final String COMPACTING_MEMSTORE_MERGE_THRESHOLD_KEY =
+      "hbase.hregion.compacting.memstore.merge.threshold";
+  public static final float COMPACTING_MEMSTORE_MERGE_THRESHOLD_DEFAULT = 0.0f;
+  // The policy choosing the action of in-memory compaction. EAGER traverses the pipeline on every
+  // in-memory flush, compacting or merging it per the merge threshold above. ADAPTIVE estimates
+  // the fraction of duplicate columns from sketches maintained by the segments as cells are added,
+  // and compacts the data only if it is above the adaptive threshold; otherwise it merges the
+  // indexes of the pipeline segments, or does nothing if there is a single segment.
+  public static final String COMPACTING_MEMSTORE_POLICY_KEY =
+      "hbase.hregion.compacting.memstore.policy";
+  public static final String COMPACTING_MEMSTORE_POLICY_DEFAULT =
+      MemStoreCompactor.Policy.EAGER.name();
+  public static final String COMPACTING_MEMSTORE_ADAPTIVE_THRESHOLD_KEY =
+      "hbase.hregion.compacting.memstore.adaptive.threshold";
+  public static final float COMPACTING_MEMSTORE_ADAPTIVE_THRESHOLD_DEFAULT = 0.2f;
 
   private static final Log LOG = LogFactory.getLog(CompactingMemStore.class);
   private Store store;
   private RegionServicesForStores regionServices;
   private CompactionPipeline pipeline;
   private MemStoreCompactor compactor;
+  private ImmutableSegment.Type compactedSegmentType;
   // the threshold on active size for in-memory flush
   private long inmemoryFlushSize;
   private final AtomicBoolean inMemoryFlushInProgress = new AtomicBoolean(false);
@@ -75,6 +101,8 @@ public class CompactingMemStore extends AbstractMemStore {
     this.store = store;
     this.regionServices = regionServices;
     this.pipeline = new CompactionPipeline(getRegionServices());
+    this.compactedSegmentType = ImmutableSegment.Type.valueOf(conf.get(
+        COMPACTING_MEMSTORE_INDEX_KEY, COMPACTING_MEMSTORE_INDEX_DEFAULT).toUpperCase());
     this.compactor = new MemStoreCompactor(this);
     initInmemoryFlushSize(conf);
   }
@@ -199,8 +227,8 @@ public class CompactingMemStore extends AbstractMemStore {
   }
 
   public boolean swapCompactedSegments(VersionedSegmentsList versionedList,
-      ImmutableSegment result) {
-    return pipeline.swap(versionedList, result);
+      ImmutableSegment result, boolean merge) {
+    return pipeline.swap(versionedList, result, !merge);
   }
 
   public boolean hasCompactibleSegments() {
@@ -215,6 +243,26 @@ public class CompactingMemStore extends AbstractMemStore {
     return store.getSmallestReadPoint();
   }
 
+  /**
+   * @return the type of the segments created by in-memory compaction
+   */
+  ImmutableSegment.Type getCompactedSegmentType() {
+    return compactedSegmentType;
+  }
+
+  MemStoreCompactor.Policy getCompactionPolicy() {
+    return MemStoreCompactor.Policy.valueOf(getConfiguration().get(COMPACTING_MEMSTORE_POLICY_KEY,
+        COMPACTING_MEMSTORE_POLICY_DEFAULT).toUpperCase());
+  }
+
+  /**
+   * The segments are sketched only when the adaptive policy needs it
+   */
+  @Override
+  protected boolean isColumnCardinalityTracked() {
+    return getCompactionPolicy() == MemStoreCompactor.Policy.ADAPTIVE;
+  }
+
   public Store getStore() {
     return store;
   }
@@ -83,9 +83,12 @@ public class CompactionPipeline {
    * Swapping only if there were no changes to the suffix of the list while it was compacted.
    * @param versionedList tail of the pipeline that was compacted
    * @param segment new compacted segment
+   * @param closeSuffix whether to close the swapped out segments; false when the new segment was
+   *   merged from them and still references their data
    * @return true iff swapped tail with new compacted segment
    */
-  public boolean swap(VersionedSegmentsList versionedList, ImmutableSegment segment) {
+  public boolean swap(VersionedSegmentsList versionedList, ImmutableSegment segment,
+      boolean closeSuffix) {
     if (versionedList.getVersion() != version) {
       return false;
     }
@@ -101,7 +104,7 @@ public class CompactionPipeline {
             + versionedList.getStoreSegments().size()
             + ", and the number of cells in new segment is:" + segment.getCellsCount());
       }
-      swapSuffix(suffix,segment);
+      swapSuffix(suffix, segment, closeSuffix);
     }
     if (region != null) {
       // update the global memstore size counter
@@ -145,10 +148,13 @@ public class CompactionPipeline {
     return CompactingMemStore.getSegmentSize(pipeline.peekLast());
   }
 
-  private void swapSuffix(LinkedList<ImmutableSegment> suffix, ImmutableSegment segment) {
+  private void swapSuffix(LinkedList<ImmutableSegment> suffix, ImmutableSegment segment,
+      boolean closeSuffix) {
     version++;
-    for(Segment itemInSuffix : suffix) {
-      itemInSuffix.close();
+    if (closeSuffix) {
+      for (Segment itemInSuffix : suffix) {
+        itemInSuffix.close();
+      }
     }
     pipeline.removeAll(suffix);
     pipeline.addLast(segment);
@@ -22,6 +22,7 @@ import static org.apache.hadoop.hbase.HConstants.REPLICATION_SCOPE_LOCAL;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
@@ -67,6 +68,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -135,6 +137,7 @@ import org.apache.hadoop.hbase.filter.IncompatibleFilterException;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.PrefetchExecutor;
 import org.apache.hadoop.hbase.ipc.CallerDisconnectedException;
 import org.apache.hadoop.hbase.ipc.CoprocessorRpcUtils;
 import org.apache.hadoop.hbase.ipc.RpcCallContext;
@@ -204,6 +207,24 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   public static final String LOAD_CFS_ON_DEMAND_CONFIG_KEY =
     "hbase.hregion.scan.loadColumnFamiliesOnDemand";
 
+  /**
+   * Whether the mini-batches of mutations concurrently written to a region are committed together,
+   * in a single WAL append and mvcc transaction. See {@link MiniBatchCombiner}.
+   */
+  public static final String GROUP_COMMIT_ENABLED_KEY = "hbase.hregion.group.commit.enabled";
+  public static final boolean DEFAULT_GROUP_COMMIT_ENABLED = false;
+  /** The maximal number of mini-batches committed together */
+  public static final String GROUP_COMMIT_MAX_BATCHES_KEY =
+      "hbase.hregion.group.commit.max.batches";
+  public static final int DEFAULT_GROUP_COMMIT_MAX_BATCHES = 64;
+
+  /**
+   * The number of threads flushing the stores of the regions of the server in parallel. The stores
+   * of a region are flushed one after the other when 1.
+   */
+  public static final String STORE_FLUSH_THREADS_KEY = "hbase.hregion.store.flush.threads";
+  public static final int DEFAULT_STORE_FLUSH_THREADS = 1;
+
   /**
    * This is the global default value for durability. All tables/mutations not
    * defining a durability or using USE_DEFAULT will default to this value.
@@ -244,13 +265,13 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   // Members
   //////////////////////////////////////////////////////////////////////////////
 
-  // map from a locked row to the context for that lock including:
-  // - CountDownLatch for threads waiting on that row
-  // - the thread that owns the lock (allow reentrancy)
-  // - reference count of (reentrant) locks held by the thread
+  // the row locks, striped by the hash of the row. Each stripe holds the contexts of the locked
+  // rows falling in it, each context including:
+  // - the read write lock of the row
+  // - the thread that last acquired the lock
+  // - reference count of the holders and waiters of the lock
   // - the row itself
-  private final ConcurrentHashMap<HashedBytes, RowLockContext> lockedRows =
-      new ConcurrentHashMap<HashedBytes, RowLockContext>();
+  private final RowLockStripe[] rowLockStripes;
 
   protected final Map<byte[], Store> stores = new ConcurrentSkipListMap<byte[], Store>(
       Bytes.BYTES_RAWCOMPARATOR);
@@ -283,6 +304,10 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   final AtomicLong compactionNumFilesCompacted = new AtomicLong(0L);
   final AtomicLong compactionNumBytesCompacted = new AtomicLong(0L);
 
+  // Blocks to load in the block cache since the region moved here, and blocks loaded
+  final AtomicLong cacheWarmupBlocks = new AtomicLong(0L);
+  final AtomicLong cacheWarmupBlocksLoaded = new AtomicLong(0L);
+
   private final WAL wal;
   private final HRegionFileSystem fs;
   protected final Configuration conf;
@@ -290,6 +315,9 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   private final int rowLockWaitDuration;
   private CompactedHFilesDischarger compactedFileDischarger;
   static final int DEFAULT_ROWLOCK_WAIT_DURATION = 30000;
+  /** The number of stripes the row locks of a region are spread over, rounded up to a power of 2 */
+  public static final String ROW_LOCK_STRIPES_KEY = "hbase.rowlock.stripes";
+  static final int DEFAULT_ROW_LOCK_STRIPES = 64;
 
   // The internal wait duration to acquire a lock before read/update
   // from the region. It is not per row. The purpose of this wait time
@@ -558,6 +586,10 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       new ConcurrentHashMap<Store, Long>();
 
   final RegionServerServices rsServices;
+
+  // the pool flushing the stores in parallel when the region is not hosted by a region server,
+  // which shares its own between its regions; created on first use, shut down on close
+  private ExecutorService storeFlushPool;
   private RegionServerAccounting rsAccounting;
   private long flushCheckInterval;
   // flushPerChanges is to prevent too many changes in memstore
@@ -573,6 +605,8 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   private byte[] explicitSplitPoint = null;
 
   private final MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+  // combines concurrent mini-batches; null if group commit is disabled
+  private final MiniBatchCombiner miniBatchCombiner;
 
   // Coprocessor host
   private RegionCoprocessorHost coprocessorHost;
@@ -664,9 +698,28 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     }
     this.rowLockWaitDuration = conf.getInt("hbase.rowlock.wait.duration",
                     DEFAULT_ROWLOCK_WAIT_DURATION);
+    int numRowLockStripes = conf.getInt(ROW_LOCK_STRIPES_KEY, DEFAULT_ROW_LOCK_STRIPES);
+    // a power of two, so that the stripe of a row is found by masking its hash
+    this.rowLockStripes = new RowLockStripe[
+        numRowLockStripes <= 1 ? 1 : Integer.highestOneBit(numRowLockStripes - 1) << 1];
+    for (int i = 0; i < rowLockStripes.length; i++) {
+      rowLockStripes[i] = new RowLockStripe();
+    }
 
     this.isLoadingCfsOnDemandDefault = conf.getBoolean(LOAD_CFS_ON_DEMAND_CONFIG_KEY, true);
+    if (conf.getBoolean(GROUP_COMMIT_ENABLED_KEY, DEFAULT_GROUP_COMMIT_ENABLED)) {
+      this.miniBatchCombiner = new MiniBatchCombiner(new MiniBatchCombiner.GroupCommitter() {
+        @Override
+        public void commit(List<MiniBatchCombiner.PendingBatch> group) throws IOException {
+          commitMiniBatches(group);
+        }
+      }, conf.getInt(GROUP_COMMIT_MAX_BATCHES_KEY, DEFAULT_GROUP_COMMIT_MAX_BATCHES));
+    } else {
+      this.miniBatchCombiner = null;
+    }
     this.htableDescriptor = htd;
+    // The files of the tables of higher priority are prefetched first
+    PrefetchExecutor.setTablePriority(htd.getTableName(), htd.getPriority());
     Set<byte[]> families = this.htableDescriptor.getFamiliesKeys();
     for (byte[] family : families) {
       if (!replicationScope.containsKey(family)) {
@@ -1585,6 +1638,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       }
       // stop the Compacted hfile discharger
       if (this.compactedFileDischarger != null) this.compactedFileDischarger.cancel(true);
+      if (this.storeFlushPool != null) this.storeFlushPool.shutdown();
 
       status.markComplete("Closed");
       LOG.info("Closed " + this);
@@ -2447,6 +2501,116 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     return false;
   }
 
+  /**
+   * Writes the snapshots of the given stores to files, in parallel if there is a store flush pool.
+   * The calling thread flushes one of the stores itself, and returns once all of them are flushed.
+   * The flushed files are committed by the caller, all at once.
+   * @throws IOException if the flush of any of the stores failed
+   */
+  private void flushStores(Map<byte[], StoreFlushContext> storeFlushCtxs,
+      final MonitoredTask status) throws IOException {
+    ExecutorService pool = storeFlushCtxs.size() > 1 ? getStoreFlushPool() : null;
+    if (pool == null) {
+      for (Map.Entry<byte[], StoreFlushContext> flush : storeFlushCtxs.entrySet()) {
+        flushStore(flush.getKey(), flush.getValue(), status);
+      }
+      return;
+    }
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(storeFlushCtxs.size() - 1);
+    // the stores flushed by the calling thread: the first one, and any the pool rejects
+    List<Map.Entry<byte[], StoreFlushContext>> localFlushes =
+        new ArrayList<Map.Entry<byte[], StoreFlushContext>>(1);
+    for (final Map.Entry<byte[], StoreFlushContext> flush : storeFlushCtxs.entrySet()) {
+      if (localFlushes.isEmpty()) {
+        localFlushes.add(flush);
+        continue;
+      }
+      try {
+        futures.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            flushStore(flush.getKey(), flush.getValue(), status);
+            return null;
+          }
+        }));
+      } catch (RejectedExecutionException e) {
+        // the region server is stopping, flush the store in the calling thread
+        localFlushes.add(flush);
+      }
+    }
+    Throwable failure = null;
+    for (Map.Entry<byte[], StoreFlushContext> flush : localFlushes) {
+      try {
+        flushStore(flush.getKey(), flush.getValue(), status);
+      } catch (Throwable t) {
+        failure = t;
+        break;
+      }
+    }
+    // wait for all the flushes, even after a failure, so that none is left running
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        for (Future<Void> other : futures) {
+          other.cancel(true);
+        }
+        Thread.currentThread().interrupt();
+        if (failure == null) {
+          failure = new InterruptedIOException("Interrupted while flushing the stores of " + this);
+        }
+        break;
+      }
+    }
+    if (failure != null) {
+      Throwables.propagateIfPossible(failure, IOException.class);
+      throw new IOException(failure);
+    }
+  }
+
+  private void flushStore(byte[] family, StoreFlushContext flush, MonitoredTask status)
+      throws IOException {
+    long start = EnvironmentEdgeManager.currentTime();
+    flush.flushCache(status);
+    if (this.metricsRegion != null) {
+      this.metricsRegion.updateStoreFlushTime(Bytes.toString(family),
+          EnvironmentEdgeManager.currentTime() - start);
+    }
+  }
+
+  /**
+   * @return the pool flushing the stores of the region in parallel, or null if disabled. The flushes
+   *         of a region are serialized, so the pool of a region is not created concurrently.
+   */
+  @VisibleForTesting
+  ExecutorService getStoreFlushPool() {
+    if (rsServices != null) {
+      return rsServices.getStoreFlushPool();
+    }
+    if (storeFlushPool == null) {
+      storeFlushPool = createStoreFlushPool(conf, getRegionInfo().getEncodedName());
+    }
+    return storeFlushPool;
+  }
+
+  /**
+   * Creates a pool flushing stores in parallel, shut down by the caller once it is not used any
+   * more.
+   * @return the pool, or null if the stores of a region are to be flushed one after the other
+   */
+  public static ThreadPoolExecutor createStoreFlushPool(Configuration conf, String name) {
+    int threads = conf.getInt(STORE_FLUSH_THREADS_KEY, DEFAULT_STORE_FLUSH_THREADS);
+    if (threads <= 1) {
+      return null;
+    }
+    return Threads.getBoundedCachedThreadPool(threads, 30L, TimeUnit.SECONDS,
+        Threads.newDaemonThreadFactory(name + "-StoreFlusher"));
+  }
+
   @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="NN_NAKED_NOTIFY",
       justification="Intentional; notify is about completed flush")
   protected FlushResult internalFlushCacheAndCommit(
@@ -2478,9 +2642,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       // just-made new flush store file. The new flushed file is still in the
       // tmp directory.
 
-      for (StoreFlushContext flush : storeFlushCtxs.values()) {
-        flush.flushCache(status);
-      }
+      flushStores(storeFlushCtxs, status);
 
       // Switch snapshot (in memstore) -> new hfile (thus causing
       // all the store scanners to reset/reseek).
@@ -3208,57 +3370,76 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         addFamilyMapToWALEdit(familyMaps[i], walEdit);
       }
 
-      // STEP 4. Append the final edit to WAL and sync.
-      Mutation mutation = batchOp.getMutation(firstIndex);
-      WALKey walKey = null;
-      if (replay) {
-        // use wal key from the original
-        walKey = new ReplayHLogKey(this.getRegionInfo().getEncodedNameAsBytes(),
-          this.htableDescriptor.getTableName(), WALKey.NO_SEQUENCE_ID, now,
-          mutation.getClusterIds(), currentNonceGroup, currentNonce, mvcc);
-        walKey.setOrigLogSeqNum(batchOp.getReplaySequenceId());
-      }
-      // Not sure what is going on here when replay is going on... does the below append get
-      // called for replayed edits? Am afraid to change it without test.
-      if (!walEdit.isEmpty()) {
-        if (!replay) {
-          // we use HLogKey here instead of WALKey directly to support legacy coprocessors.
-          walKey = new HLogKey(this.getRegionInfo().getEncodedNameAsBytes(),
-              this.htableDescriptor.getTableName(), WALKey.NO_SEQUENCE_ID, now,
-              mutation.getClusterIds(), currentNonceGroup, currentNonce, mvcc,
-              this.getReplicationScope());
-        }
-        // TODO: Use the doAppend methods below... complicated by the replay stuff above.
+      if (!replay && miniBatchCombiner != null && currentNonceGroup == HConstants.NO_NONCE
+          && currentNonce == HConstants.NO_NONCE) {
+        // STEP 4-6. Commit together with the mini-batches concurrently written to the region
+        List<Map<byte[], List<Cell>>> toApply =
+            new ArrayList<Map<byte[], List<Cell>>>(lastIndexExclusive - firstIndex);
+        for (int i = firstIndex; i < lastIndexExclusive; i++) {
+          if (batchOp.retCodeDetails[i].getOperationStatusCode() == OperationStatusCode.NOT_RUN) {
+            toApply.add(familyMaps[i]);
+          }
+        }
+        MiniBatchCombiner.PendingBatch pendingBatch = new MiniBatchCombiner.PendingBatch(walEdit,
+            toApply, batchOp.getMutation(firstIndex).getClusterIds(), durability);
         try {
-          long txid = this.wal.append(this.getRegionInfo(), walKey,
-              walEdit, true);
-          if (txid != 0) sync(txid, durability);
-          writeEntry = walKey.getWriteEntry();
-        } catch (IOException ioe) {
-          if (walKey != null) mvcc.complete(walKey.getWriteEntry());
-          throw ioe;
+          miniBatchCombiner.commit(pendingBatch);
+        } finally {
+          addedSize = pendingBatch.getAddedSize();
+        }
+      } else {
+        // STEP 4. Append the final edit to WAL and sync.
+        Mutation mutation = batchOp.getMutation(firstIndex);
+        WALKey walKey = null;
+        if (replay) {
+          // use wal key from the original
+          walKey = new ReplayHLogKey(this.getRegionInfo().getEncodedNameAsBytes(),
+            this.htableDescriptor.getTableName(), WALKey.NO_SEQUENCE_ID, now,
+            mutation.getClusterIds(), currentNonceGroup, currentNonce, mvcc);
+          walKey.setOrigLogSeqNum(batchOp.getReplaySequenceId());
+        }
+        // Not sure what is going on here when replay is going on... does the below append get
+        // called for replayed edits? Am afraid to change it without test.
+        if (!walEdit.isEmpty()) {
+          if (!replay) {
+            // we use HLogKey here instead of WALKey directly to support legacy coprocessors.
+            walKey = new HLogKey(this.getRegionInfo().getEncodedNameAsBytes(),
+                this.htableDescriptor.getTableName(), WALKey.NO_SEQUENCE_ID, now,
+                mutation.getClusterIds(), currentNonceGroup, currentNonce, mvcc,
+                this.getReplicationScope());
+          }
+          // TODO: Use the doAppend methods below... complicated by the replay stuff above.
+          try {
+            long txid = this.wal.append(this.getRegionInfo(), walKey,
+                walEdit, true);
+            if (txid != 0) sync(txid, durability);
+            writeEntry = walKey.getWriteEntry();
+          } catch (IOException ioe) {
+            if (walKey != null) mvcc.complete(walKey.getWriteEntry());
+            throw ioe;
+          }
+        }
+        if (walKey == null) {
+          // If no walKey, then skipping WAL or some such. Being an mvcc transaction so sequenceid.
+          writeEntry = mvcc.begin();
         }
-      }
-      if (walKey == null) {
-        // If no walKey, then skipping WAL or some such. Being an mvcc transaction so sequenceid.
-        writeEntry = mvcc.begin();
-      }
 
-      // STEP 5. Write back to memstore
-      for (int i = firstIndex; i < lastIndexExclusive; i++) {
-        if (batchOp.retCodeDetails[i].getOperationStatusCode() != OperationStatusCode.NOT_RUN) {
-          continue;
+        // STEP 5. Write back to memstore
+        for (int i = firstIndex; i < lastIndexExclusive; i++) {
+          if (batchOp.retCodeDetails[i].getOperationStatusCode() != OperationStatusCode.NOT_RUN) {
+            continue;
+          }
+          addedSize += applyFamilyMapToMemstore(familyMaps[i], replay,
+              replay? batchOp.getReplaySequenceId(): writeEntry.getWriteNumber());
         }
-        addedSize += applyFamilyMapToMemstore(familyMaps[i], replay,
-            replay? batchOp.getReplaySequenceId(): writeEntry.getWriteNumber());
-      }
 
-      // STEP 6. Complete mvcc.
-      if (replay) {
-        this.mvcc.advanceTo(batchOp.getReplaySequenceId());
-      } else if (writeEntry != null/*Can be null if in replay mode*/) {
-        mvcc.completeAndWait(writeEntry);
-        writeEntry = null;
+        // STEP 6. Complete mvcc.
+        if (replay) {
+          this.mvcc.advanceTo(batchOp.getReplaySequenceId());
+        } else if (writeEntry != null/*Can be null if in replay mode*/) {
+          mvcc.completeAndWait(writeEntry);
+          writeEntry = null;
+        }
       }
 
       // STEP 7. Release row locks, etc.
@@ -3349,6 +3530,64 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     }
   }
 
+  /**
+   * Commits mini-batches prepared by {@link #doMiniBatchMutate(BatchOperation)}, all at once: their
+   * WAL edits are appended as a single edit, synced according to the strongest durability among
+   * them, and their cells are applied to the memstore within a single mvcc transaction.
+   * The batches must hold the row locks of their mutations and the updates lock.
+   */
+  private void commitMiniBatches(List<MiniBatchCombiner.PendingBatch> group) throws IOException {
+    MiniBatchCombiner.PendingBatch first = group.get(0);
+    WALEdit walEdit = first.getWalEdit();
+    Durability durability = first.getDurability();
+    if (group.size() > 1) {
+      int cellCount = 0;
+      for (MiniBatchCombiner.PendingBatch batch : group) {
+        cellCount += batch.getWalEdit().size();
+      }
+      walEdit = new WALEdit(cellCount);
+      for (MiniBatchCombiner.PendingBatch batch : group) {
+        for (Cell cell : batch.getWalEdit().getCells()) {
+          walEdit.add(cell);
+        }
+        if (batch.getDurability().ordinal() > durability.ordinal()) {
+          durability = batch.getDurability();
+        }
+      }
+    }
+    WriteEntry writeEntry = null;
+    try {
+      if (!walEdit.isEmpty()) {
+        // we use HLogKey here instead of WALKey directly to support legacy coprocessors.
+        WALKey walKey = new HLogKey(this.getRegionInfo().getEncodedNameAsBytes(),
+            this.htableDescriptor.getTableName(), WALKey.NO_SEQUENCE_ID,
+            EnvironmentEdgeManager.currentTime(), first.getClusterIds(), HConstants.NO_NONCE,
+            HConstants.NO_NONCE, mvcc, this.getReplicationScope());
+        try {
+          long txid = this.wal.append(this.getRegionInfo(), walKey, walEdit, true);
+          if (txid != 0) sync(txid, durability);
+          writeEntry = walKey.getWriteEntry();
+        } catch (IOException ioe) {
+          mvcc.complete(walKey.getWriteEntry());
+          throw ioe;
+        }
+      } else {
+        // all the mutations skip the WAL, still being an mvcc transaction
+        writeEntry = mvcc.begin();
+      }
+      for (MiniBatchCombiner.PendingBatch batch : group) {
+        for (Map<byte[], List<Cell>> familyMap : batch.getFamilyMaps()) {
+          batch.incAddedSize(
+              applyFamilyMapToMemstore(familyMap, false, writeEntry.getWriteNumber()));
+        }
+      }
+      mvcc.completeAndWait(writeEntry);
+      writeEntry = null;
+    } finally {
+      if (writeEntry != null) mvcc.complete(writeEntry);
+    }
+  }
+
   private void mergeFamilyMaps(Map<byte[], List<Cell>> familyMap,
       Map<byte[], List<Cell>> toBeMerged) {
     for (Map.Entry<byte[], List<Cell>> entry : toBeMerged.entrySet()) {
@@ -5196,8 +5435,8 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   }
 
   protected RowLock getRowLockInternal(byte[] row, boolean readLock) throws IOException {
-    // create an object to use a a key in the row lock map
-    HashedBytes rowKey = new HashedBytes(row);
+    int hash = Bytes.hashCode(row);
+    RowLockStripe stripe = rowLockStripes[(hash ^ (hash >>> 16)) & (rowLockStripes.length - 1)];
 
     RowLockContext rowLockContext = null;
     RowLockImpl result = null;
@@ -5210,42 +5449,32 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     }
 
     try {
-      // Keep trying until we have a lock or error out.
-      // TODO: do we need to add a time component here?
-      while (result == null) {
-
-        // Try adding a RowLockContext to the lockedRows.
-        // If we can add it then there's no other transactions currently running.
-        rowLockContext = new RowLockContext(rowKey);
-        RowLockContext existingContext = lockedRows.putIfAbsent(rowKey, rowLockContext);
-
-        // if there was a running transaction then there's already a context.
-        if (existingContext != null) {
-          rowLockContext = existingContext;
-        }
-
-        // Now try an get the lock.
-        //
-        // This can fail as
-        if (readLock) {
-          result = rowLockContext.newReadLock();
-        } else {
-          result = rowLockContext.newWriteLock();
-        }
+      // Get the context of the row, registering us as a user of it so that it is kept as long as
+      // we wait for or hold the lock.
+      rowLockContext = stripe.getContext(row, hash);
+      result = new RowLockImpl(rowLockContext, readLock ?
+          rowLockContext.readWriteLock.readLock() : rowLockContext.readWriteLock.writeLock());
+
+      long start = System.nanoTime();
+      boolean locked = result.getLock().tryLock(this.rowLockWaitDuration, TimeUnit.MILLISECONDS);
+      if (this.metricsRegion != null) {
+        this.metricsRegion.updateRowLockWait(
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
       }
-      if (!result.getLock().tryLock(this.rowLockWaitDuration, TimeUnit.MILLISECONDS)) {
+      if (!locked) {
         if (traceScope != null) {
           traceScope.getSpan().addTimelineAnnotation("Failed to get row lock");
         }
         result = null;
         // Clean up the counts just in case this was the thing keeping the context alive.
         rowLockContext.cleanUp();
-        throw new IOException("Timed out waiting for lock for row: " + rowKey);
+        throw new IOException("Timed out waiting for lock for row: " + Bytes.toStringBinary(row));
       }
       rowLockContext.setThreadName(Thread.currentThread().getName());
       return result;
     } catch (InterruptedException ie) {
-      LOG.warn("Thread interrupted waiting for lock on row: " + rowKey);
+      LOG.warn("Thread interrupted waiting for lock on row: " + Bytes.toStringBinary(row));
+      rowLockContext.cleanUp();
       InterruptedIOException iie = new InterruptedIOException();
       iie.initCause(ie);
       if (traceScope != null) {
@@ -5270,54 +5499,120 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     }
   }
 
-  public ConcurrentHashMap<HashedBytes, RowLockContext> getLockedRows() {
+  /**
+   * @return the contexts of the rows currently locked, or waited for
+   */
+  public List<RowLockContext> getLockedRows() {
+    List<RowLockContext> lockedRows = new ArrayList<RowLockContext>();
+    for (RowLockStripe stripe : rowLockStripes) {
+      stripe.addLockedRows(lockedRows);
+    }
     return lockedRows;
   }
 
+  /**
+   * The row locks of the rows whose hash falls in a stripe. Getting the context of a row only
+   * synchronizes on its stripe, and allocates nothing in the common case: each stripe keeps a
+   * context which is reused by all its rows, bound to one row at a time. A row locked while this
+   * context is bound to another row of the stripe gets a context of its own, held in an overflow
+   * map until the row is unlocked. Since the contexts are only bound, looked up and released under
+   * the lock of their stripe, a row never has more than one context.
+   */
+  @VisibleForTesting
+  class RowLockStripe {
+    // the context reused by the rows of the stripe, created on first use
+    private RowLockContext reusableContext;
+    // the contexts of the rows locked while the reusable context was bound to another row,
+    // created on first use
+    private Map<HashedBytes, RowLockContext> overflowContexts;
+
+    /**
+     * @return the context of the given row, whose count of users is incremented
+     */
+    synchronized RowLockContext getContext(byte[] row, int hash) {
+      RowLockContext context = null;
+      if (reusableContext != null && reusableContext.isBoundTo(row, hash)) {
+        context = reusableContext;
+      } else if (overflowContexts != null && !overflowContexts.isEmpty()) {
+        context = overflowContexts.get(new HashedBytes(row));
+      }
+      if (context == null) {
+        if (reusableContext == null) {
+          reusableContext = new RowLockContext(this);
+        }
+        if (!reusableContext.isBound()) {
+          context = reusableContext;
+        } else {
+          if (overflowContexts == null) {
+            overflowContexts = new HashMap<HashedBytes, RowLockContext>();
+          }
+          context = new RowLockContext(this);
+          overflowContexts.put(new HashedBytes(row), context);
+        }
+        context.bind(row, hash);
+      }
+      context.count++;
+      return context;
+    }
+
+    /**
+     * Decrements the count of users of the given context, and frees it if there are none left
+     */
+    synchronized void release(RowLockContext context) {
+      if (--context.count <= 0) {
+        if (context != reusableContext) {
+          RowLockContext removed = overflowContexts.remove(new HashedBytes(context.row));
+          assert removed == context: "we should never remove a different context";
+        }
+        context.unbind();
+      }
+    }
+
+    synchronized void addLockedRows(List<RowLockContext> lockedRows) {
+      if (reusableContext != null && reusableContext.isBound()) {
+        lockedRows.add(reusableContext);
+      }
+      if (overflowContexts != null) {
+        lockedRows.addAll(overflowContexts.values());
+      }
+    }
+  }
+
   @VisibleForTesting
   class RowLockContext {
-    private final HashedBytes row;
+    private final RowLockStripe stripe;
     final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
-    final AtomicBoolean usable = new AtomicBoolean(true);
-    final AtomicInteger count = new AtomicInteger(0);
-    final Object lock = new Object();
-    private String threadName;
+    // the row the context is bound to, null if free; guarded by the stripe
+    private byte[] row;
+    private int hash;
+    // the number of holders and waiters of the lock; guarded by the stripe
+    private int count = 0;
+    private volatile String threadName;
 
-    RowLockContext(HashedBytes row) {
-      this.row = row;
+    RowLockContext(RowLockStripe stripe) {
+      this.stripe = stripe;
     }
 
-    RowLockImpl newWriteLock() {
-      Lock l = readWriteLock.writeLock();
-      return getRowLock(l);
+    boolean isBound() {
+      return row != null;
     }
-    RowLockImpl newReadLock() {
-      Lock l = readWriteLock.readLock();
-      return getRowLock(l);
+
+    boolean isBoundTo(byte[] row, int hash) {
+      return this.row != null && this.hash == hash && Bytes.equals(this.row, row);
     }
 
-    private RowLockImpl getRowLock(Lock l) {
-      count.incrementAndGet();
-      synchronized (lock) {
-        if (usable.get()) {
-          return new RowLockImpl(this, l);
-        } else {
-          return null;
-        }
-      }
+    void bind(byte[] row, int hash) {
+      this.row = row;
+      this.hash = hash;
+    }
+
+    void unbind() {
+      this.row = null;
+      this.threadName = null;
     }
 
     void cleanUp() {
-      long c = count.decrementAndGet();
-      if (c <= 0) {
-        synchronized (lock) {
-          if (count.get() <= 0){
-            usable.set(false);
-            RowLockContext removed = lockedRows.remove(row);
-            assert removed == this: "we should never remove a different context";
-          }
-        }
-      }
+      stripe.release(this);
     }
 
     public void setThreadName(String threadName) {
@@ -5326,8 +5621,14 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
     @Override
     public String toString() {
+      byte[] row;
+      int count;
+      synchronized (stripe) {
+        row = this.row;
+        count = this.count;
+      }
       return "RowLockContext{" +
-          "row=" + row +
+          "row=" + (row == null ? null : Bytes.toStringBinary(row)) +
           ", readWriteLock=" + readWriteLock +
           ", count=" + count +
           ", threadName=" + threadName +
@@ -5336,11 +5637,14 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   }
 
   /**
-   * Class used to represent a lock on a row.
+   * Class used to represent a lock on a row. A new one is handed out for each acquisition, and
+   * only its first release has an effect: once the count of users of its context drops to zero,
+   * the context may be bound to another row of the stripe.
    */
   public static class RowLockImpl implements RowLock {
     private final RowLockContext context;
     private final Lock lock;
+    private boolean released = false;
 
     public RowLockImpl(RowLockContext context, Lock lock) {
       this.context = context;
@@ -5358,6 +5662,13 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
     @Override
     public void release() {
+      synchronized (this) {
+        if (released) {
+          LOG.warn("Ignoring release of " + this + ", which was already released");
+          return;
+        }
+        released = true;
+      }
       lock.unlock();
       context.cleanUp();
     }
@@ -7507,8 +7818,8 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
   public static final long FIXED_OVERHEAD = ClassSize.align(
       ClassSize.OBJECT +
-      ClassSize.ARRAY +
-      48 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_INT +
+      2 * ClassSize.ARRAY +
+      49 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_INT +
       (14 * Bytes.SIZEOF_LONG) +
       5 * Bytes.SIZEOF_BOOLEAN);
 
@@ -7527,7 +7838,8 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       (2 * ClassSize.ATOMIC_BOOLEAN) + // closed, closing
       (4 * ClassSize.ATOMIC_LONG) + // memStoreSize, numPutsWithoutWAL, dataInMemoryWithoutWAL,
                                     // compactionsFailed
-      (2 * ClassSize.CONCURRENT_HASHMAP) +  // lockedRows, scannerReadPoints
+      ClassSize.CONCURRENT_HASHMAP +  // scannerReadPoints
+      ClassSize.ARRAY + // rowLockStripes
       WriteState.HEAP_SIZE + // writestate
       ClassSize.CONCURRENT_SKIPLISTMAP + ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY + // stores
       (2 * ClassSize.REENTRANT_LOCK) + // lock, updatesLock
@@ -19,11 +19,14 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -74,6 +77,12 @@ public class HRegionFileSystem {
   /** Temporary subdirectory of the region directory used for compaction output. */
   private static final String REGION_TEMP_DIR = ".tmp";
 
+  /**
+   * Name of the file listing the blocks of the store files cached by the server which last
+   * closed the region, for the next one to load them.
+   */
+  public static final String CACHED_BLOCKS_FILE = ".cachedblocks";
+
   private final HRegionInfo regionInfo;
   //regionInfo for interacting with FS (getting encodedName, etc)
   private final HRegionInfo regionInfoForFs;
@@ -727,6 +736,74 @@ public class HRegionFileSystem {
     }
   }
 
+  // ===========================================================================
+  //  Cached Blocks Helpers
+  // ===========================================================================
+  /**
+   * Write the list of the blocks of the store files cached by this server, replacing any
+   * previous list.
+   * @param cachedBlocks the offsets of the cached blocks, by store file name
+   */
+  void writeCachedBlocks(final Map<String, long[]> cachedBlocks) throws IOException {
+    Path tmpPath = new Path(getTempDir(), CACHED_BLOCKS_FILE);
+    FSDataOutputStream out = FSUtils.create(conf, fs, tmpPath,
+        FSUtils.getFilePermissions(fs, conf, HConstants.DATA_FILE_UMASK_KEY), null);
+    try {
+      DataOutputStream dos = new DataOutputStream(out);
+      dos.writeInt(cachedBlocks.size());
+      for (Map.Entry<String, long[]> e : cachedBlocks.entrySet()) {
+        dos.writeUTF(e.getKey());
+        dos.writeInt(e.getValue().length);
+        for (long offset : e.getValue()) {
+          dos.writeLong(offset);
+        }
+      }
+      dos.flush();
+    } finally {
+      out.close();
+    }
+    Path path = new Path(getRegionDir(), CACHED_BLOCKS_FILE);
+    if (fs.exists(path) && !fs.delete(path, false)) {
+      throw new IOException("Unable to remove existing " + path);
+    }
+    if (!rename(tmpPath, path)) {
+      throw new IOException("Unable to rename " + tmpPath + " to " + path);
+    }
+  }
+
+  /**
+   * Read and remove the list of the blocks cached by the server which last closed the region.
+   * @return the offsets of the cached blocks by store file name, or null if there is no list
+   */
+  Map<String, long[]> readCachedBlocks() throws IOException {
+    Path path = new Path(getRegionDir(), CACHED_BLOCKS_FILE);
+    FSDataInputStream in;
+    try {
+      in = fs.open(path);
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+    Map<String, long[]> cachedBlocks;
+    try {
+      DataInputStream dis = new DataInputStream(in);
+      int files = dis.readInt();
+      cachedBlocks = new HashMap<String, long[]>(files);
+      for (int i = 0; i < files; i++) {
+        String name = dis.readUTF();
+        long[] offsets = new long[dis.readInt()];
+        for (int j = 0; j < offsets.length; j++) {
+          offsets[j] = dis.readLong();
+        }
+        cachedBlocks.put(name, offsets);
+      }
+    } finally {
+      in.close();
+      // The list is stale once the region is opened
+      deleteDir(path);
+    }
+    return cachedBlocks;
+  }
+
   // ===========================================================================
   //  Create/Open/Delete Helpers
   // ===========================================================================
@@ -55,6 +55,7 @@ import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -108,6 +109,7 @@ import org.apache.hadoop.hbase.http.HttpServer;
 import org.apache.hadoop.hbase.http.InfoServer;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.ParallelBlockCompressor;
 import org.apache.hadoop.hbase.ipc.CoprocessorRpcUtils;
 import org.apache.hadoop.hbase.ipc.RpcClient;
 import org.apache.hadoop.hbase.ipc.RpcClientFactory;
@@ -498,6 +500,13 @@ public class HRegionServer extends HasThread implements
 
   private volatile ThroughputController flushThroughputController;
 
+  // the pool compressing the data blocks of the HFiles written by the regions in parallel, null
+  // if disabled
+  private ThreadPoolExecutor blockCompressionPool;
+
+  // the pool flushing the stores of the regions in parallel, null if disabled
+  private ThreadPoolExecutor storeFlushPool;
+
   /**
    * Starts a HRegionServer at the default location.
    * @param conf
@@ -573,7 +582,7 @@ public class HRegionServer extends HasThread implements
     // or process owner as default super user.
     Superusers.initialize(conf);
 
-    regionServerAccounting = new RegionServerAccounting();
+    regionServerAccounting = new RegionServerAccounting(conf);
     cacheConfig = new CacheConfig(conf);
     mobCacheConfig = new MobCacheConfig(conf);
     uncaughtExceptionHandler = new UncaughtExceptionHandler() {
@@ -623,6 +632,9 @@ public class HRegionServer extends HasThread implements
     this.walRoller = new LogRoller(this, this);
     this.choreService = new ChoreService(getServerName().toString(), true);
     this.flushThroughputController = FlushThroughputControllerFactory.create(this, conf);
+    this.blockCompressionPool =
+        ParallelBlockCompressor.createPool(conf, getServerName().toShortString());
+    this.storeFlushPool = HRegion.createStoreFlushPool(conf, getServerName().toShortString());
 
     if (!SystemUtils.IS_OS_WINDOWS) {
       Signal.handle(new Signal("HUP"), new SignalHandler() {
@@ -2214,6 +2226,8 @@ public class HRegionServer extends HasThread implements
     if (this.compactSplitThread != null) {
       this.compactSplitThread.join();
     }
+    if (this.blockCompressionPool != null) this.blockCompressionPool.shutdown();
+    if (this.storeFlushPool != null) this.storeFlushPool.shutdown();
     if (this.service != null) this.service.shutdown();
     if (this.replicationSourceHandler != null &&
         this.replicationSourceHandler == this.replicationSinkHandler) {
@@ -3403,6 +3417,16 @@ public class HRegionServer extends HasThread implements
     return this.walRoller.walRollFinished();
   }
 
+  @Override
+  public ThreadPoolExecutor getBlockCompressionPool() {
+    return blockCompressionPool;
+  }
+
+  @Override
+  public ThreadPoolExecutor getStoreFlushPool() {
+    return storeFlushPool;
+  }
+
   @Override
   public ThroughputController getFlushThroughputController() {
     return flushThroughputController;
@@ -3414,8 +3438,7 @@ public class HRegionServer extends HasThread implements
       // return 0 during RS initialization
       return 0.0;
     }
-    return getRegionServerAccounting().getGlobalMemstoreSize() * 1.0
-        / cacheFlusher.globalMemStoreLimitLowMark;
+    return cacheFlusher.getFlushPressure();
   }
 
   @Override
@@ -43,6 +43,7 @@ import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -984,9 +985,11 @@ public class HStore implements Store {
       writerCacheConf = cacheConf;
     }
     InetSocketAddress[] favoredNodes = null;
+    ExecutorService compressionPool = null;
     if (region.getRegionServerServices() != null) {
       favoredNodes = region.getRegionServerServices().getFavoredNodesForRegion(
           region.getRegionInfo().getEncodedName());
+      compressionPool = region.getRegionServerServices().getBlockCompressionPool();
     }
     HFileContext hFileContext = createFileContext(compression, includeMVCCReadpoint, includesTag,
       cryptoContext);
@@ -998,7 +1001,8 @@ public class HStore implements Store {
             .withMaxKeyCount(maxKeyCount)
             .withFavoredNodes(favoredNodes)
             .withFileContext(hFileContext)
-            .withShouldDropCacheBehind(shouldDropBehind);
+            .withShouldDropCacheBehind(shouldDropBehind)
+            .withCompressionPool(compressionPool);
     if (trt != null) {
       builder.withTimeRangeTracker(trt);
     }
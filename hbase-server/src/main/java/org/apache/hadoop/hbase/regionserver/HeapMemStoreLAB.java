@@ -18,7 +18,10 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -26,9 +29,15 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.OffheapKeyValue;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.util.HeapMemorySizeUtil;
 import org.apache.hadoop.hbase.util.ByteRange;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.SimpleMutableByteRange;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -41,6 +50,11 @@ import com.google.common.base.Preconditions;
  * big (2MB) byte[] chunks from and then doles it out to threads that request
  * slices into the array.
  * <p>
+ * When an off heap global memstore size is configured (see
+ * {@link HeapMemorySizeUtil#OFFHEAP_MEMSTORE_SIZE_KEY}), the chunks are direct ByteBuffers
+ * taken from the {@link MemStoreChunkPool} and the cells copied into them are
+ * {@link OffheapKeyValue}s, so that the memstore data does not live in the java heap at all.
+ * <p>
  * The purpose of this class is to combat heap fragmentation in the
  * regionserver. By ensuring that all KeyValues in a given memstore refer
  * only to large chunks of contiguous memory, we ensure that large blocks
@@ -67,11 +81,16 @@ public class HeapMemStoreLAB implements MemStoreLAB {
   static final Log LOG = LogFactory.getLog(HeapMemStoreLAB.class);
 
   private AtomicReference<Chunk> curChunk = new AtomicReference<Chunk>();
+  // All the chunks used by this MemStoreLAB by their id, used to resolve the entries of a
+  // chunk-indexed cell map (see CellChunkMap)
+  private final ConcurrentMap<Integer, Chunk> chunksById = new ConcurrentHashMap<Integer, Chunk>();
   // A queue of chunks contained by this memstore, used with chunk pool
   private BlockingQueue<Chunk> chunkQueue = null;
   final int chunkSize;
   final int maxAlloc;
   private final MemStoreChunkPool chunkPool;
+  // Whether the chunks of this MemStoreLAB are allocated off heap
+  private final boolean offheap;
 
   // This flag is for closing this instance, its set when clearing snapshot of
   // memstore
@@ -92,7 +111,11 @@ public class HeapMemStoreLAB implements MemStoreLAB {
     maxAlloc = conf.getInt(MAX_ALLOC_KEY, MAX_ALLOC_DEFAULT);
     this.chunkPool = MemStoreChunkPool.getPool(conf);
     // currently chunkQueue is only used for chunkPool
-    if (this.chunkPool != null) {
+    this.offheap = this.chunkPool != null && this.chunkPool.isOffheap();
+    if (this.offheap) {
+      // off heap chunks are accounted by the pool, so all of them must be handed back to it
+      chunkQueue = new LinkedBlockingQueue<Chunk>();
+    } else if (this.chunkPool != null) {
       // set queue length to chunk pool max count to avoid keeping reference of
       // too many non-reclaimable chunks
       chunkQueue = new LinkedBlockingQueue<Chunk>(chunkPool.getMaxCount());
@@ -108,11 +131,12 @@ public class HeapMemStoreLAB implements MemStoreLAB {
    * Allocate a slice of the given length.
    *
    * If the size is larger than the maximum size specified for this
-   * allocator, returns null.
+   * allocator, returns null. Only supported when the chunks are on heap.
    */
   @Override
   public ByteRange allocateBytes(int size) {
     Preconditions.checkArgument(size >= 0, "negative size");
+    Preconditions.checkState(!offheap, "Off heap chunks can not be sliced into byte ranges");
 
     // Callers should satisfy large allocations directly from JVM since they
     // don't cause fragmentation as badly.
@@ -128,7 +152,7 @@ public class HeapMemStoreLAB implements MemStoreLAB {
       if (allocOffset != -1) {
         // We succeeded - this is the common case - small alloc
         // from a big buffer
-        return new SimpleMutableByteRange(c.data, allocOffset, size);
+        return new SimpleMutableByteRange(c.data.array(), allocOffset, size);
       }
 
       // not enough space!
@@ -137,6 +161,108 @@ public class HeapMemStoreLAB implements MemStoreLAB {
     }
   }
 
+  @Override
+  public Cell copyCellInto(Cell cell) {
+    int size = KeyValueUtil.length(cell);
+    Preconditions.checkArgument(size >= 0, "negative size");
+    // Callers should satisfy large allocations directly from JVM since they
+    // don't cause fragmentation as badly.
+    if (size > maxAlloc) {
+      return null;
+    }
+    while (true) {
+      Chunk c = getOrMakeChunk();
+      int allocOffset = c.alloc(size);
+      if (allocOffset != -1) {
+        return copyToChunkCell(cell, c.getData(), allocOffset, size);
+      }
+      tryRetireChunk(c);
+    }
+  }
+
+  /**
+   * Copies the cell, serialized as in {@link KeyValue}, to the given location of a chunk.
+   * @return a cell over the copied data; a {@link KeyValue} for an on heap chunk and an
+   *   {@link OffheapKeyValue} for an off heap chunk
+   */
+  static Cell copyToChunkCell(Cell cell, ByteBuffer buf, int offset, int len) {
+    KeyValueUtil.appendTo(cell, buf, offset);
+    return toChunkCell(buf, offset, len, cell.getSequenceId());
+  }
+
+  /**
+   * @return a cell over the serialized cell found at the given location of a chunk
+   */
+  static Cell toChunkCell(ByteBuffer buf, int offset, int len, long seqId) {
+    if (buf.hasArray()) {
+      KeyValue kv = new KeyValue(buf.array(), buf.arrayOffset() + offset, len);
+      kv.setSequenceId(seqId);
+      return kv;
+    }
+    int tagsLen = len - KeyValue.ROW_OFFSET - buf.getInt(offset)
+        - buf.getInt(offset + Bytes.SIZEOF_INT);
+    return new OffheapKeyValue(buf, offset, len, tagsLen > 0, seqId);
+  }
+
+  /**
+   * Allocate a slice of the given length, like {@link #allocateBytes(int)}, but return the
+   * location of the slice rather than a range: the id of the chunk in the high 32 bits and the
+   * offset within the chunk in the low 32 bits. The chunk is resolved with {@link #getChunk(int)}.
+   * @return the location of the slice or -1 if the size is larger than the maximum allocation
+   */
+  long allocateChunkSlice(int size) {
+    Preconditions.checkArgument(size >= 0, "negative size");
+    if (size > maxAlloc) {
+      return -1;
+    }
+    while (true) {
+      Chunk c = getOrMakeChunk();
+      int allocOffset = c.alloc(size);
+      if (allocOffset != -1) {
+        return ((long) c.getId() << 32) | allocOffset;
+      }
+      tryRetireChunk(c);
+    }
+  }
+
+  /**
+   * Allocate a whole chunk for the exclusive use of the caller, e.g. for holding the index of a
+   * chunk-indexed cell map. The chunk is released together with the other chunks of this
+   * MemStoreLAB.
+   */
+  Chunk allocateWholeChunk() {
+    Chunk c = (chunkPool != null) ? chunkPool.getChunk() : new Chunk(chunkSize);
+    c.init();
+    // claim all of the chunk so it won't be used for other allocations
+    c.alloc(chunkSize);
+    registerChunk(c);
+    return c;
+  }
+
+  /**
+   * @return the chunk of this MemStoreLAB with the given id, or null if there is none
+   */
+  Chunk getChunk(int id) {
+    return chunksById.get(id);
+  }
+
+  /**
+   * @return whether a slice of the given size can be allocated from the chunks of this MemStoreLAB
+   */
+  boolean canAllocate(int size) {
+    return size >= 0 && size <= maxAlloc;
+  }
+
+  private void registerChunk(Chunk c) {
+    chunksById.put(c.getId(), c);
+    if (chunkQueue != null && !this.closed && !this.chunkQueue.offer(c)) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Chunk queue is full, won't reuse this new chunk. Current queue size: "
+            + chunkQueue.size());
+      }
+    }
+  }
+
   /**
    * Close this instance since it won't be used any more, try to put the chunks
    * back to pool
@@ -146,9 +272,8 @@ public class HeapMemStoreLAB implements MemStoreLAB {
     this.closed = true;
     // We could put back the chunks to pool for reusing only when there is no
     // opening scanner which will read their data
-    if (chunkPool != null && openScannerCount.get() == 0
-        && reclaimed.compareAndSet(false, true)) {
-      chunkPool.putbackChunks(this.chunkQueue);
+    if (openScannerCount.get() == 0 && reclaimed.compareAndSet(false, true)) {
+      releaseChunks();
     }
   }
 
@@ -166,8 +291,19 @@ public class HeapMemStoreLAB implements MemStoreLAB {
   @Override
   public void decScannerCount() {
     int count = this.openScannerCount.decrementAndGet();
-    if (chunkPool != null && count == 0 && this.closed
-        && reclaimed.compareAndSet(false, true)) {
+    if (count == 0 && this.closed && reclaimed.compareAndSet(false, true)) {
+      releaseChunks();
+    }
+  }
+
+  /**
+   * Forget the chunks of this closed MemStoreLAB, which no scanner reads any more, and put them
+   * back to the pool. A chunk put back may be reused by another MemStoreLAB under the same id, so
+   * it must not be resolved by {@link #getChunk(int)} of this one.
+   */
+  private void releaseChunks() {
+    chunksById.clear();
+    if (chunkPool != null) {
       chunkPool.putbackChunks(this.chunkQueue);
     }
   }
@@ -209,12 +345,7 @@ public class HeapMemStoreLAB implements MemStoreLAB {
         // we won race - now we need to actually do the expensive
         // allocation step
         c.init();
-        if (chunkQueue != null && !this.closed && !this.chunkQueue.offer(c)) {
-          if (LOG.isTraceEnabled()) {
-            LOG.trace("Chunk queue is full, won't reuse this new chunk. Current queue size: "
-                + chunkQueue.size());
-          }
-        }
+        registerChunk(c);
         return c;
       } else if (chunkPool != null) {
         chunkPool.putbackChunk(c);
@@ -238,8 +369,14 @@ public class HeapMemStoreLAB implements MemStoreLAB {
    * A chunk of memory out of which allocations are sliced.
    */
   static class Chunk {
+    // Generates the unique ids of the chunks
+    private static final AtomicInteger CHUNK_ID_GENERATOR = new AtomicInteger();
+
     /** Actual underlying data */
-    private byte[] data;
+    private ByteBuffer data;
+
+    /** Id of the chunk, unique within the process and kept when the chunk is reused */
+    private final int id;
 
     private static final int UNINITIALIZED = -1;
     private static final int OOM = -2;
@@ -255,13 +392,47 @@ public class HeapMemStoreLAB implements MemStoreLAB {
     /** Size of chunk in bytes */
     private final int size;
 
+    /** Whether the data of the chunk is allocated off heap */
+    private final boolean offheap;
+
     /**
-     * Create an uninitialized chunk. Note that memory is not allocated yet, so
+     * Create an uninitialized on heap chunk. Note that memory is not allocated yet, so
      * this is cheap.
      * @param size in bytes
      */
     Chunk(int size) {
+      this(size, false);
+    }
+
+    /**
+     * Create an uninitialized chunk. Note that memory is not allocated yet, so
+     * this is cheap.
+     * @param size in bytes
+     * @param offheap whether to allocate the data as a direct ByteBuffer
+     */
+    Chunk(int size, boolean offheap) {
       this.size = size;
+      this.offheap = offheap;
+      this.id = CHUNK_ID_GENERATOR.incrementAndGet();
+    }
+
+    int getId() {
+      return id;
+    }
+
+    /**
+     * @return the underlying data of the chunk; null if the chunk is not initialized
+     */
+    ByteBuffer getData() {
+      return data;
+    }
+
+    int getSize() {
+      return size;
+    }
+
+    boolean isOffheap() {
+      return offheap;
     }
 
     /**
@@ -273,7 +444,7 @@ public class HeapMemStoreLAB implements MemStoreLAB {
       assert nextFreeOffset.get() == UNINITIALIZED;
       try {
         if (data == null) {
-          data = new byte[size];
+          data = offheap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
         }
       } catch (OutOfMemoryError e) {
         boolean failInit = nextFreeOffset.compareAndSet(UNINITIALIZED, OOM);
@@ -319,7 +490,7 @@ public class HeapMemStoreLAB implements MemStoreLAB {
           return -1;
         }
 
-        if (oldOffset + size > data.length) {
+        if (oldOffset + size > this.size) {
           return -1; // alloc doesn't fit
         }
 
@@ -337,7 +508,7 @@ public class HeapMemStoreLAB implements MemStoreLAB {
     public String toString() {
       return "Chunk@" + System.identityHashCode(this) +
         " allocs=" + allocCount.get() + "waste=" +
-        (data.length - nextFreeOffset.get());
+        (size - nextFreeOffset.get());
     }
 
     @VisibleForTesting
@@ -0,0 +1,72 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.ByteRange;
+
+/**
+ * A MemStoreLAB made of the MemStoreLABs of several segments, used by a segment created by merging
+ * the indexes of these segments. The cells of the merged segment still live in the chunks of the
+ * original MemStoreLABs, so these are kept as long as the merged segment is, and are closed
+ * together with it. No allocation is possible from an ImmutableMemStoreLAB.
+ */
+@InterfaceAudience.Private
+public class ImmutableMemStoreLAB implements MemStoreLAB {
+
+  private final List<MemStoreLAB> mslabs;
+
+  public ImmutableMemStoreLAB(List<MemStoreLAB> mslabs) {
+    this.mslabs = mslabs;
+  }
+
+  @Override
+  public ByteRange allocateBytes(int size) {
+    throw new IllegalStateException("This is an Immutable MemStoreLAB.");
+  }
+
+  @Override
+  public Cell copyCellInto(Cell cell) {
+    throw new IllegalStateException("This is an Immutable MemStoreLAB.");
+  }
+
+  @Override
+  public void close() {
+    for (MemStoreLAB mslab : this.mslabs) {
+      mslab.close();
+    }
+  }
+
+  @Override
+  public void incScannerCount() {
+    for (MemStoreLAB mslab : this.mslabs) {
+      mslab.incScannerCount();
+    }
+  }
+
+  @Override
+  public void decScannerCount() {
+    for (MemStoreLAB mslab : this.mslabs) {
+      mslab.decScannerCount();
+    }
+  }
+}
@@ -18,20 +18,45 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.List;
+
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.regionserver.HeapMemStoreLAB.Chunk;
+import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.hbase.util.CollectionBackedScanner;
 
+import com.google.common.base.Preconditions;
+
 /**
  * ImmutableSegment is an abstract class that extends the API supported by a {@link Segment},
  * and is not needed for a {@link MutableSegment}. Specifically, the method
  * {@link ImmutableSegment#getKeyValueScanner()} builds a special scanner for the
  * {@link MemStoreSnapshot} object.
+ * An immutable segment is either backed by the skip-list based cell set of the mutable segment it
+ * was created from, or by a flat {@link CellArrayMap} or {@link CellChunkMap} built once by the
+ * in-memory compaction. An array map based segment may also be built by merging the indexes of
+ * other segments, in which case it shares their data rather than copying it.
  */
 @InterfaceAudience.Private
 public class ImmutableSegment extends Segment {
+
+  /**
+   * Types of ImmutableSegment, differing in the data structure that indexes the cells
+   */
+  public enum Type {
+    SKIPLIST_MAP_BASED,
+    ARRAY_MAP_BASED,
+    CHUNK_MAP_BASED,
+  }
+
+  private final Type type;
+
   /**
    * This is an immutable segment so use the read-only TimeRange rather than the heavy-weight
    * TimeRangeTracker with all its synchronization when doing time range stuff.
@@ -40,10 +65,118 @@ public class ImmutableSegment extends Segment {
 
   protected ImmutableSegment(Segment segment) {
     super(segment);
+    this.type = Type.SKIPLIST_MAP_BASED;
     TimeRangeTracker trt = getTimeRangeTracker();
     this.timeRange =  trt == null? null: trt.toTimeRange();
   }
 
+  /**
+   * Builds a flat segment backed by a {@link CellArrayMap} or a {@link CellChunkMap}.
+   * The given cells must be sorted according to the comparator and must not contain duplicates,
+   * e.g. the output of the compacting scanner. Each cell is copied into the MSLAB of this segment
+   * (if any), so the new segment does not reference the data of the segments it was built from.
+   * A chunk map based segment requires that every cell can be copied into the chunks of the
+   * MSLAB, see {@link #canBeChunkIndexed(MemStoreLAB, List)}.
+   */
+  protected ImmutableSegment(CellComparator comparator, MemStoreLAB memStoreLAB,
+      List<Cell> cells, long size, Type type, ColumnCardinalitySketch columnSketch) {
+    super(null, comparator, memStoreLAB, size, columnSketch);
+    Preconditions.checkArgument(type != Type.SKIPLIST_MAP_BASED,
+        "A flat segment can not be skip-list based");
+    this.type = type;
+    if (type == Type.CHUNK_MAP_BASED) {
+      initCellChunkMap(comparator, (HeapMemStoreLAB) memStoreLAB, cells);
+    } else {
+      initCellArrayMap(comparator, cells);
+    }
+    this.timeRange = getTimeRangeTracker().toTimeRange();
+  }
+
+  /**
+   * Builds an array map based segment by merging the indexes of other segments. The given cells,
+   * all the cells of the merged segments in order, are not copied; the new segment references
+   * their data in the MSLABs of the merged segments, which are handed over through the given
+   * {@link ImmutableMemStoreLAB}.
+   */
+  protected ImmutableSegment(CellComparator comparator, ImmutableMemStoreLAB memStoreLAB,
+      List<Cell> cells, long size, ColumnCardinalitySketch columnSketch) {
+    super(null, comparator, memStoreLAB, size, columnSketch);
+    this.type = Type.ARRAY_MAP_BASED;
+    initCellArrayMap(comparator, cells, false);
+    this.timeRange = getTimeRangeTracker().toTimeRange();
+  }
+
+  private void initCellArrayMap(CellComparator comparator, List<Cell> cells) {
+    initCellArrayMap(comparator, cells, true);
+  }
+
+  private void initCellArrayMap(CellComparator comparator, List<Cell> cells, boolean copyCells) {
+    Cell[] cellArray = new Cell[cells.size()];
+    int i = 0;
+    for (Cell c : cells) {
+      Cell newCell = copyCells ? maybeCloneWithAllocator(c) : c;
+      cellArray[i++] = newCell;
+      updateMetaInfo(newCell, heapSizeChangeForArrayEntry(newCell));
+    }
+    setCellSet(new CellSet(new CellArrayMap(comparator, cellArray, 0, cellArray.length, false)));
+  }
+
+  private void initCellChunkMap(CellComparator comparator, HeapMemStoreLAB memStoreLAB,
+      List<Cell> cells) {
+    int numOfCells = cells.size();
+    int entriesPerChunk = CellChunkMap.getEntriesPerChunk(memStoreLAB);
+    Chunk[] indexChunks = new Chunk[(numOfCells + entriesPerChunk - 1) / entriesPerChunk];
+    for (int j = 0; j < indexChunks.length; j++) {
+      indexChunks[j] = memStoreLAB.allocateWholeChunk();
+    }
+    int i = 0;
+    for (Cell c : cells) {
+      int len = getCellLength(c);
+      long location = memStoreLAB.allocateChunkSlice(len);
+      int chunkId = (int) (location >>> 32);
+      int offset = (int) location;
+      KeyValueUtil.appendTo(c, memStoreLAB.getChunk(chunkId).getData(), offset);
+      CellChunkMap.writeEntry(indexChunks, entriesPerChunk, i++, chunkId, offset, len,
+          c.getSequenceId());
+      updateMetaInfo(c, heapSizeChangeForChunkEntry(len));
+    }
+    setCellSet(new CellSet(new CellChunkMap(comparator, memStoreLAB, indexChunks, 0, numOfCells,
+        false)));
+  }
+
+  /**
+   * @return whether all the given cells can be held by a chunk map based segment using the
+   *   given MSLAB
+   */
+  static boolean canBeChunkIndexed(MemStoreLAB memStoreLAB, List<Cell> cells) {
+    if (!(memStoreLAB instanceof HeapMemStoreLAB)) {
+      return false;
+    }
+    HeapMemStoreLAB heapMemStoreLAB = (HeapMemStoreLAB) memStoreLAB;
+    for (Cell c : cells) {
+      if (!heapMemStoreLAB.canAllocate(KeyValueUtil.length(c))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the heap overhead of a single cell held by a {@link CellArrayMap}; a reference in the
+   *   array instead of a skip-list node
+   */
+  static long heapSizeChangeForArrayEntry(Cell cell) {
+    return ClassSize.align(ClassSize.CELL_ARRAY_MAP_ENTRY + CellUtil.estimatedHeapSizeOf(cell));
+  }
+
+  /**
+   * @return the memory taken by a single cell held by a {@link CellChunkMap}; its serialized
+   *   data and its index entry, with no object overhead
+   */
+  static long heapSizeChangeForChunkEntry(int cellLength) {
+    return ClassSize.CELL_CHUNK_MAP_ENTRY + cellLength;
+  }
+
   /**
    * Builds a special scanner for the MemStoreSnapshot object that is different than the
    * general segment scanner.
@@ -53,6 +186,13 @@ public class ImmutableSegment extends Segment {
     return new CollectionBackedScanner(getCellSet(), getComparator());
   }
 
+  /**
+   * @return the type of the index backing this segment
+   */
+  public Type getType() {
+    return type;
+  }
+
   @Override
   public boolean shouldSeek(Scan scan, long oldestUnexpiredTS) {
     return this.timeRange.includesTimeRange(scan.getTimeRange()) &&
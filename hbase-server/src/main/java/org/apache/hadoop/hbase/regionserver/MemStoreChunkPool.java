@@ -50,6 +50,11 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * {@link MemStoreChunkPool#getChunk()} is called when MemStoreLAB allocating
  * bytes, and {@link MemStoreChunkPool#putbackChunks(BlockingQueue)} is called
  * when MemStore clearing snapshot for flush
+ * 
+ * When {@link HeapMemorySizeUtil#OFFHEAP_MEMSTORE_SIZE_KEY} is set the pool is
+ * always enabled and hands out off heap chunks, sized by the off heap global
+ * memstore size rather than by the java heap. The pool then keeps count of the
+ * chunks in use, which is the off heap memory taken by the memstores.
  */
 @SuppressWarnings("javadoc")
 @InterfaceAudience.Private
@@ -66,6 +71,7 @@ public class MemStoreChunkPool {
   static boolean chunkPoolDisabled = false;
 
   private final int maxCount;
+  private final boolean offheap;
 
   // A queue of reclaimed chunks
   private final BlockingQueue<Chunk> reclaimedChunks;
@@ -77,14 +83,22 @@ public class MemStoreChunkPool {
   private static final int statThreadPeriod = 60 * 5;
   private AtomicLong createdChunkCount = new AtomicLong();
   private AtomicLong reusedChunkCount = new AtomicLong();
+  // Number of off heap chunks handed out by the pool and not put back yet
+  private AtomicLong inUseChunkCount = new AtomicLong();
 
   MemStoreChunkPool(Configuration conf, int chunkSize, int maxCount,
       int initialCount) {
+    this(conf, chunkSize, maxCount, initialCount, false);
+  }
+
+  MemStoreChunkPool(Configuration conf, int chunkSize, int maxCount,
+      int initialCount, boolean offheap) {
     this.maxCount = maxCount;
     this.chunkSize = chunkSize;
+    this.offheap = offheap;
     this.reclaimedChunks = new LinkedBlockingQueue<Chunk>();
     for (int i = 0; i < initialCount; i++) {
-      Chunk chunk = new Chunk(chunkSize);
+      Chunk chunk = new Chunk(chunkSize, offheap);
       chunk.init();
       reclaimedChunks.add(chunk);
     }
@@ -104,12 +118,15 @@ public class MemStoreChunkPool {
   Chunk getChunk() {
     Chunk chunk = reclaimedChunks.poll();
     if (chunk == null) {
-      chunk = new Chunk(chunkSize);
+      chunk = new Chunk(chunkSize, offheap);
       createdChunkCount.incrementAndGet();
     } else {
       chunk.reset();
       reusedChunkCount.incrementAndGet();
     }
+    if (offheap) {
+      inUseChunkCount.incrementAndGet();
+    }
     return chunk;
   }
 
@@ -119,6 +136,10 @@ public class MemStoreChunkPool {
    * @param chunks
    */
   void putbackChunks(BlockingQueue<Chunk> chunks) {
+    if (offheap) {
+      // the chunks which are not kept by the pool are left to the GC
+      inUseChunkCount.addAndGet(-chunks.size());
+    }
     int maxNumToPutback = this.maxCount - reclaimedChunks.size();
     if (maxNumToPutback <= 0) {
       return;
@@ -139,6 +160,9 @@ public class MemStoreChunkPool {
    * @param chunk
    */
   void putbackChunk(Chunk chunk) {
+    if (offheap) {
+      inUseChunkCount.decrementAndGet();
+    }
     if (reclaimedChunks.size() >= this.maxCount) {
       return;
     }
@@ -149,6 +173,18 @@ public class MemStoreChunkPool {
     return this.reclaimedChunks.size();
   }
 
+  boolean isOffheap() {
+    return this.offheap;
+  }
+
+  /**
+   * @return the off heap memory, in bytes, taken by the chunks handed out by this pool; 0 if the
+   *   chunks of the pool are on heap
+   */
+  long getOffheapUsedSize() {
+    return this.inUseChunkCount.get() * this.chunkSize;
+  }
+
   /*
    * Only used in testing
    */
@@ -179,6 +215,7 @@ public class MemStoreChunkPool {
     LOG.debug("Stats: current pool size=" + reclaimedChunks.size()
         + ",created chunk count=" + created
         + ",reused chunk count=" + reused
+        + (offheap ? ",in use off heap chunk count=" + inUseChunkCount.get() : "")
         + ",reuseRatio=" + (total == 0 ? "0" : StringUtils.formatPercent(
             (float) reused / (float) total, 2)));
   }
@@ -195,7 +232,13 @@ public class MemStoreChunkPool {
     synchronized (MemStoreChunkPool.class) {
       if (chunkPoolDisabled) return null;
       if (GLOBAL_INSTANCE != null) return GLOBAL_INSTANCE;
+      long offheapGlobalMemStoreSize = HeapMemorySizeUtil.getOffheapGlobalMemstoreSize(conf);
+      boolean offheap = offheapGlobalMemStoreSize > 0;
       float poolSizePercentage = conf.getFloat(CHUNK_POOL_MAXSIZE_KEY, POOL_MAX_SIZE_DEFAULT);
+      if (offheap && poolSizePercentage <= 0) {
+        // off heap chunks are only released through the pool, so it can not be disabled
+        poolSizePercentage = 1.0f;
+      }
       if (poolSizePercentage <= 0) {
         chunkPoolDisabled = true;
         return null;
@@ -203,9 +246,14 @@ public class MemStoreChunkPool {
       if (poolSizePercentage > 1.0) {
         throw new IllegalArgumentException(CHUNK_POOL_MAXSIZE_KEY + " must be between 0.0 and 1.0");
       }
-      long heapMax = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
-      long globalMemStoreLimit = (long) (heapMax * HeapMemorySizeUtil.getGlobalMemStorePercent(conf,
-          false));
+      long globalMemStoreLimit;
+      if (offheap) {
+        globalMemStoreLimit = offheapGlobalMemStoreSize;
+      } else {
+        long heapMax = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+        globalMemStoreLimit = (long) (heapMax * HeapMemorySizeUtil.getGlobalMemStorePercent(conf,
+            false));
+      }
       int chunkSize = conf.getInt(HeapMemStoreLAB.CHUNK_SIZE_KEY,
           HeapMemStoreLAB.CHUNK_SIZE_DEFAULT);
       int maxCount = (int) (globalMemStoreLimit * poolSizePercentage / chunkSize);
@@ -218,9 +266,10 @@ public class MemStoreChunkPool {
       }
 
       int initialCount = (int) (initialCountPercentage * maxCount);
-      LOG.info("Allocating MemStoreChunkPool with chunk size " + StringUtils.byteDesc(chunkSize)
-          + ", max count " + maxCount + ", initial count " + initialCount);
-      GLOBAL_INSTANCE = new MemStoreChunkPool(conf, chunkSize, maxCount, initialCount);
+      LOG.info("Allocating " + (offheap ? "off heap " : "") + "MemStoreChunkPool with chunk size "
+          + StringUtils.byteDesc(chunkSize) + ", max count " + maxCount + ", initial count "
+          + initialCount);
+      GLOBAL_INSTANCE = new MemStoreChunkPool(conf, chunkSize, maxCount, initialCount, offheap);
       return GLOBAL_INSTANCE;
     }
   }
@@ -21,6 +21,7 @@ package org.apache.hadoop.hbase.regionserver;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.client.Scan;
@@ -36,6 +37,16 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * and interrupts the compaction if requested.
  * The MemStoreScanner is used to traverse the compaction pipeline. The MemStoreScanner
  * is included in internal store scanner, where all compaction logic is implemented.
+ * The compacted segment is either skip-list based or, if configured via
+ * {@link CompactingMemStore#COMPACTING_MEMSTORE_INDEX_KEY}, a flat segment whose cells are held in
+ * a sorted array ({@link CellArrayMap}) or indexed from MSLAB chunks ({@link CellChunkMap}).
+ * If few cells would be removed by the compaction, as estimated by a first pass over the pipeline,
+ * the segments are only merged: their indexes are merged into a single {@link CellArrayMap} which
+ * references the cells in place, and no data is copied. See
+ * {@link CompactingMemStore#COMPACTING_MEMSTORE_MERGE_THRESHOLD_KEY}.
+ * With the adaptive policy the action is instead chosen without traversing the pipeline, from the
+ * column cardinality sketches of its segments, and may also be to leave the pipeline as it is.
+ * See {@link CompactingMemStore#COMPACTING_MEMSTORE_POLICY_KEY}.
  * Threads safety: It is assumed that the compaction pipeline is immutable,
  * therefore no special synchronization is required.
  */
@@ -43,10 +54,29 @@ import java.util.concurrent.atomic.AtomicBoolean;
 class MemStoreCompactor {
 
   private static final Log LOG = LogFactory.getLog(MemStoreCompactor.class);
+
+  /**
+   * Types of actions to be done on the pipeline upon MemStoreCompaction invocation.
+   */
+  enum Action {
+    NOOP,     // leave the pipeline as it is
+    MERGE,    // merge the indexes of the segments, referencing the cells in place
+    COMPACT   // compact the data, copying the surviving cells into a new segment
+  }
+
+  /**
+   * Policies choosing the action upon MemStoreCompaction invocation.
+   */
+  enum Policy {
+    EAGER,    // traverse the pipeline to estimate the removed cells, per the merge threshold
+    ADAPTIVE  // estimate the removed cells from the column cardinality sketches of the segments
+  }
+
   private CompactingMemStore compactingMemStore;
   private MemStoreScanner scanner;            // scanner for pipeline only
   // scanner on top of MemStoreScanner that uses ScanQueryMatcher
   private StoreScanner compactingScanner;
+  private ScannerContext scannerContext;
 
   // smallest read point for any ongoing MemStore scan
   private long smallestReadPoint;
@@ -55,42 +85,181 @@ class MemStoreCompactor {
   private VersionedSegmentsList versionedList;
   private final AtomicBoolean isInterrupted = new AtomicBoolean(false);
 
+  // the type of the segment created by the compaction
+  private final ImmutableSegment.Type segmentType;
+  // the estimated fraction of removed cells below which the segments are merged
+  private final double mergeThreshold;
+  private final Policy policy;
+  // the estimated fraction of removed cells from which the adaptive policy compacts the data
+  private final double adaptiveThreshold;
+  private Action action = Action.COMPACT;
+
   public MemStoreCompactor(CompactingMemStore compactingMemStore) {
     this.compactingMemStore = compactingMemStore;
+    this.segmentType = compactingMemStore.getCompactedSegmentType();
+    this.mergeThreshold = compactingMemStore.getConfiguration().getFloat(
+        CompactingMemStore.COMPACTING_MEMSTORE_MERGE_THRESHOLD_KEY,
+        CompactingMemStore.COMPACTING_MEMSTORE_MERGE_THRESHOLD_DEFAULT);
+    this.policy = compactingMemStore.getCompactionPolicy();
+    this.adaptiveThreshold = compactingMemStore.getConfiguration().getFloat(
+        CompactingMemStore.COMPACTING_MEMSTORE_ADAPTIVE_THRESHOLD_KEY,
+        CompactingMemStore.COMPACTING_MEMSTORE_ADAPTIVE_THRESHOLD_DEFAULT);
   }
 
   /**
    * The request to dispatch the compaction asynchronous task.
    * The method returns true if compaction was successfully dispatched, or false if there
-   * is already an ongoing compaction or nothing to compact.
+   * is already an ongoing compaction, nothing to compact, or the policy chose not to compact.
    */
   public boolean startCompaction() throws IOException {
     if (!compactingMemStore.hasCompactibleSegments()) return false;  // no compaction on empty
 
-    List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>();
     // get the list of segments from the pipeline
     versionedList = compactingMemStore.getCompactibleSegments();
     // the list is marked with specific version
+    if (policy == Policy.ADAPTIVE) {
+      action = chooseAdaptiveAction();
+      if (action == Action.NOOP) {
+        versionedList = null;
+        return false;
+      }
+    }
+    scanner = createPipelineScanner();
+    smallestReadPoint = compactingMemStore.getSmallestReadPoint();
+
+    List<Cell> mergedCells = null;
+    if (policy == Policy.ADAPTIVE) {
+      if (action == Action.MERGE) {
+        mergedCells = new ArrayList<Cell>();
+        collectCells(mergedCells);
+      }
+    } else if (mergeThreshold > 0) {
+      mergedCells = new ArrayList<Cell>();
+      action = chooseAction(mergedCells);
+      if (action == Action.COMPACT) {
+        // the pipeline scanner was consumed by the estimation
+        mergedCells = null;
+        scanner.close();
+        scanner = createPipelineScanner();
+      }
+    } else {
+      action = Action.COMPACT;
+    }
+    if (action == Action.COMPACT) {
+      compactingScanner = createScanner(compactingMemStore.getStore());
+      // get the limit to the size of the groups to be returned by compactingScanner
+      int compactionKVMax = compactingMemStore.getConfiguration().getInt(
+          HConstants.COMPACTION_KV_MAX,
+          HConstants.COMPACTION_KV_MAX_DEFAULT);
+      scannerContext = ScannerContext.newBuilder().setBatchLimit(compactionKVMax).build();
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Starting the MemStore in-memory " + (action == Action.MERGE ? "merge" :
+          "compaction") + " for store " + compactingMemStore.getStore().getColumnFamilyName());
+    }
+
+    doCompaction(mergedCells);
+    return true;
+  }
 
-    // create the list of scanners with maximally possible read point, meaning that
-    // all KVs are going to be returned by the pipeline traversing
+  /**
+   * Creates a scanner over all the segments of the versioned list, with maximally possible read
+   * point, meaning that all KVs are going to be returned by the pipeline traversing
+   */
+  private MemStoreScanner createPipelineScanner() throws IOException {
+    List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>();
     for (Segment segment : versionedList.getStoreSegments()) {
       scanners.add(segment.getSegmentScanner(Long.MAX_VALUE));
     }
-    scanner =
-        new MemStoreScanner(compactingMemStore, scanners, Long.MAX_VALUE,
-            MemStoreScanner.Type.COMPACT_FORWARD);
+    return new MemStoreScanner(compactingMemStore, scanners, Long.MAX_VALUE,
+        MemStoreScanner.Type.COMPACT_FORWARD);
+  }
 
-    smallestReadPoint = compactingMemStore.getSmallestReadPoint();
-    compactingScanner = createScanner(compactingMemStore.getStore());
+  /**
+   * Estimates the fraction of the cells of the pipeline a compaction would remove from the column
+   * cardinality sketches of its segments, assuming every column holds as many versions as the
+   * family retains before the older ones are removed. Delete markers are not accounted for.
+   * @return {@link Action#COMPACT} if the estimated fraction of removed cells is at least the
+   *   adaptive threshold or some segment is not sketched, otherwise {@link Action#NOOP} if the
+   *   pipeline is a single segment and {@link Action#MERGE} if not
+   */
+  private Action chooseAdaptiveAction() {
+    List<ImmutableSegment> segments = versionedList.getStoreSegments();
+    List<ColumnCardinalitySketch> sketches =
+        new ArrayList<ColumnCardinalitySketch>(segments.size());
+    long cells = 0;
+    for (ImmutableSegment segment : segments) {
+      ColumnCardinalitySketch sketch = segment.getColumnSketch();
+      if (sketch == null) {
+        return Action.COMPACT;
+      }
+      sketches.add(sketch);
+      cells += sketch.getCount();
+    }
+    int maxVersions = compactingMemStore.getStore().getScanInfo().getMaxVersions();
+    double retained = ColumnCardinalitySketch.estimateUnion(sketches) * maxVersions;
+    double removable = cells == 0 ? 0 : Math.max(0, cells - retained) / cells;
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("In-memory compaction of store " + compactingMemStore.getFamilyName()
+          + " would remove an estimated " + String.format("%.2f", removable) + " of " + cells
+          + " cells in " + segments.size() + " segments");
+    }
+    if (removable >= adaptiveThreshold) {
+      return Action.COMPACT;
+    }
+    return segments.size() == 1 ? Action.NOOP : Action.MERGE;
+  }
 
+  /**
+   * Traverses the pipeline, collecting all its cells in order into the given list, and estimates
+   * how many of them a compaction would remove.
+   * @return {@link Action#MERGE} if the estimated fraction of removed cells is below the merge
+   *   threshold, {@link Action#COMPACT} otherwise
+   */
+  private Action chooseAction(List<Cell> cells) throws IOException {
+    long removable = collectCells(cells);
+    if (isInterrupted.get()) {
+      return Action.COMPACT;
+    }
     if (LOG.isDebugEnabled()) {
-      LOG.debug("Starting the MemStore in-memory compaction for store "
-          + compactingMemStore.getStore().getColumnFamilyName());
+      LOG.debug("In-memory compaction of store " + compactingMemStore.getFamilyName()
+          + " would remove an estimated " + removable + " out of " + cells.size() + " cells");
     }
+    return (removable < mergeThreshold * cells.size()) ? Action.MERGE : Action.COMPACT;
+  }
 
-    doCompaction();
-    return true;
+  /**
+   * Traverses the pipeline, collecting all its cells in order into the given list, unless
+   * interrupted.
+   * @return the estimated number of cells a compaction would remove: the versions of a column
+   *   beyond the maximal number of versions of the family, and the cells of a column following a
+   *   delete marker of it
+   */
+  private long collectCells(List<Cell> cells) throws IOException {
+    int maxVersions = compactingMemStore.getStore().getScanInfo().getMaxVersions();
+    long removable = 0;
+    int versions = 0;
+    boolean deleted = false;
+    Cell prev = null;
+    Cell c;
+    while ((c = scanner.next()) != null) {
+      if (isInterrupted.get()) {
+        break;
+      }
+      cells.add(c);
+      if (prev == null || !CellUtil.matchingRowColumn(prev, c)) {
+        versions = 0;
+        deleted = false;
+      }
+      prev = c;
+      if (CellUtil.isDelete(c)) {
+        deleted = true;
+      } else if (deleted || ++versions > maxVersions) {
+        removable++;
+      }
+    }
+    return removable;
   }
 
   /**
@@ -111,8 +280,11 @@ class MemStoreCompactor {
     isInterrupted.set(false);
     scanner.close();
     scanner = null;
-    compactingScanner.close();
-    compactingScanner = null;
+    if (compactingScanner != null) {
+      compactingScanner.close();
+      compactingScanner = null;
+    }
+    scannerContext = null;
     versionedList = null;
   }
 
@@ -121,28 +293,25 @@ class MemStoreCompactor {
   * The solo (per compactor) thread only reads the compaction pipeline.
   * There is at most one thread per memstore instance.
   */
-  private void doCompaction() {
-
-    ImmutableSegment result = SegmentFactory.instance()  // create the scanner
-        .createImmutableSegment(
-            compactingMemStore.getConfiguration(), compactingMemStore.getComparator(),
-            CompactingMemStore.DEEP_OVERHEAD_PER_PIPELINE_ITEM);
-
+  private void doCompaction(List<Cell> mergedCells) {
+    ImmutableSegment result = null;
+    boolean merge = (action == Action.MERGE);
     // the compaction processing
     try {
-      // Phase I: create the compacted MutableCellSetSegment
-      compactSegments(result);
+      // Phase I: create the compacted segment
+      result = merge ? createMergedSegment(mergedCells) : createCompactedSegment();
 
       // Phase II: swap the old compaction pipeline
       if (!isInterrupted.get()) {
-        if (compactingMemStore.swapCompactedSegments(versionedList, result)) {
+        if (compactingMemStore.swapCompactedSegments(versionedList, result, merge)) {
           // update the wal so it can be truncated and not get too long
           compactingMemStore.updateLowestUnflushedSequenceIdInWAL(true); // only if greater
-        } else {
+        } else if (!merge) {
           // We just ignored the Segment 'result' and swap did not happen.
+          // A merged segment is not closed, as its MSLABs are still used by the pipeline.
           result.close();
         }
-      } else {
+      } else if (!merge) {
         // We just ignore the Segment 'result'.
         result.close();
       }
@@ -157,6 +326,38 @@ class MemStoreCompactor {
 
   }
 
+  /**
+   * Creates the compacted segment, of the type configured for this memstore
+   */
+  private ImmutableSegment createCompactedSegment() throws IOException {
+    if (segmentType != ImmutableSegment.Type.SKIPLIST_MAP_BASED) {
+      // the flat segment is built in one go once the number of surviving cells is known
+      List<Cell> cells = new ArrayList<Cell>();
+      compactSegments(cells);
+      return SegmentFactory.instance().createImmutableSegment(
+          compactingMemStore.getConfiguration(), compactingMemStore.getComparator(), cells,
+          CompactingMemStore.DEEP_OVERHEAD_PER_PIPELINE_ITEM, segmentType,
+          compactingMemStore.isColumnCardinalityTracked());
+    }
+    ImmutableSegment result = SegmentFactory.instance()  // create the scanner
+        .createImmutableSegment(
+            compactingMemStore.getConfiguration(), compactingMemStore.getComparator(),
+            CompactingMemStore.DEEP_OVERHEAD_PER_PIPELINE_ITEM,
+            compactingMemStore.isColumnCardinalityTracked());
+    compactSegments(result);
+    return result;
+  }
+
+  /**
+   * Creates a segment by merging the indexes of the segments of the versioned list
+   * @param cells all the cells of the segments, in order
+   */
+  private ImmutableSegment createMergedSegment(List<Cell> cells) {
+    return SegmentFactory.instance().createImmutableSegmentByMerge(
+        compactingMemStore.getComparator(), cells,
+        CompactingMemStore.DEEP_OVERHEAD_PER_PIPELINE_ITEM, versionedList.getStoreSegments());
+  }
+
   /**
    * Creates the scanner for compacting the pipeline.
    *
@@ -179,30 +380,37 @@ class MemStoreCompactor {
    * who in turn uses ScanQueryMatcher
    */
   private void compactSegments(Segment result) throws IOException {
-
     List<Cell> kvs = new ArrayList<Cell>();
-    // get the limit to the size of the groups to be returned by compactingScanner
-    int compactionKVMax = compactingMemStore.getConfiguration().getInt(
-        HConstants.COMPACTION_KV_MAX,
-        HConstants.COMPACTION_KV_MAX_DEFAULT);
-
-    ScannerContext scannerContext =
-        ScannerContext.newBuilder().setBatchLimit(compactionKVMax).build();
-
     boolean hasMore;
     do {
-      hasMore = compactingScanner.next(kvs, scannerContext);
-      if (!kvs.isEmpty()) {
-        for (Cell c : kvs) {
-          // The scanner is doing all the elimination logic
-          // now we just copy it to the new segment
-          Cell newKV = result.maybeCloneWithAllocator(c);
-          boolean mslabUsed = (newKV != c);
-          result.internalAdd(newKV, mslabUsed);
-
-        }
-        kvs.clear();
+      hasMore = nextCompactedCells(kvs);
+      for (Cell c : kvs) {
+        // The scanner is doing all the elimination logic
+        // now we just copy it to the new segment
+        Cell newKV = result.maybeCloneWithAllocator(c);
+        boolean mslabUsed = (newKV != c);
+        result.internalAdd(newKV, mslabUsed);
       }
+      kvs.clear();
+    } while (hasMore && (!isInterrupted.get()));
+  }
+
+  /**
+   * Collects all the cells surviving the compaction into the given list, in order. The cells are
+   * not copied, they still reference the data of the pipeline segments.
+   */
+  private void compactSegments(List<Cell> result) throws IOException {
+    boolean hasMore;
+    do {
+      hasMore = nextCompactedCells(result);
     } while (hasMore && (!isInterrupted.get()));
   }
+
+  /**
+   * Appends the next batch of cells returned by the internal store scanner to the given list
+   * @return true if there are more cells to compact
+   */
+  private boolean nextCompactedCells(List<Cell> kvs) throws IOException {
+    return compactingScanner.next(kvs, scannerContext);
+  }
 }
@@ -92,6 +92,9 @@ class MemStoreFlusher implements FlushRequester {
   protected long globalMemStoreLimit;
   protected float globalMemStoreLimitLowMarkPercent;
   protected long globalMemStoreLimitLowMark;
+  // Limits on the off heap memory taken by the memstores; 0 when the memstores are on heap
+  protected long globalMemStoreOffHeapLimit;
+  protected long globalMemStoreOffHeapLimitLowMark;
 
   private long blockingWaitTime;
   private final Counter updatesBlockedMsHighWater = new Counter();
@@ -117,6 +120,9 @@ class MemStoreFlusher implements FlushRequester {
         HeapMemorySizeUtil.getGlobalMemStoreLowerMark(conf, globalMemStorePercent);
     this.globalMemStoreLimitLowMark =
         (long) (this.globalMemStoreLimit * this.globalMemStoreLimitLowMarkPercent);
+    this.globalMemStoreOffHeapLimit = HeapMemorySizeUtil.getOffheapGlobalMemstoreSize(conf);
+    this.globalMemStoreOffHeapLimitLowMark =
+        (long) (this.globalMemStoreOffHeapLimit * this.globalMemStoreLimitLowMarkPercent);
 
     this.blockingWaitTime = conf.getInt("hbase.hstore.blockingWaitTime",
       90000);
@@ -126,7 +132,9 @@ class MemStoreFlusher implements FlushRequester {
         + TraditionalBinaryPrefix.long2String(this.globalMemStoreLimit, "", 1)
         + ", globalMemStoreLimitLowMark="
         + TraditionalBinaryPrefix.long2String(this.globalMemStoreLimitLowMark, "", 1)
-        + ", maxHeap=" + TraditionalBinaryPrefix.long2String(max, "", 1));
+        + ", maxHeap=" + TraditionalBinaryPrefix.long2String(max, "", 1)
+        + (this.globalMemStoreOffHeapLimit > 0 ? ", globalMemStoreOffHeapLimit="
+            + TraditionalBinaryPrefix.long2String(this.globalMemStoreOffHeapLimit, "", 1) : ""));
   }
 
   public Counter getUpdatesBlockedMsHighWater() {
@@ -340,19 +348,39 @@ class MemStoreFlusher implements FlushRequester {
   }
 
   /**
-   * Return true if global memory usage is above the high watermark
+   * Return true if global memory usage, on or off heap, is above the high watermark
    */
   private boolean isAboveHighWaterMark() {
-    return server.getRegionServerAccounting().
-      getGlobalMemstoreSize() >= globalMemStoreLimit;
+    return isAbove(globalMemStoreLimit, globalMemStoreOffHeapLimit);
   }
 
   /**
-   * Return true if we're above the high watermark
+   * Return true if we're above the low watermark
    */
   private boolean isAboveLowWaterMark() {
-    return server.getRegionServerAccounting().
-      getGlobalMemstoreSize() >= globalMemStoreLimitLowMark;
+    return isAbove(globalMemStoreLimitLowMark, globalMemStoreOffHeapLimitLowMark);
+  }
+
+  private boolean isAbove(long heapMark, long offHeapMark) {
+    RegionServerAccounting accounting = server.getRegionServerAccounting();
+    if (offHeapMark > 0) {
+      return accounting.getGlobalMemstoreHeapSize() >= heapMark
+          || accounting.getGlobalMemstoreOffHeapSize() >= offHeapMark;
+    }
+    return accounting.getGlobalMemstoreSize() >= heapMark;
+  }
+
+  /**
+   * @return the ratio of the global memstore size to the low watermark, on or off heap,
+   *   whichever is higher
+   */
+  double getFlushPressure() {
+    RegionServerAccounting accounting = server.getRegionServerAccounting();
+    if (globalMemStoreOffHeapLimitLowMark > 0) {
+      return Math.max(accounting.getGlobalMemstoreHeapSize() * 1.0 / globalMemStoreLimitLowMark,
+          accounting.getGlobalMemstoreOffHeapSize() * 1.0 / globalMemStoreOffHeapLimitLowMark);
+    }
+    return accounting.getGlobalMemstoreSize() * 1.0 / globalMemStoreLimitLowMark;
   }
 
   @Override
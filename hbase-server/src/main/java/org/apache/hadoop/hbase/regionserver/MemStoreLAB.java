@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.util.ByteRange;
 
@@ -46,6 +47,15 @@ public interface MemStoreLAB {
    */
   ByteRange allocateBytes(int size);
 
+  /**
+   * Allocate a slice in this MemStoreLAB and copy the given cell into it. The copy may live on or
+   * off heap, depending on where this MemStoreLAB allocates its memory.
+   * @param cell the cell to copy
+   * @return a new cell backed by the copied data, or null if the cell is larger than the maximum
+   *   size specified for this allocator
+   */
+  Cell copyCellInto(Cell cell);
+
   /**
    * Close instance since it won't be used any more, try to put the chunks back to pool
    */
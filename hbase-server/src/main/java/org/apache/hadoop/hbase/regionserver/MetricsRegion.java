@@ -65,6 +65,14 @@ public class MetricsRegion {
     source.updateScanTime(t);
   }
 
+  public void updateRowLockWait(final long t) {
+    source.updateRowLockWait(t);
+  }
+
+  public void updateStoreFlushTime(final String family, final long t) {
+    source.updateStoreFlushTime(family, t);
+  }
+
   public void updateAppend() {
     source.updateAppend();
   }
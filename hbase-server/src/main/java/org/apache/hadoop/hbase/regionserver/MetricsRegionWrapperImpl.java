@@ -29,6 +29,7 @@ import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.CompatibilitySingletonFactory;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.io.hfile.PrefetchExecutor;
 import org.apache.hadoop.metrics2.MetricsExecutor;
 
 @InterfaceAudience.Private
@@ -165,6 +166,17 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
     return numReferenceFiles;
   }
 
+  @Override
+  public long getCacheWarmupPercent() {
+    long blocks = this.region.cacheWarmupBlocks.get();
+    return blocks == 0 ? 100 : this.region.cacheWarmupBlocksLoaded.get() * 100 / blocks;
+  }
+
+  @Override
+  public long getPrefetchPercent() {
+    return PrefetchExecutor.getRegionProgress(this.region.getRegionInfo().getEncodedName());
+  }
+
   @Override
   public int getRegionHashCode() {
     return this.region.hashCode();
@@ -0,0 +1,216 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+
+/**
+ * Combines the mini-batches of mutations which are concurrently written to a region, so that they
+ * are committed together: one WAL append and sync, one mvcc transaction, then all their cells
+ * applied to the memstore. Each handler prepares its mini-batch as usual, holding the row locks of
+ * its mutations, and hands it over as a {@link PendingBatch}. The first handler finding no commit
+ * in progress becomes the leader: it repeatedly takes the pending batches which can be combined
+ * with the oldest one and commits them, until its own batch is committed. The other handlers wait
+ * for their batch to be committed by the leader, or for the leader to step down, in which case one
+ * of them takes over. A handler writing alone commits its batch right away, there is no waiting
+ * for other batches to arrive.
+ */
+@InterfaceAudience.Private
+class MiniBatchCombiner {
+
+  /**
+   * Commits a group of mini-batches in a single WAL append and mvcc transaction.
+   */
+  interface GroupCommitter {
+    /**
+     * Commits the given batches, recording in each of them the size added to the memstore.
+     */
+    void commit(List<PendingBatch> group) throws IOException;
+  }
+
+  /**
+   * A prepared mini-batch waiting to be committed.
+   */
+  static class PendingBatch {
+    private final WALEdit walEdit;
+    private final List<Map<byte[], List<Cell>>> familyMaps;
+    private final List<UUID> clusterIds;
+    private final Durability durability;
+    private long addedSize = 0;
+    // guarded by the combiner
+    private boolean done = false;
+    private Throwable error;
+
+    /**
+     * @param walEdit the edit to append to the WAL for the mutations of the batch
+     * @param familyMaps the cells to apply to the memstore
+     * @param clusterIds the ids of the clusters the mutations went through, for replication
+     * @param durability the strongest effective durability of the mutations
+     */
+    PendingBatch(WALEdit walEdit, List<Map<byte[], List<Cell>>> familyMaps,
+        List<UUID> clusterIds, Durability durability) {
+      this.walEdit = walEdit;
+      this.familyMaps = familyMaps;
+      this.clusterIds = clusterIds;
+      this.durability = durability;
+    }
+
+    WALEdit getWalEdit() {
+      return walEdit;
+    }
+
+    List<Map<byte[], List<Cell>>> getFamilyMaps() {
+      return familyMaps;
+    }
+
+    List<UUID> getClusterIds() {
+      return clusterIds;
+    }
+
+    Durability getDurability() {
+      return durability;
+    }
+
+    long getAddedSize() {
+      return addedSize;
+    }
+
+    void incAddedSize(long delta) {
+      addedSize += delta;
+    }
+
+    /**
+     * Batches are combined in a single WAL entry, so they must be replicated the same way
+     */
+    boolean canBeCombinedWith(PendingBatch other) {
+      return clusterIds.equals(other.clusterIds);
+    }
+  }
+
+  private final GroupCommitter committer;
+  private final int maxGroupSize;
+  // guarded by this
+  private final LinkedList<PendingBatch> pending = new LinkedList<PendingBatch>();
+  private boolean committing = false;
+
+  /**
+   * @param maxGroupSize the maximal number of batches committed together
+   */
+  MiniBatchCombiner(GroupCommitter committer, int maxGroupSize) {
+    this.committer = committer;
+    this.maxGroupSize = maxGroupSize;
+  }
+
+  /**
+   * Commits the given batch, possibly together with other pending ones, and returns once it is
+   * committed. The size added to the memstore is recorded in the batch, even on failure.
+   * @throws IOException if the commit of the group including the batch failed
+   */
+  void commit(PendingBatch batch) throws IOException {
+    synchronized (this) {
+      pending.add(batch);
+      boolean interrupted = false;
+      // the leader may be applying our cells already, so we can not give up waiting
+      while (committing && !batch.done) {
+        try {
+          wait();
+        } catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (batch.done) {
+        rethrow(batch.error);
+        return;
+      }
+      committing = true;
+    }
+    try {
+      while (!batch.done) {
+        List<PendingBatch> group = nextGroup();
+        Throwable error = null;
+        try {
+          committer.commit(group);
+        } catch (Throwable t) {
+          error = t;
+        }
+        synchronized (this) {
+          for (PendingBatch committed : group) {
+            committed.error = error;
+            committed.done = true;
+          }
+          notifyAll();
+        }
+      }
+    } finally {
+      synchronized (this) {
+        committing = false;
+        // one of the waiting handlers takes over the pending batches
+        notifyAll();
+      }
+    }
+    rethrow(batch.error);
+  }
+
+  @VisibleForTesting
+  synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Removes from the pending batches the oldest one and the ones which can be combined with it
+   */
+  private synchronized List<PendingBatch> nextGroup() {
+    List<PendingBatch> group = new ArrayList<PendingBatch>();
+    PendingBatch first = pending.removeFirst();
+    group.add(first);
+    Iterator<PendingBatch> it = pending.iterator();
+    while (it.hasNext() && group.size() < maxGroupSize) {
+      PendingBatch next = it.next();
+      if (first.canBeCombinedWith(next)) {
+        group.add(next);
+        it.remove();
+      }
+    }
+    return group;
+  }
+
+  private static void rethrow(Throwable error) throws IOException {
+    if (error != null) {
+      Throwables.propagateIfPossible(error, IOException.class);
+      throw new IOException(error);
+    }
+  }
+}
@@ -18,7 +18,10 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -35,6 +38,13 @@ import org.apache.hadoop.hbase.util.ClassSize;
  * Manages the read/write consistency. This provides an interface for readers to determine what
  * entries to ignore, and a mechanism for writers to obtain new write numbers, then "commit"
  * the new writes for readers to read (thus forming atomic transactions).
+ * <p>
+ * Neither starting nor completing a write takes a lock, so that many handlers writing to the same
+ * region do not contend on a single monitor. A write number is handed out by incrementing the
+ * write point. The read point only ever moves by one, from n - 1 to n, by the thread which
+ * completed write n if write n - 1 was already visible, or else by the thread which made write
+ * n - 1 visible, finding write n among the completed writes which are not visible yet. A thread
+ * only goes to sleep in {@link #waitForRead(WriteEntry)} if its write completed out of order.
  */
 @InterfaceAudience.Private
 public class MultiVersionConcurrencyControl {
@@ -43,18 +53,17 @@ public class MultiVersionConcurrencyControl {
   final AtomicLong readPoint = new AtomicLong(0);
   final AtomicLong writePoint = new AtomicLong(0);
   private final Object readWaiters = new Object();
+  // the number of threads waiting on readWaiters, so that they are only notified if there are any
+  private final AtomicInteger readWaitersCount = new AtomicInteger(0);
   /**
    * Represents no value, or not set.
    */
   public static final long NONE = -1;
 
-  // This is the pending queue of writes.
-  //
-  // TODO(eclark): Should this be an array of fixed size to
-  // reduce the number of allocations on the write path?
-  // This could be equal to the number of handlers + a small number.
-  // TODO: St.Ack 20150903 Sounds good to me.
-  private final LinkedList<WriteEntry> writeQueue = new LinkedList<WriteEntry>();
+  // The numbers of the writes which completed before a write preceding them did, so that they are
+  // not visible yet. Writes completing in order never go through this set.
+  private final Set<Long> completedWrites =
+      Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
 
   public MultiVersionConcurrencyControl() {
     super();
@@ -88,24 +97,28 @@ public class MultiVersionConcurrencyControl {
    * <code>readPoint</code>
    */
   boolean tryAdvanceTo(long newStartPoint, long expected) {
-    synchronized (writeQueue) {
-      long currentRead = this.readPoint.get();
-      long currentWrite = this.writePoint.get();
-      if (currentRead != currentWrite) {
-        throw new RuntimeException("Already used this mvcc; currentRead=" + currentRead +
-          ", currentWrite=" + currentWrite + "; too late to tryAdvanceTo");
-      }
-      if (expected != NONE && expected != currentRead) {
-        return false;
-      }
+    long currentWrite = this.writePoint.get();
+    long currentRead = this.readPoint.get();
+    if (currentRead != currentWrite) {
+      throw new RuntimeException("Already used this mvcc; currentRead=" + currentRead +
+        ", currentWrite=" + currentWrite + "; too late to tryAdvanceTo");
+    }
+    if (expected != NONE && expected != currentRead) {
+      return false;
+    }
 
-      if (newStartPoint < currentRead) {
-        return false;
-      }
+    if (newStartPoint < currentRead) {
+      return false;
+    }
 
-      readPoint.set(newStartPoint);
-      writePoint.set(newStartPoint);
+    // a write begun in the meantime takes the place of the write point we checked
+    if (!writePoint.compareAndSet(currentWrite, newStartPoint)) {
+      return false;
     }
+    readPoint.set(newStartPoint);
+    // the writes begun after we moved the write point may have completed already
+    advanceReadPoint();
+    notifyReadWaiters();
     return true;
   }
 
@@ -120,12 +133,7 @@ public class MultiVersionConcurrencyControl {
    * @see #completeAndWait(WriteEntry)
    */
   public WriteEntry begin() {
-    synchronized (writeQueue) {
-      long nextWriteNumber = writePoint.incrementAndGet();
-      WriteEntry e = new WriteEntry(nextWriteNumber);
-      writeQueue.add(e);
-      return e;
-    }
+    return new WriteEntry(writePoint.incrementAndGet());
   }
 
   /**
@@ -165,40 +173,49 @@ public class MultiVersionConcurrencyControl {
    * @return true if e is visible to MVCC readers (that is, readpoint >= e.writeNumber)
    */
   public boolean complete(WriteEntry writeEntry) {
-    synchronized (writeQueue) {
-      writeEntry.markCompleted();
-      long nextReadValue = NONE;
-      boolean ranOnce = false;
-      while (!writeQueue.isEmpty()) {
-        ranOnce = true;
-        WriteEntry queueFirst = writeQueue.getFirst();
-
-        if (nextReadValue > 0) {
-          if (nextReadValue + 1 != queueFirst.getWriteNumber()) {
-            throw new RuntimeException("Invariant in complete violated, nextReadValue="
-                + nextReadValue + ", writeNumber=" + queueFirst.getWriteNumber());
-          }
-        }
+    long writeNumber = writeEntry.getWriteNumber();
+    if (writeEntry.isCompleted()) {
+      return readPoint.get() >= writeNumber;
+    }
+    writeEntry.markCompleted();
+    if (!readPoint.compareAndSet(writeNumber - 1, writeNumber)) {
+      // a preceding write is still ongoing, whoever completes it makes ours visible
+      completedWrites.add(writeNumber);
+    }
+    // make the writes completed after ours visible, or ours if the preceding write completed
+    // while we were adding it
+    advanceReadPoint();
+    notifyReadWaiters();
+    return readPoint.get() >= writeNumber;
+  }
 
-        if (queueFirst.isCompleted()) {
-          nextReadValue = queueFirst.getWriteNumber();
-          writeQueue.removeFirst();
-        } else {
-          break;
-        }
+  /**
+   * Moves the read point over the completed writes which follow it. The thread removing write n
+   * from the completed writes is the only one which can move the read point from n - 1 to n, so
+   * the read point is set rather than compared and set. A thread which did not find the write
+   * following the read point exits only after checking the read point did not move meanwhile:
+   * otherwise the thread which moved it may have looked for the write before it was added.
+   */
+  private void advanceReadPoint() {
+    long current = readPoint.get();
+    while (true) {
+      if (completedWrites.remove(current + 1)) {
+        readPoint.set(++current);
+        continue;
       }
-
-      if (!ranOnce) {
-        throw new RuntimeException("There is no first!");
+      long latest = readPoint.get();
+      if (latest == current) {
+        return;
       }
+      current = latest;
+    }
+  }
 
-      if (nextReadValue > 0) {
-        synchronized (readWaiters) {
-          readPoint.set(nextReadValue);
-          readWaiters.notifyAll();
-        }
+  private void notifyReadWaiters() {
+    if (readWaitersCount.get() > 0) {
+      synchronized (readWaiters) {
+        readWaiters.notifyAll();
       }
-      return readPoint.get() >= writeEntry.getWriteNumber();
     }
   }
 
@@ -209,6 +226,8 @@ public class MultiVersionConcurrencyControl {
     boolean interrupted = false;
     int count = 0;
     synchronized (readWaiters) {
+      // registered before checking the read point, so that the thread moving it notifies us
+      readWaitersCount.incrementAndGet();
       while (readPoint.get() < e.getWriteNumber()) {
         if (count % 100 == 0 && count > 0) {
           LOG.warn("STUCK: " + this);
@@ -222,6 +241,7 @@ public class MultiVersionConcurrencyControl {
           interrupted = true;
         }
       }
+      readWaitersCount.decrementAndGet();
     }
     if (interrupted) {
       Thread.currentThread().interrupt();
@@ -232,7 +252,8 @@ public class MultiVersionConcurrencyControl {
   public String toString() {
     return Objects.toStringHelper(this)
         .add("readPoint", readPoint)
-        .add("writePoint", writePoint).toString();
+        .add("writePoint", writePoint)
+        .add("pendingCompletedWrites", completedWrites.size()).toString();
   }
 
   public long getReadPoint() {
@@ -251,7 +272,7 @@ public class MultiVersionConcurrencyControl {
   @InterfaceAudience.Private
   public static class WriteEntry {
     private final long writeNumber;
-    private boolean completed = false;
+    private volatile boolean completed = false;
 
     WriteEntry(long writeNumber) {
       this.writeNumber = writeNumber;
@@ -278,5 +299,8 @@ public class MultiVersionConcurrencyControl {
   public static final long FIXED_SIZE = ClassSize.align(
       ClassSize.OBJECT +
       2 * Bytes.SIZEOF_LONG +
-      2 * ClassSize.REFERENCE);
+      3 * ClassSize.REFERENCE +
+      ClassSize.ATOMIC_INTEGER + // readWaitersCount
+      ClassSize.align(ClassSize.OBJECT + 2 * ClassSize.REFERENCE) + // completedWrites
+      ClassSize.CONCURRENT_HASHMAP); // the map backing completedWrites
 }
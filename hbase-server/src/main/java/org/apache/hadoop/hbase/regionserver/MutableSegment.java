@@ -33,6 +33,11 @@ public class MutableSegment extends Segment {
     super(cellSet, comparator, memStoreLAB, size);
   }
 
+  protected MutableSegment(CellSet cellSet, CellComparator comparator, MemStoreLAB memStoreLAB,
+      long size, ColumnCardinalitySketch columnSketch) {
+    super(cellSet, comparator, memStoreLAB, size, columnSketch);
+  }
+
   /**
    * Adds the given cell into the segment
    * @param cell the cell to add
@@ -82,6 +87,9 @@ public class MutableSegment extends Segment {
   @Override
   protected void updateMetaInfo(Cell toAdd, long s) {
     getTimeRangeTracker().includeTimestamp(toAdd);
+    if (getColumnSketch() != null) {
+      getColumnSketch().add(toAdd);
+    }
     size.addAndGet(s);
     // In no tags case this NoTagsKeyValue.getTagsLength() is a cheap call.
     // When we use ACL CP or Visibility CP which deals with Tags during
@@ -107,14 +107,12 @@ public class RSDumpServlet extends StateDumpServlet {
     StringBuilder sb = new StringBuilder();
     for (Region region : hrs.getOnlineRegions()) {
       HRegion hRegion = (HRegion)region;
-      if (hRegion.getLockedRows().size() > 0) {
-        for (HRegion.RowLockContext rowLockContext : hRegion.getLockedRows().values()) {
-          sb.setLength(0);
-          sb.append(hRegion.getTableDesc().getTableName()).append(",")
-            .append(hRegion.getRegionInfo().getEncodedName()).append(",");
-          sb.append(rowLockContext.toString());
-          out.println(sb.toString());
-        }
+      for (HRegion.RowLockContext rowLockContext : hRegion.getLockedRows()) {
+        sb.setLength(0);
+        sb.append(hRegion.getTableDesc().getTableName()).append(",")
+          .append(hRegion.getRegionInfo().getEncodedName()).append(",");
+        sb.append(rowLockContext.toString());
+        out.println(sb.toString());
       }
     }
   }
@@ -0,0 +1,205 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.BlockCache;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileBlock;
+import org.apache.hadoop.hbase.io.hfile.PrefetchExecutor;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
+
+/**
+ * Hands the block cache of a region over to the server the region moves to. The server closing
+ * the region lists the blocks of its store files it has cached in the region directory, and the
+ * server opening the region loads them in its own block cache, in the background, as the blocks
+ * of the store files opened with prefetching are.<p>
+ *
+ * The blocks are read again from the store files rather than shipped between the servers: they
+ * are already in the filesystem both servers read, and only the blocks which were worth caching
+ * are read, rather than whole files.
+ */
+@InterfaceAudience.Private
+public final class RegionCacheWarmer {
+
+  private static final Log LOG = LogFactory.getLog(RegionCacheWarmer.class);
+
+  /**
+   * Whether the server closing a region to move it lists the blocks it has cached, for the server
+   * opening it to load them.
+   */
+  public static final String CACHE_WARMUP_ON_MOVE_KEY = "hbase.regionserver.cache.warmup.on.move";
+  public static final boolean DEFAULT_CACHE_WARMUP_ON_MOVE = false;
+
+  /**
+   * The largest number of blocks looked at, when listing the blocks of a region, in each tier of
+   * the block cache which does not index its blocks by file, and is iterated as a whole instead.
+   */
+  public static final String CACHE_WARMUP_MAX_SCANNED_BLOCKS_KEY =
+      "hbase.regionserver.cache.warmup.max.scanned.blocks";
+  public static final int DEFAULT_CACHE_WARMUP_MAX_SCANNED_BLOCKS = 100000;
+
+  private RegionCacheWarmer() {
+  }
+
+  public static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean(CACHE_WARMUP_ON_MOVE_KEY, DEFAULT_CACHE_WARMUP_ON_MOVE);
+  }
+
+  /**
+   * Lists the cached blocks of the store files of the region, for the next server opening it.
+   * @return the number of blocks listed
+   */
+  public static int exportCachedBlocks(HRegion region) throws IOException {
+    BlockCache cache = null;
+    Map<String, List<Long>> offsets = new HashMap<String, List<Long>>();
+    for (Store store : region.getStores()) {
+      if (cache == null) {
+        cache = store.getCacheConfig().getBlockCache();
+      }
+      for (StoreFile sf : store.getStorefiles()) {
+        offsets.put(sf.getPath().getName(), new ArrayList<Long>());
+      }
+    }
+    if (cache == null || offsets.isEmpty()) {
+      return 0;
+    }
+    BlockCache[] tiers = cache.getBlockCaches();
+    if (tiers == null) {
+      tiers = new BlockCache[] { cache };
+    }
+    int maxScanned = region.getBaseConf().getInt(CACHE_WARMUP_MAX_SCANNED_BLOCKS_KEY,
+        DEFAULT_CACHE_WARMUP_MAX_SCANNED_BLOCKS);
+    for (BlockCache tier : tiers) {
+      if (tier instanceof BucketCache) {
+        // listed file by file, rather than by iterating the whole cache for each region closed
+        for (Map.Entry<String, List<Long>> e : offsets.entrySet()) {
+          e.getValue().addAll(((BucketCache) tier).getCachedOffsets(e.getKey()));
+        }
+        continue;
+      }
+      int scanned = 0;
+      for (CachedBlock cb : tier) {
+        if (++scanned > maxScanned) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Listed the cached blocks of " + region + " among the first " + maxScanned
+                + " blocks of " + tier.getClass().getSimpleName() + " only");
+          }
+          break;
+        }
+        List<Long> fileOffsets = offsets.get(cb.getFilename());
+        if (fileOffsets != null) {
+          fileOffsets.add(cb.getOffset());
+        }
+      }
+    }
+    int count = 0;
+    Map<String, long[]> cachedBlocks = new HashMap<String, long[]>();
+    for (Map.Entry<String, List<Long>> e : offsets.entrySet()) {
+      if (e.getValue().isEmpty()) {
+        continue;
+      }
+      long[] fileOffsets = new long[e.getValue().size()];
+      for (int i = 0; i < fileOffsets.length; i++) {
+        fileOffsets[i] = e.getValue().get(i);
+      }
+      // In file order, each block once: a block may be cached by both tiers of the cache
+      Arrays.sort(fileOffsets);
+      int unique = 0;
+      for (int i = 0; i < fileOffsets.length; i++) {
+        if (i == 0 || fileOffsets[i] != fileOffsets[i - 1]) {
+          fileOffsets[unique++] = fileOffsets[i];
+        }
+      }
+      cachedBlocks.put(e.getKey(), Arrays.copyOf(fileOffsets, unique));
+      count += unique;
+    }
+    region.getRegionFileSystem().writeCachedBlocks(cachedBlocks);
+    return count;
+  }
+
+  /**
+   * Requests the loading in the block cache of the blocks listed by the server which last closed
+   * the region. The progress is tracked by the region.
+   * @return the number of blocks requested
+   */
+  public static long warmUp(final HRegion region) throws IOException {
+    Map<String, long[]> cachedBlocks = region.getRegionFileSystem().readCachedBlocks();
+    if (cachedBlocks == null) {
+      return 0;
+    }
+    long count = 0;
+    for (Store store : region.getStores()) {
+      if (store.getCacheConfig().shouldPrefetchOnOpen()) {
+        // the whole files are being loaded already
+        continue;
+      }
+      for (StoreFile sf : store.getStorefiles()) {
+        final long[] offsets = cachedBlocks.get(sf.getPath().getName());
+        StoreFileReader reader = sf.getReader();
+        if (offsets == null || reader == null) {
+          continue;
+        }
+        region.cacheWarmupBlocks.addAndGet(offsets.length);
+        count += offsets.length;
+        final HFile.Reader hfileReader = reader.getHFileReader();
+        final Path path = sf.getPath();
+        PrefetchExecutor.request(path, new Runnable() {
+          @Override
+          public void run() {
+            long offset = -1;
+            try {
+              for (int i = 0; i < offsets.length && !Thread.interrupted(); i++) {
+                offset = offsets[i];
+                HFileBlock block = hfileReader.readBlock(offset, -1, true, true, false, false,
+                    null, null);
+                hfileReader.returnBlock(block);
+                region.cacheWarmupBlocksLoaded.incrementAndGet();
+                PrefetchExecutor.control(path, block.getOnDiskSizeWithHeader());
+              }
+            } catch (IOException e) {
+              // IOExceptions are probably due to the store file being closed, by a compaction
+              // or a region close
+              if (LOG.isTraceEnabled()) {
+                LOG.trace("Cache warm-up of " + path + " stopped at offset " + offset, e);
+              }
+            } catch (Exception e) {
+              LOG.warn("Cache warm-up of " + path + " stopped at offset " + offset, e);
+            } finally {
+              PrefetchExecutor.complete(path);
+            }
+          }
+        });
+      }
+    }
+    return count;
+  }
+}
@@ -22,12 +22,16 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.util.HeapMemorySizeUtil;
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * RegionServerAccounting keeps record of some basic real time information about
  * the Region Server. Currently, it only keeps record the global memstore size. 
+ * When the memstores are off heap, the global memstore size is split into an
+ * off heap part, the MSLAB chunks in use, and an on heap part.
  */
 @InterfaceAudience.Private
 public class RegionServerAccounting {
@@ -39,12 +43,43 @@ public class RegionServerAccounting {
   private final ConcurrentMap<byte[], AtomicLong> replayEditsPerRegion = 
     new ConcurrentSkipListMap<byte[], AtomicLong>(Bytes.BYTES_COMPARATOR);
 
+  // The pool of the off heap MSLAB chunks; null when the memstores are on heap
+  private final MemStoreChunkPool offheapChunkPool;
+
+  public RegionServerAccounting() {
+    this.offheapChunkPool = null;
+  }
+
+  public RegionServerAccounting(Configuration conf) {
+    if (HeapMemorySizeUtil.getOffheapGlobalMemstoreSize(conf) > 0) {
+      this.offheapChunkPool = MemStoreChunkPool.getPool(conf);
+    } else {
+      this.offheapChunkPool = null;
+    }
+  }
+
   /**
    * @return the global Memstore size in the RegionServer
    */
   public long getGlobalMemstoreSize() {
     return atomicGlobalMemstoreSize.get();
   }
+
+  /**
+   * @return the off heap memory taken by the memstores in the RegionServer; 0 when the memstores
+   *   are on heap
+   */
+  public long getGlobalMemstoreOffHeapSize() {
+    return offheapChunkPool == null ? 0 : offheapChunkPool.getOffheapUsedSize();
+  }
+
+  /**
+   * @return the estimated on heap size of the memstores in the RegionServer. The off heap chunks
+   *   are not always full, so this is a lower bound when the memstores are off heap.
+   */
+  public long getGlobalMemstoreHeapSize() {
+    return Math.max(0, getGlobalMemstoreSize() - getGlobalMemstoreOffHeapSize());
+  }
   
   /**
    * @param memStoreSize the Memstore size will be added to 
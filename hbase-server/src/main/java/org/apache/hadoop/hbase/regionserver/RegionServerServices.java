@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.hbase.HBaseInterfaceAudience;
@@ -238,6 +239,18 @@ public interface RegionServerServices extends OnlineRegions, FavoredNodesForRegi
    */
   ThroughputController getFlushThroughputController();
 
+  /**
+   * @return the pool compressing the data blocks of the HFiles written by the regions of this
+   *         server in parallel, or null if they are compressed by the writing threads
+   */
+  ThreadPoolExecutor getBlockCompressionPool();
+
+  /**
+   * @return the pool flushing the stores of the regions of this server in parallel, or null if the
+   *         stores of a region are flushed one after the other
+   */
+  ThreadPoolExecutor getStoreFlushPool();
+
   /**
    * @return the flush pressure of all stores on this regionserver. The value should be greater than
    *         or equal to 0.0, and any value greater than 1.0 means we enter the emergency state that
@@ -29,7 +29,6 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.client.Scan;
-import org.apache.hadoop.hbase.util.ByteRange;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -50,9 +49,16 @@ public abstract class Segment {
   protected final AtomicLong size;
   protected volatile boolean tagsPresent;
   private final TimeRangeTracker timeRangeTracker;
+  // estimates the number of distinct columns of the segment; null if not tracked
+  private final ColumnCardinalitySketch columnSketch;
 
   protected Segment(CellSet cellSet, CellComparator comparator, MemStoreLAB memStoreLAB,
       long size) {
+    this(cellSet, comparator, memStoreLAB, size, null);
+  }
+
+  protected Segment(CellSet cellSet, CellComparator comparator, MemStoreLAB memStoreLAB,
+      long size, ColumnCardinalitySketch columnSketch) {
     this.cellSet = cellSet;
     this.comparator = comparator;
     this.minSequenceId = Long.MAX_VALUE;
@@ -60,6 +66,7 @@ public abstract class Segment {
     this.size = new AtomicLong(size);
     this.tagsPresent = false;
     this.timeRangeTracker = new TimeRangeTracker();
+    this.columnSketch = columnSketch;
   }
 
   protected Segment(Segment segment) {
@@ -70,6 +77,7 @@ public abstract class Segment {
     this.size = new AtomicLong(segment.getSize());
     this.tagsPresent = segment.isTagsPresent();
     this.timeRangeTracker = segment.getTimeRangeTracker();
+    this.columnSketch = segment.getColumnSketch();
   }
 
   /**
@@ -138,18 +146,10 @@ public abstract class Segment {
       return cell;
     }
 
-    int len = getCellLength(cell);
-    ByteRange alloc = getMemStoreLAB().allocateBytes(len);
-    if (alloc == null) {
-      // The allocation was too large, allocator decided
-      // not to do anything with it.
-      return cell;
-    }
-    assert alloc.getBytes() != null;
-    KeyValueUtil.appendToByteArray(cell, alloc.getBytes(), alloc.getOffset());
-    KeyValue newKv = new KeyValue(alloc.getBytes(), alloc.getOffset(), len);
-    newKv.setSequenceId(cell.getSequenceId());
-    return newKv;
+    Cell cellFromMslab = getMemStoreLAB().copyCellInto(cell);
+    // The allocation was too large, allocator decided
+    // not to do anything with it.
+    return (cellFromMslab != null) ? cellFromMslab : cell;
   }
 
   /**
@@ -242,6 +242,14 @@ public abstract class Segment {
     return cellSet;
   }
 
+  /**
+   * Replaces the cell set of the segment, used by immutable segments which build their (flat)
+   * cell set after the segment is constructed
+   */
+  protected void setCellSet(CellSet cellSet) {
+    this.cellSet = cellSet;
+  }
+
   /**
    * Returns the Cell comparator used by this segment
    * @return the Cell comparator used by this segment
@@ -265,6 +273,9 @@ public abstract class Segment {
 
   protected void updateMetaInfo(Cell toAdd, long s) {
     getTimeRangeTracker().includeTimestamp(toAdd);
+    if (columnSketch != null) {
+      columnSketch.add(toAdd);
+    }
     size.addAndGet(s);
     minSequenceId = Math.min(minSequenceId, toAdd.getSequenceId());
     // In no tags case this NoTagsKeyValue.getTagsLength() is a cheap call.
@@ -285,6 +296,14 @@ public abstract class Segment {
     return getCellSet().tailSet(firstCell);
   }
 
+  /**
+   * @return the sketch estimating the number of distinct columns of the segment, or null if the
+   *   segment does not track it
+   */
+  public ColumnCardinalitySketch getColumnSketch() {
+    return columnSketch;
+  }
+
   @VisibleForTesting
   public MemStoreLAB getMemStoreLAB() {
     return memStoreLAB;
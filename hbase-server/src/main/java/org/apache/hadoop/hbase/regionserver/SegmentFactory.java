@@ -18,7 +18,11 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellComparator;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.util.ReflectionUtils;
@@ -42,33 +46,103 @@ public final class SegmentFactory {
 
   public ImmutableSegment createImmutableSegment(final Configuration conf,
       final CellComparator comparator, long size) {
+    return createImmutableSegment(conf, comparator, size, false);
+  }
+
+  /**
+   * @param trackColumns whether the segment estimates the number of its distinct columns
+   */
+  public ImmutableSegment createImmutableSegment(final Configuration conf,
+      final CellComparator comparator, long size, boolean trackColumns) {
     MemStoreLAB memStoreLAB = getMemStoreLAB(conf);
-    MutableSegment segment = generateMutableSegment(conf, comparator, memStoreLAB, size);
+    MutableSegment segment = generateMutableSegment(conf, comparator, memStoreLAB, size,
+        trackColumns);
     return createImmutableSegment(segment);
   }
 
   public ImmutableSegment createImmutableSegment(CellComparator comparator,
       long size) {
-    MutableSegment segment = generateMutableSegment(null, comparator, null, size);
+    MutableSegment segment = generateMutableSegment(null, comparator, null, size, false);
     return createImmutableSegment(segment);
   }
 
   public ImmutableSegment createImmutableSegment(MutableSegment segment) {
     return new ImmutableSegment(segment);
   }
+
+  /**
+   * Creates a flat immutable segment holding a copy of the given cells.
+   * A chunk map based segment is created only if all the cells can be held in the chunks of the
+   * MSLAB, otherwise the segment falls back to be array map based.
+   * @param cells sorted cells without duplicates, e.g. the output of in-memory compaction
+   * @param type either {@link ImmutableSegment.Type#ARRAY_MAP_BASED} or
+   *   {@link ImmutableSegment.Type#CHUNK_MAP_BASED}
+   */
+  public ImmutableSegment createImmutableSegment(final Configuration conf,
+      final CellComparator comparator, List<Cell> cells, long size, ImmutableSegment.Type type) {
+    return createImmutableSegment(conf, comparator, cells, size, type, false);
+  }
+
+  /**
+   * Creates a flat immutable segment holding a copy of the given cells, see
+   * {@link #createImmutableSegment(Configuration, CellComparator, List, long,
+   * ImmutableSegment.Type)}.
+   * @param trackColumns whether the segment estimates the number of its distinct columns
+   */
+  public ImmutableSegment createImmutableSegment(final Configuration conf,
+      final CellComparator comparator, List<Cell> cells, long size, ImmutableSegment.Type type,
+      boolean trackColumns) {
+    MemStoreLAB memStoreLAB = getMemStoreLAB(conf);
+    if (type == ImmutableSegment.Type.CHUNK_MAP_BASED
+        && !ImmutableSegment.canBeChunkIndexed(memStoreLAB, cells)) {
+      type = ImmutableSegment.Type.ARRAY_MAP_BASED;
+    }
+    return new ImmutableSegment(comparator, memStoreLAB, cells, size, type,
+        trackColumns ? new ColumnCardinalitySketch() : null);
+  }
+
+  /**
+   * Creates an array map based immutable segment by merging the indexes of the given segments.
+   * The cells are not copied, the new segment takes over the MSLABs of the merged segments which
+   * therefore must not be closed on their own. The new segment estimates the number of its
+   * distinct columns if any of the merged segments does.
+   * @param cells all the cells of the merged segments, sorted
+   */
+  public ImmutableSegment createImmutableSegmentByMerge(final CellComparator comparator,
+      List<Cell> cells, long size, List<ImmutableSegment> segments) {
+    List<MemStoreLAB> mslabs = new ArrayList<MemStoreLAB>();
+    boolean trackColumns = false;
+    for (ImmutableSegment segment : segments) {
+      if (segment.getMemStoreLAB() != null) {
+        mslabs.add(segment.getMemStoreLAB());
+      }
+      trackColumns |= segment.getColumnSketch() != null;
+    }
+    return new ImmutableSegment(comparator, new ImmutableMemStoreLAB(mslabs), cells, size,
+        trackColumns ? new ColumnCardinalitySketch() : null);
+  }
   public MutableSegment createMutableSegment(final Configuration conf,
       CellComparator comparator, long size) {
+    return createMutableSegment(conf, comparator, size, false);
+  }
+
+  /**
+   * @param trackColumns whether the segment estimates the number of its distinct columns
+   */
+  public MutableSegment createMutableSegment(final Configuration conf,
+      CellComparator comparator, long size, boolean trackColumns) {
     MemStoreLAB memStoreLAB = getMemStoreLAB(conf);
-    return generateMutableSegment(conf, comparator, memStoreLAB, size);
+    return generateMutableSegment(conf, comparator, memStoreLAB, size, trackColumns);
   }
 
   //****** private methods to instantiate concrete store segments **********//
 
-  private MutableSegment generateMutableSegment(
-      final Configuration conf, CellComparator comparator, MemStoreLAB memStoreLAB, long size) {
+  private MutableSegment generateMutableSegment(final Configuration conf,
+      CellComparator comparator, MemStoreLAB memStoreLAB, long size, boolean trackColumns) {
     // TBD use configuration to set type of segment
     CellSet set = new CellSet(comparator);
-    return new MutableSegment(set, comparator, memStoreLAB, size);
+    return new MutableSegment(set, comparator, memStoreLAB, size,
+        trackColumns ? new ColumnCardinalitySketch() : null);
   }
 
   private MemStoreLAB getMemStoreLAB(Configuration conf) {
@@ -41,6 +41,7 @@ import org.apache.hadoop.hbase.io.hfile.HFileScanner;
 import org.apache.hadoop.hbase.nio.ByteBuff;
 import org.apache.hadoop.hbase.util.BloomFilter;
 import org.apache.hadoop.hbase.util.BloomFilterFactory;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import java.io.DataInput;
@@ -59,6 +60,8 @@ public class StoreFileReader {
   protected BloomFilter generalBloomFilter = null;
   protected BloomFilter deleteFamilyBloomFilter = null;
   protected BloomType bloomFilterType;
+  // The prefix length or the delimiter of a row prefix Bloom filter
+  private byte[] bloomFilterParam;
   private final HFile.Reader reader;
   protected long sequenceID = -1;
   protected TimeRange timeRange = null;
@@ -230,7 +233,8 @@ public class StoreFileReader {
 
   /**
    * Checks whether the given scan passes the Bloom filter (if present). Only
-   * checks Bloom filters for single-row or single-row-column scans. Bloom
+   * checks Bloom filters for single-row or single-row-column scans, and for
+   * scans whose rows share a prefix if the Bloom filter is on row prefixes. Bloom
    * filter checking for multi-gets is implemented as part of the store
    * scanner system (see {@link StoreFileScanner#seekExactly}) and uses
    * the lower-level API {@link #passesGeneralRowBloomFilter(byte[], int, int)}
@@ -245,6 +249,10 @@ public class StoreFileReader {
    *         False if the Bloom filter is applicable and the scan fails it.
    */
   boolean passesBloomFilter(Scan scan, final SortedSet<byte[]> columns) {
+    if (BloomFilterUtil.isRowPrefixBloomType(this.bloomFilterType)) {
+      return passesGeneralRowPrefixBloomFilter(scan);
+    }
+
     // Multi-column non-get scans will use Bloom filters through the
     // lower-level API function that this function calls.
     if (!scan.isGetScan()) {
@@ -326,6 +334,72 @@ public class StoreFileReader {
     return checkGeneralBloomFilter(key, null, bloomFilter);
   }
 
+  /**
+   * Checks a row prefix Bloom filter for a get, or for a scan whose rows all
+   * share the prefix of its first row.
+   *
+   * @return True if passes
+   */
+  private boolean passesGeneralRowPrefixBloomFilter(Scan scan) {
+    BloomFilter bloomFilter = this.generalBloomFilter;
+    if (bloomFilter == null || bloomFilterParam == null) {
+      return true;
+    }
+    byte[] prefix = getRowPrefixOfScan(scan);
+    if (prefix == null) {
+      return true;
+    }
+    return checkGeneralBloomFilter(prefix, null, bloomFilter);
+  }
+
+  /**
+   * @return the row prefix shared by all the rows the scan may return, as used
+   *         as a key by the Bloom filter, or null if they may not share one
+   */
+  private byte[] getRowPrefixOfScan(Scan scan) {
+    byte[] startRow = scan.getStartRow();
+    byte[] stopRow = scan.getStopRow();
+    if (scan.isGetScan()) {
+      return Bytes.copy(startRow, 0, BloomFilterUtil.getRowPrefixLength(startRow, 0,
+          startRow.length, bloomFilterType, bloomFilterParam));
+    }
+    // The smallest row must be long enough to have a whole prefix, or must have the delimiter
+    byte[] smallestRow = scan.isReversed() ? stopRow : startRow;
+    int prefixLength = BloomFilterUtil.getRowPrefixLength(smallestRow, 0, smallestRow.length,
+        bloomFilterType, bloomFilterParam);
+    boolean wholePrefix = bloomFilterType == BloomType.ROWPREFIX_FIXED_LENGTH
+        ? prefixLength == Bytes.toInt(bloomFilterParam)
+        : Bytes.indexOf(smallestRow, bloomFilterParam) >= 0;
+    if (!wholePrefix) {
+      return null;
+    }
+    byte[] prefix = Bytes.copy(smallestRow, 0, prefixLength);
+    if (scan.isReversed()) {
+      // The start row is included, so it has to have the prefix
+      return Bytes.startsWith(startRow, prefix) ? prefix : null;
+    }
+    // The stop row is excluded, so it may also be the first row after the prefix, as set by
+    // Scan#setRowPrefixFilter
+    if (Bytes.equals(stopRow, HConstants.EMPTY_END_ROW)) {
+      return null;
+    }
+    if (Bytes.startsWith(stopRow, prefix)) {
+      return prefix;
+    }
+    // The first row after the rows with the prefix: drop its trailing 0xFFs and increment its
+    // last byte. There is none if the prefix is all 0xFFs.
+    int length = prefix.length;
+    while (length > 0 && prefix[length - 1] == (byte) 0xFF) {
+      length--;
+    }
+    if (length == 0) {
+      return prefix;
+    }
+    byte[] afterPrefix = Bytes.copy(prefix, 0, length);
+    afterPrefix[length - 1]++;
+    return Bytes.compareTo(stopRow, afterPrefix) <= 0 ? prefix : null;
+  }
+
   /**
    * A method for checking Bloom filters. Called directly from
    * StoreFileScanner in case of a multi-column query.
@@ -376,9 +450,10 @@ public class StoreFileReader {
         // a sufficient condition to return false.
         boolean keyIsAfterLast = (lastBloomKey != null);
         // hbase:meta does not have blooms. So we need not have special interpretation
-        // of the hbase:meta cells.  We can safely use Bytes.BYTES_RAWCOMPARATOR for ROW Bloom
+        // of the hbase:meta cells.  We can safely use Bytes.BYTES_RAWCOMPARATOR for ROW and
+        // ROWPREFIX Blooms
         if (keyIsAfterLast) {
-          if (bloomFilterType == BloomType.ROW) {
+          if (bloomFilterType != BloomType.ROWCOL) {
             keyIsAfterLast = (Bytes.BYTES_RAWCOMPARATOR.compare(key, lastBloomKey) > 0);
           } else {
             keyIsAfterLast = (CellComparator.COMPARATOR.compare(kvKey, lastBloomKeyOnlyKV)) > 0;
@@ -457,6 +532,8 @@ public class StoreFileReader {
       bloomFilterType = BloomType.valueOf(Bytes.toString(b));
     }
 
+    bloomFilterParam = fi.get(StoreFile.BLOOM_FILTER_PARAM_KEY);
+
     lastBloomKey = fi.get(StoreFile.LAST_BLOOM_KEY);
     if(bloomFilterType == BloomType.ROWCOL) {
       lastBloomKeyOnlyKV = new KeyValue.KeyOnlyKeyValue(lastBloomKey, 0, lastBloomKey.length);
@@ -34,6 +34,8 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.TimestampsFilter;
 import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.io.hfile.HFileScanner;
 import org.apache.hadoop.hbase.util.Counter;
@@ -460,8 +462,33 @@ public class StoreFileScanner implements KeyValueScanner {
     if (timeRange == null) {
       timeRange = scan.getTimeRange();
     }
-    return reader.passesTimerangeFilter(timeRange, oldestUnexpiredTS) && reader
+    boolean useScanner = reader.passesTimerangeFilter(timeRange, oldestUnexpiredTS) && reader
         .passesKeyRangeFilter(scan) && reader.passesBloomFilter(scan, scan.getFamilyMap().get(cf));
+    if (useScanner) {
+      setTimeRange(timeRange, scan.getFilter());
+    }
+    return useScanner;
+  }
+
+  /**
+   * Lets the HFile scanner skip the data blocks with no cell in the time range of the scan,
+   * narrowed to the timestamps of its filter if it is a {@link TimestampsFilter}. The query
+   * matcher would not include any of the skipped cells.
+   */
+  private void setTimeRange(TimeRange timeRange, Filter filter) {
+    long minStamp = timeRange.getMin();
+    long maxStamp = timeRange.getMax();
+    if (filter instanceof TimestampsFilter) {
+      List<Long> timestamps = ((TimestampsFilter) filter).getTimestamps();
+      if (!timestamps.isEmpty()) {
+        minStamp = Math.max(minStamp, timestamps.get(0));
+        long lastTimestamp = timestamps.get(timestamps.size() - 1);
+        if (lastTimestamp < Long.MAX_VALUE) {
+          maxStamp = Math.min(maxStamp, lastTimestamp + 1);
+        }
+      }
+    }
+    hfs.setTimeRange(minStamp, maxStamp);
   }
 
   @Override
@@ -36,6 +36,7 @@ import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.io.hfile.HFileContext;
 import org.apache.hadoop.hbase.regionserver.compactions.Compactor;
 import org.apache.hadoop.hbase.util.BloomFilterFactory;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
 import org.apache.hadoop.hbase.util.BloomFilterWriter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.WritableUtils;
@@ -43,6 +44,7 @@ import org.apache.hadoop.io.WritableUtils;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
 /**
  * A StoreFile writer.  Use this to read/write HBase Store Files. It is package
@@ -55,6 +57,8 @@ public class StoreFileWriter implements Compactor.CellSink {
   private final BloomFilterWriter generalBloomFilterWriter;
   private final BloomFilterWriter deleteFamilyBloomFilterWriter;
   private final BloomType bloomType;
+  // The prefix length or the delimiter of a row prefix Bloom filter
+  private final byte[] bloomParam;
   private byte[] lastBloomKey;
   private int lastBloomKeyOffset, lastBloomKeyLen;
   private Cell lastCell = null;
@@ -92,7 +96,7 @@ public class StoreFileWriter implements Compactor.CellSink {
       InetSocketAddress[] favoredNodes, HFileContext fileContext)
           throws IOException {
       this(fs, path, conf, cacheConf, comparator, bloomType, maxKeys, favoredNodes, fileContext,
-          null);
+          null, null);
     }
 
     /**
@@ -107,6 +111,7 @@ public class StoreFileWriter implements Compactor.CellSink {
      * @param favoredNodes
      * @param fileContext - The HFile context
    * @param trt Ready-made timetracker to use.
+     * @param compressionPool the pool compressing the data blocks in parallel, or null
      * @throws IOException problem writing to FS
      */
     private StoreFileWriter(FileSystem fs, Path path,
@@ -114,7 +119,7 @@ public class StoreFileWriter implements Compactor.CellSink {
         CacheConfig cacheConf,
         final CellComparator comparator, BloomType bloomType, long maxKeys,
         InetSocketAddress[] favoredNodes, HFileContext fileContext,
-        final TimeRangeTracker trt)
+        final TimeRangeTracker trt, ExecutorService compressionPool)
             throws IOException {
     // If passed a TimeRangeTracker, use it. Set timeRangeTrackerSet so we don't destroy it.
     // TODO: put the state of the TRT on the TRT; i.e. make a read-only version (TimeRange) when
@@ -126,14 +131,27 @@ public class StoreFileWriter implements Compactor.CellSink {
         .withComparator(comparator)
         .withFavoredNodes(favoredNodes)
         .withFileContext(fileContext)
+        .withCompressionPool(compressionPool)
         .create();
 
+    byte[] bloomParam = null;
+    if (BloomFilterUtil.isRowPrefixBloomType(bloomType)) {
+      try {
+        bloomParam = BloomFilterUtil.getBloomFilterParam(bloomType, conf);
+      } catch (IllegalArgumentException e) {
+        // Not to fail the flush, compaction or bulk load writing the file
+        LOG.warn("Writing " + path + " without its " + bloomType + " Bloom filter: "
+            + e.getMessage());
+        bloomType = BloomType.NONE;
+      }
+    }
     generalBloomFilterWriter = BloomFilterFactory.createGeneralBloomAtWrite(
         conf, cacheConf, bloomType,
         (int) Math.min(maxKeys, Integer.MAX_VALUE), writer);
 
     if (generalBloomFilterWriter != null) {
       this.bloomType = bloomType;
+      this.bloomParam = bloomParam;
       if(this.bloomType ==  BloomType.ROWCOL) {
         lastBloomKeyOnlyKV = new KeyValue.KeyOnlyKeyValue();
       }
@@ -144,6 +162,7 @@ public class StoreFileWriter implements Compactor.CellSink {
     } else {
       // Not using Bloom filters.
       this.bloomType = BloomType.NONE;
+      this.bloomParam = null;
     }
 
     // initialize delete family Bloom filter when there is NO RowCol Bloom
@@ -227,12 +246,19 @@ public class StoreFileWriter implements Compactor.CellSink {
           case ROWCOL:
             newKey = ! CellUtil.matchingRowColumn(cell, lastCell);
             break;
+          case ROWPREFIX_FIXED_LENGTH:
+          case ROWPREFIX_DELIMITED:
+            newKey = ! Bytes.equals(cell.getRowArray(), cell.getRowOffset(),
+                BloomFilterUtil.getRowPrefixLength(cell.getRowArray(), cell.getRowOffset(),
+                    cell.getRowLength(), bloomType, bloomParam),
+                lastBloomKey, lastBloomKeyOffset, lastBloomKeyLen);
+            break;
           case NONE:
             newKey = false;
             break;
           default:
             throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+                " (ROW, ROWCOL or ROWPREFIX expected)");
         }
       }
       if (newKey) {
@@ -240,9 +266,10 @@ public class StoreFileWriter implements Compactor.CellSink {
          * http://2.bp.blogspot.com/_Cib_A77V54U/StZMrzaKufI/AAAAAAAAADo/ZhK7bGoJdMQ/s400/KeyValue.png
          * Key = RowLen + Row + FamilyLen + Column [Family + Qualifier] + TimeStamp
          *
-         * 2 Types of Filtering:
+         * 3 Types of Filtering:
          *  1. Row = Row
          *  2. RowCol = Row + Qualifier
+         *  3. RowPrefix = first bytes of Row
          */
         byte[] bloomKey = null;
         // Used with ROW_COL bloom
@@ -269,16 +296,24 @@ public class StoreFileWriter implements Compactor.CellSink {
             bloomKeyOffset = bloomKeyKV.getKeyOffset();
             bloomKeyLen = bloomKeyKV.getKeyLength();
             break;
+          case ROWPREFIX_FIXED_LENGTH:
+          case ROWPREFIX_DELIMITED:
+            bloomKey = cell.getRowArray();
+            bloomKeyOffset = cell.getRowOffset();
+            bloomKeyLen = BloomFilterUtil.getRowPrefixLength(bloomKey, bloomKeyOffset,
+                cell.getRowLength(), bloomType, bloomParam);
+            break;
           default:
             throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+                " (ROW, ROWCOL or ROWPREFIX expected)");
         }
         generalBloomFilterWriter.add(bloomKey, bloomKeyOffset, bloomKeyLen);
         if (lastBloomKey != null) {
           int res = 0;
           // hbase:meta does not have blooms. So we need not have special interpretation
-          // of the hbase:meta cells.  We can safely use Bytes.BYTES_RAWCOMPARATOR for ROW Bloom
-          if (bloomType == BloomType.ROW) {
+          // of the hbase:meta cells.  We can safely use Bytes.BYTES_RAWCOMPARATOR for ROW and
+          // ROWPREFIX Blooms
+          if (bloomType != BloomType.ROWCOL) {
             res = Bytes.BYTES_RAWCOMPARATOR.compare(bloomKey, bloomKeyOffset, bloomKeyLen,
                 lastBloomKey, lastBloomKeyOffset, lastBloomKeyLen);
           } else {
@@ -370,6 +405,9 @@ public class StoreFileWriter implements Compactor.CellSink {
             lastBloomKey, lastBloomKeyOffset, lastBloomKeyOffset
                 + lastBloomKeyLen));
       }
+      if (bloomParam != null) {
+        writer.appendFileInfo(StoreFile.BLOOM_FILTER_PARAM_KEY, bloomParam);
+      }
     }
     return hasGeneralBloom;
   }
@@ -431,6 +469,7 @@ public class StoreFileWriter implements Compactor.CellSink {
     private InetSocketAddress[] favoredNodes;
     private HFileContext fileContext;
     private TimeRangeTracker trt;
+    private ExecutorService compressionPool;
 
     public Builder(Configuration conf, CacheConfig cacheConf,
         FileSystem fs) {
@@ -513,6 +552,16 @@ public class StoreFileWriter implements Compactor.CellSink {
       // TODO: HAS NO EFFECT!!! FIX!!
       return this;
     }
+
+    /**
+     * @param compressionPool the pool compressing the data blocks in parallel, if enabled; null
+     *          to compress them in the writing thread
+     * @return this (for chained invocation)
+     */
+    public Builder withCompressionPool(ExecutorService compressionPool) {
+      this.compressionPool = compressionPool;
+      return this;
+    }
     /**
      * Create a store file writer. Client is responsible for closing file when
      * done. If metadata, add BEFORE closing using
@@ -543,7 +592,8 @@ public class StoreFileWriter implements Compactor.CellSink {
         comparator = CellComparator.COMPARATOR;
       }
       return new StoreFileWriter(fs, filePath,
-          conf, cacheConf, comparator, bloomType, maxKeyCount, favoredNodes, fileContext, trt);
+          conf, cacheConf, comparator, bloomType, maxKeyCount, favoredNodes, fileContext, trt,
+          compressionPool);
     }
   }
 }
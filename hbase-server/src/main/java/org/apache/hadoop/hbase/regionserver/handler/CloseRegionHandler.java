@@ -30,6 +30,7 @@ import org.apache.hadoop.hbase.executor.EventHandler;
 import org.apache.hadoop.hbase.executor.EventType;
 import org.apache.hadoop.hbase.protobuf.generated.RegionServerStatusProtos.RegionStateTransition.TransitionCode;
 import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionCacheWarmer;
 import org.apache.hadoop.hbase.regionserver.RegionServerServices;
 
 /**
@@ -97,6 +98,17 @@ public class CloseRegionHandler extends EventHandler {
         return;
       }
 
+      if (destination != null && !abort &&
+          RegionCacheWarmer.isEnabled(server.getConfiguration())) {
+        // List the cached blocks of the region for the server it moves to
+        try {
+          int count = RegionCacheWarmer.exportCachedBlocks(region);
+          LOG.debug("Listed " + count + " cached blocks of " + name + " for " + destination);
+        } catch (IOException ioe) {
+          LOG.warn("Failed listing the cached blocks of " + name, ioe);
+        }
+      }
+
       // Close the region
       try {
         if (region.close(abort) == null) {
@@ -32,6 +32,7 @@ import org.apache.hadoop.hbase.executor.EventType;
 import org.apache.hadoop.hbase.protobuf.generated.RegionServerStatusProtos.RegionStateTransition.TransitionCode;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.Region;
+import org.apache.hadoop.hbase.regionserver.RegionCacheWarmer;
 import org.apache.hadoop.hbase.regionserver.RegionServerAccounting;
 import org.apache.hadoop.hbase.regionserver.RegionServerServices;
 import org.apache.hadoop.hbase.regionserver.RegionServerServices.PostOpenDeployContext;
@@ -122,6 +123,18 @@ public class OpenRegionHandler extends EventHandler {
       this.rsServices.addToOnlineRegions(region);
       openSuccessful = true;
 
+      if (RegionCacheWarmer.isEnabled(this.server.getConfiguration())) {
+        // Load the blocks cached by the server the region moved from
+        try {
+          long count = RegionCacheWarmer.warmUp(region);
+          if (count > 0) {
+            LOG.debug("Loading " + count + " blocks cached before the move of " + regionName);
+          }
+        } catch (IOException ioe) {
+          LOG.warn("Failed loading the blocks cached before the move of " + regionName, ioe);
+        }
+      }
+
       // Done!  Successful region open
       LOG.debug("Opened " + regionName + " on " +
         this.server.getServerName());
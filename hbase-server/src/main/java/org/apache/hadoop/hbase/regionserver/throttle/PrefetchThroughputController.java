@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.throttle;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.RegionServerServices;
+
+/**
+ * A throughput controller sharing a fixed limit among the HFiles being prefetched in the block
+ * cache. No limit is set by default.
+ * @see org.apache.hadoop.hbase.io.hfile.PrefetchExecutor
+ */
+@InterfaceAudience.Private
+public class PrefetchThroughputController extends PressureAwareThroughputController {
+
+  private static final Log LOG = LogFactory.getLog(PrefetchThroughputController.class);
+
+  public static final String HBASE_HFILE_PREFETCH_MAX_THROUGHPUT =
+      "hbase.hfile.prefetch.max.throughput";
+
+  private static final long DEFAULT_HBASE_HFILE_PREFETCH_MAX_THROUGHPUT = 0L;
+
+  // check prefetch throughput every this size
+  public static final String HBASE_HFILE_PREFETCH_THROUGHPUT_CONTROL_CHECK_INTERVAL =
+      "hbase.hfile.prefetch.throughput.control.check.interval";
+
+  private static final long DEFAULT_HBASE_HFILE_PREFETCH_THROUGHPUT_CONTROL_CHECK_INTERVAL =
+      1024L * 1024;// 1MB
+
+  @Override
+  public void setup(final RegionServerServices server) {
+    // the limit is not tuned
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    if (conf == null) {
+      return;
+    }
+    long maxThroughput = conf.getLong(HBASE_HFILE_PREFETCH_MAX_THROUGHPUT,
+      DEFAULT_HBASE_HFILE_PREFETCH_MAX_THROUGHPUT);
+    this.maxThroughputUpperBound = maxThroughput > 0 ? maxThroughput : Long.MAX_VALUE;
+    this.maxThroughputLowerBound = this.maxThroughputUpperBound;
+    this.controlPerSize = conf.getLong(HBASE_HFILE_PREFETCH_THROUGHPUT_CONTROL_CHECK_INTERVAL,
+      DEFAULT_HBASE_HFILE_PREFETCH_THROUGHPUT_CONTROL_CHECK_INTERVAL);
+    this.setMaxThroughput(maxThroughput > 0 ? maxThroughput : Double.MAX_VALUE);
+    if (maxThroughput > 0) {
+      LOG.info("Prefetch throughput limit: " + throughputDesc(getMaxThroughput()));
+    }
+  }
+
+  @Override
+  public void finish(String opName) {
+    // a line per prefetched file would be too many
+    activeOperations.remove(opName);
+  }
+
+  @Override
+  public String toString() {
+    return "PrefetchThroughputController [maxThroughput=" + throughputDesc(getMaxThroughput())
+        + ", activePrefetchNumber=" + activeOperations.size() + "]";
+  }
+
+  @Override
+  protected boolean skipControl(long deltaSize, long controlSize) {
+    return false;
+  }
+}
@@ -239,7 +239,7 @@ public class BloomFilterChunk implements BloomFilterBase {
       int newMaxKeys = this.maxKeys;
 
       // while exponentially smaller & folding is lossless
-      while ((newByteSize & 1) == 0 && newMaxKeys > (this.keyCount<<1)) {
+      while (canFold(newByteSize) && newMaxKeys > (this.keyCount<<1)) {
         pieces <<= 1;
         newByteSize >>= 1;
         newMaxKeys >>= 1;
@@ -266,6 +266,14 @@ public class BloomFilterChunk implements BloomFilterBase {
     }
   }
 
+  /**
+   * @param byteSize the current size of the bloom
+   * @return true if the bloom can be folded in two halves of the given size
+   */
+  protected boolean canFold(int byteSize) {
+    return (byteSize & 1) == 0;
+  }
+
   /**
    * Writes just the bloom filter to the output array
    * @param out OutputStream to place bloom
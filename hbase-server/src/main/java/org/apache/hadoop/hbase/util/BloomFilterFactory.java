@@ -83,6 +83,13 @@ public final class BloomFilterFactory {
   public static final String IO_STOREFILE_BLOOM_BLOCK_SIZE =
       "io.storefile.bloom.block.size";
 
+  /**
+   * Whether to write blocked Bloom filters, which check the bits of a key in a
+   * single cache line. Older versions cannot read them.
+   */
+  public static final String IO_STOREFILE_BLOOM_BLOCKED =
+      "io.storefile.bloom.blocked";
+
   /** Maximum number of times a Bloom filter can be "folded" if oversized */
   private static final int MAX_ALLOWED_FOLD_FACTOR = 7;
 
@@ -105,6 +112,9 @@ public final class BloomFilterFactory {
       case CompoundBloomFilterBase.VERSION:
         return new CompoundBloomFilter(meta, reader);
 
+      case CompoundBloomFilterBase.BLOCKED_VERSION:
+        return new CompoundBloomFilter(meta, reader, true);
+
       default:
         throw new IllegalArgumentException(
           "Bad bloom filter format version " + version
@@ -120,6 +130,13 @@ public final class BloomFilterFactory {
     return conf.getBoolean(IO_STOREFILE_BLOOM_ENABLED, true);
   }
 
+  /**
+   * @return true if Bloom filters are to be written blocked in the given configuration
+   */
+  public static boolean isBlockedBloomEnabled(Configuration conf) {
+    return conf.getBoolean(IO_STOREFILE_BLOOM_BLOCKED, false);
+  }
+
   /**
    * @return true if Delete Family Bloom filters are enabled in the given configuration
    */
@@ -196,7 +213,8 @@ public final class BloomFilterFactory {
     // In case of compound Bloom filters we ignore the maxKeys hint.
     CompoundBloomFilterWriter bloomWriter = new CompoundBloomFilterWriter(getBloomBlockSize(conf),
         err, Hash.getHashType(conf), maxFold, cacheConf.shouldCacheBloomsOnWrite(),
-        bloomType == BloomType.ROWCOL ? CellComparator.COMPARATOR : null);
+        bloomType == BloomType.ROWCOL ? CellComparator.COMPARATOR : null,
+        isBlockedBloomEnabled(conf));
     writer.addInlineBlockWriter(bloomWriter);
     return bloomWriter;
   }
@@ -227,7 +245,7 @@ public final class BloomFilterFactory {
     // In case of compound Bloom filters we ignore the maxKeys hint.
     CompoundBloomFilterWriter bloomWriter = new CompoundBloomFilterWriter(getBloomBlockSize(conf),
         err, Hash.getHashType(conf), maxFold, cacheConf.shouldCacheBloomsOnWrite(),
-        null);
+        null, isBlockedBloomEnabled(conf));
     writer.addInlineBlockWriter(bloomWriter);
     return bloomWriter;
   }
@@ -20,8 +20,10 @@ package org.apache.hadoop.hbase.util;
 import java.text.NumberFormat;
 import java.util.Random;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.regionserver.BloomType;
 
 /**
  * Utility methods related to BloomFilters
@@ -36,6 +38,18 @@ public final class BloomFilterUtil {
    * 0.480453.
    */
   public static final double LOG2_SQUARED = Math.log(2) * Math.log(2);
+
+  /**
+   * The size of the blocks of a blocked Bloom filter chunk, one cache line. All the bits of a key
+   * are in the same block.
+   */
+  public static final int BLOOM_BLOCK_BYTES = 64;
+  private static final int BLOOM_BLOCK_BIT_MASK = BLOOM_BLOCK_BYTES * 8 - 1;
+
+  /** The number of leading bytes of the rows used as keys by ROWPREFIX_FIXED_LENGTH Blooms */
+  public static final String PREFIX_LENGTH_KEY = "RowPrefixBloomFilter.prefix_length";
+  /** The delimiter ending the row prefixes used as keys by ROWPREFIX_DELIMITED Blooms */
+  public static final String DELIMITER_KEY = "RowPrefixDelimitedBloomFilter.delimiter";
   
   /**
    * A random number generator to use for "fake lookups" when testing to
@@ -192,6 +206,67 @@ public final class BloomFilterUtil {
     return bbf;
   }
 
+  /**
+   * Creates a blocked Bloom filter chunk of the given size, see {@link BlockedBloomFilterChunk}.
+   * Its size is a multiple of the block size, so that it can be folded while keeping blocks whole.
+   *
+   * @param byteSizeHint the desired number of bytes for the Bloom filter bit
+   *          array. Will be increased so that folding is possible.
+   * @param errorRate target false positive rate of the Bloom filter
+   * @param foldFactor
+   * @return the new Bloom filter of the desired size
+   */
+  public static BloomFilterChunk createBlockedBySize(int byteSizeHint, double errorRate,
+      int foldFactor) {
+    BloomFilterChunk bbf = new BlockedBloomFilterChunk();
+
+    bbf.byteSize = computeFoldableByteSize(byteSizeHint * 8L,
+        foldFactor + Integer.numberOfTrailingZeros(BLOOM_BLOCK_BYTES));
+    long bitSize = bbf.byteSize * 8;
+    bbf.maxKeys = (int) idealMaxKeys(bitSize, errorRate);
+    bbf.hashCount = optimalFunctionCount(bbf.maxKeys, bitSize);
+    bbf.maxKeys = (int) computeMaxKeys(bitSize, errorRate, bbf.hashCount);
+
+    return bbf;
+  }
+
+  /**
+   * @param hash the hash of a key picking its block
+   * @param bloomSize the size of the blocked Bloom filter in bytes
+   * @return the index of the first bit of the block of the key
+   */
+  static int getBlockBitOffset(long hash, int bloomSize) {
+    // Folding keeps the block of a key as the number of blocks stays a power of two multiple
+    return (int) ((hash >>> 1) % (bloomSize / BLOOM_BLOCK_BYTES)) * BLOOM_BLOCK_BYTES * 8;
+  }
+
+  /**
+   * @param hash the hash of a key generating its bits in its block
+   * @param i the index of the hash function
+   * @return the index of the bit of the i-th hash function in the block of the key
+   */
+  static int getBitInBlock(long hash, int i) {
+    // An odd step visits distinct bits for up to a block size of hash functions
+    return ((int) hash + i * ((int) (hash >>> 32) | 1)) & BLOOM_BLOCK_BIT_MASK;
+  }
+
+  /**
+   * Checks a key against a blocked Bloom filter chunk, see {@link BlockedBloomFilterChunk}. All
+   * the bits checked are in the same cache line of the chunk.
+   */
+  public static boolean containsBlocked(byte[] buf, int offset, int length,
+      ByteBuff bloomBuf, int bloomOffset, int bloomSize, int hashCount) {
+    long[] hash = new long[2];
+    MurmurHash3.hash128(buf, offset, length, 0, hash);
+    int blockBitOffset = getBlockBitOffset(hash[0], bloomSize);
+    for (int i = 0; i < hashCount; i++) {
+      if (!checkBit(blockBitOffset + getBitInBlock(hash[1], i), bloomBuf, bloomOffset)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public static boolean contains(byte[] buf, int offset, int length,
       ByteBuff bloomBuf, int bloomOffset, int bloomSize, Hash hash,
       int hashCount) {
@@ -236,6 +311,84 @@ public final class BloomFilterUtil {
     return (curByte != 0);
   }
 
+  /**
+   * @return true if the Bloom filter type uses prefixes of the rows as keys
+   */
+  public static boolean isRowPrefixBloomType(BloomType bloomType) {
+    return bloomType == BloomType.ROWPREFIX_FIXED_LENGTH
+        || bloomType == BloomType.ROWPREFIX_DELIMITED;
+  }
+
+  /**
+   * Reads the parameter of a row prefix Bloom filter from the configuration, in the form kept in
+   * the FileInfo of the store files.
+   *
+   * @param bloomType the Bloom filter type
+   * @param conf the configuration of the column family
+   * @return the prefix length as an int for ROWPREFIX_FIXED_LENGTH, the delimiter for
+   *         ROWPREFIX_DELIMITED, null for the other types
+   * @throws IllegalArgumentException if the parameter is missing or invalid
+   */
+  public static byte[] getBloomFilterParam(BloomType bloomType, Configuration conf) {
+    switch (bloomType) {
+      case ROWPREFIX_FIXED_LENGTH:
+        String prefixLength = conf.get(PREFIX_LENGTH_KEY);
+        if (prefixLength == null) {
+          throw new IllegalArgumentException(PREFIX_LENGTH_KEY + " is not set for the "
+              + bloomType + " Bloom filter");
+        }
+        int length;
+        try {
+          length = Integer.parseInt(prefixLength.trim());
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException(PREFIX_LENGTH_KEY + " is not a number: "
+              + prefixLength);
+        }
+        if (length <= 0) {
+          throw new IllegalArgumentException(PREFIX_LENGTH_KEY + " must be positive: "
+              + length);
+        }
+        return Bytes.toBytes(length);
+      case ROWPREFIX_DELIMITED:
+        String delimiter = conf.get(DELIMITER_KEY);
+        if (delimiter == null || delimiter.isEmpty()) {
+          throw new IllegalArgumentException(DELIMITER_KEY + " is not set for the "
+              + bloomType + " Bloom filter");
+        }
+        return Bytes.toBytesBinary(delimiter);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Finds the prefix of a row used as key by a row prefix Bloom filter. It is the first prefix
+   * length bytes of the row for ROWPREFIX_FIXED_LENGTH, and the row up to and including the first
+   * delimiter for ROWPREFIX_DELIMITED, or the whole row when it is shorter or has no delimiter.
+   * Either way, the prefixes of sorted rows are sorted too.
+   *
+   * @param row the array holding the row
+   * @param offset the offset of the row in the array
+   * @param length the length of the row
+   * @param bloomType the Bloom filter type, ROWPREFIX_FIXED_LENGTH or ROWPREFIX_DELIMITED
+   * @param bloomParam the parameter of the Bloom filter, see
+   *          {@link #getBloomFilterParam(BloomType, Configuration)}
+   * @return the length of the prefix
+   */
+  public static int getRowPrefixLength(byte[] row, int offset, int length, BloomType bloomType,
+      byte[] bloomParam) {
+    if (bloomType == BloomType.ROWPREFIX_FIXED_LENGTH) {
+      return Math.min(length, Bytes.toInt(bloomParam));
+    }
+    int end = offset + length - bloomParam.length;
+    for (int i = offset; i <= end; i++) {
+      if (Bytes.equals(row, i, bloomParam.length, bloomParam, 0, bloomParam.length)) {
+        return i - offset + bloomParam.length;
+      }
+    }
+    return length;
+  }
+
   /**
    * A human-readable string with statistics for the given Bloom filter.
    *
@@ -91,6 +91,11 @@ public class WALKey implements SequenceId, Comparable<WALKey> {
    */
   @InterfaceAudience.Private // For internal use only.
   public MultiVersionConcurrencyControl.WriteEntry getWriteEntry() throws InterruptedIOException {
+    // Do not wait if the sequence id is assigned already: the caller may have been interrupted,
+    // and still needs the write entry to complete it.
+    if (this.sequenceIdAssignedLatch.getCount() == 0) {
+      return this.writeEntry;
+    }
     try {
       this.sequenceIdAssignedLatch.await();
     } catch (InterruptedException ie) {
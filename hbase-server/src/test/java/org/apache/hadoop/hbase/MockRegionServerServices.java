@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
@@ -325,6 +326,16 @@ public class MockRegionServerServices implements RegionServerServices {
     return null;
   }
 
+  @Override
+  public ThreadPoolExecutor getBlockCompressionPool() {
+    return null;
+  }
+
+  @Override
+  public ThreadPoolExecutor getStoreFlushPool() {
+    return null;
+  }
+
   @Override
   public double getFlushPressure() {
     return 0;
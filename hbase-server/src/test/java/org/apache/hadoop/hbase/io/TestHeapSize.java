@@ -28,6 +28,8 @@ import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
 import org.apache.hadoop.hbase.io.hfile.LruBlockCache;
 import org.apache.hadoop.hbase.io.hfile.LruCachedBlock;
+import org.apache.hadoop.hbase.regionserver.CellArrayMap;
+import org.apache.hadoop.hbase.regionserver.CellChunkMap;
 import org.apache.hadoop.hbase.regionserver.CellSet;
 import org.apache.hadoop.hbase.regionserver.DefaultMemStore;
 import org.apache.hadoop.hbase.regionserver.HRegion;
@@ -245,6 +247,24 @@ public class TestHeapSize  {
       ClassSize.estimateBase(cl, true);
       assertEquals(expected, actual);
     }
+
+    // CellArrayMap
+    cl = CellArrayMap.class;
+    expected = ClassSize.estimateBase(cl, false);
+    actual = ClassSize.CELL_ARRAY_MAP;
+    if (expected != actual) {
+      ClassSize.estimateBase(cl, true);
+      assertEquals(expected, actual);
+    }
+
+    // CellChunkMap
+    cl = CellChunkMap.class;
+    expected = ClassSize.estimateBase(cl, false);
+    actual = ClassSize.CELL_CHUNK_MAP;
+    if (expected != actual) {
+      ClassSize.estimateBase(cl, true);
+      assertEquals(expected, actual);
+    }
   }
 
   /**
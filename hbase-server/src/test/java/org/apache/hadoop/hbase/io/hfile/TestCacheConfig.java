@@ -288,6 +288,24 @@ public class TestCacheConfig {
     assertTrue(cc.getBlockCache() instanceof LruBlockCache);
   }
 
+  @Test
+  public void testOffHeapL1Config() {
+    this.conf.setInt(CacheConfig.OFFHEAP_L1_SIZE_KEY, 8);
+    CacheConfig cc = new CacheConfig(this.conf);
+    basicBlockCacheOps(cc, false, true);
+    assertTrue(cc.getBlockCache() instanceof OffHeapBlockCache);
+    assertEquals(8 * 1024 * 1024, ((OffHeapBlockCache) cc.getBlockCache()).getMaxSize());
+
+    CacheConfig.GLOBAL_BLOCK_CACHE_INSTANCE = null;
+    this.conf.set(HConstants.BUCKET_CACHE_IOENGINE_KEY, "offheap");
+    this.conf.setInt(HConstants.BUCKET_CACHE_SIZE_KEY, 100);
+    cc = new CacheConfig(this.conf);
+    basicBlockCacheOps(cc, false, false);
+    assertTrue(cc.getBlockCache() instanceof CombinedBlockCache);
+    assertTrue(((CombinedBlockCache) cc.getBlockCache()).getBlockCaches()[0]
+        instanceof OffHeapBlockCache);
+  }
+
   /**
    * Assert that the caches are deployed with CombinedBlockCache and of the appropriate sizes.
    */
@@ -317,6 +335,26 @@ public class TestCacheConfig {
     }
   }
 
+  @Test
+  public void testCacheDataCompressedInL2() {
+    this.conf.setBoolean(CacheConfig.BUCKET_CACHE_DATA_COMPRESSED_KEY, true);
+    CacheConfig cc = new CacheConfig(this.conf);
+    // no L2 tier
+    assertFalse(cc.shouldCacheCompressed(BlockCategory.DATA));
+
+    CacheConfig.GLOBAL_BLOCK_CACHE_INSTANCE = null;
+    this.conf.set(HConstants.BUCKET_CACHE_IOENGINE_KEY, "offheap");
+    this.conf.setInt(HConstants.BUCKET_CACHE_SIZE_KEY, 100);
+    cc = new CacheConfig(this.conf);
+    assertTrue(cc.getBlockCache() instanceof CombinedBlockCache);
+    assertTrue(cc.shouldCacheCompressed(BlockCategory.DATA));
+    assertTrue(cc.shouldCacheDataCompressed());
+    assertFalse(cc.shouldCacheCompressed(BlockCategory.INDEX));
+    // the data blocks cached in L1 are unpacked
+    cc.setCacheDataInL1(true);
+    assertFalse(cc.shouldCacheCompressed(BlockCategory.DATA));
+  }
+
   private void doBucketCacheConfigTest() {
     final int bcSize = 100;
     this.conf.setInt(HConstants.BUCKET_CACHE_SIZE_KEY, bcSize);
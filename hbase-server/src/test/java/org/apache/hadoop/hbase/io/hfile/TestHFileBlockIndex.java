@@ -42,6 +42,7 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellComparator;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
@@ -647,6 +648,89 @@ public class TestHFileBlockIndex {
     }
   }
 
+  /**
+   * Writes an HFile with timestamp ranges in its leaf-level index blocks, and
+   * checks that a scanner over a time range skips the blocks outside of it but
+   * none of the cells inside it.
+   */
+  @Test
+  public void testTimeRangesInLeafIndex() throws IOException {
+    Path hfilePath = new Path(TEST_UTIL.getDataTestDir(),
+        "hfile_for_block_index_time_ranges");
+    Configuration conf = new Configuration(this.conf);
+    conf.setBoolean(HFileBlockIndex.TIME_RANGES_KEY, true);
+    conf.setInt(HFileBlockIndex.MAX_CHUNK_SIZE_KEY, INDEX_CHUNK_SIZES[1]);
+    CacheConfig cacheConf = new CacheConfig(conf);
+
+    // Each cell has its index as timestamp, except for a delete marker newer
+    // than all of them, which must not be skipped as it masks older cells.
+    int deleteIndex = NUM_KV / 4;
+    long deleteTimestamp = NUM_KV - 1;
+    HFileContext meta = new HFileContextBuilder()
+                        .withBlockSize(SMALL_BLOCK_SIZE)
+                        .withCompression(compr)
+                        .build();
+    HFile.Writer writer =
+        HFile.getWriterFactory(conf, cacheConf)
+            .withPath(fs, hfilePath)
+            .withFileContext(meta)
+            .create();
+    Random rand = new Random(19231737);
+    byte[] family = Bytes.toBytes("f");
+    byte[] qualifier = Bytes.toBytes("q");
+    for (int i = 0; i < NUM_KV; ++i) {
+      byte[] row = RandomKeyValueUtil.randomOrderedKey(rand, i);
+      if (i == deleteIndex) {
+        writer.append(new KeyValue(row, family, qualifier, deleteTimestamp,
+            KeyValue.Type.DeleteColumn));
+      } else {
+        writer.append(new KeyValue(row, family, qualifier, i,
+            RandomKeyValueUtil.randomValue(rand)));
+      }
+    }
+    writer.close();
+
+    HFile.Reader reader = HFile.createReader(fs, hfilePath, cacheConf, conf);
+    assertTrue(reader.getTrailer().getNumDataIndexLevels() > 2);
+
+    long minStamp = NUM_KV * 3 / 4;
+    long maxStamp = NUM_KV;
+    for (boolean pread : new boolean[] { false, true }) {
+      HFileScanner scanner = reader.getScanner(false, pread);
+      scanner.setTimeRange(minStamp, maxStamp);
+      // Scan twice to also go back to blocks of an earlier leaf-level block.
+      for (int pass = 0; pass < 2; ++pass) {
+        assertTrue(scanner.seekTo());
+        int numScanned = 0;
+        int numInRange = 0;
+        boolean sawDelete = false;
+        do {
+          Cell cell = scanner.getCell();
+          ++numScanned;
+          if (cell.getTimestamp() >= minStamp && cell.getTimestamp() < maxStamp) {
+            ++numInRange;
+          }
+          sawDelete |= CellUtil.isDelete(cell);
+        } while (scanner.next());
+
+        assertEquals(NUM_KV - minStamp + 1, numInRange);
+        assertTrue(sawDelete);
+        assertTrue("Scanned " + numScanned + " cells", numScanned < NUM_KV / 2);
+      }
+    }
+
+    // Without a time range, nothing is skipped.
+    HFileScanner scanner = reader.getScanner(false, false);
+    assertTrue(scanner.seekTo());
+    int numScanned = 0;
+    do {
+      ++numScanned;
+    } while (scanner.next());
+    assertEquals(NUM_KV, numScanned);
+
+    reader.close();
+  }
+
   private void checkSeekTo(byte[][] keys, HFileScanner scanner, int i)
       throws IOException {
     assertEquals("Failed to seek to key #" + i + " (" + Bytes.toStringBinary(keys[i]) + ")", 0,
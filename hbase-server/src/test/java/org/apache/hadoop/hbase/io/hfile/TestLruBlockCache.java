@@ -587,6 +587,63 @@ public class TestLruBlockCache {
 
   }
 
+  @Test
+  public void testAdmissionFilterScanResistance() throws Exception {
+    long maxSize = 100000;
+    long blockSize = calculateBlockSize(maxSize, 10);
+
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false,
+        (int)Math.ceil(1.2*maxSize/blockSize),
+        LruBlockCache.DEFAULT_LOAD_FACTOR,
+        LruBlockCache.DEFAULT_CONCURRENCY_LEVEL,
+        0.66f, // min
+        0.99f, // acceptable
+        0.33f, // single
+        0.33f, // multi
+        0.34f, // memory
+        false,
+        16 * 1024 * 1024);
+    cache.setAdmissionFilter(new TinyLfuAdmissionFilter(100, 10, 2));
+
+    CachedItem [] hotBlocks = generateFixedBlocks(5, blockSize, "hot");
+    CachedItem [] scanBlocks = generateFixedBlocks(20, blockSize, "scan");
+
+    // The working set is read, cached, and read again
+    for (CachedItem block : hotBlocks) {
+      assertNull(cache.getBlock(block.cacheKey, true, false, true));
+      cache.cacheBlock(block.cacheKey, block);
+      assertNotNull(cache.getBlock(block.cacheKey, true, false, true));
+    }
+
+    // A scan reads every block once: once the cache is full, its blocks are not let in
+    for (CachedItem block : scanBlocks) {
+      assertNull(cache.getBlock(block.cacheKey, true, false, true));
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    assertEquals(0, cache.getStats().getEvictedCount());
+    assertEquals(0, cache.getStats().getAdmittedCount());
+    assertTrue(cache.getStats().getRejectedCount() > 0);
+    assertEquals(hotBlocks.length + scanBlocks.length,
+        cache.getBlockCount() + cache.getStats().getRejectedCount());
+    for (CachedItem block : hotBlocks) {
+      assertNotNull(cache.getBlock(block.cacheKey, true, false, true));
+    }
+
+    // A block read again is let in
+    CachedItem last = scanBlocks[scanBlocks.length - 1];
+    assertNull(cache.getBlock(last.cacheKey, true, false, true));
+    cache.cacheBlock(last.cacheKey, last);
+    assertEquals(1, cache.getStats().getAdmittedCount());
+    assertNotNull(cache.getBlock(last.cacheKey, true, false, true));
+
+    // A block cached ahead of any request, on write or by prefetch, is let in
+    long rejected = cache.getStats().getRejectedCount();
+    CachedItem ahead = generateFixedBlocks(1, blockSize, "ahead")[0];
+    cache.cacheBlockAhead(ahead.cacheKey, ahead, false, false);
+    assertEquals(rejected, cache.getStats().getRejectedCount());
+    assertNotNull(cache.getBlock(ahead.cacheKey, true, false, true));
+  }
+
   @Test
   public void testMaxBlockSize() throws Exception {
     long maxSize = 100000;
@@ -0,0 +1,343 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.ByteArrayCacheable;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.MultiByteBuff;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the off-heap L1 block cache, its clock eviction and the release of its shared blocks.
+ */
+@Category({IOTests.class, SmallTests.class})
+public class TestOffHeapBlockCache {
+
+  private static final long CAPACITY = OffHeapBlockCache.SLAB_SIZE;
+  private static final int PAGE_SIZE = 8 * 1024;
+  private static final int BLOCK_SIZE = 8000;
+
+  private OffHeapBlockCache cache;
+
+  @After
+  public void tearDown() {
+    if (cache != null) {
+      cache.shutdown();
+    }
+  }
+
+  /**
+   * A block read from the memory of the cache, as the blocks of HFiles are
+   */
+  static class SharedCacheable extends ByteArrayCacheable {
+    static final CacheableDeserializer<Cacheable> deserializer =
+        new CacheableDeserializer<Cacheable>() {
+      @Override
+      public Cacheable deserialize(ByteBuff b) throws IOException {
+        byte[] buf = new byte[b.getInt()];
+        b.get(buf);
+        return new SharedCacheable(buf);
+      }
+
+      @Override
+      public Cacheable deserialize(ByteBuff b, boolean reuse, MemoryType memType)
+          throws IOException {
+        return deserialize(b);
+      }
+
+      @Override
+      public int getDeserialiserIdentifier() {
+        return 0;
+      }
+    };
+
+    SharedCacheable(byte[] buf) {
+      super(buf);
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return deserializer;
+    }
+
+    @Override
+    public MemoryType getMemoryType() {
+      return MemoryType.SHARED;
+    }
+  }
+
+  private static BlockCacheKey key(int i) {
+    return new BlockCacheKey("hfile", i);
+  }
+
+  private static byte[] content(int i, int size) {
+    byte[] buf = new byte[size];
+    for (int j = 0; j < buf.length; j++) {
+      buf[j] = (byte) (i * 3 + j);
+    }
+    return buf;
+  }
+
+  private static byte[] serialize(Cacheable block) {
+    ByteBuffer bb = ByteBuffer.allocate(block.getSerializedLength());
+    block.serialize(bb);
+    return bb.array();
+  }
+
+  private static void assertBlock(int i, int size, Cacheable block) {
+    assertNotNull("block " + i, block);
+    assertArrayEquals(serialize(new ByteArrayCacheable(content(i, size))), serialize(block));
+  }
+
+  @Test
+  public void testCacheBlocks() throws Exception {
+    cache = new OffHeapBlockCache(CAPACITY, PAGE_SIZE, false);
+    // blocks of one page, and of several pages
+    for (int i = 0; i < 100; i++) {
+      cache.cacheBlock(key(i), new ByteArrayCacheable(content(i, 100 * i + 10)));
+    }
+    assertEquals(100, cache.getBlockCount());
+    long size = cache.getCurrentSize();
+    // cached once only
+    cache.cacheBlock(key(0), new ByteArrayCacheable(content(1, 10)));
+    assertEquals(100, cache.getBlockCount());
+    assertEquals(size, cache.getCurrentSize());
+    for (int i = 0; i < 100; i++) {
+      assertBlock(i, 100 * i + 10, cache.getBlock(key(i), true, false, true));
+    }
+    assertEquals(100, cache.getStats().getHitCount());
+    assertNull(cache.getBlock(key(100), true, false, true));
+    assertEquals(1, cache.getStats().getMissCount());
+
+    for (int i = 0; i < 100; i++) {
+      assertTrue(cache.evictBlock(key(i)));
+    }
+    assertEquals(0, cache.getBlockCount());
+    assertEquals(0, cache.getCurrentSize());
+  }
+
+  @Test
+  public void testScatteredPages() throws Exception {
+    OffHeapBlockCache.PagePool pool = new OffHeapBlockCache.PagePool(CAPACITY, 1024);
+    int[][] pages = new int[pool.getPageCount()][];
+    for (int i = 0; i < pages.length; i++) {
+      pages[i] = pool.allocate(1024);
+    }
+    assertNull(pool.allocate(1));
+    for (int i = 0; i < pages.length; i += 2) {
+      pool.free(pages[i]);
+    }
+    // no two adjacent pages are free, the block is written to scattered ones
+    ByteArrayCacheable block = new ByteArrayCacheable(content(1, 3000));
+    int[] allocated = pool.allocate(block.getSerializedLength());
+    assertEquals(3, allocated.length);
+    pool.write(allocated, block, block.getSerializedLength());
+    ByteBuff read = pool.read(allocated, block.getSerializedLength());
+    assertTrue(read instanceof MultiByteBuff);
+    assertBlock(1, 3000, block.getDeserializer().deserialize(read));
+    assertEquals((pages.length / 2 + 3) * 1024L, pool.getUsedSize());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    cache = new OffHeapBlockCache(CAPACITY, PAGE_SIZE, false);
+    int pageCount = (int) (CAPACITY / PAGE_SIZE);
+    int blocks = pageCount / 2;
+    for (int i = 0; i < blocks; i++) {
+      cache.cacheBlock(key(i), new ByteArrayCacheable(content(i, BLOCK_SIZE)));
+    }
+    assertEquals(0, cache.getStats().getEvictedCount());
+    // referenced since cached, and get a second chance
+    for (int i = 0; i < 10; i++) {
+      assertBlock(i, BLOCK_SIZE, cache.getBlock(key(i), true, false, true));
+    }
+    for (int i = blocks; i < 3 * pageCount; i++) {
+      cache.cacheBlock(key(i), new ByteArrayCacheable(content(i, BLOCK_SIZE)));
+      assertTrue(cache.getCurrentSize() <= cache.acceptableSize());
+    }
+    assertTrue(cache.getStats().getEvictedCount() > 0);
+    for (int i = 0; i < 10; i++) {
+      assertBlock(i, BLOCK_SIZE, cache.getBlock(key(i), true, false, true));
+    }
+    // the blocks cached last are still there
+    assertBlock(3 * pageCount - 1, BLOCK_SIZE,
+      cache.getBlock(key(3 * pageCount - 1), true, false, true));
+    assertEquals(cache.getBlockCount() * PAGE_SIZE, cache.getCurrentSize());
+    // each eviction run is counted once
+    long runs = cache.getStats().getEvictionCount();
+    cache.evict();
+    assertEquals(runs + 1, cache.getStats().getEvictionCount());
+  }
+
+  @Test
+  public void testReturnBlock() throws Exception {
+    cache = new OffHeapBlockCache(CAPACITY, PAGE_SIZE, false);
+    cache.cacheBlock(key(0), new SharedCacheable(content(0, BLOCK_SIZE)));
+    Cacheable first = cache.getBlock(key(0), true, false, true);
+    Cacheable second = cache.getBlock(key(0), true, false, true);
+    assertEquals(2, cache.getRefCount(key(0)));
+    cache.returnBlock(key(0), first);
+    assertEquals(1, cache.getRefCount(key(0)));
+
+    // evicted while in use, the pages are freed once the block is returned
+    assertTrue(cache.evictBlock(key(0)));
+    assertEquals(0, cache.getBlockCount());
+    assertNull(cache.getBlock(key(0), true, false, true));
+    assertEquals(PAGE_SIZE, cache.getCurrentSize());
+    cache.returnBlock(key(0), second);
+    assertEquals(0, cache.getCurrentSize());
+    assertEquals(0, cache.getRefCount(key(0)));
+    // cached anew afterwards
+    cache.cacheBlock(key(0), new SharedCacheable(content(0, BLOCK_SIZE)));
+    assertEquals(1, cache.getBlockCount());
+  }
+
+  @Test
+  public void testReturnBlockDuringEviction() throws Exception {
+    cache = new OffHeapBlockCache(CAPACITY, PAGE_SIZE, false);
+    final Map<BlockCacheKey, Cacheable> readers = new HashMap<BlockCacheKey, Cacheable>();
+    final AtomicInteger handedOver = new AtomicInteger();
+    // The readers return their blocks while the eviction hands them over
+    LruBlockCache victim = new LruBlockCache(8 * CAPACITY, PAGE_SIZE) {
+      @Override
+      public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+        long size = cache.getCurrentSize();
+        Cacheable block = readers.remove(cacheKey);
+        if (block != null) {
+          cache.returnBlock(cacheKey, block);
+        }
+        // the pages are not freed before the hand-over is over
+        assertEquals(size, cache.getCurrentSize());
+        handedOver.incrementAndGet();
+        super.cacheBlock(cacheKey, buf);
+      }
+    };
+    try {
+      cache.setVictimCache(victim);
+      int pageCount = (int) (CAPACITY / PAGE_SIZE);
+      for (int i = 0; i < 2 * pageCount; i++) {
+        cache.cacheBlock(key(i), new SharedCacheable(content(i, BLOCK_SIZE)));
+        Cacheable block = cache.getBlock(key(i), true, false, true);
+        if (block != null) {
+          readers.put(key(i), block);
+        }
+      }
+      assertTrue(handedOver.get() > 0);
+      assertEquals(cache.getStats().getEvictedCount(), handedOver.get());
+      // the pages of the blocks handed over are freed, once by the eviction
+      assertEquals(cache.getBlockCount() * PAGE_SIZE, cache.getCurrentSize());
+      assertEquals(handedOver.get(), victim.getBlockCount());
+    } finally {
+      victim.shutdown();
+    }
+  }
+
+  @Test
+  public void testReturnPromotedBlock() throws Exception {
+    cache = new OffHeapBlockCache(CAPACITY, PAGE_SIZE, false);
+    final AtomicInteger returned = new AtomicInteger();
+    LruBlockCache victim = new LruBlockCache(8 * CAPACITY, PAGE_SIZE) {
+      @Override
+      public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+        returned.incrementAndGet();
+      }
+    };
+    try {
+      cache.setVictimCache(victim);
+      CombinedBlockCache combined = new CombinedBlockCache(cache, victim);
+      victim.cacheBlock(key(0), new SharedCacheable(content(0, BLOCK_SIZE)));
+      // served by the victim cache, and promoted to the L1
+      Cacheable fromL2 = cache.getBlock(key(0), true, false, true);
+      assertBlock(0, BLOCK_SIZE, fromL2);
+      assertTrue(cache.containsBlock(key(0)));
+      Cacheable fromL1 = cache.getBlock(key(0), true, false, true);
+      assertEquals(1, cache.getRefCount(key(0)));
+
+      // each block goes back to the tier that served it
+      cache.returnBlock(key(0), fromL2);
+      assertEquals(1, returned.get());
+      assertEquals(1, cache.getRefCount(key(0)));
+      combined.returnBlock(key(0), fromL1);
+      assertEquals(1, returned.get());
+      assertEquals(0, cache.getRefCount(key(0)));
+
+      // a block of the L2 returned through the combined cache
+      fromL1 = cache.getBlock(key(0), true, false, true);
+      Cacheable other = victim.getBlock(key(0), true, false, true);
+      combined.returnBlock(key(0), other);
+      assertEquals(2, returned.get());
+      assertEquals(1, cache.getRefCount(key(0)));
+      combined.returnBlock(key(0), fromL1);
+      assertEquals(0, cache.getRefCount(key(0)));
+    } finally {
+      victim.shutdown();
+    }
+  }
+
+  @Test
+  public void testSetMaxSize() throws Exception {
+    cache = new OffHeapBlockCache(CAPACITY, PAGE_SIZE, false);
+    int pageCount = (int) (CAPACITY / PAGE_SIZE);
+    for (int i = 0; i < pageCount; i++) {
+      cache.cacheBlock(key(i), new ByteArrayCacheable(content(i, BLOCK_SIZE)));
+    }
+    // resized in proportion of the share of the heap, within the memory allocated
+    cache.setMaxSize(CAPACITY / 2);
+    assertEquals(CAPACITY / 2, cache.getMaxSize());
+    assertTrue(cache.getCurrentSize() <= cache.acceptableSize());
+    cache.setMaxSize(CAPACITY * 2);
+    assertEquals(CAPACITY, cache.getMaxSize());
+  }
+
+  @Test
+  public void testVictimCache() throws Exception {
+    cache = new OffHeapBlockCache(CAPACITY, PAGE_SIZE, false);
+    LruBlockCache victim = new LruBlockCache(8 * CAPACITY, PAGE_SIZE);
+    cache.setVictimCache(victim);
+    int pageCount = (int) (CAPACITY / PAGE_SIZE);
+    for (int i = 0; i < 2 * pageCount; i++) {
+      cache.cacheBlock(key(i), new ByteArrayCacheable(content(i, BLOCK_SIZE)));
+    }
+    long evicted = cache.getStats().getEvictedCount();
+    assertTrue(evicted > 0);
+    assertEquals(evicted, victim.getBlockCount());
+    // the blocks evicted are read from the victim cache, and cached again
+    assertTrue(victim.containsBlock(key(0)));
+    assertTrue(!cache.containsBlock(key(0)));
+    assertBlock(0, BLOCK_SIZE, cache.getBlock(key(0), true, false, true));
+    assertTrue(cache.containsBlock(key(0)));
+  }
+}
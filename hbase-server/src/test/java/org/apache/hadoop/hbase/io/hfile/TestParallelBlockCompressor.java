@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({IOTests.class, SmallTests.class})
+public class TestParallelBlockCompressor {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final int ENTRY_COUNT = 20000;
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private Configuration conf;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration(TEST_UTIL.getConfiguration());
+    // small index chunks, so that inline index blocks are written between the data blocks
+    conf.setInt(HFileBlockIndex.MAX_CHUNK_SIZE_KEY, 1024);
+    fs = FileSystem.get(conf);
+  }
+
+  @Test
+  public void testIsEnabled() {
+    HFileContext gz = new HFileContextBuilder().withCompression(Compression.Algorithm.GZ).build();
+    HFileContext none =
+        new HFileContextBuilder().withCompression(Compression.Algorithm.NONE).build();
+    assertFalse(ParallelBlockCompressor.isEnabled(conf, gz));
+    conf.setBoolean(ParallelBlockCompressor.PARALLEL_COMPRESSION_ENABLED_KEY, true);
+    assertTrue(ParallelBlockCompressor.isEnabled(conf, gz));
+    // nothing to gain without compression
+    assertFalse(ParallelBlockCompressor.isEnabled(conf, none));
+  }
+
+  @Test
+  public void testCreatePool() {
+    assertNull(ParallelBlockCompressor.createPool(conf, "test"));
+    conf.setBoolean(ParallelBlockCompressor.PARALLEL_COMPRESSION_ENABLED_KEY, true);
+    ExecutorService pool = ParallelBlockCompressor.createPool(conf, "test");
+    assertNotNull(pool);
+    pool.shutdown();
+  }
+
+  @Test
+  public void testParallelCompression() throws IOException {
+    testParallelCompression(DataBlockEncoding.NONE, 16);
+  }
+
+  @Test
+  public void testParallelCompressionWithEncoding() throws IOException {
+    testParallelCompression(DataBlockEncoding.FAST_DIFF, 16);
+  }
+
+  @Test
+  public void testParallelCompressionWithSinglePendingBlock() throws IOException {
+    testParallelCompression(DataBlockEncoding.NONE, 1);
+  }
+
+  /**
+   * Writes the same cells with sequential and parallel compression, and checks that they are read
+   * back the same, scanning and seeking through the block index.
+   */
+  private void testParallelCompression(DataBlockEncoding encoding, int maxPendingBlocks)
+      throws IOException {
+    // the names of the files are unique, as they key their blocks in the block cache
+    String name = encoding + "-" + maxPendingBlocks;
+    Path sequential = new Path(TEST_UTIL.getDataTestDir(), "sequential-" + name);
+    Path parallel = new Path(TEST_UTIL.getDataTestDir(), "parallel-" + name);
+    writeFile(sequential, encoding, false, maxPendingBlocks);
+    writeFile(parallel, encoding, true, maxPendingBlocks);
+
+    CacheConfig cacheConf = new CacheConfig(conf);
+    HFile.Reader expectedReader = HFile.createReader(fs, sequential, cacheConf, conf);
+    HFile.Reader reader = HFile.createReader(fs, parallel, cacheConf, conf);
+    try {
+      expectedReader.loadFileInfo();
+      reader.loadFileInfo();
+      assertTrue(reader.getTrailer().getNumDataIndexLevels() > 1);
+      assertEquals(ENTRY_COUNT, reader.getEntries());
+      assertEquals(expectedReader.getTrailer().getFirstDataBlockOffset(),
+          reader.getTrailer().getFirstDataBlockOffset());
+
+      HFileScanner expectedScanner = expectedReader.getScanner(false, false);
+      HFileScanner scanner = reader.getScanner(false, false);
+      assertTrue(expectedScanner.seekTo());
+      assertTrue(scanner.seekTo());
+      int count = 0;
+      boolean hasNext;
+      do {
+        assertEquals(0, CellComparator.COMPARATOR.compare(expectedScanner.getCell(),
+            scanner.getCell()));
+        assertArrayEquals(CellUtil.cloneValue(expectedScanner.getCell()),
+            CellUtil.cloneValue(scanner.getCell()));
+        count++;
+        hasNext = scanner.next();
+        assertEquals(expectedScanner.next(), hasNext);
+      } while (hasNext);
+      assertEquals(ENTRY_COUNT, count);
+
+      for (int i = 0; i < ENTRY_COUNT; i += 97) {
+        assertEquals(0, scanner.seekTo(new KeyValue(rowKey(i), FAMILY, QUALIFIER, i,
+            KeyValue.Type.Put)));
+        assertArrayEquals(rowKey(i), CellUtil.cloneRow(scanner.getCell()));
+      }
+    } finally {
+      expectedReader.close();
+      reader.close();
+    }
+  }
+
+  private void writeFile(Path path, DataBlockEncoding encoding, boolean parallel,
+      int maxPendingBlocks) throws IOException {
+    Configuration writerConf = new Configuration(conf);
+    writerConf.setBoolean(ParallelBlockCompressor.PARALLEL_COMPRESSION_ENABLED_KEY, parallel);
+    writerConf.setInt(ParallelBlockCompressor.MAX_PENDING_BLOCKS_KEY, maxPendingBlocks);
+    HFileContext context = new HFileContextBuilder()
+        .withBlockSize(4096)
+        .withCompression(Compression.Algorithm.GZ)
+        .withDataBlockEncoding(encoding)
+        .build();
+    ExecutorService pool = ParallelBlockCompressor.createPool(writerConf, "test");
+    assertEquals(parallel, pool != null);
+    HFile.Writer writer = new HFile.WriterFactory(writerConf, new CacheConfig(writerConf))
+        .withPath(fs, path)
+        .withFileContext(context)
+        .withComparator(CellComparator.COMPARATOR)
+        .withCompressionPool(pool)
+        .create();
+    try {
+      // fixed seed, so that both files get the same values
+      Random rand = new Random(20160707);
+      for (int i = 0; i < ENTRY_COUNT; i++) {
+        byte[] value = new byte[rand.nextInt(200)];
+        rand.nextBytes(value);
+        writer.append(new KeyValue(rowKey(i), FAMILY, QUALIFIER, i, value));
+      }
+    } finally {
+      writer.close();
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+  }
+
+  private static byte[] rowKey(int i) {
+    return Bytes.toBytes(String.format("row-%08d", i));
+  }
+}
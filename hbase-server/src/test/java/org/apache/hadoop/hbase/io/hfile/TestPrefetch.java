@@ -21,6 +21,8 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -29,13 +31,19 @@ import org.apache.hadoop.hbase.CellComparator;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.fs.HFileSystem;
 
 import org.apache.hadoop.hbase.regionserver.StoreFileWriter;
+import org.apache.hadoop.hbase.regionserver.throttle.PrefetchThroughputController;
 import org.apache.hadoop.hbase.testclassification.IOTests;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -79,6 +87,195 @@ public class TestPrefetch {
     readStoreFile(storeFile);
   }
 
+  @Test
+  public void testPrefetchOrder() {
+    TableName table = TableName.valueOf("ns", "TestPrefetchOrder");
+    Path regionDir = new Path("/hbase/data/ns/TestPrefetchOrder/region");
+    Path otherRegionDir = new Path("/hbase/data/ns/other/region");
+    Runnable noop = new Runnable() {
+      @Override
+      public void run() {
+      }
+    };
+    PrefetchExecutor.PrefetchTask first =
+        new PrefetchExecutor.PrefetchTask(new Path(regionDir, "f/first"), noop, 2);
+    PrefetchExecutor.PrefetchTask second =
+        new PrefetchExecutor.PrefetchTask(new Path(regionDir, "f/second"), noop, 1);
+    PrefetchExecutor.PrefetchTask other =
+        new PrefetchExecutor.PrefetchTask(new Path(otherRegionDir, "f/other"), noop, 0);
+    // the files ready first go first
+    assertTrue(second.isBefore(first));
+    assertTrue(other.isBefore(second));
+    // then the files read the most
+    first.accessed();
+    assertTrue(first.isBefore(second));
+    assertTrue(first.isBefore(other));
+    // the important tables go first
+    PrefetchExecutor.setTablePriority(table, HConstants.HIGH_QOS);
+    try {
+      assertTrue(second.isBefore(other));
+      assertTrue(first.isBefore(second));
+    } finally {
+      PrefetchExecutor.setTablePriority(table, HConstants.NORMAL_QOS);
+    }
+    assertTrue(other.isBefore(second));
+  }
+
+  @Test(timeout=60000)
+  public void testRegionProgress() throws Exception {
+    String region = "TestRegionProgress";
+    Path familyDir = new Path(TEST_UTIL.getDataTestDir(), "ns/table/" + region + "/f");
+    Path slowFile = new Path(familyDir, "slow");
+    Path fastFile = new Path(familyDir, "fast");
+    final CountDownLatch latch = new CountDownLatch(1);
+    assertEquals(100, PrefetchExecutor.getRegionProgress(region));
+    PrefetchExecutor.PrefetchTask slow = PrefetchExecutor.request(slowFile, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    PrefetchExecutor.PrefetchTask fast = PrefetchExecutor.request(fastFile, new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+    assertEquals(0, PrefetchExecutor.getRegionProgress(region));
+    fast.get();
+    while (PrefetchExecutor.getRegionProgress(region) < 50) {
+      Thread.sleep(100);
+    }
+    assertEquals(50, PrefetchExecutor.getRegionProgress(region));
+    latch.countDown();
+    slow.get();
+    while (PrefetchExecutor.getRegionProgress(region) < 100) {
+      Thread.sleep(100);
+    }
+    assertEquals(100, PrefetchExecutor.getRegionProgress(region));
+  }
+
+  @Test(timeout=60000)
+  public void testTableMaxThreads() throws Exception {
+    Path familyDir = new Path(TEST_UTIL.getDataTestDir(), "ns/TestTableMaxThreads/region/f");
+    Path otherFamilyDir = new Path(TEST_UTIL.getDataTestDir(), "ns/other/region/f");
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicBoolean started = new AtomicBoolean(false);
+    PrefetchExecutor.setTableMaxThreads(1);
+    try {
+      PrefetchExecutor.PrefetchTask blocking = PrefetchExecutor.request(
+          new Path(familyDir, "blocking"), new Runnable() {
+        @Override
+        public void run() {
+          running.countDown();
+          try {
+            latch.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      running.await();
+      PrefetchExecutor.PrefetchTask waiting = PrefetchExecutor.request(
+          new Path(familyDir, "waiting"), new Runnable() {
+        @Override
+        public void run() {
+          started.set(true);
+        }
+      });
+      PrefetchExecutor.PrefetchTask other = PrefetchExecutor.request(
+          new Path(otherFamilyDir, "other"), new Runnable() {
+        @Override
+        public void run() {
+        }
+      });
+      // the other tables still get threads
+      other.get();
+      // past the delay of the request of the same table, made before
+      Thread.sleep(500);
+      assertFalse(started.get());
+      latch.countDown();
+      blocking.get();
+      waiting.get();
+      assertTrue(started.get());
+    } finally {
+      latch.countDown();
+      PrefetchExecutor.setTableMaxThreads(Integer.MAX_VALUE);
+    }
+  }
+
+  @Test
+  public void testPauseOnReadLatency() {
+    long period = PrefetchExecutor.READ_LATENCY_PERIOD_MS;
+    ManualEnvironmentEdge edge = new ManualEnvironmentEdge();
+    edge.setValue(EnvironmentEdgeManager.currentTime() + 10 * period);
+    EnvironmentEdgeManager.injectEdge(edge);
+    PrefetchExecutor.setPauseReadLatency(10);
+    try {
+      assertFalse(PrefetchExecutor.isReadLatencyHigh());
+      for (int i = 0; i < 3; i++) {
+        PrefetchExecutor.updateReadLatency(50 * 1000000L);
+      }
+      // the latency is averaged over a period
+      assertFalse(PrefetchExecutor.isReadLatencyHigh());
+      edge.incValue(period);
+      assertTrue(PrefetchExecutor.isReadLatencyHigh());
+      for (int i = 0; i < 10; i++) {
+        PrefetchExecutor.updateReadLatency(1000000L);
+      }
+      edge.incValue(period);
+      assertFalse(PrefetchExecutor.isReadLatencyHigh());
+      // no reads, no load
+      edge.incValue(period);
+      assertFalse(PrefetchExecutor.isReadLatencyHigh());
+    } finally {
+      PrefetchExecutor.setPauseReadLatency(0);
+      EnvironmentEdgeManager.reset();
+    }
+    assertFalse(PrefetchExecutor.isReadLatencyHigh());
+  }
+
+  @Test
+  public void testThroughputController() throws Exception {
+    Configuration c = HBaseConfiguration.create();
+    c.setLong(PrefetchThroughputController.HBASE_HFILE_PREFETCH_MAX_THROUGHPUT, 1024 * 1024);
+    c.setLong(PrefetchThroughputController.HBASE_HFILE_PREFETCH_THROUGHPUT_CONTROL_CHECK_INTERVAL,
+        64 * 1024);
+    PrefetchThroughputController controller =
+        ReflectionUtils.newInstance(PrefetchThroughputController.class, c);
+    controller.start("limited");
+    try {
+      // below the check interval
+      assertEquals(0, controller.control("limited", 1024));
+      long start = System.currentTimeMillis();
+      long slept = 0;
+      for (int i = 0; i < 4; i++) {
+        slept += controller.control("limited", 64 * 1024);
+      }
+      assertTrue(slept > 0);
+      // 257KB at 1MB/s
+      assertTrue(System.currentTimeMillis() - start >= 200);
+    } finally {
+      controller.finish("limited");
+    }
+
+    // no limit by default
+    controller = ReflectionUtils.newInstance(PrefetchThroughputController.class,
+        HBaseConfiguration.create());
+    controller.start("unlimited");
+    try {
+      for (int i = 0; i < 4; i++) {
+        assertEquals(0, controller.control("unlimited", 1024 * 1024));
+      }
+    } finally {
+      controller.finish("unlimited");
+    }
+  }
+
   private void readStoreFile(Path storeFilePath) throws Exception {
     // Open the file
     HFile.Reader reader = HFile.createReader(fs, storeFilePath, cacheConf, conf);
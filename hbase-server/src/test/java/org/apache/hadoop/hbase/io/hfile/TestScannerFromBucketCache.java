@@ -165,6 +165,7 @@ public class TestScannerFromBucketCache {
       // do the scan again and verify. This time it should be from the bucket cache in offheap mode
       actual = performScan(row1, fam1);
       // Verify result
+      assertEquals(expected.size(), actual.size());
       for (int i = 0; i < expected.size(); i++) {
         assertTrue(actual.get(i) instanceof OffheapKeyValue);
         assertTrue(CellUtil.equalsIgnoreMvccVersion(expected.get(i), actual.get(i)));
@@ -201,10 +202,15 @@ public class TestScannerFromBucketCache {
         assertFalse(actual.get(i) instanceof OffheapKeyValue);
         assertTrue(CellUtil.equalsIgnoreMvccVersion(expected.get(i), actual.get(i)));
       }
+      // The scan below reads all the versions, the oldest ones included
+      expected = new ArrayList<Cell>(expected);
+      expected.add(2, new KeyValue(row1, fam1, qf1, ts1, KeyValue.Type.Put, val));
+      expected.add(new KeyValue(row1, fam1, qf2, ts1, KeyValue.Type.Put, val));
       // Wait for the bucket cache threads to move the data to offheap
       Thread.sleep(500);
-      // do the scan again and verify. This time it should be from the bucket cache in offheap mode
-      // but one of the cell will be copied due to the asSubByteBuff call
+      // do the scan again and verify. This time it should be from the bucket cache in offheap mode.
+      // The large blocks still lie within one of the buffers backing the cache, so no cell is
+      // copied to form a single cell
       Scan scan = new Scan(row1);
       scan.addFamily(fam1);
       scan.setMaxVersions(10);
@@ -214,12 +220,10 @@ public class TestScannerFromBucketCache {
       boolean hasNext = scanner.next(actual);
       assertEquals(false, hasNext);
       // Verify result
+      assertEquals(expected.size(), actual.size());
       for (int i = 0; i < expected.size(); i++) {
-        if (i != 5) {
-          // the last cell fetched will be of type shareable but not offheap because
-          // the MBB is copied to form a single cell
-          assertTrue(actual.get(i) instanceof OffheapKeyValue);
-        }
+        assertTrue(actual.get(i) instanceof OffheapKeyValue);
+        assertTrue(CellUtil.equalsIgnoreMvccVersion(expected.get(i), actual.get(i)));
       }
 
     } catch (InterruptedException e) {
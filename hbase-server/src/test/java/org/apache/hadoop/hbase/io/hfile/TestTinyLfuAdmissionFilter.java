@@ -0,0 +1,105 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({IOTests.class, SmallTests.class})
+public class TestTinyLfuAdmissionFilter {
+
+  @Test
+  public void testCreate() {
+    Configuration conf = HBaseConfiguration.create();
+    assertNull(TinyLfuAdmissionFilter.create(conf, 1024 * 1024, 1024));
+    conf.setBoolean(TinyLfuAdmissionFilter.ADMISSION_FILTER_ENABLED_KEY, true);
+    TinyLfuAdmissionFilter filter = TinyLfuAdmissionFilter.create(conf, 1024 * 1024, 1024);
+    assertNotNull(filter);
+    assertEquals(1024 * TinyLfuAdmissionFilter.DEFAULT_ADMISSION_FILTER_SAMPLE_FACTOR,
+        filter.getSampleSize());
+  }
+
+  @Test
+  public void testIsFiltered() {
+    assertTrue(TinyLfuAdmissionFilter.isFiltered(
+        new BlockCacheKey("f", 0, true, BlockType.DATA), false));
+    assertTrue(TinyLfuAdmissionFilter.isFiltered(
+        new BlockCacheKey("f", 0, true, BlockType.ENCODED_DATA), false));
+    assertTrue(TinyLfuAdmissionFilter.isFiltered(new BlockCacheKey("f", 0, true, null), false));
+    assertFalse(TinyLfuAdmissionFilter.isFiltered(
+        new BlockCacheKey("f", 0, true, BlockType.DATA), true));
+    assertFalse(TinyLfuAdmissionFilter.isFiltered(
+        new BlockCacheKey("f", 0, true, BlockType.LEAF_INDEX), false));
+    assertFalse(TinyLfuAdmissionFilter.isFiltered(
+        new BlockCacheKey("f", 0, true, BlockType.BLOOM_CHUNK), false));
+  }
+
+  @Test
+  public void testFrequency() {
+    TinyLfuAdmissionFilter filter = new TinyLfuAdmissionFilter(1000, 10, 2);
+    BlockCacheKey hot = new BlockCacheKey("hot", 0);
+    BlockCacheKey cold = new BlockCacheKey("cold", 0);
+    assertEquals(0, filter.frequency(hot));
+    assertFalse(filter.admit(hot));
+    filter.record(hot);
+    assertEquals(1, filter.frequency(hot));
+    assertFalse(filter.admit(hot));
+    filter.record(hot);
+    assertEquals(2, filter.frequency(hot));
+    assertTrue(filter.admit(hot));
+    // the counters saturate
+    for (int i = 0; i < 100; i++) {
+      filter.record(hot);
+    }
+    assertEquals(15, filter.frequency(hot));
+    filter.record(cold);
+    assertEquals(1, filter.frequency(cold));
+    assertFalse(filter.admit(cold));
+  }
+
+  @Test
+  public void testAging() {
+    TinyLfuAdmissionFilter filter = new TinyLfuAdmissionFilter(100, 1, 2);
+    BlockCacheKey hot = new BlockCacheKey("hot", 0);
+    for (int i = 0; i < 8; i++) {
+      filter.record(hot);
+    }
+    assertEquals(8, filter.frequency(hot));
+    // as many other requests as the sample size halve the counters
+    for (int i = 0; i < filter.getSampleSize() - 8; i++) {
+      filter.record(new BlockCacheKey("other", i));
+    }
+    assertEquals(4, filter.frequency(hot));
+    assertTrue(filter.admit(hot));
+    for (int i = 0; i < 2 * filter.getSampleSize(); i++) {
+      filter.record(new BlockCacheKey("more", i));
+    }
+    assertFalse(filter.admit(hot));
+  }
+}
@@ -19,6 +19,7 @@
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.FileNotFoundException;
@@ -32,6 +33,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
 import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.TinyLfuAdmissionFilter;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.BucketSizeInfo;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.IndexStatistics;
 import org.apache.hadoop.hbase.testclassification.IOTests;
@@ -220,4 +222,60 @@ public class TestBucketCache {
     assertTrue(cache.getCurrentSize() > 0L);
     assertTrue("We should have a block!", cache.iterator().hasNext());
   }
+
+  @Test
+  public void testGetCachedOffsets() throws Exception {
+    for (long offset : new long[] { 300, 100, 200 }) {
+      cacheAndWaitUntilFlushedToBucket(cache, new BlockCacheKey("a", offset),
+          new CacheTestUtils.ByteArrayCacheable(new byte[10]));
+    }
+    cacheAndWaitUntilFlushedToBucket(cache, new BlockCacheKey("b", 150),
+        new CacheTestUtils.ByteArrayCacheable(new byte[10]));
+    assertEquals(Arrays.asList(100L, 200L, 300L), cache.getCachedOffsets("a"));
+    assertEquals(Arrays.asList(150L), cache.getCachedOffsets("b"));
+    assertTrue(cache.getCachedOffsets("c").isEmpty());
+  }
+
+  @Test
+  public void testAdmissionFilter() throws Exception {
+    // 4 buckets of 4 items each: the cache is full from the 14th item on, and frees space from
+    // the 16th on
+    int bucketSize = 8 * 1024 + 1024;
+    BucketCache cache = new BucketCache(ioEngineName, 16 * bucketSize, bucketSize,
+        new int[] { bucketSize }, 1, writerQLen, persistencePath);
+    cache.setAdmissionFilter(new TinyLfuAdmissionFilter(100, 10, 2));
+    try {
+      for (int i = 0; i < 14; i++) {
+        cacheAndWaitUntilFlushedToBucket(cache, new BlockCacheKey("fill", i),
+            new CacheTestUtils.ByteArrayCacheable(new byte[9000]));
+      }
+      assertEquals(0, cache.getStats().getAdmittedCount());
+      assertEquals(0, cache.getStats().getRejectedCount());
+
+      // A block never requested is not let in once the cache is full
+      BlockCacheKey rejected = new BlockCacheKey("rejected", 0);
+      cache.cacheBlock(rejected, new CacheTestUtils.ByteArrayCacheable(new byte[1000]));
+      assertEquals(1, cache.getStats().getRejectedCount());
+      assertNull(cache.getBlock(rejected, true, false, true));
+
+      // unless it is cached ahead of any request, on write or by prefetch
+      BlockCacheKey ahead = new BlockCacheKey("ahead", 0);
+      cache.cacheBlockAhead(ahead, new CacheTestUtils.ByteArrayCacheable(new byte[1000]), false,
+          false);
+      while (!cache.backingMap.containsKey(ahead)) {
+        Thread.sleep(100);
+      }
+      assertEquals(1, cache.getStats().getRejectedCount());
+
+      // A block requested again is let in
+      BlockCacheKey admitted = new BlockCacheKey("admitted", 0);
+      assertNull(cache.getBlock(admitted, true, false, true));
+      assertNull(cache.getBlock(admitted, true, false, true));
+      cache.cacheBlock(admitted, new CacheTestUtils.ByteArrayCacheable(new byte[1000]));
+      assertEquals(1, cache.getStats().getAdmittedCount());
+      assertEquals(1, cache.getStats().getRejectedCount());
+    } finally {
+      cache.shutdown();
+    }
+  }
 }
@@ -0,0 +1,165 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.ByteArrayCacheable;
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.Bucket;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests moving the blocks of the sparsely used buckets of a {@link BucketCache}.
+ */
+@Category({IOTests.class, SmallTests.class})
+public class TestBucketCacheCompaction {
+
+  private static final int SMALL_SIZE = 5 * 1024;
+  private static final int LARGE_SIZE = 9 * 1024;
+  private static final long BUCKET_CAPACITY = BucketAllocator.FEWEST_ITEMS_IN_BUCKET * LARGE_SIZE;
+  private static final int BUCKETS = 8;
+  // all the items of the large size, which has all the buckets but the first one
+  private static final int BLOCK_COUNT = (BUCKETS - 1) * BucketAllocator.FEWEST_ITEMS_IN_BUCKET;
+
+  private BucketCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    cache = new BucketCache("heap", BUCKETS * BUCKET_CAPACITY, 8 * 1024,
+        new int[] { SMALL_SIZE, LARGE_SIZE }, 1, 64, null);
+  }
+
+  @After
+  public void tearDown() {
+    cache.shutdown();
+  }
+
+  private static BlockCacheKey key(int i) {
+    return new BlockCacheKey("hfile", i);
+  }
+
+  private static byte[] content(int i) {
+    byte[] buf = new byte[8000];
+    for (int j = 0; j < buf.length; j++) {
+      buf[j] = (byte) (i * 3 + j);
+    }
+    return buf;
+  }
+
+  private static byte[] serialize(Cacheable block) {
+    ByteBuffer bb = ByteBuffer.allocate(block.getSerializedLength());
+    block.serialize(bb);
+    return bb.array();
+  }
+
+  private void cacheBlocks() throws InterruptedException {
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      cache.cacheBlock(key(i), new ByteArrayCacheable(content(i)));
+      while (!cache.backingMap.containsKey(key(i))) {
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  /**
+   * Leaves each bucket of the large size half used
+   */
+  private void evictHalf() {
+    int[] evicted = new int[BUCKETS];
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      int bucket = (int) (cache.backingMap.get(key(i)).offset() / BUCKET_CAPACITY);
+      if (evicted[bucket]++ < BucketAllocator.FEWEST_ITEMS_IN_BUCKET / 2) {
+        assertTrue(cache.evictBlock(key(i)));
+      }
+    }
+  }
+
+  @Test
+  public void testCompactBuckets() throws Exception {
+    cacheBlocks();
+    // nothing to free, as no bucket is sparsely used
+    assertEquals(0, cache.compactBuckets(0.5f));
+    evictHalf();
+    BucketAllocator allocator = cache.getAllocator();
+    long usedSize = allocator.getUsedSize();
+    assertEquals(BLOCK_COUNT / 2 * LARGE_SIZE, allocator.getFragmentedFreeSize());
+    assertEquals(usedSize - cache.getRealCacheSize(), cache.getWastedSize());
+    // only the buckets used at most at the given ratio are drained
+    assertEquals(0, cache.compactBuckets(0.25f));
+
+    int moved = cache.compactBuckets(0.5f);
+    assertEquals(BucketAllocator.FEWEST_ITEMS_IN_BUCKET / 2, moved);
+    assertEquals(moved, ((BucketCacheStats) cache.getStats()).getMovedBlockCount());
+    assertEquals(usedSize, allocator.getUsedSize());
+    // the free items of the freed bucket, and those the blocks were moved to
+    assertEquals((BLOCK_COUNT / 2 - 2 * moved) * LARGE_SIZE, allocator.getFragmentedFreeSize());
+    // the freed bucket can be taken by the other size
+    assertEquals(0, cache.compactBuckets(0.5f));
+    for (int i = 0; i < 2 * BucketAllocator.FEWEST_ITEMS_IN_BUCKET; i++) {
+      allocator.allocateBlock(SMALL_SIZE);
+    }
+
+    int cached = 0;
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      if (cache.backingMap.containsKey(key(i))) {
+        Cacheable block = cache.getBlock(key(i), false, false, true);
+        assertNotNull(block);
+        assertArrayEquals(serialize(new ByteArrayCacheable(content(i))), serialize(block));
+        cached++;
+      } else {
+        assertNull(cache.getBlock(key(i), false, false, true));
+      }
+    }
+    assertEquals(BLOCK_COUNT / 2, cached);
+  }
+
+  @Test
+  public void testDraining() throws Exception {
+    cacheBlocks();
+    evictHalf();
+    BucketAllocator allocator = cache.getAllocator();
+    Bucket bucket = allocator.startDraining(0.5f);
+    assertNotNull(bucket);
+    // no block is allocated in a drained bucket
+    for (int i = 0; i < BLOCK_COUNT / 2 - BucketAllocator.FEWEST_ITEMS_IN_BUCKET / 2; i++) {
+      long offset = allocator.allocateBlock(LARGE_SIZE);
+      assertFalse(offset >= bucket.getBaseOffset()
+          && offset < bucket.getBaseOffset() + BUCKET_CAPACITY);
+    }
+    allocator.stopDraining(bucket);
+    assertTrue(bucket.hasFreeSpace());
+    long offset = allocator.allocateBlock(LARGE_SIZE);
+    assertEquals(bucket.getBaseOffset(), offset - offset % BUCKET_CAPACITY);
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.ByteArrayCacheable;
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.PendingRead;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests reading the blocks of a {@link BucketCache} ahead of their requests.
+ */
+@Category({IOTests.class, SmallTests.class})
+public class TestBucketCacheReadAhead {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final long CAPACITY = 32 * 1024 * 1024;
+  private static final int BLOCK_SIZE = 8 * 1024;
+  private static final int BLOCK_COUNT = 20;
+
+  private File dataFile;
+  private BucketCache cache;
+
+  @Before
+  public void setUp() throws IOException, InterruptedException {
+    File dir = new File(TEST_UTIL.getDataTestDir("TestBucketCacheReadAhead").toString());
+    assertTrue(dir.isDirectory() || dir.mkdirs());
+    dataFile = new File(dir, "bucket.cache");
+    cache = new BucketCache("file:" + dataFile.getPath(), CAPACITY, BLOCK_SIZE, null, 1, 64,
+        null);
+    // the blocks are written in order, in adjacent slots of the same bucket size
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      cache.cacheBlock(key(i), new ByteArrayCacheable(content(i)));
+      while (!cache.backingMap.containsKey(key(i))) {
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  @After
+  public void tearDown() {
+    cache.shutdown();
+    dataFile.delete();
+  }
+
+  private static BlockCacheKey key(int i) {
+    return new BlockCacheKey("hfile", i * BLOCK_SIZE);
+  }
+
+  private static byte[] content(int i) {
+    byte[] buf = new byte[BLOCK_SIZE - 100];
+    for (int j = 0; j < buf.length; j++) {
+      buf[j] = (byte) (i * 7 + j);
+    }
+    return buf;
+  }
+
+  private static byte[] serialize(Cacheable block) {
+    ByteBuffer bb = ByteBuffer.allocate(block.getSerializedLength());
+    block.serialize(bb);
+    return bb.array();
+  }
+
+  private static void assertBlock(int i, Cacheable block) {
+    assertNotNull("block " + i, block);
+    assertArrayEquals(serialize(new ByteArrayCacheable(content(i))), serialize(block));
+  }
+
+  private BucketCacheStats getStats() {
+    return (BucketCacheStats) cache.getStats();
+  }
+
+  @Test
+  public void testReadAhead() throws Exception {
+    cache.startReaderThreads(2);
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      cache.readAhead(key(i));
+      assertBlock(i, cache.getBlock(key(i), true, false, true));
+    }
+    assertEquals(BLOCK_COUNT, getStats().getReadAheadCount());
+    assertEquals(BLOCK_COUNT, getStats().getReadAheadHitCount());
+    assertEquals(BLOCK_COUNT, getStats().getHitCount());
+    // a block is read ahead once, and requested afterwards from the cache as usual
+    assertBlock(0, cache.getBlock(key(0), true, false, true));
+    assertEquals(BLOCK_COUNT, getStats().getReadAheadHitCount());
+    // nothing to read for the blocks which are not cached
+    cache.readAhead(new BlockCacheKey("hfile", -1));
+    assertEquals(BLOCK_COUNT, getStats().getReadAheadCount());
+    getStats().reset();
+    assertEquals(0, getStats().getReadAheadCount());
+    assertEquals(0, getStats().getReadAheadHitCount());
+  }
+
+  @Test
+  public void testNoReaderThreads() throws Exception {
+    cache.readAhead(key(0));
+    assertBlock(0, cache.getBlock(key(0), true, false, true));
+    assertEquals(0, getStats().getReadAheadCount());
+    assertEquals(1, getStats().getIOReadCount());
+  }
+
+  @Test
+  public void testBatchedRead() throws Exception {
+    BucketCache.ReaderThread reader = cache.new ReaderThread(
+        new ArrayBlockingQueue<PendingRead>(BLOCK_COUNT));
+    List<PendingRead> reads = new ArrayList<PendingRead>();
+    // out of order, and with a block evicted in between
+    for (int i = BLOCK_COUNT - 1; i >= 0; i--) {
+      reads.add(new PendingRead(key(i), cache.backingMap.get(key(i))));
+    }
+    cache.evictBlock(key(5));
+    reader.doRead(reads);
+    // the blocks of adjacent slots are read at once
+    assertEquals(1, getStats().getIOReadCount());
+    for (PendingRead read : reads) {
+      int i = (int) (read.key.getOffset() / BLOCK_SIZE);
+      if (i == 5) {
+        assertTrue(!read.block.isDone() || read.get() == null);
+      } else {
+        assertBlock(i, read.get());
+      }
+    }
+  }
+}
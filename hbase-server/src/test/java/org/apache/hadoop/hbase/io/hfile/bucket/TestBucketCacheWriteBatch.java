@@ -0,0 +1,157 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.ByteArrayCacheable;
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.RAMQueueEntry;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests gathering the writes of the blocks of a {@link BucketCache}, and waiting for room in its
+ * writer queues.
+ */
+@Category({IOTests.class, SmallTests.class})
+public class TestBucketCacheWriteBatch {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final long CAPACITY = 32 * 1024 * 1024;
+  private static final int BLOCK_SIZE = 8 * 1024;
+  private static final int BLOCK_COUNT = 20;
+
+  private File dataFile;
+  private BucketCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    File dir = new File(TEST_UTIL.getDataTestDir("TestBucketCacheWriteBatch").toString());
+    assertTrue(dir.isDirectory() || dir.mkdirs());
+    dataFile = new File(dir, "bucket.cache");
+    cache = new BucketCache("file:" + dataFile.getPath(), CAPACITY, BLOCK_SIZE, null, 2, 1,
+        null);
+  }
+
+  @After
+  public void tearDown() {
+    cache.shutdown();
+    dataFile.delete();
+  }
+
+  private static BlockCacheKey key(int i) {
+    return new BlockCacheKey("hfile", i * BLOCK_SIZE);
+  }
+
+  private static byte[] content(int i) {
+    byte[] buf = new byte[BLOCK_SIZE - 100 + i];
+    for (int j = 0; j < buf.length; j++) {
+      buf[j] = (byte) (i * 5 + j);
+    }
+    return buf;
+  }
+
+  private static byte[] serialize(Cacheable block) {
+    ByteBuffer bb = ByteBuffer.allocate(block.getSerializedLength());
+    block.serialize(bb);
+    return bb.array();
+  }
+
+  private BucketCacheStats getStats() {
+    return (BucketCacheStats) cache.getStats();
+  }
+
+  @Test
+  public void testBatchedWrite() throws Exception {
+    BucketCache.WriterThread writer = cache.new WriterThread(
+        new ArrayBlockingQueue<RAMQueueEntry>(BLOCK_COUNT));
+    List<RAMQueueEntry> entries = new ArrayList<RAMQueueEntry>();
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      RAMQueueEntry entry = new RAMQueueEntry(key(i), new ByteArrayCacheable(content(i)), i,
+          false);
+      cache.ramCache.put(key(i), entry);
+      entries.add(entry);
+    }
+    writer.doDrain(entries);
+    // the blocks are allocated next to each other, and written at once
+    assertEquals(1, getStats().getIOWriteCount());
+    assertEquals(BLOCK_COUNT, getStats().getBlocksPerIOWrite(), 0);
+    assertEquals(0, cache.ramCache.size());
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      Cacheable block = cache.getBlock(key(i), false, false, true);
+      assertNotNull("block " + i, block);
+      assertArrayEquals(serialize(new ByteArrayCacheable(content(i))), serialize(block));
+    }
+  }
+
+  @Test
+  public void testWriterWait() throws Exception {
+    cache.stopWriterThreads();
+    // the blocks spill over to the other queue when theirs is full
+    cache.cacheBlock(key(0), new ByteArrayCacheable(content(0)));
+    cache.cacheBlock(key(1), new ByteArrayCacheable(content(1)));
+    assertEquals(2, cache.getWriterQueueSize());
+    // dropped right away when the queues are full
+    cache.cacheBlock(key(2), new ByteArrayCacheable(content(2)));
+    assertEquals(1, getStats().getFailedInserts());
+    assertEquals(0, getStats().getWriterWaitCount());
+    assertFalse(cache.ramCache.containsKey(key(2)));
+
+    cache.setWriterWaitTime(10000);
+    Thread drainer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+          for (int i = 0; i < cache.writerQueues.size(); i++) {
+            cache.writerQueues.get(i).clear();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    drainer.start();
+    // waits for room in the queue rather than dropping the block
+    cache.cacheBlock(key(2), new ByteArrayCacheable(content(2)));
+    drainer.join();
+    assertEquals(1, getStats().getFailedInserts());
+    assertEquals(1, getStats().getWriterWaitCount());
+    assertTrue(cache.ramCache.containsKey(key(2)));
+    assertEquals(1, cache.getWriterQueueSize());
+  }
+}
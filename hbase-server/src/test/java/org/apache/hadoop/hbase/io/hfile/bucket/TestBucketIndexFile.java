@@ -0,0 +1,260 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.ByteArrayCacheable;
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the persistence of the index of a {@link BucketCache} backed by a file.
+ */
+@Category({IOTests.class, SmallTests.class})
+public class TestBucketIndexFile {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final long CAPACITY = 32 * 1024 * 1024;
+  private static final int BLOCK_SIZE = 8 * 1024;
+  private static final int BLOCK_COUNT = 50;
+
+  private File dataFile;
+  private File indexFile;
+
+  @Before
+  public void setUp() throws IOException {
+    File dir = new File(TEST_UTIL.getDataTestDir("TestBucketIndexFile").toString());
+    assertTrue(dir.isDirectory() || dir.mkdirs());
+    dataFile = new File(dir, "bucket.cache");
+    indexFile = new File(dir, "bucket.persistence");
+  }
+
+  @After
+  public void tearDown() {
+    dataFile.delete();
+    indexFile.delete();
+  }
+
+  private BucketCache createCache() throws IOException {
+    return new BucketCache("file:" + dataFile.getPath(), CAPACITY, BLOCK_SIZE, null, 1, 64,
+        indexFile.getPath());
+  }
+
+  private static BlockCacheKey key(int i) {
+    return new BlockCacheKey("hfile-" + (i % 5), i * BLOCK_SIZE);
+  }
+
+  private static byte[] content(int i) {
+    byte[] buf = new byte[BLOCK_SIZE / 2 + i];
+    for (int j = 0; j < buf.length; j++) {
+      buf[j] = (byte) (i + j);
+    }
+    return buf;
+  }
+
+  private static void cacheBlocks(BucketCache cache) throws InterruptedException {
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      cache.cacheBlock(key(i), new ByteArrayCacheable(content(i)));
+    }
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      while (!cache.backingMap.containsKey(key(i))) {
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  private static void assertCached(BucketCache cache, int i) {
+    Cacheable block = cache.getBlock(key(i), false, false, true);
+    assertNotNull("block " + i, block);
+    assertArrayEquals(serialize(new ByteArrayCacheable(content(i))), serialize(block));
+  }
+
+  private static byte[] serialize(Cacheable block) {
+    ByteBuffer bb = ByteBuffer.allocate(block.getSerializedLength());
+    block.serialize(bb);
+    return bb.array();
+  }
+
+  @Test
+  public void testRestoreAfterShutdown() throws Exception {
+    BucketCache cache = createCache();
+    cacheBlocks(cache);
+    long size = cache.getRealCacheSize();
+    cache.shutdown();
+    assertTrue(BucketIndexFile.isIndexFile(indexFile));
+
+    cache = createCache();
+    try {
+      assertEquals(BLOCK_COUNT, cache.getBlockCount());
+      assertEquals(size, cache.getRealCacheSize());
+      for (int i = 0; i < BLOCK_COUNT; i++) {
+        assertCached(cache, i);
+      }
+      // the restored blocks are evicted along with their file
+      assertEquals(BLOCK_COUNT / 5, cache.evictBlocksByHfileName("hfile-1"));
+      // the space of the restored blocks is allocated, new blocks do not overwrite them
+      for (int i = BLOCK_COUNT; i < 2 * BLOCK_COUNT; i++) {
+        cache.cacheBlock(key(i), new ByteArrayCacheable(content(i)));
+        while (!cache.backingMap.containsKey(key(i))) {
+          Thread.sleep(10);
+        }
+      }
+      for (int i = 0; i < 2 * BLOCK_COUNT; i++) {
+        if (i % 5 != 1) {
+          assertCached(cache, i);
+        }
+      }
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testPeriodicPersistence() throws Exception {
+    BucketCache cache = createCache();
+    try {
+      cacheBlocks(cache);
+      cache.schedulePersistence(100);
+      while (!indexFile.exists()) {
+        Thread.sleep(10);
+      }
+      BucketIndexFile.Contents contents = BucketIndexFile.read(indexFile, CAPACITY,
+          FileIOEngine.class.getName());
+      assertEquals(BLOCK_COUNT, contents.backingMap.size());
+      for (int i = 0; i < BLOCK_COUNT; i++) {
+        BucketEntry entry = contents.backingMap.get(key(i));
+        assertNotNull(entry);
+        assertTrue(entry.isUnverified());
+        assertEquals(cache.backingMap.get(key(i)).offset(), entry.offset());
+        assertEquals(cache.backingMap.get(key(i)).getChecksum(), entry.getChecksum());
+      }
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testStaleBlock() throws Exception {
+    BucketCache cache = createCache();
+    cacheBlocks(cache);
+    long staleOffset = cache.backingMap.get(key(3)).offset();
+    cache.shutdown();
+
+    // the space of a block is reused once the index is persisted
+    FileIOEngine engine = new FileIOEngine(dataFile.getPath(), CAPACITY);
+    try {
+      engine.write(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }), staleOffset);
+    } finally {
+      engine.shutdown();
+    }
+
+    cache = createCache();
+    try {
+      assertEquals(BLOCK_COUNT, cache.getBlockCount());
+      assertNull(cache.getBlock(key(3), false, false, true));
+      assertFalse(cache.backingMap.containsKey(key(3)));
+      assertEquals(BLOCK_COUNT - 1, cache.getBlockCount());
+      for (int i = 0; i < BLOCK_COUNT; i++) {
+        if (i != 3) {
+          assertCached(cache, i);
+        }
+      }
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testCorruptIndex() throws Exception {
+    BucketCache cache = createCache();
+    cacheBlocks(cache);
+    cache.shutdown();
+
+    RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+    try {
+      raf.seek(raf.length() / 2);
+      int b = raf.read();
+      raf.seek(raf.length() / 2);
+      raf.write(b ^ 0xff);
+    } finally {
+      raf.close();
+    }
+    try {
+      BucketIndexFile.read(indexFile, CAPACITY, FileIOEngine.class.getName());
+      fail("Corrupt index read");
+    } catch (IOException e) {
+      // expected
+    }
+    cache = createCache();
+    try {
+      assertEquals(0, cache.getBlockCount());
+      assertNull(cache.getBlock(key(0), false, false, true));
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testMismatchedCapacity() throws Exception {
+    BucketCache cache = createCache();
+    cacheBlocks(cache);
+    cache.shutdown();
+    try {
+      BucketIndexFile.read(indexFile, 2 * CAPACITY, FileIOEngine.class.getName());
+      fail("Index of another cache read");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testChecksumOfDirectBuffer() throws Exception {
+    // larger than the chunk the direct buffers are copied through
+    byte[] data = new byte[20000];
+    new Random(42).nextBytes(data);
+    ByteBuffer heap = ByteBuffer.wrap(data);
+    ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 1);
+    direct.put((byte) 1).put(data).position(1);
+    int expected = BucketIndexFile.checksum(new SingleByteBuff(heap));
+    assertEquals(expected, BucketIndexFile.checksum(new SingleByteBuff(direct)));
+    assertEquals(1, direct.position());
+  }
+}
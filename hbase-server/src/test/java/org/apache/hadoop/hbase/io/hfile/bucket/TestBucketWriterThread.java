@@ -137,7 +137,7 @@ public class TestBucketWriterThread {
     RAMQueueEntry rqe = q.remove();
     RAMQueueEntry spiedRqe = Mockito.spy(rqe);
     Mockito.doThrow(new IOException("Mocked!")).when(spiedRqe).
-      writeToCache((IOEngine)Mockito.any(), (BucketAllocator)Mockito.any(),
+      writeToCache((BucketWriter)Mockito.any(), (BucketAllocator)Mockito.any(),
         (UniqueIndexMap<Integer>)Mockito.any(), (AtomicLong)Mockito.any());
     this.q.add(spiedRqe);
     doDrainOfOneEntry(bc, wt, q);
@@ -160,7 +160,7 @@ public class TestBucketWriterThread {
     BucketEntry mockedBucketEntry = Mockito.mock(BucketEntry.class);
     Mockito.doThrow(cfe).
       doReturn(mockedBucketEntry).
-      when(spiedRqe).writeToCache((IOEngine)Mockito.any(), (BucketAllocator)Mockito.any(),
+      when(spiedRqe).writeToCache((BucketWriter)Mockito.any(), (BucketAllocator)Mockito.any(),
         (UniqueIndexMap<Integer>)Mockito.any(), (AtomicLong)Mockito.any());
     this.q.add(spiedRqe);
     doDrainOfOneEntry(bc, wt, q);
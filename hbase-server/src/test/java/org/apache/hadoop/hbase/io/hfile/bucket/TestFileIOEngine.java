@@ -18,7 +18,11 @@
  */
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -65,4 +69,77 @@ public class TestFileIOEngine {
     }
 
   }
+
+  @Test
+  public void testStripedFiles() throws IOException {
+    long stripeSize = 64 * 1024;
+    long capacity = 10 * stripeSize;
+    String[] filePaths = { "testStripedFiles-0", "testStripedFiles-1", "testStripedFiles-2" };
+    FileIOEngine fileIOEngine = new FileIOEngine(capacity, stripeSize, filePaths);
+    try {
+      // the stripes go round the files
+      assertEquals(0, fileIOEngine.getFileIndex(0));
+      assertEquals(1, fileIOEngine.getFileIndex(stripeSize));
+      assertEquals(0, fileIOEngine.getFileIndex(3 * stripeSize + 5));
+      assertEquals(stripeSize + 5, fileIOEngine.getFileOffset(3 * stripeSize + 5));
+      for (String filePath : filePaths) {
+        assertEquals(4 * stripeSize, new File(filePath).length());
+      }
+      // a buffer across stripes is split between the files
+      byte[] data1 = new byte[(int) stripeSize + 1000];
+      for (int j = 0; j < data1.length; ++j) {
+        data1[j] = (byte) (Math.random() * 255);
+      }
+      long offset = 4 * stripeSize - 500;
+      fileIOEngine.write(ByteBuffer.wrap(data1), offset);
+      BufferGrabbingDeserializer deserializer = new BufferGrabbingDeserializer();
+      fileIOEngine.read(offset, data1.length, deserializer);
+      byte[] data2 = new byte[data1.length];
+      deserializer.getDeserializedByteBuff().get(data2);
+      assertArrayEquals(data1, data2);
+    } finally {
+      fileIOEngine.shutdown();
+      for (String filePath : filePaths) {
+        new File(filePath).delete();
+      }
+    }
+  }
+
+  @Test
+  public void testFailedFile() throws IOException {
+    long stripeSize = 64 * 1024;
+    String[] filePaths = { "testFailedFile-0", "testFailedFile-1" };
+    FileIOEngine fileIOEngine = new FileIOEngine(4 * stripeSize, stripeSize, filePaths);
+    try {
+      fileIOEngine.fileChannels[1].close();
+      try {
+        fileIOEngine.write(ByteBuffer.wrap(new byte[10]), stripeSize);
+        fail("Write to a closed file");
+      } catch (IOException e) {
+        // expected
+      }
+      // only the stripes of the failed file are no longer used
+      assertFalse(fileIOEngine.isFailed(0));
+      assertTrue(fileIOEngine.isFailed(stripeSize));
+      assertFalse(fileIOEngine.isFailed(2 * stripeSize));
+      assertTrue(fileIOEngine.isFailed(3 * stripeSize + 10));
+      fileIOEngine.write(ByteBuffer.wrap(new byte[10]), 2 * stripeSize);
+      fileIOEngine.sync();
+
+      BucketAllocator allocator = new BucketAllocator(4 * stripeSize,
+          new int[] { (int) stripeSize / BucketAllocator.FEWEST_ITEMS_IN_BUCKET });
+      long totalSize = allocator.getTotalSize();
+      assertEquals(2, allocator.retireFailedBuckets(fileIOEngine));
+      assertEquals(0, allocator.retireFailedBuckets(fileIOEngine));
+      assertEquals(totalSize / 2, allocator.getTotalSize());
+      for (int i = 0; i < BucketAllocator.FEWEST_ITEMS_IN_BUCKET * 2; i++) {
+        assertFalse(fileIOEngine.isFailed(allocator.allocateBlock(100)));
+      }
+    } finally {
+      fileIOEngine.shutdown();
+      for (String filePath : filePaths) {
+        new File(filePath).delete();
+      }
+    }
+  }
 }
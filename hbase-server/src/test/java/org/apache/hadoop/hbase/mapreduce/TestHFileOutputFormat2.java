@@ -50,6 +50,7 @@ import org.apache.hadoop.hbase.CategoryBasedTimeout;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.CompatibilitySingletonFactory;
+import org.apache.hadoop.hbase.CompoundConfiguration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HColumnDescriptor;
@@ -88,6 +89,7 @@ import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.regionserver.TimeRangeTracker;
 import org.apache.hadoop.hbase.testclassification.LargeTests;
 import org.apache.hadoop.hbase.testclassification.VerySlowMapReduceTests;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.FSUtils;
 import org.apache.hadoop.hbase.util.Threads;
@@ -818,6 +820,66 @@ public class TestHFileOutputFormat2  {
     return familyToBloomType;
   }
 
+  /**
+   * Test that the parameter of a row prefix bloom filter set on the column family
+   * is serialized into the job configuration and used by the RecordWriter.
+   */
+  @Test
+  public void testWritingRowPrefixBloomParam() throws Exception {
+    Configuration conf = new Configuration(this.util.getConfiguration());
+    HTableDescriptor htd = new HTableDescriptor(TABLE_NAME);
+    htd.addFamily(new HColumnDescriptor("fixed")
+        .setBloomFilterType(BloomType.ROWPREFIX_FIXED_LENGTH)
+        .setConfiguration(BloomFilterUtil.PREFIX_LENGTH_KEY, "4"));
+    htd.addFamily(new HColumnDescriptor("delimited&=")
+        .setBloomFilterType(BloomType.ROWPREFIX_DELIMITED)
+        .setConfiguration(BloomFilterUtil.DELIMITER_KEY, "#"));
+    htd.addFamily(new HColumnDescriptor("row").setBloomFilterType(BloomType.ROW));
+    HFileOutputFormat2.configureBloomType(htd, conf);
+    HFileOutputFormat2.configureBloomParam(htd, conf);
+
+    Map<byte[], String> bloomParamMap = HFileOutputFormat2.createFamilyBloomParamMap(conf);
+    assertEquals(2, bloomParamMap.size());
+    assertEquals("4", bloomParamMap.get(Bytes.toBytes("fixed")));
+    assertEquals("#", bloomParamMap.get(Bytes.toBytes("delimited&=")));
+
+    RecordWriter<ImmutableBytesWritable, Cell> writer = null;
+    TaskAttemptContext context = null;
+    Path dir = util.getDataTestDir("WritingRowPrefixBloomParam");
+    try {
+      Job job = new Job(conf);
+      FileOutputFormat.setOutputPath(job, dir);
+      context = createTestTaskAttemptContext(job);
+      HFileOutputFormat2 hof = new HFileOutputFormat2();
+      writer = hof.getRecordWriter(context);
+      final byte[] row = Bytes.toBytes("row#1");
+      for (HColumnDescriptor hcd : htd.getFamilies()) {
+        writer.write(new ImmutableBytesWritable(row),
+            new KeyValue(row, hcd.getName(), row, row));
+      }
+      writer.close(context);
+      writer = null;
+
+      FileSystem fs = dir.getFileSystem(conf);
+      for (HColumnDescriptor hcd : htd.getFamilies()) {
+        FileStatus[] files = fs.listStatus(new Path(dir, hcd.getNameAsString()));
+        assertEquals(1, files.length);
+        HFile.Reader reader = HFile.createReader(fs, files[0].getPath(), new CacheConfig(conf),
+            conf);
+        Map<byte[], byte[]> fileInfo = reader.loadFileInfo();
+        assertEquals(hcd.getBloomFilterType().toString(),
+            Bytes.toString(fileInfo.get(StoreFile.BLOOM_FILTER_TYPE_KEY)));
+        byte[] bloomParam = BloomFilterUtil.getBloomFilterParam(hcd.getBloomFilterType(),
+            new CompoundConfiguration().add(conf).addStringMap(hcd.getConfiguration()));
+        assertTrue(Bytes.equals(bloomParam, fileInfo.get(StoreFile.BLOOM_FILTER_PARAM_KEY)));
+        reader.close();
+      }
+    } finally {
+      if (writer != null && context != null) writer.close(context);
+      dir.getFileSystem(conf).delete(dir, true);
+    }
+  }
+
   /**
    * Test for {@link HFileOutputFormat2#configureBlockSize(org.apache.hadoop.hbase.client.Table,
    * Configuration)} and {@link HFileOutputFormat2#createFamilyBlockSizeMap
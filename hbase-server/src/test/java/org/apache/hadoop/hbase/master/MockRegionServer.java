@@ -27,6 +27,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -670,6 +671,16 @@ ClientProtos.ClientService.BlockingInterface, RegionServerServices {
     return null;
   }
 
+  @Override
+  public ThreadPoolExecutor getBlockCompressionPool() {
+    return null;
+  }
+
+  @Override
+  public ThreadPoolExecutor getStoreFlushPool() {
+    return null;
+  }
+
   @Override
   public double getFlushPressure() {
     return 0;
@@ -24,12 +24,16 @@ import java.util.Random;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
 import org.apache.hadoop.hbase.io.hfile.LruBlockCache;
 
 /**
@@ -55,7 +59,7 @@ public class EncodedSeekPerformanceTest {
     numberOfSeeks = DEFAULT_NUMBER_OF_SEEKS;
   }
 
-  private List<Cell> prepareListOfTestSeeks(Path path) throws IOException {
+  private List<Cell> readAllKeyValues(Path path) throws IOException {
     List<Cell> allKeyValues = new ArrayList<Cell>();
 
     // read all of the key values
@@ -72,7 +76,11 @@ public class EncodedSeekPerformanceTest {
     }
 
     storeFile.closeReader(cacheConf.shouldEvictOnClose());
+    clearBlockCache();
+    return allKeyValues;
+  }
 
+  private List<Cell> prepareListOfTestSeeks(List<Cell> allKeyValues) {
     // pick seeks by random
     List<Cell> seeks = new ArrayList<Cell>();
     for (int i = 0; i < numberOfSeeks; ++i) {
@@ -80,12 +88,32 @@ public class EncodedSeekPerformanceTest {
           randomizer.nextInt(allKeyValues.size()));
       seeks.add(keyValue);
     }
-
-    clearBlockCache();
-
     return seeks;
   }
 
+  /**
+   * Writes the key values in a new HFile with the given encoding, in blocks of the default size.
+   */
+  private Path writeEncodedFile(List<Cell> allKeyValues, DataBlockEncoding blockEncoding)
+      throws IOException {
+    HFileContext meta = new HFileContextBuilder()
+        .withBlockSize(HConstants.DEFAULT_BLOCKSIZE)
+        .withDataBlockEncoding(blockEncoding)
+        .withIncludesMvcc(true)
+        .build();
+    StoreFileWriter writer = new StoreFileWriter.Builder(configuration, cacheConf,
+        testingUtility.getTestFileSystem())
+        .withOutputDir(testingUtility.getDataTestDir(blockEncoding.name()))
+        .withComparator(CellComparator.COMPARATOR)
+        .withFileContext(meta)
+        .build();
+    for (Cell cell : allKeyValues) {
+      writer.append(cell);
+    }
+    writer.close();
+    return writer.getPath();
+  }
+
   private void runTest(Path path, DataBlockEncoding blockEncoding,
       List<Cell> seeks) throws IOException {
     // read all of the key values
@@ -113,7 +141,7 @@ public class EncodedSeekPerformanceTest {
     for (Cell keyValue : seeks) {
       scanner.seek(keyValue);
       Cell toVerify = scanner.next();
-      if (!keyValue.equals(toVerify)) {
+      if (!CellUtil.equals(keyValue, toVerify)) {
         System.out.println(String.format("KeyValue doesn't match:\n" + "Orig key: %s\n"
             + "Ret key:  %s", KeyValueUtil.ensureKeyValue(keyValue).getKeyString(), KeyValueUtil
             .ensureKeyValue(toVerify).getKeyString()));
@@ -142,16 +170,18 @@ public class EncodedSeekPerformanceTest {
   }
 
   /**
-   * @param path Path to the HFile which will be used.
+   * @param path Path to the HFile which will be used. Its key values are written again with each
+   *          of the encodings.
    * @param encoders List of encoders which will be used for tests.
    * @throws IOException if there is a bug while reading from disk
    */
   public void runTests(Path path, DataBlockEncoding[] encodings)
       throws IOException {
-    List<Cell> seeks = prepareListOfTestSeeks(path);
+    List<Cell> allKeyValues = readAllKeyValues(path);
+    List<Cell> seeks = prepareListOfTestSeeks(allKeyValues);
 
     for (DataBlockEncoding blockEncoding : encodings) {
-      runTest(path, blockEncoding, seeks);
+      runTest(writeEncodedFile(allKeyValues, blockEncoding), blockEncoding, seeks);
     }
   }
 
@@ -168,7 +198,6 @@ public class EncodedSeekPerformanceTest {
 
     Path path = new Path(args[0]);
 
-    // TODO, this test doesn't work as expected any more. Need to fix.
     EncodedSeekPerformanceTest utility = new EncodedSeekPerformanceTest();
     utility.runTests(path, DataBlockEncoding.values());
 
@@ -100,6 +100,16 @@ public class MetricsRegionWrapperStub implements MetricsRegionWrapper {
     return 2;
   }
 
+  @Override
+  public long getCacheWarmupPercent() {
+    return 100;
+  }
+
+  @Override
+  public long getPrefetchPercent() {
+    return 100;
+  }
+
   @Override
   public long getWriteRequestCount() {
     return 106;
@@ -0,0 +1,98 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of {@link MultiVersionConcurrencyControl} write transactions, as done
+ * by the handlers writing to a single region, from 1 up to a given number of concurrent writers.
+ * Each writer begins a write, spins for a while to simulate applying it to the memstore, then
+ * completes it and waits for it to become visible. Usage:
+ * <pre>
+ * MultiVersionConcurrencyControlBenchmark [maxWriters] [secondsPerRun] [workIterations]
+ * </pre>
+ */
+public class MultiVersionConcurrencyControlBenchmark {
+  private static final int DEFAULT_MAX_WRITERS = 64;
+  private static final int DEFAULT_SECONDS_PER_RUN = 5;
+  private static final int DEFAULT_WORK_ITERATIONS = 100;
+
+  // keeps the simulated work from being optimized away
+  static volatile long sink;
+
+  private static long run(int writers, int seconds, final int workIterations)
+      throws InterruptedException {
+    final MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+    final AtomicBoolean finished = new AtomicBoolean(false);
+    final AtomicLong writes = new AtomicLong();
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[writers];
+    for (int i = 0; i < writers; i++) {
+      threads[i] = new Thread("writer-" + i) {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          long count = 0;
+          long work = 0;
+          while (!finished.get()) {
+            MultiVersionConcurrencyControl.WriteEntry e = mvcc.begin();
+            for (int j = 0; j < workIterations; j++) {
+              work += j ^ e.getWriteNumber();
+            }
+            mvcc.completeAndWait(e);
+            count++;
+          }
+          sink = work;
+          writes.addAndGet(count);
+        }
+      };
+      threads[i].start();
+    }
+    start.countDown();
+    Thread.sleep(seconds * 1000L);
+    finished.set(true);
+    for (Thread t : threads) {
+      t.join();
+    }
+    if (mvcc.getReadPoint() != mvcc.getWritePoint()) {
+      throw new IllegalStateException("Writes left pending: " + mvcc);
+    }
+    return writes.get();
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int maxWriters = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_WRITERS;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS_PER_RUN;
+    int workIterations = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WORK_ITERATIONS;
+    // warm up
+    run(Math.min(4, maxWriters), 1, workIterations);
+    System.out.println("writers\twrites/sec");
+    for (int writers = 1; writers <= maxWriters; writers *= 2) {
+      long writes = run(writers, seconds, workIterations);
+      System.out.println(writers + "\t" + writes / seconds);
+    }
+  }
+}
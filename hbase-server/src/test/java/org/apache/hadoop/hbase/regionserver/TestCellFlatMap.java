@@ -0,0 +1,178 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.SortedSet;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestCellFlatMap extends TestCase {
+  private static final int NUM_OF_CELLS = 4;
+
+  private Cell[] cells;
+  private CellArrayMap cam;
+  private CellSet cs;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    final byte[] one = Bytes.toBytes(15);
+    final byte[] two = Bytes.toBytes(25);
+    final byte[] three = Bytes.toBytes(35);
+    final byte[] four = Bytes.toBytes(45);
+
+    final byte[] f = Bytes.toBytes("f");
+    final byte[] q = Bytes.toBytes("q");
+    final byte[] v = Bytes.toBytes(4);
+
+    final KeyValue kv1 = new KeyValue(one, f, q, 10, v);
+    final KeyValue kv2 = new KeyValue(two, f, q, 20, v);
+    final KeyValue kv3 = new KeyValue(three, f, q, 30, v);
+    final KeyValue kv4 = new KeyValue(four, f, q, 40, v);
+    kv1.setSequenceId(1);
+    kv2.setSequenceId(2);
+    kv3.setSequenceId(3);
+    kv4.setSequenceId(4);
+
+    cells = new Cell[] {kv1, kv2, kv3, kv4};
+    cam = new CellArrayMap(CellComparator.COMPARATOR, cells, 0, NUM_OF_CELLS, false);
+    cs = new CellSet(cam);
+  }
+
+  public void testBasics() throws Exception {
+    assertEquals(NUM_OF_CELLS, cs.size());
+    assertEquals(cells[0], cs.first());
+    assertEquals(cells[NUM_OF_CELLS - 1], cs.last());
+    for (Cell c : cells) {
+      assertTrue(cs.contains(c));
+      assertEquals(c, cs.get(c));
+    }
+    Cell absent = new KeyValue(Bytes.toBytes(20), Bytes.toBytes("f"), Bytes.toBytes("q"), 10,
+        Bytes.toBytes(4));
+    assertFalse(cs.contains(absent));
+    assertNull(cs.get(absent));
+  }
+
+  public void testIterators() throws Exception {
+    int i = 0;
+    for (Cell c : cs) {
+      assertEquals(cells[i++], c);
+    }
+    assertEquals(NUM_OF_CELLS, i);
+
+    Iterator<Cell> desc = cs.descendingIterator();
+    i = NUM_OF_CELLS;
+    while (desc.hasNext()) {
+      assertEquals(cells[--i], desc.next());
+    }
+    assertEquals(0, i);
+  }
+
+  public void testSubSets() throws Exception {
+    // tail set is inclusive
+    SortedSet<Cell> tail = cs.tailSet(cells[1]);
+    assertEquals(NUM_OF_CELLS - 1, tail.size());
+    assertEquals(cells[1], tail.first());
+    assertEquals(cells[NUM_OF_CELLS - 1], tail.last());
+
+    // head set is exclusive
+    SortedSet<Cell> head = cs.headSet(cells[2]);
+    assertEquals(2, head.size());
+    assertEquals(cells[0], head.first());
+    assertEquals(cells[1], head.last());
+
+    // sub sets of sub sets keep the boundaries
+    SortedSet<Cell> middle = cs.tailSet(cells[1]).headSet(cells[3]);
+    assertEquals(2, middle.size());
+    assertEquals(cells[1], middle.first());
+    assertEquals(cells[2], middle.last());
+
+    // anchors which are not present in the set
+    Cell beforeAll = new KeyValue(Bytes.toBytes(5), Bytes.toBytes("f"), Bytes.toBytes("q"), 10,
+        Bytes.toBytes(4));
+    assertEquals(NUM_OF_CELLS, cs.tailSet(beforeAll).size());
+    assertTrue(cs.headSet(beforeAll).isEmpty());
+  }
+
+  public void testNavigation() throws Exception {
+    assertNull(cam.lowerKey(cells[0]));
+    assertEquals(cells[0], cam.floorKey(cells[0]));
+    assertEquals(cells[1], cam.higherKey(cells[0]));
+    assertEquals(cells[2], cam.ceilingKey(cells[2]));
+    assertNull(cam.higherKey(cells[NUM_OF_CELLS - 1]));
+
+    // descending map reverses the order
+    assertEquals(cells[NUM_OF_CELLS - 1], cam.descendingMap().firstKey());
+    assertEquals(cells[0], cam.descendingMap().lastKey());
+    assertEquals(cells[2], cam.descendingMap().higherKey(cells[3]));
+    assertEquals(2, cam.descendingMap().headMap(cells[1], false).size());
+  }
+
+  public void testCellChunkMap() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    // small chunks, so the index spans several chunks and the test cells do not fit
+    conf.setInt(HeapMemStoreLAB.CHUNK_SIZE_KEY, 2 * CellChunkMap.SIZEOF_INDEX_ENTRY + 1);
+    conf.setInt(HeapMemStoreLAB.MAX_ALLOC_KEY, 16);
+    ImmutableSegment segment = SegmentFactory.instance().createImmutableSegment(conf,
+        CellComparator.COMPARATOR, Arrays.asList(cells), 0,
+        ImmutableSegment.Type.ARRAY_MAP_BASED);
+    assertEquals(ImmutableSegment.Type.ARRAY_MAP_BASED, segment.getType());
+
+    // the test cells are too large for the chunks, fall back to array map
+    segment = SegmentFactory.instance().createImmutableSegment(conf,
+        CellComparator.COMPARATOR, Arrays.asList(cells), 0,
+        ImmutableSegment.Type.CHUNK_MAP_BASED);
+    assertEquals(ImmutableSegment.Type.ARRAY_MAP_BASED, segment.getType());
+
+    conf.setInt(HeapMemStoreLAB.CHUNK_SIZE_KEY, 2 * CellChunkMap.SIZEOF_INDEX_ENTRY + 64);
+    conf.setInt(HeapMemStoreLAB.MAX_ALLOC_KEY, 64);
+    segment = SegmentFactory.instance().createImmutableSegment(conf,
+        CellComparator.COMPARATOR, Arrays.asList(cells), 0,
+        ImmutableSegment.Type.CHUNK_MAP_BASED);
+    assertEquals(ImmutableSegment.Type.CHUNK_MAP_BASED, segment.getType());
+    assertEquals(NUM_OF_CELLS, segment.getCellsCount());
+
+    CellSet chunkSet = segment.getCellSet();
+    int i = 0;
+    for (Cell c : chunkSet) {
+      assertTrue(CellUtil.equals(cells[i], c));
+      assertEquals(cells[i].getSequenceId(), c.getSequenceId());
+      assertTrue(CellUtil.matchingValue(cells[i], c));
+      i++;
+    }
+    assertEquals(NUM_OF_CELLS, i);
+    assertTrue(CellUtil.equals(cells[1], chunkSet.get(cells[1])));
+    SortedSet<Cell> tail = chunkSet.tailSet(cells[2]);
+    assertEquals(2, tail.size());
+    assertTrue(CellUtil.equals(cells[2], tail.first()));
+    segment.close();
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.OffheapKeyValue;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestColumnCardinalitySketch extends TestCase {
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] VALUE = Bytes.toBytes("v");
+
+  public void testEstimate() throws Exception {
+    ColumnCardinalitySketch sketch = new ColumnCardinalitySketch();
+    assertEquals(0.0, sketch.estimate());
+    // 1000 distinct columns, each with 3 versions
+    for (int ts = 1; ts <= 3; ts++) {
+      for (int row = 0; row < 100; row++) {
+        for (int q = 0; q < 10; q++) {
+          sketch.add(new KeyValue(Bytes.toBytes(row), FAMILY, Bytes.toBytes(q), ts, VALUE));
+        }
+      }
+    }
+    assertEquals(3000, sketch.getCount());
+    // well within 3 standard errors
+    assertEquals(1000, sketch.estimate(), 300);
+  }
+
+  public void testSmallCardinality() throws Exception {
+    ColumnCardinalitySketch sketch = new ColumnCardinalitySketch();
+    for (int i = 0; i < 5; i++) {
+      sketch.add(new KeyValue(Bytes.toBytes("row" + i), FAMILY, Bytes.toBytes("q"), VALUE));
+      sketch.add(new KeyValue(Bytes.toBytes("row" + i), FAMILY, Bytes.toBytes("q"), VALUE));
+    }
+    assertEquals(10, sketch.getCount());
+    assertEquals(5, Math.round(sketch.estimate()));
+  }
+
+  public void testRowAndQualifierAreDistinguished() throws Exception {
+    ColumnCardinalitySketch sketch = new ColumnCardinalitySketch();
+    sketch.add(new KeyValue(Bytes.toBytes("ab"), FAMILY, Bytes.toBytes("c"), VALUE));
+    sketch.add(new KeyValue(Bytes.toBytes("a"), FAMILY, Bytes.toBytes("bc"), VALUE));
+    assertEquals(2, Math.round(sketch.estimate()));
+  }
+
+  public void testOffheapCells() throws Exception {
+    ColumnCardinalitySketch onheap = new ColumnCardinalitySketch();
+    ColumnCardinalitySketch offheap = new ColumnCardinalitySketch();
+    for (int i = 0; i < 200; i++) {
+      KeyValue kv = new KeyValue(Bytes.toBytes(i), FAMILY, Bytes.toBytes("q"), VALUE);
+      ByteBuffer buf = ByteBuffer.allocateDirect(kv.getLength());
+      buf.put(kv.getBuffer(), kv.getOffset(), kv.getLength());
+      onheap.add(kv);
+      offheap.add(new OffheapKeyValue(buf, 0, kv.getLength(), false, 0));
+    }
+    // the same columns hash the same, wherever they are
+    assertEquals(onheap.estimate(), offheap.estimate());
+    assertEquals(onheap.estimate(),
+        ColumnCardinalitySketch.estimateUnion(Arrays.asList(onheap, offheap)));
+  }
+
+  public void testUnion() throws Exception {
+    ColumnCardinalitySketch first = new ColumnCardinalitySketch();
+    ColumnCardinalitySketch second = new ColumnCardinalitySketch();
+    for (int i = 0; i < 40; i++) {
+      first.add(new KeyValue(Bytes.toBytes(i), FAMILY, Bytes.toBytes("q"), VALUE));
+      second.add(new KeyValue(Bytes.toBytes(i + 20), FAMILY, Bytes.toBytes("q"), VALUE));
+    }
+    assertEquals(60, ColumnCardinalitySketch.estimateUnion(Arrays.asList(first, second)), 12);
+  }
+}
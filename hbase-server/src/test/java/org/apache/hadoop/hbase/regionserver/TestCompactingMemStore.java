@@ -58,10 +58,10 @@ import static org.junit.Assert.assertTrue;
 public class TestCompactingMemStore extends TestDefaultMemStore {
 
   private static final Log LOG = LogFactory.getLog(TestCompactingMemStore.class);
-  private static MemStoreChunkPool chunkPool;
-  private HRegion region;
-  private RegionServicesForStores regionServicesForStores;
-  private HStore store;
+  protected static MemStoreChunkPool chunkPool;
+  protected HRegion region;
+  protected RegionServicesForStores regionServicesForStores;
+  protected HStore store;
 
   //////////////////////////////////////////////////////////////////////////////
   // Helpers
@@ -707,7 +707,7 @@ public class TestCompactingMemStore extends TestDefaultMemStore {
     //assertTrue(tstStr, false);
   }
 
-  private void addRowsByKeys(final AbstractMemStore hmc, String[] keys) {
+  protected void addRowsByKeys(final AbstractMemStore hmc, String[] keys) {
     byte[] fam = Bytes.toBytes("testfamily");
     byte[] qf = Bytes.toBytes("testqualifier");
     long size = hmc.getActive().getSize();
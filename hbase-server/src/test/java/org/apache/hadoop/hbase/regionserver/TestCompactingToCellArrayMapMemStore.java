@@ -0,0 +1,287 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * compacted memstore test case, where the in-memory compaction creates flat (array based)
+ * segments
+ */
+@Category({RegionServerTests.class, MediumTests.class})
+public class TestCompactingToCellArrayMapMemStore extends TestCompactingMemStore {
+
+  // the saving in heap size of a single cell of the test keys, when held in a flat segment
+  private long cellSizeSaving;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(CompactingMemStore.COMPACTING_MEMSTORE_INDEX_KEY,
+        ImmutableSegment.Type.ARRAY_MAP_BASED.name());
+    this.memstore = new CompactingMemStore(conf, CellComparator.COMPARATOR, store,
+        regionServicesForStores);
+    // all the cells added by addRowsByKeys have the same size
+    KeyValue kv = new KeyValue(Bytes.toBytes("A"), Bytes.toBytes("testfamily"),
+        Bytes.toBytes("testqualifier"), System.currentTimeMillis(), Bytes.toBytes("A0"));
+    cellSizeSaving = AbstractMemStore.heapSizeChange(kv, true)
+        - ImmutableSegment.heapSizeChangeForArrayEntry(kv);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Compaction tests
+  //////////////////////////////////////////////////////////////////////////////
+  @Override
+  @Test
+  public void testCompaction1Bucket() throws IOException {
+    String[] keys1 = { "A", "A", "B", "C" }; //A1, A2, B3, C4
+
+    // test 1 bucket
+    addRowsByKeys(memstore, keys1);
+    assertEquals(496, regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    compactAndWait();
+    assertEquals(0, memstore.getSnapshot().getCellsCount());
+    assertEquals(376 - 3 * cellSizeSaving, regionServicesForStores.getGlobalMemstoreTotalSize());
+    assertFlatPipeline(3);
+
+    long size = memstore.getFlushableSize();
+    MemStoreSnapshot snapshot = memstore.snapshot(); // push keys to snapshot
+    region.addAndGetGlobalMemstoreSize(-size);  // simulate flusher
+    ImmutableSegment s = memstore.getSnapshot();
+    assertEquals(ImmutableSegment.Type.ARRAY_MAP_BASED, s.getType());
+    assertEquals(3, s.getCellsCount());
+    assertEquals(0, regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    memstore.clearSnapshot(snapshot.getId());
+  }
+
+  @Override
+  @Test
+  public void testCompaction2Buckets() throws IOException {
+    String[] keys1 = { "A", "A", "B", "C" };
+    String[] keys2 = { "A", "B", "D" };
+
+    addRowsByKeys(memstore, keys1);
+    assertEquals(496, regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    compactAndWait();
+    assertEquals(0, memstore.getSnapshot().getCellsCount());
+    assertEquals(376 - 3 * cellSizeSaving, regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    addRowsByKeys(memstore, keys2);
+    assertEquals(752 - 3 * cellSizeSaving,
+        regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    compactAndWait();
+    assertEquals(0, memstore.getSnapshot().getCellsCount());
+    assertEquals(496 - 4 * cellSizeSaving, regionServicesForStores.getGlobalMemstoreTotalSize());
+    assertFlatPipeline(4);
+
+    long size = memstore.getFlushableSize();
+    MemStoreSnapshot snapshot = memstore.snapshot(); // push keys to snapshot
+    region.addAndGetGlobalMemstoreSize(-size);  // simulate flusher
+    ImmutableSegment s = memstore.getSnapshot();
+    assertEquals(4, s.getCellsCount());
+    assertEquals(0, regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    memstore.clearSnapshot(snapshot.getId());
+  }
+
+  @Override
+  @Test
+  public void testCompaction3Buckets() throws IOException {
+    String[] keys1 = { "A", "A", "B", "C" };
+    String[] keys2 = { "A", "B", "D" };
+    String[] keys3 = { "D", "B", "B" };
+
+    addRowsByKeys(memstore, keys1);
+    assertEquals(496, region.getMemstoreSize());
+
+    compactAndWait();
+    assertEquals(0, memstore.getSnapshot().getCellsCount());
+    assertEquals(376 - 3 * cellSizeSaving, regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    addRowsByKeys(memstore, keys2);
+    assertEquals(752 - 3 * cellSizeSaving,
+        regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    ((CompactingMemStore)memstore).disableCompaction();
+    ((CompactingMemStore)memstore).flushInMemory(); // push keys to pipeline without compaction
+    assertEquals(0, memstore.getSnapshot().getCellsCount());
+    assertEquals(752 - 3 * cellSizeSaving,
+        regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    addRowsByKeys(memstore, keys3);
+    assertEquals(1128 - 3 * cellSizeSaving,
+        regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    ((CompactingMemStore)memstore).enableCompaction();
+    compactAndWait();
+    assertEquals(0, memstore.getSnapshot().getCellsCount());
+    assertEquals(496 - 4 * cellSizeSaving, regionServicesForStores.getGlobalMemstoreTotalSize());
+    assertFlatPipeline(4);
+
+    long size = memstore.getFlushableSize();
+    MemStoreSnapshot snapshot = memstore.snapshot(); // push keys to snapshot
+    region.addAndGetGlobalMemstoreSize(-size);  // simulate flusher
+    ImmutableSegment s = memstore.getSnapshot();
+    assertEquals(4, s.getCellsCount());
+    assertEquals(0, regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    memstore.clearSnapshot(snapshot.getId());
+  }
+
+  @Test
+  public void testMerging() throws IOException {
+    String[] keys1 = { "A", "B", "C" };
+    String[] keys2 = { "D", "E" };
+    String[] keys3 = { "A", "A", "A", "B", "B", "B" };
+
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(CompactingMemStore.COMPACTING_MEMSTORE_INDEX_KEY,
+        ImmutableSegment.Type.ARRAY_MAP_BASED.name());
+    conf.setFloat(CompactingMemStore.COMPACTING_MEMSTORE_MERGE_THRESHOLD_KEY, 0.5f);
+    this.memstore = new CompactingMemStore(conf, CellComparator.COMPARATOR, store,
+        regionServicesForStores);
+
+    addRowsByKeys(memstore, keys1);
+    assertEquals(376, regionServicesForStores.getGlobalMemstoreTotalSize());
+    compactAndWait();
+    assertFlatPipeline(3);
+    assertEquals(376 - 3 * cellSizeSaving, regionServicesForStores.getGlobalMemstoreTotalSize());
+
+    // no duplicates, the segments are merged and their chunks are kept
+    int poolSize = chunkPool.getPoolSize();
+    addRowsByKeys(memstore, keys2);
+    long sizeBeforeMerge = regionServicesForStores.getGlobalMemstoreTotalSize();
+    compactAndWait();
+    assertFlatPipeline(5);
+    assertEquals(poolSize, chunkPool.getPoolSize());
+    assertTrue(regionServicesForStores.getGlobalMemstoreTotalSize() < sizeBeforeMerge);
+    ImmutableSegment merged = (ImmutableSegment) memstore.getSegments().get(1);
+    assertTrue(merged.getMemStoreLAB() instanceof ImmutableMemStoreLAB);
+    int i = 0;
+    long expectedSize = CompactingMemStore.DEEP_OVERHEAD_PER_PIPELINE_ITEM;
+    String[] expectedRows = { "A", "B", "C", "D", "E" };
+    for (Cell c : merged.getCellSet()) {
+      assertEquals(expectedRows[i], Bytes.toString(CellUtil.cloneRow(c)));
+      expectedSize += ImmutableSegment.heapSizeChangeForArrayEntry(c);
+      i++;
+    }
+    assertEquals(expectedSize, merged.getSize());
+
+    // too many versions, the segments are compacted
+    addRowsByKeys(memstore, keys3);
+    compactAndWait();
+    assertFlatPipeline(5);
+    assertFalse(memstore.getSegments().get(1).getMemStoreLAB() instanceof ImmutableMemStoreLAB);
+
+    long size = memstore.getFlushableSize();
+    MemStoreSnapshot snapshot = memstore.snapshot(); // push keys to snapshot
+    region.addAndGetGlobalMemstoreSize(-size);  // simulate flusher
+    assertEquals(5, memstore.getSnapshot().getCellsCount());
+    assertEquals(0, regionServicesForStores.getGlobalMemstoreTotalSize());
+    memstore.clearSnapshot(snapshot.getId());
+  }
+
+  @Test
+  public void testAdaptivePolicy() throws IOException {
+    String[] keys1 = { "A", "B", "C" };
+    String[] keys2 = { "D", "E" };
+    String[] keys3 = { "A", "A", "A", "B", "B", "B" };
+
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(CompactingMemStore.COMPACTING_MEMSTORE_INDEX_KEY,
+        ImmutableSegment.Type.ARRAY_MAP_BASED.name());
+    conf.set(CompactingMemStore.COMPACTING_MEMSTORE_POLICY_KEY,
+        MemStoreCompactor.Policy.ADAPTIVE.name());
+    this.memstore = new CompactingMemStore(conf, CellComparator.COMPARATOR, store,
+        regionServicesForStores);
+
+    // a single segment without duplicates is left as it is
+    addRowsByKeys(memstore, keys1);
+    compactAndWait();
+    List<Segment> segments = memstore.getSegments();
+    assertEquals(3, segments.size());
+    ImmutableSegment pipelined = (ImmutableSegment) segments.get(1);
+    assertEquals(ImmutableSegment.Type.SKIPLIST_MAP_BASED, pipelined.getType());
+    assertEquals(3, pipelined.getColumnSketch().getCount());
+
+    // no duplicates across the segments either, they are merged
+    addRowsByKeys(memstore, keys2);
+    compactAndWait();
+    assertFlatPipeline(5);
+    ImmutableSegment merged = (ImmutableSegment) memstore.getSegments().get(1);
+    assertTrue(merged.getMemStoreLAB() instanceof ImmutableMemStoreLAB);
+    assertEquals(5, merged.getColumnSketch().getCount());
+
+    // too many versions, the segments are compacted
+    addRowsByKeys(memstore, keys3);
+    compactAndWait();
+    assertFlatPipeline(5);
+    ImmutableSegment compacted = (ImmutableSegment) memstore.getSegments().get(1);
+    assertFalse(compacted.getMemStoreLAB() instanceof ImmutableMemStoreLAB);
+    assertEquals(5, compacted.getColumnSketch().getCount());
+
+    long size = memstore.getFlushableSize();
+    MemStoreSnapshot snapshot = memstore.snapshot(); // push keys to snapshot
+    region.addAndGetGlobalMemstoreSize(-size);  // simulate flusher
+    assertEquals(5, memstore.getSnapshot().getCellsCount());
+    assertEquals(0, regionServicesForStores.getGlobalMemstoreTotalSize());
+    memstore.clearSnapshot(snapshot.getId());
+  }
+
+  private void compactAndWait() throws IOException {
+    ((CompactingMemStore)memstore).flushInMemory(); // push keys to pipeline and compact
+    while (((CompactingMemStore)memstore).isMemStoreFlushingInMemory()) {
+      Threads.sleep(10);
+    }
+  }
+
+  private void assertFlatPipeline(int expectedCells) throws IOException {
+    // active, single compacted pipeline segment, snapshot
+    List<Segment> segments = memstore.getSegments();
+    assertEquals(3, segments.size());
+    ImmutableSegment compacted = (ImmutableSegment) segments.get(1);
+    assertEquals(ImmutableSegment.Type.ARRAY_MAP_BASED, compacted.getType());
+    assertEquals(expectedCells, compacted.getCellsCount());
+  }
+}
@@ -165,6 +165,47 @@ public class TestCompoundBloomFilter {
     }
   }
 
+  @Test
+  public void testBlockedCompoundBloomFilter() throws IOException {
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_BLOCKED, true);
+    try {
+      // Tests with Bloom chunks of several blocks
+      for (int t : new int[] { 2, 4 }) {
+        conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE,
+            (float) TARGET_ERROR_RATES[t]);
+        testIdMsg = "in blocked test #" + t + ":";
+        List<KeyValue> kvs = createSortedKeyValues(new Random(GENERATION_SEED), NUM_KV[t]);
+        BloomType bt = BLOOM_TYPES[t];
+        Path sfPath = writeStoreFile(t, bt, kvs);
+
+        StoreFile sf = new StoreFile(fs, sfPath, conf, cacheConf, bt);
+        StoreFileReader r = sf.createReader();
+        StoreFileScanner scanner = r.getStoreFileScanner(true, true);
+        assertTrue(r.getGeneralBloomFilter().toString().contains("Blocked: true"));
+        for (KeyValue kv : kvs) {
+          assertTrue(testIdMsg + " Bloom filter false negative",
+              isInBloom(scanner, CellUtil.cloneRow(kv), CellUtil.cloneQualifier(kv)));
+        }
+        int numFalsePos = 0;
+        Random rand = new Random(EVALUATION_SEED);
+        int nTrials = NUM_KV[t] * 10;
+        for (int i = 0; i < nTrials; ++i) {
+          if (isInBloom(scanner, RandomKeyValueUtil.randomRowOrQualifier(rand), bt, rand)) {
+            numFalsePos += 1;
+          }
+        }
+        // Blocking costs a little accuracy, so only check the rate is in the right range
+        double falsePosRate = numFalsePos * 1.0 / nTrials;
+        assertTrue(testIdMsg + " false positive rate is too high: " + falsePosRate,
+            falsePosRate < 2 * TARGET_ERROR_RATES[t]);
+        r.close(true);
+      }
+    } finally {
+      conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_BLOCKED, false);
+    }
+  }
+
   /**
    * Validates the false positive ratio by computing its z-value and comparing
    * it to the provided threshold.
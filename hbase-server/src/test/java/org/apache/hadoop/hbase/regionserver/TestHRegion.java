@@ -172,6 +172,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -1680,6 +1681,211 @@ public class TestHRegion {
     }
   }
 
+  @Test
+  public void testBatchPutWithGroupCommit() throws Exception {
+    final byte[] cf = Bytes.toBytes(COLUMN_FAMILY);
+    final byte[] qual = Bytes.toBytes("qual");
+    final int writers = 10;
+    final int batchesPerWriter = 50;
+    final int putsPerBatch = 5;
+    Configuration conf = new Configuration(CONF);
+    conf.setBoolean(HRegion.GROUP_COMMIT_ENABLED_KEY, true);
+    this.region = initHRegion(TableName.valueOf(getName()), getName(), conf, cf);
+    ExecutorService executor = Executors.newFixedThreadPool(writers);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int w = 0; w < writers; w++) {
+        final int writer = w;
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            for (int b = 0; b < batchesPerWriter; b++) {
+              Put[] puts = new Put[putsPerBatch];
+              for (int i = 0; i < putsPerBatch; i++) {
+                // half of the rows are written by every writer
+                String row = (i % 2 == 0) ? "shared_" + b + "_" + i
+                    : "row_" + writer + "_" + b + "_" + i;
+                puts[i] = new Put(Bytes.toBytes(row));
+                puts[i].addColumn(cf, qual, Bytes.toBytes(writer));
+              }
+              OperationStatus[] codes = region.batchMutate(puts);
+              for (OperationStatus code : codes) {
+                if (code.getOperationStatusCode() != OperationStatusCode.SUCCESS) {
+                  return false;
+                }
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+      // every write is visible
+      assertEquals(region.getMVCC().getWritePoint(), region.getMVCC().getReadPoint());
+      for (int w = 0; w < writers; w++) {
+        for (int b = 0; b < batchesPerWriter; b++) {
+          for (int i = 1; i < putsPerBatch; i += 2) {
+            Result r = region.get(new Get(Bytes.toBytes("row_" + w + "_" + b + "_" + i)));
+            assertArrayEquals(Bytes.toBytes(w), r.getValue(cf, qual));
+          }
+          Result r = region.get(new Get(Bytes.toBytes("shared_" + b + "_0")));
+          assertNotNull(r.getValue(cf, qual));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      HBaseTestingUtility.closeRegionAndWAL(this.region);
+      this.region = null;
+    }
+  }
+
+  @Test
+  public void testParallelStoreFlush() throws Exception {
+    byte[][] families = new byte[][] { Bytes.toBytes("cf1"), Bytes.toBytes("cf2"),
+        Bytes.toBytes("cf3"), Bytes.toBytes("cf4") };
+    byte[] qual = Bytes.toBytes("qual");
+    Configuration conf = new Configuration(CONF);
+    conf.setInt(HRegion.STORE_FLUSH_THREADS_KEY, 3);
+    this.region = initHRegion(TableName.valueOf(getName()), getName(), conf, families);
+    try {
+      for (int i = 0; i < 100; i++) {
+        Put put = new Put(Bytes.toBytes("row_" + i));
+        for (byte[] family : families) {
+          put.addColumn(family, qual, Bytes.add(family, Bytes.toBytes(i)));
+        }
+        region.put(put);
+      }
+      assertTrue(region.flush(true).isFlushSucceeded());
+      assertEquals(0, region.getMemstoreSize());
+      for (byte[] family : families) {
+        Store store = region.getStore(family);
+        assertEquals(1, store.getStorefilesCount());
+      }
+      for (int i = 0; i < 100; i++) {
+        Result r = region.get(new Get(Bytes.toBytes("row_" + i)));
+        for (byte[] family : families) {
+          assertArrayEquals(Bytes.add(family, Bytes.toBytes(i)), r.getValue(family, qual));
+        }
+      }
+    } finally {
+      HBaseTestingUtility.closeRegionAndWAL(this.region);
+      this.region = null;
+    }
+  }
+
+  @Test
+  public void testParallelStoreFlushRejected() throws Exception {
+    byte[][] families = new byte[][] { Bytes.toBytes("cf1"), Bytes.toBytes("cf2"),
+        Bytes.toBytes("cf3") };
+    byte[] qual = Bytes.toBytes("qual");
+    Configuration conf = new Configuration(CONF);
+    conf.setInt(HRegion.STORE_FLUSH_THREADS_KEY, 3);
+    this.region = initHRegion(TableName.valueOf(getName()), getName(), conf, families);
+    try {
+      // a pool shut down, as when the region server stops, rejects the flushes
+      region.getStoreFlushPool().shutdown();
+      for (int i = 0; i < 100; i++) {
+        Put put = new Put(Bytes.toBytes("row_" + i));
+        for (byte[] family : families) {
+          put.addColumn(family, qual, Bytes.add(family, Bytes.toBytes(i)));
+        }
+        region.put(put);
+      }
+      // the stores are flushed in the calling thread instead
+      assertTrue(region.flush(true).isFlushSucceeded());
+      assertEquals(0, region.getMemstoreSize());
+      for (byte[] family : families) {
+        assertEquals(1, region.getStore(family).getStorefilesCount());
+      }
+      for (int i = 0; i < 100; i++) {
+        Result r = region.get(new Get(Bytes.toBytes("row_" + i)));
+        for (byte[] family : families) {
+          assertArrayEquals(Bytes.add(family, Bytes.toBytes(i)), r.getValue(family, qual));
+        }
+      }
+    } finally {
+      HBaseTestingUtility.closeRegionAndWAL(this.region);
+      this.region = null;
+    }
+  }
+
+  @Test
+  public void testStripedRowLocks() throws Exception {
+    final byte[] cf = Bytes.toBytes(COLUMN_FAMILY);
+    final byte[] row1 = Bytes.toBytes("row_1");
+    final byte[] row2 = Bytes.toBytes("row_2");
+    final byte[] row3 = Bytes.toBytes("row_3");
+    Configuration conf = new Configuration(CONF);
+    // all the rows share the same stripe
+    conf.setInt(HRegion.ROW_LOCK_STRIPES_KEY, 1);
+    conf.setInt("hbase.rowlock.wait.duration", 100);
+    this.region = initHRegion(TableName.valueOf(getName()), getName(), conf, cf);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      RowLock lock1 = region.getRowLock(row1, false);
+      RowLock lock2 = region.getRowLock(row2, false);
+      RowLock lock3 = region.getRowLock(row3, true);
+      assertEquals(3, region.getLockedRows().size());
+
+      // another thread can share the read lock, but not get the write locks
+      assertTrue(tryRowLock(executor, row3, true));
+      assertFalse(tryRowLock(executor, row1, false));
+      assertFalse(tryRowLock(executor, row1, true));
+      assertFalse(tryRowLock(executor, row2, true));
+      assertFalse(tryRowLock(executor, row3, false));
+      assertEquals(3, region.getLockedRows().size());
+
+      // the rows are unlocked independently
+      lock1.release();
+      assertEquals(2, region.getLockedRows().size());
+      assertTrue(tryRowLock(executor, row1, false));
+      assertFalse(tryRowLock(executor, row2, false));
+      lock2.release();
+      lock3.release();
+      assertEquals(0, region.getLockedRows().size());
+      assertTrue(tryRowLock(executor, row2, false));
+      assertTrue(tryRowLock(executor, row3, false));
+      assertEquals(0, region.getLockedRows().size());
+
+      // a late release of a lock does not unlock the row the reused context is now bound to
+      RowLock lock4 = region.getRowLock(row3, true);
+      RowLock lock5 = region.getRowLock(row3, true);
+      assertNotSame(lock4, lock5);
+      lock4.release();
+      lock5.release();
+      RowLock lock6 = region.getRowLock(row2, false);
+      lock4.release();
+      assertEquals(1, region.getLockedRows().size());
+      assertFalse(tryRowLock(executor, row2, false));
+      lock6.release();
+      assertEquals(0, region.getLockedRows().size());
+    } finally {
+      executor.shutdownNow();
+      HBaseTestingUtility.closeRegionAndWAL(this.region);
+      this.region = null;
+    }
+  }
+
+  /**
+   * @return whether the given row lock could be acquired from another thread, which releases it
+   */
+  private boolean tryRowLock(ExecutorService executor, final byte[] row, final boolean readLock)
+      throws Exception {
+    return executor.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        try {
+          region.getRowLock(row, readLock).release();
+          return true;
+        } catch (IOException e) {
+          return false;
+        }
+      }
+    }).get();
+  }
+
   @Test
   public void testBatchPutWithTsSlop() throws Exception {
     TableName b = TableName.valueOf(getName());
@@ -553,6 +553,12 @@ public class TestHeapMemoryManager {
 
     }
 
+    @Override
+    public void cacheBlockAhead(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+        boolean cacheDataInL1) {
+
+    }
+
     @Override
     public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat,
         boolean updateCacheMetrics) {
@@ -620,6 +626,10 @@ public class TestHeapMemoryManager {
     public void returnBlock(BlockCacheKey cacheKey, Cacheable buf) {
     }
 
+    @Override
+    public void readAhead(BlockCacheKey cacheKey) {
+    }
+
     public void setTestBlockSize(long testBlockSize) {
       this.testBlockSize = testBlockSize;
     }
@@ -33,6 +33,8 @@ import org.junit.experimental.categories.Category;
 import java.io.IOException;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -196,4 +198,30 @@ public class TestMemStoreChunkPool {
     assertTrue(chunkPool.getPoolSize() > 0);
   }
 
+  @Test
+  public void testOffheapChunks() {
+    int chunkSize = 1024;
+    MemStoreChunkPool offheapPool = new MemStoreChunkPool(conf, chunkSize, 1, 0, true);
+    assertTrue(offheapPool.isOffheap());
+    assertEquals(0, offheapPool.getOffheapUsedSize());
+
+    HeapMemStoreLAB.Chunk c1 = offheapPool.getChunk();
+    c1.init();
+    assertTrue(c1.isOffheap());
+    assertTrue(c1.getData().isDirect());
+    HeapMemStoreLAB.Chunk c2 = offheapPool.getChunk();
+    assertEquals(2 * chunkSize, offheapPool.getOffheapUsedSize());
+
+    // only one chunk is kept by the pool, but both are released
+    BlockingQueue<HeapMemStoreLAB.Chunk> chunks = new LinkedBlockingQueue<HeapMemStoreLAB.Chunk>();
+    chunks.add(c1);
+    chunks.add(c2);
+    offheapPool.putbackChunks(chunks);
+    assertEquals(0, offheapPool.getOffheapUsedSize());
+    assertEquals(1, offheapPool.getPoolSize());
+
+    // the pooled chunk is reused
+    assertTrue(c1 == offheapPool.getChunk());
+    assertEquals(chunkSize, offheapPool.getOffheapUsedSize());
+  }
 }
@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.regionserver;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -27,12 +28,20 @@ import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ArrayBackedTag;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.MultithreadedTestUtil;
 import org.apache.hadoop.hbase.MultithreadedTestUtil.TestThread;
+import org.apache.hadoop.hbase.OffheapKeyValue;
+import org.apache.hadoop.hbase.Tag;
 import org.apache.hadoop.hbase.testclassification.RegionServerTests;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
 import org.apache.hadoop.hbase.util.ByteRange;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 
 import com.google.common.collect.Iterables;
@@ -153,6 +162,58 @@ public class TestMemStoreLAB {
 
   }
 
+  /**
+   * Test that cells copied into off heap chunks are read back as OffheapKeyValues
+   */
+  @Test
+  public void testCopyCellIntoOffheapChunk() {
+    byte[] row = Bytes.toBytes("row");
+    byte[] fam = Bytes.toBytes("fam");
+    byte[] qf = Bytes.toBytes("qf");
+    byte[] val = Bytes.toBytes("val");
+    KeyValue kv = new KeyValue(row, fam, qf, 1L, val);
+    kv.setSequenceId(5);
+    KeyValue kvWithTags = new KeyValue(row, fam, qf, 2L, val,
+        new Tag[] { new ArrayBackedTag((byte) 1, Bytes.toBytes("tag")) });
+    kvWithTags.setSequenceId(6);
+
+    ByteBuffer data = ByteBuffer.allocateDirect(1024);
+    int offset = 0;
+    for (KeyValue original : new KeyValue[] { kv, kvWithTags }) {
+      int len = KeyValueUtil.length(original);
+      Cell copy = HeapMemStoreLAB.copyToChunkCell(original, data, offset, len);
+      assertTrue(copy instanceof OffheapKeyValue);
+      assertTrue(CellUtil.equals(original, copy));
+      assertTrue(CellUtil.matchingValue(original, copy));
+      assertEquals(original.getTagsLength(), copy.getTagsLength());
+      assertEquals(original.getSequenceId(), copy.getSequenceId());
+      offset += len;
+    }
+    assertEquals(0, data.position());
+
+    // on heap chunks hold KeyValues
+    Cell copy = HeapMemStoreLAB.copyToChunkCell(kv, ByteBuffer.allocate(1024), 10,
+        KeyValueUtil.length(kv));
+    assertTrue(copy instanceof KeyValue);
+    assertTrue(CellUtil.equals(kv, copy));
+  }
+
+  /**
+   * Test that the chunks of a MemStoreLAB can only be resolved by id until it is closed and no
+   * scanner reads them any more
+   */
+  @Test
+  public void testChunksForgottenOnClose() {
+    HeapMemStoreLAB mslab = new HeapMemStoreLAB();
+    int chunkId = (int) (mslab.allocateChunkSlice(10) >>> 32);
+    assertNotNull(mslab.getChunk(chunkId));
+    mslab.incScannerCount();
+    mslab.close();
+    assertNotNull(mslab.getChunk(chunkId));
+    mslab.decScannerCount();
+    assertNull(mslab.getChunk(chunkId));
+  }
+
   /**
    * Test frequent chunk retirement with chunk pool triggered by lots of threads, making sure
    * there's no memory leak (HBASE-16195)
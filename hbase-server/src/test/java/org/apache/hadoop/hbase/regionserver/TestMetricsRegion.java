@@ -87,4 +87,22 @@ public class TestMetricsRegion {
       1, agg);
     mr.close();
   }
+
+  @Test
+  public void testStoreFlushTimeMetrics() {
+    MetricsRegion mr = new MetricsRegion(new MetricsRegionWrapperStub());
+    MetricsRegionAggregateSource agg = mr.getSource().getAggregateSource();
+    mr.updateStoreFlushTime("cf1", 10);
+    mr.updateStoreFlushTime("cf1", 20);
+    mr.updateStoreFlushTime("cf2", 30);
+    HELPER.assertCounter(
+      "namespace_TestNS_table_MetricsRegionWrapperStub_region_DEADBEEF001_metric_" +
+        "store_cf1_flushTime_num_ops",
+      2, agg);
+    HELPER.assertCounter(
+      "namespace_TestNS_table_MetricsRegionWrapperStub_region_DEADBEEF001_metric_" +
+        "store_cf2_flushTime_num_ops",
+      1, agg);
+    mr.close();
+  }
 }
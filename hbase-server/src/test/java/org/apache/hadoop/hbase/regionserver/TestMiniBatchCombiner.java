@@ -0,0 +1,197 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestMiniBatchCombiner {
+
+  /**
+   * Records the groups it commits. The first commit blocks until released, so that the batches
+   * submitted meanwhile pile up.
+   */
+  private static class BlockingCommitter implements MiniBatchCombiner.GroupCommitter {
+    final List<List<MiniBatchCombiner.PendingBatch>> groups =
+        new CopyOnWriteArrayList<List<MiniBatchCombiner.PendingBatch>>();
+    final CountDownLatch firstCommitStarted = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile IOException failure;
+
+    @Override
+    public void commit(List<MiniBatchCombiner.PendingBatch> group) throws IOException {
+      groups.add(group);
+      if (groups.size() == 1) {
+        firstCommitStarted.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      for (MiniBatchCombiner.PendingBatch batch : group) {
+        batch.incAddedSize(1);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  private static MiniBatchCombiner.PendingBatch newBatch(List<UUID> clusterIds) {
+    return new MiniBatchCombiner.PendingBatch(new WALEdit(),
+        Collections.<Map<byte[], List<Cell>>>emptyList(), clusterIds, Durability.USE_DEFAULT);
+  }
+
+  private static Future<?> submit(ExecutorService executor, final MiniBatchCombiner combiner,
+      final MiniBatchCombiner.PendingBatch batch) {
+    return executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        combiner.commit(batch);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Waits for the given number of batches to be pending behind the blocked commit
+   */
+  private static void waitForPending(MiniBatchCombiner combiner, int expected)
+      throws InterruptedException {
+    while (combiner.getPendingCount() < expected) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testSingleBatchIsCommittedRightAway() throws IOException {
+    BlockingCommitter committer = new BlockingCommitter();
+    committer.release.countDown();
+    MiniBatchCombiner combiner = new MiniBatchCombiner(committer, 64);
+    MiniBatchCombiner.PendingBatch batch = newBatch(Collections.<UUID>emptyList());
+    combiner.commit(batch);
+    assertEquals(1, committer.groups.size());
+    assertEquals(1, batch.getAddedSize());
+  }
+
+  @Test
+  public void testConcurrentBatchesAreCombined() throws Exception {
+    BlockingCommitter committer = new BlockingCommitter();
+    MiniBatchCombiner combiner = new MiniBatchCombiner(committer, 3);
+    List<UUID> otherCluster = Collections.singletonList(UUID.randomUUID());
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      List<MiniBatchCombiner.PendingBatch> batches =
+          new ArrayList<MiniBatchCombiner.PendingBatch>();
+      MiniBatchCombiner.PendingBatch first = newBatch(Collections.<UUID>emptyList());
+      batches.add(first);
+      futures.add(submit(executor, combiner, first));
+      assertTrue(committer.firstCommitStarted.await(10, TimeUnit.SECONDS));
+      // four local batches and one replicated from another cluster wait for the first commit
+      for (int i = 0; i < 5; i++) {
+        MiniBatchCombiner.PendingBatch batch =
+            newBatch(i == 1 ? otherCluster : Collections.<UUID>emptyList());
+        batches.add(batch);
+        futures.add(submit(executor, combiner, batch));
+        waitForPending(combiner, i + 1);
+      }
+      committer.release.countDown();
+      for (Future<?> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+      for (MiniBatchCombiner.PendingBatch batch : batches) {
+        assertEquals(1, batch.getAddedSize());
+      }
+      // the first batch alone, then up to 3 local batches, then the rest
+      assertEquals(4, committer.groups.size());
+      assertEquals(1, committer.groups.get(0).size());
+      assertEquals(3, committer.groups.get(1).size());
+      assertEquals(batches.get(1), committer.groups.get(1).get(0));
+      assertEquals(batches.get(3), committer.groups.get(1).get(1));
+      assertEquals(batches.get(4), committer.groups.get(1).get(2));
+      assertEquals(Collections.singletonList(batches.get(2)), committer.groups.get(2));
+      assertEquals(Collections.singletonList(batches.get(5)), committer.groups.get(3));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFailureIsReportedToTheWholeGroup() throws Exception {
+    BlockingCommitter committer = new BlockingCommitter();
+    MiniBatchCombiner combiner = new MiniBatchCombiner(committer, 64);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      futures.add(submit(executor, combiner, newBatch(Collections.<UUID>emptyList())));
+      assertTrue(committer.firstCommitStarted.await(10, TimeUnit.SECONDS));
+      for (int i = 0; i < 3; i++) {
+        futures.add(submit(executor, combiner, newBatch(Collections.<UUID>emptyList())));
+      }
+      waitForPending(combiner, 3);
+      committer.failure = new IOException("injected");
+      committer.release.countDown();
+      for (Future<?> future : futures) {
+        try {
+          future.get(10, TimeUnit.SECONDS);
+          fail("The commit should have failed");
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof IOException);
+        }
+      }
+      assertEquals(2, committer.groups.size());
+      assertEquals(3, committer.groups.get(1).size());
+      // the combiner is still usable after a failure
+      committer.failure = null;
+      MiniBatchCombiner.PendingBatch batch = newBatch(Collections.<UUID>emptyList());
+      combiner.commit(batch);
+      assertEquals(3, committer.groups.size());
+      assertEquals(1, batch.getAddedSize());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -18,6 +18,8 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.apache.hadoop.hbase.testclassification.RegionServerTests;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
@@ -42,4 +44,38 @@ public class TestMultiVersionConcurrencyControlBasic {
     mvcc.complete(writeEntry);
     assertEquals(readPoint + 2, mvcc.getWritePoint());
   }
+
+  @Test
+  public void testOutOfOrderCompletion() {
+    MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+    long readPoint = mvcc.getReadPoint();
+    MultiVersionConcurrencyControl.WriteEntry first = mvcc.begin();
+    MultiVersionConcurrencyControl.WriteEntry second = mvcc.begin();
+    MultiVersionConcurrencyControl.WriteEntry third = mvcc.begin();
+    // the later writes are not visible until the first one completes
+    assertFalse(mvcc.complete(third));
+    assertFalse(mvcc.complete(second));
+    assertEquals(readPoint, mvcc.getReadPoint());
+    assertTrue(mvcc.complete(first));
+    assertEquals(readPoint + 3, mvcc.getReadPoint());
+    // completing twice is harmless
+    assertTrue(mvcc.complete(second));
+    mvcc.completeAndWait(mvcc.begin());
+    assertEquals(readPoint + 4, mvcc.getReadPoint());
+  }
+
+  @Test
+  public void testAdvanceTo() {
+    MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+    mvcc.advanceTo(100);
+    assertEquals(100, mvcc.getReadPoint());
+    assertEquals(100, mvcc.getWritePoint());
+    // never moves backwards
+    mvcc.advanceTo(50);
+    assertEquals(100, mvcc.getReadPoint());
+    MultiVersionConcurrencyControl.WriteEntry writeEntry = mvcc.begin();
+    assertEquals(101, writeEntry.getWriteNumber());
+    assertTrue(mvcc.complete(writeEntry));
+    assertEquals(101, mvcc.getReadPoint());
+  }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.hfile.BlockCache;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock;
+import org.apache.hadoop.hbase.io.hfile.PrefetchExecutor;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests handing the cached blocks of a region over to the server it moves to.
+ */
+@Category({RegionServerTests.class, MediumTests.class})
+public class TestRegionCacheWarmer {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int ROWS = 200;
+
+  private HRegion region;
+  private BlockCache blockCache;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = TEST_UTIL.getConfiguration();
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("TestRegionCacheWarmer"));
+    htd.addFamily(new HColumnDescriptor(FAMILY).setBlocksize(1024));
+    HRegionInfo info = new HRegionInfo(htd.getTableName(), null, null, false);
+    Path path = TEST_UTIL.getDataTestDir("TestRegionCacheWarmer");
+    region = HBaseTestingUtility.createRegionAndWAL(info, path, conf, htd);
+    blockCache = new CacheConfig(conf).getBlockCache();
+    for (int i = 0; i < ROWS; i++) {
+      Put put = new Put(Bytes.toBytes(String.format("row%04d", i)));
+      put.setDurability(Durability.SKIP_WAL);
+      put.addColumn(FAMILY, FAMILY, Bytes.toBytes("value" + i));
+      region.put(put);
+    }
+    region.flush(true);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HBaseTestingUtility.closeRegionAndWAL(region);
+  }
+
+  private Set<Long> getCachedOffsets(StoreFile sf) {
+    Set<Long> offsets = new TreeSet<Long>();
+    for (CachedBlock cb : blockCache) {
+      if (cb.getFilename().equals(sf.getPath().getName())) {
+        offsets.add(cb.getOffset());
+      }
+    }
+    return offsets;
+  }
+
+  @Test
+  public void testWarmUp() throws Exception {
+    StoreFile sf = region.getStore(FAMILY).getStorefiles().iterator().next();
+    blockCache.evictBlocksByHfileName(sf.getPath().getName());
+    for (int i = 0; i < ROWS; i += 20) {
+      region.get(new Get(Bytes.toBytes(String.format("row%04d", i))));
+    }
+    Set<Long> cached = getCachedOffsets(sf);
+    assertFalse(cached.isEmpty());
+
+    assertEquals(cached.size(), RegionCacheWarmer.exportCachedBlocks(region));
+    Path list = new Path(region.getRegionFileSystem().getRegionDir(),
+        HRegionFileSystem.CACHED_BLOCKS_FILE);
+    assertTrue(region.getRegionFileSystem().getFileSystem().exists(list));
+
+    // as seen from the server the region moves to
+    blockCache.evictBlocksByHfileName(sf.getPath().getName());
+    assertTrue(getCachedOffsets(sf).isEmpty());
+    MetricsRegionWrapperImpl wrapper = new MetricsRegionWrapperImpl(region);
+    try {
+      assertEquals(100, wrapper.getCacheWarmupPercent());
+      assertEquals(cached.size(), RegionCacheWarmer.warmUp(region));
+      // the list is read once
+      assertFalse(region.getRegionFileSystem().getFileSystem().exists(list));
+      assertNull(region.getRegionFileSystem().readCachedBlocks());
+      while (!PrefetchExecutor.isCompleted(sf.getPath())) {
+        Thread.sleep(100);
+      }
+      assertEquals(100, wrapper.getCacheWarmupPercent());
+      assertEquals(cached, getCachedOffsets(sf));
+    } finally {
+      wrapper.close();
+    }
+  }
+}
@@ -57,6 +57,7 @@ import org.apache.hadoop.hbase.io.hfile.HFileScanner;
 import org.apache.hadoop.hbase.testclassification.RegionServerTests;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
 import org.apache.hadoop.hbase.util.BloomFilterFactory;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ChecksumType;
 import org.apache.hadoop.hbase.util.FSUtils;
@@ -554,6 +555,109 @@ public class TestStoreFile extends HBaseTestCase {
     bloomWriteRead(writer, fs);
   }
 
+  @Test
+  public void testRowPrefixBloomFilter() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE, (float) 0.01);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+    // Rows look like 0000000002|0000000003, their prefixes like 0000000002|
+    conf.setInt(BloomFilterUtil.PREFIX_LENGTH_KEY, 11);
+    conf.set(BloomFilterUtil.DELIMITER_KEY, "|");
+
+    Store store = mock(Store.class);
+    HColumnDescriptor hcd = mock(HColumnDescriptor.class);
+    when(hcd.getName()).thenReturn(Bytes.toBytes("family"));
+    when(store.getFamily()).thenReturn(hcd);
+
+    BloomType[] bloomTypes = { BloomType.ROWPREFIX_FIXED_LENGTH, BloomType.ROWPREFIX_DELIMITED };
+    for (BloomType bloomType : bloomTypes) {
+      Path f = new Path(ROOT_DIR, getName() + bloomType);
+      HFileContext meta = new HFileContextBuilder().withBlockSize(BLOCKSIZE_SMALL)
+          .withChecksumType(CKTYPE)
+          .withBytesPerCheckSum(CKBYTES).build();
+      StoreFileWriter writer = new StoreFileWriter.Builder(conf, cacheConf, this.fs)
+          .withFilePath(f)
+          .withBloomType(bloomType)
+          .withMaxKeyCount(1000)
+          .withFileContext(meta)
+          .build();
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < 2000; i += 2) {
+        for (int j = 0; j < 5; j++) {
+          String row = String.format(localFormatter + "|" + localFormatter, i, j);
+          writer.append(new KeyValue(row.getBytes(), "family".getBytes(), "col".getBytes(), now,
+              "value".getBytes()));
+        }
+      }
+      writer.close();
+
+      StoreFileReader reader = new StoreFileReader(fs, f, cacheConf, conf);
+      reader.loadFileInfo();
+      reader.loadBloomfilter();
+      assertEquals(bloomType, reader.getBloomFilterType());
+      assertEquals(1000, reader.getGeneralBloomFilter().getKeyCount());
+      StoreFileScanner scanner = reader.getStoreFileScanner(false, false);
+
+      int falsePos = 0;
+      int falseNeg = 0;
+      for (int i = 0; i < 2000; i++) {
+        String prefix = String.format(localFormatter + "|", i);
+        byte[] row = (prefix + String.format(localFormatter, 3)).getBytes();
+        Scan get = new Scan(row, row);
+        Scan prefixScan = new Scan().setRowPrefixFilter(prefix.getBytes());
+        Scan rangeScan = new Scan(row, (prefix + String.format(localFormatter, 4)).getBytes());
+        for (Scan scan : new Scan[] { get, prefixScan, rangeScan }) {
+          scan.addColumn("family".getBytes(), "col".getBytes());
+          boolean exists = scanner.shouldUseScanner(scan, store, Long.MIN_VALUE);
+          if (i % 2 == 0) {
+            if (!exists) falseNeg++;
+          } else {
+            if (exists) falsePos++;
+          }
+        }
+        // A scan across prefixes cannot use the Bloom filter
+        Scan crossScan = new Scan(row, String.format(localFormatter + "|", i + 1).getBytes());
+        crossScan.addColumn("family".getBytes(), "col".getBytes());
+        assertTrue(scanner.shouldUseScanner(crossScan, store, Long.MIN_VALUE));
+      }
+      reader.close(true);
+      fs.delete(f, true);
+      assertEquals("False negatives: " + falseNeg, 0, falseNeg);
+      assertTrue("Too many false positives: " + falsePos, falsePos <= 2 * 3 * 1000 * 0.01);
+    }
+  }
+
+  @Test
+  public void testRowPrefixBloomFilterWithoutParam() throws Exception {
+    Configuration conf = new Configuration(this.conf);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+    conf.unset(BloomFilterUtil.PREFIX_LENGTH_KEY);
+    conf.unset(BloomFilterUtil.DELIMITER_KEY);
+
+    Path f = new Path(ROOT_DIR, getName());
+    HFileContext meta = new HFileContextBuilder().withBlockSize(BLOCKSIZE_SMALL)
+        .withChecksumType(CKTYPE)
+        .withBytesPerCheckSum(CKBYTES).build();
+    // A missing parameter must not fail the flush or compaction writing the file
+    StoreFileWriter writer = new StoreFileWriter.Builder(conf, cacheConf, this.fs)
+        .withFilePath(f)
+        .withBloomType(BloomType.ROWPREFIX_FIXED_LENGTH)
+        .withMaxKeyCount(1000)
+        .withFileContext(meta)
+        .build();
+    writer.append(new KeyValue("row".getBytes(), "family".getBytes(), "col".getBytes(),
+        System.currentTimeMillis(), "value".getBytes()));
+    writer.close();
+
+    StoreFileReader reader = new StoreFileReader(fs, f, cacheConf, conf);
+    reader.loadFileInfo();
+    reader.loadBloomfilter();
+    assertEquals(BloomType.NONE, reader.getBloomFilterType());
+    assertNull(reader.getGeneralBloomFilter());
+    reader.close(true);
+    fs.delete(f, true);
+  }
+
   @Test
   public void testDeleteFamilyBloomFilter() throws Exception {
     FileSystem fs = FileSystem.getLocal(conf);
@@ -120,6 +120,36 @@ public class TestBloomFilterChunk extends TestCase {
     // test: foldFactor > log(max/actual)
   }
 
+  public void testBlockedBloomFold() throws Exception {
+    float err = (float) 0.01;
+    BloomFilterChunk b = BloomFilterUtil.createBlockedBySize(64 * 1024, err, 3);
+    b.allocBloom();
+    assertEquals(0, b.getByteSize() % (BloomFilterUtil.BLOOM_BLOCK_BYTES << 3));
+    int keys = (int) b.getMaxKeys() / 12;
+    for (int i = 0; i < keys; ++i) {
+      b.add(Bytes.toBytes(i));
+    }
+    long origSize = b.getByteSize();
+    b.compactBloom();
+    // Folded three times, keeping whole blocks
+    assertEquals(origSize >> 3, b.getByteSize());
+    assertEquals(0, b.getByteSize() % BloomFilterUtil.BLOOM_BLOCK_BYTES);
+
+    int falsePositives = 0;
+    for (int i = 0; i < 2 * keys; ++i) {
+      byte[] bytes = Bytes.toBytes(i);
+      if (BloomFilterUtil.containsBlocked(bytes, 0, bytes.length, new MultiByteBuff(b.bloom), 0,
+          (int) b.byteSize, b.hashCount)) {
+        if (i >= keys)
+          falsePositives++;
+      } else {
+        assertFalse(i < keys);
+      }
+    }
+    // Blocking costs a little accuracy
+    assertTrue("False positives: " + falsePositives, falsePositives <= keys * err * 2);
+  }
+
   public void testBloomPerf() throws Exception {
     // add
     float err = (float)0.01;